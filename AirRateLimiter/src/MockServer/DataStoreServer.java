@@ -0,0 +1,88 @@
+package MockServer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import RateLimiterService.DataStoreProtocol;
+import RateLimiterService.IDataStore;
+
+/***
+ * Stands in for a remote data store, such as a cache server, serving an
+ * injected IDataStore over TCP to RemoteDataStore clients, so rate limiters
+ * can hold their state out of process, and the cost of doing so can be
+ * measured, without any external service. Each connection is served on its
+ * own thread, one request at a time, until the client closes it.
+ */
+public class DataStoreServer implements Closeable {
+
+	final private IDataStore dataStore;
+
+	final private ServerSocket serverSocket;
+
+	/***
+	 * Serve the data store on the port, from a new thread.
+	 * @param dataStore
+	 * @param port 0 for any free port.
+	 * @throws IOException
+	 */
+	public DataStoreServer(IDataStore dataStore, int port) throws IOException {
+		this.dataStore = dataStore;
+		this.serverSocket = new ServerSocket(port);
+		Thread acceptor = new Thread(this::AcceptConnections);
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/***
+	 * @return The port the data store is served on.
+	 */
+	public int Port() {
+		return serverSocket.getLocalPort();
+	}
+
+	/***
+	 * Stop accepting connections; those already open are served until their
+	 * clients close them.
+	 */
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+	}
+
+	private void AcceptConnections() {
+		while(!serverSocket.isClosed()) {
+			try {
+				Socket connection = serverSocket.accept();
+				Thread handler = new Thread(() -> ServeConnection(connection));
+				handler.setDaemon(true);
+				handler.start();
+			} catch (IOException e) {
+				// Closed, or failed to accept the one connection
+			}
+		}
+	}
+
+	private void ServeConnection(Socket connection) {
+		try(Socket socket = connection) {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			while(true) {
+				DataStoreProtocol.Serve(dataStore, in, out);
+				out.flush();
+			}
+		} catch (EOFException e) {
+			// The client closed the connection
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
@@ -5,13 +5,17 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.PrintWriter;
+import java.net.InetAddress;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.StringTokenizer;
 
 import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.AdaptiveConcurrencyLimit;
 import RateLimiterService.RateLimitedIdentity;
+import RateLimiterService.RateLimitingBehaviour;
+import RateLimiterService.RouteRegistry;
 
 /***
  * The Server class designates on object to be injected with an instance of the
@@ -46,8 +50,39 @@ public class Server extends ServerBase {
 	 * the allocation and passing of instances of the services easier on the
 	 * constructors, a "ServiceCollection" class may be of value.
 	 */
-	final private AbstractRateLimiter rateLimiter;
+	final private AbstractRateLimiter<?> rateLimiter;
 	
+	/***
+	 * The route templates the server handles, to which requested resources
+	 * are normalised before rate limiting by end-point. While no routes are
+	 * registered, end-points are formed from the requested resource as is.
+	 */
+	final private RouteRegistry routes;
+	
+	/***
+	 * The nanoseconds spent handling a request, and the bytes written in
+	 * response to it, that each cost one attempt, with which the actual cost
+	 * of each admitted request is settled once it has been handled; 0 to not
+	 * charge for either, so requests cost what their route is registered as.
+	 */
+	private volatile long nanosPerAttempt = 0L;
+	
+	private volatile long bytesPerAttempt = 0L;
+
+	/***
+	 * The limit on how many requests are handled at once, across every
+	 * identity, adapted to how long handling them takes; null to handle as
+	 * many at once as are admitted.
+	 */
+	private volatile AdaptiveConcurrencyLimit concurrencyLimit = null;
+
+	/***
+	 * Whether IP attempts are rate limited straight from the socket's
+	 * address, on the rate limiter's GCRA fast path, rather than as an IP
+	 * identity held to the rate limiter's own algorithm.
+	 */
+	private volatile boolean limitIPsByAddress = false;
+
 	///////////////////////////////////////////////////////////////////////////
 	//                             Constructors                              //
 	///////////////////////////////////////////////////////////////////////////
@@ -55,8 +90,9 @@ public class Server extends ServerBase {
 	/***
 	 * Default constructor. Adds no server sockets and leaves verbose off.
 	 */
-	public Server(AbstractRateLimiter rateLimiter) {
+	public Server(AbstractRateLimiter<?> rateLimiter) {
 		this.rateLimiter = rateLimiter;
+		this.routes = new RouteRegistry();
 	}
 	
 	/***
@@ -64,29 +100,47 @@ public class Server extends ServerBase {
 	 * to start with verbose on or off.
 	 * @param verbosity
 	 */
-	public Server(boolean verbosity, AbstractRateLimiter rateLimiter) {
+	public Server(boolean verbosity, AbstractRateLimiter<?> rateLimiter) {
 		this.verbose = verbosity;
 		this.rateLimiter = rateLimiter;
+		this.routes = new RouteRegistry();
 	}
 	
 	/***
 	 * Start a server instance with a single server socket
 	 * @param port
 	 */
-	public Server(AbstractRateLimiter rateLimiter, int port) {
+	public Server(AbstractRateLimiter<?> rateLimiter, int port) {
 		AddServerSocket(port);
 		this.rateLimiter = rateLimiter;
+		this.routes = new RouteRegistry();
 	}
 	
 	/***
 	 * Start a server instance with many server sockets!
 	 * @param ports
 	 */
-	public Server(AbstractRateLimiter rateLimiter, int... ports) {
+	public Server(AbstractRateLimiter<?> rateLimiter, int... ports) {
 		for(int port : ports) {
 			AddServerSocket(port);
 		}
 		this.rateLimiter = rateLimiter;
+		this.routes = new RouteRegistry();
+	}
+	
+	/***
+	 * Start a server instance with many server sockets, rate limiting
+	 * end-points by the route templates registered in the registry.
+	 * @param rateLimiter
+	 * @param routes
+	 * @param ports
+	 */
+	public Server(AbstractRateLimiter<?> rateLimiter, RouteRegistry routes, int... ports) {
+		this.rateLimiter = rateLimiter;
+		this.routes = routes;
+		for(int port : ports) {
+			AddServerSocket(port);
+		}
 	}
 	
 	///////////////////////////////////////////////////////////////////////////
@@ -108,6 +162,92 @@ public class Server extends ServerBase {
 		return verbose;
 	}
 	
+	///////////////////////////////////////////////////////////////////////////
+	//                             Reloading                                 //
+	///////////////////////////////////////////////////////////////////////////
+	
+	/***
+	 * Swap in new limits or policies for the rate limiter while serving;
+	 * requests already being decided finish under the old behaviour.
+	 * @param rateLimitingBehaviour
+	 */
+	public void ReloadRateLimitingBehaviour(RateLimitingBehaviour rateLimitingBehaviour) {
+		rateLimiter.ReloadRateLimitingBehaviour(rateLimitingBehaviour);
+	}
+	
+	///////////////////////////////////////////////////////////////////////////
+	//                             Actual costs                              //
+	///////////////////////////////////////////////////////////////////////////
+	
+	/***
+	 * Charge each admitted request what it actually cost to handle, rather
+	 * than the cost its route is registered with; the most attempts of
+	 * either the time spent handling it or the bytes written in response,
+	 * and at least one. The registered cost is still what is admitted, and
+	 * the difference is debited or refunded once the request is handled.
+	 * @param nanosPerAttempt The nanoseconds of handling that cost one 
+	 * attempt, or 0 to not charge for time.
+	 * @param bytesPerAttempt The bytes of response that cost one attempt,
+	 * or 0 to not charge for bytes.
+	 */
+	public void ChargeActualCosts(long nanosPerAttempt, long bytesPerAttempt) {
+		this.nanosPerAttempt = nanosPerAttempt;
+		this.bytesPerAttempt = bytesPerAttempt;
+	}
+	
+	/***
+	 * @param cost The cost the request was admitted with.
+	 * @param elapsedNanos
+	 * @param bytesWritten
+	 * @return The actual cost of a handled request, or the cost it was 
+	 * admitted with if not charging actual costs.
+	 */
+	private int ActualCost(int cost, long elapsedNanos, long bytesWritten) {
+		long perNanos = nanosPerAttempt;
+		long perBytes = bytesPerAttempt;
+		if(perNanos <= 0 && perBytes <= 0) {
+			return cost;
+		}
+		long actual = 1L;
+		if(perNanos > 0) {
+			actual = Math.max(actual, (elapsedNanos + perNanos - 1) / perNanos);
+		}
+		if(perBytes > 0) {
+			actual = Math.max(actual, (bytesWritten + perBytes - 1) / perBytes);
+		}
+		return (int) Math.min(Integer.MAX_VALUE, actual);
+	}
+
+	///////////////////////////////////////////////////////////////////////////
+	//                             Adaptive concurrency                      //
+	///////////////////////////////////////////////////////////////////////////
+
+	/***
+	 * Limit how many admitted requests are handled at once by a limit that
+	 * adapts to how long HandleRequest takes, shedding requests past it
+	 * with a 503 rather than letting them queue; requests are shed before
+	 * the rate limiter records their attempt, so being shed costs nothing.
+	 * @param concurrencyLimit null to stop limiting.
+	 */
+	public void LimitConcurrencyAdaptively(AdaptiveConcurrencyLimit concurrencyLimit) {
+		this.concurrencyLimit = concurrencyLimit;
+	}
+
+	///////////////////////////////////////////////////////////////////////////
+	//                             IP fast path                              //
+	///////////////////////////////////////////////////////////////////////////
+
+	/***
+	 * Rate limit IP attempts straight from the address of the socket, 
+	 * without forming an IP String or identity. Attempts limited this way
+	 * are limited with GCRA whatever the algorithm of the rate limiter, in
+	 * state apart from its IP identities; so it is off unless chosen.
+	 * @param limitIPsByAddress
+	 */
+	public void LimitIPsByAddress(boolean limitIPsByAddress) {
+		this.limitIPsByAddress = limitIPsByAddress;
+	}
+
 	///////////////////////////////////////////////////////////////////////////
 	//                             Sockets                                   //
 	///////////////////////////////////////////////////////////////////////////
@@ -196,6 +336,15 @@ public class Server extends ServerBase {
 		public void run() {
 			String closureMessage = "";
 			String clientIP = getSocketHostAddress();
+			// The ticket admitting the request, to settle what it cost
+			long ticket = AbstractRateLimiter.NoTicket;
+			// The permit counting the request in flight, until it ends
+			long inFlightPermit = AbstractRateLimiter.InFlightRefused;
+			// The adaptive concurrency limit the request was handled under
+			AdaptiveConcurrencyLimit acquiredLimit = null;
+			int cost = RouteRegistry.StandardCost;
+			long handlingStarted = 0L;
+			long bytesWritten = 0L;
 			try {
 				// We must read the tokens and headers before rate limiting
 				// Read the tokens
@@ -207,30 +356,78 @@ public class Server extends ServerBase {
 				String[] headers = ReadHeaders(this.bufferedReader);
 				// Get the auth string from the headers.
 				String auth = AuthFromHeaders(headers);
-				// Use the rate limiting services to construct the end point
-				// to the requested method / resource, using the rate limiting
-				// services internal end point context.
-				String endpoint = rateLimiter.FormEndpointStringFromVerbAndResource(method,resource);
+				// Normalise the resource to the route it matches, so that
+				// path arguments don't each make their own end point. With
+				// no routes registered, use the rate limiting services to 
+				// construct the end point to the requested method / resource,
+				// using the rate limiting services internal end point context.
+				int route = routes.Match(method,resource);
+				String endpoint = routes.Size() == 0 ? 
+						rateLimiter.FormEndpointStringFromVerbAndResource(method,resource) : 
+						routes.Endpoint(route);
+				// Expensive routes count as many attempts, before handling
+				cost = routes.Cost(route);
 				// Now return 401 or 403 if Auth is invalid 
 				// or missing and we need it!
 				closureMessage = rateLimiter.ServeHttp40XPerUserAuth(printWriter,auth);
 				if(closureMessage.isEmpty()) {
-					// Form the "rateLimitedIdentity" from the context supplied
-					// to the RateLimiter when it was instantiated. Supply the 
-					// context with the clientIP, Auth and Endpoint and 
-					// retrieve an "Identity" aware of its own context
-					RateLimitedIdentity rateLimitedIdentity = rateLimiter.getRateLimitedIdentityFromRateLimiterContext(clientIP,auth,endpoint);
-					// Check if the Rate Limiting context will
-					// rate limit this attempt
-					closureMessage = rateLimiter.IsAttemptRateLimited(rateLimitedIdentity);
+					// Shed the request if the server is already handling all
+					// it can, before the rate limiter records any attempt, as
+					// being shed isn't the client's doing
+					AdaptiveConcurrencyLimit limit = concurrencyLimit;
+					if(limit != null && !limit.TryAcquire()) {
+						closureMessage = "Shed the request from IP "+clientIP+"; over the adaptive concurrency limit of "+limit.Limit();
+						rateLimiter.ServeHttp503PerConcurrencyLimit(printWriter);
+					} else {
+						acquiredLimit = limit;
+					}
+				}
+				if(closureMessage.isEmpty()) {
+					if(limitIPsByAddress && rateLimiter.RateLimitsByIPAddress(auth)) {
+						// IP limiting is the first line of defence against
+						// floods, so decide it straight from the socket's
+						// address, without forming an IP String or "Identity"
+						InetAddress address = getSocket().getInetAddress();
+						// Refuse IPs already holding too many requests open
+						inFlightPermit = rateLimiter.AcquireIPInFlight(address);
+						if(inFlightPermit == AbstractRateLimiter.InFlightRefused) {
+							closureMessage = rateLimiter.InFlightLimitedMessage(address);
+							rateLimiter.ServeHttp429PerInFlight(printWriter);
+						} else {
+							ticket = rateLimiter.AdmitIPAttempt(address,cost);
+							if(ticket == AbstractRateLimiter.Refused) {
+								closureMessage = rateLimiter.RateLimitedMessage(address);
+								rateLimiter.ServeHttp429PerIPAttempt(printWriter,address);
+							}
+						}
+					} else {
+						// Form the "rateLimitedIdentity" from the context supplied
+						// to the RateLimiter when it was instantiated. Supply the 
+						// context with the clientIP, Auth and Endpoint and 
+						// retrieve an "Identity" aware of its own context
+						RateLimitedIdentity rateLimitedIdentity = rateLimiter.getRateLimitedIdentityFromRateLimiterContext(clientIP,auth,route,endpoint);
+						// Refuse identities already holding too many requests
+						// open, then check if the Rate Limiting context will
+						// rate limit this attempt
+						inFlightPermit = rateLimiter.AcquireInFlight(rateLimitedIdentity);
+						if(inFlightPermit == AbstractRateLimiter.InFlightRefused) {
+							closureMessage = rateLimiter.InFlightLimitedMessage(rateLimitedIdentity);
+							rateLimiter.ServeHttp429PerInFlight(printWriter);
+						} else {
+							ticket = rateLimiter.AdmitAttempt(rateLimitedIdentity,cost);
+							if(ticket == AbstractRateLimiter.Refused) {
+								closureMessage = rateLimiter.RateLimitedMessage(rateLimitedIdentity);
+								// If it was rate limited, then serve the 
+								// 429 for the appropriate context.
+								rateLimiter.ServeHttp429PerAttempt(printWriter,rateLimitedIdentity);
+							}
+						}
+					}
 					if(closureMessage.isEmpty()) {
-						// If it wasn't rate limited, then handle the request.
-						HandleRequest(method, resource, protocol, headers, bufferedReader, printWriter, bufferedOutputStream);
+						// If it wasn't rate limited, then handle the request
+						handlingStarted = System.nanoTime();
+						bytesWritten = HandleRequest(method, resource, protocol, headers, bufferedReader, printWriter, bufferedOutputStream);
 						closureMessage = "Serviced the request from IP "+clientIP+"; User "+auth+"; Resource "+resource;
-					} else {
-						// If it was rate limited, then serve the 
-						// 429 for the appropriate context.
-						rateLimiter.ServeHttp429PerAttempt(printWriter,rateLimitedIdentity);
 					}
 				}
 			} catch (IOException e) {
@@ -239,6 +436,22 @@ public class Server extends ServerBase {
 				e.printStackTrace();
 				printOutVerboseMessage("Failed to interact with the socket's streams, closing connection to port "+getSocketPort()+" from "+clientIP);
 			} finally {
+				// Settle what the request cost, even if handling it failed
+				if(handlingStarted != 0L) {
+					long elapsedNanos = System.nanoTime() - handlingStarted;
+					rateLimiter.ReconcileAttempt(ticket,ActualCost(cost,elapsedNanos,bytesWritten));
+					// Adapt the concurrency limit to how long it took
+					if(acquiredLimit != null) {
+						acquiredLimit.Release(elapsedNanos);
+					}
+				} else {
+					rateLimiter.ReconcileAttempt(ticket,cost);
+					// A request refused by the rate limiter took no handling
+					if(acquiredLimit != null) {
+						acquiredLimit.ReleaseWithoutSample();
+					}
+				}
+				rateLimiter.ReleaseInFlight(inFlightPermit);
 				closeStreams(closureMessage);
 				System.out.println();
 			}
@@ -325,9 +538,10 @@ public class Server extends ServerBase {
 	 * @param reader
 	 * @param printWriter
 	 * @param bufferedOutputStream
+	 * @return The bytes written in response.
 	 * @throws IOException
 	 */
-	private void HandleRequest(String method, 
+	private long HandleRequest(String method, 
 							   String resource, 
 							   String protocol,
 							   String[] headers, 
@@ -351,8 +565,9 @@ public class Server extends ServerBase {
 			}
 		}
 		ArrayList<ResponsePart> response = RouteRequest(method, resource, headers, content);
-		sendResponseToClient(printWriter,bufferedOutputStream,response);
+		long bytesWritten = sendResponseToClient(printWriter,bufferedOutputStream,response);
 		System.out.println();
+		return bytesWritten;
 	}
 	
 	/***
@@ -405,14 +620,17 @@ public class Server extends ServerBase {
 	 * @param printWriter
 	 * @param bufferedOutputStream
 	 * @param response
+	 * @return The bytes written, counting each string as its characters and
+	 * a line separator.
 	 * @throws IOException
 	 */
-	private void sendResponseToClient(PrintWriter printWriter, 
+	private long sendResponseToClient(PrintWriter printWriter, 
 									BufferedOutputStream bufferedOutputStream,
 									ArrayList<ResponsePart> response) 
 											throws IOException {
 		boolean contextIsString = response.get(0).isString;
 		boolean contextSwapped = false;
+		long bytesWritten = 0L;
 		for(ResponsePart respPart : response) {
 			contextSwapped = ((contextIsString && !respPart.isString) || 
 							  (!contextIsString && respPart.isString));
@@ -427,8 +645,10 @@ public class Server extends ServerBase {
 			}
 			if(contextIsString) {
 				printWriter.println(respPart.string);
+				bytesWritten += respPart.string.length() + System.lineSeparator().length();
 			} else {
 				bufferedOutputStream.write(respPart.byteArr);
+				bytesWritten += respPart.byteArr.length;
 			}
 		}
 		if(contextIsString) {
@@ -436,6 +656,7 @@ public class Server extends ServerBase {
 		} else {
 			bufferedOutputStream.flush();
 		}
+		return bytesWritten;
 	}
 	
 	//public static void main(String args[]) { 
@@ -1,14 +1,18 @@
 package RateLimiterService;
 
 import java.io.PrintWriter;
+import java.net.InetAddress;
 import java.net.Socket;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
 
 import RateLimiterService.RateLimitedIdentity.RateLimitedIdentityType;
+import RateLimiterService.RateLimitingBehaviour.RateLimitingAlgorithm;
 
 /***
  * Defines the standard operations of a Rate Limiting module which interacts
@@ -26,6 +30,42 @@ public abstract class AbstractRateLimiter <RateLimitingMap> {
 	 */
 	abstract protected RateLimitingBehaviour getRateLimitingBehaviour();
 	
+	/***
+	 * Publish a new behaviour definition for the rate limiter, which must be
+	 * seen by every thread that next reads it, without locking readers.
+	 * @param rateLimitingBehaviour
+	 */
+	abstract protected void setRateLimitingBehaviour(RateLimitingBehaviour rateLimitingBehaviour);
+	
+	/***
+	 * Swap in a new behaviour, such as new limits or policies, while the
+	 * rate limiter is serving, without forgetting any recorded attempts.
+	 * Every decision reads the behaviour once, so it is made wholly under
+	 * the old behaviour or wholly under the new. Attempts already recorded
+	 * count against the new limits, as the counts or logs of attempts, or
+	 * the time owed by GCRA's theoretical arrival times, each algorithm
+	 * already holds; a lowered limit refuses identities already over it 
+	 * until enough of their attempts have aged out.
+	 * 
+	 * The algorithm, tracked identities and number of tiers shape the
+	 * attempts held, so can't be changed without making a new rate limiter.
+	 * @param rateLimitingBehaviour
+	 * @throws IllegalArgumentException If the new behaviour changes the 
+	 * algorithm, the tracking of identities or the number of tiers.
+	 */
+	final public synchronized void ReloadRateLimitingBehaviour(RateLimitingBehaviour rateLimitingBehaviour) {
+		RateLimitingBehaviour current = this.getRateLimitingBehaviour();
+		if(rateLimitingBehaviour.Algorithm != current.Algorithm) {
+			throw new IllegalArgumentException("Can't reload the "+current.Algorithm+" rate limiter with the "+rateLimitingBehaviour.Algorithm+" algorithm");
+		} else if(rateLimitingBehaviour.MaxTrackedIdentities != current.MaxTrackedIdentities
+				|| rateLimitingBehaviour.FailClosedWhenUntracked != current.FailClosedWhenUntracked) {
+			throw new IllegalArgumentException("Can't reload the rate limiter with a different tracking of identities");
+		} else if(rateLimitingBehaviour.Tiers.size() != current.Tiers.size()) {
+			throw new IllegalArgumentException("Can't reload a rate limiter of "+current.Tiers.size()+" tiers with "+rateLimitingBehaviour.Tiers.size());
+		}
+		this.setRateLimitingBehaviour(rateLimitingBehaviour);
+	}
+	
 	/*
 	 * Getters for the contents of the RateLimitingBehaviour instance
 	 */
@@ -45,6 +85,37 @@ public abstract class AbstractRateLimiter <RateLimitingMap> {
 		return this.getRateLimitingBehaviour().TimeLimitSeconds;
 	}
 	
+	/***
+	 * @param RLIdentity
+	 * @return The limit the identity is held to; that of its policy, if it
+	 * has one, otherwise "RequestLimitHits" per "TimeLimitSeconds".
+	 */
+	final public RateLimitTier limitFor(RateLimitedIdentity RLIdentity) {
+		RateLimitingBehaviour behaviour = this.getRateLimitingBehaviour();
+		RateLimitTier policy = behaviour.Policies.LimitFor(RLIdentity);
+		return policy == null ? behaviour.Tiers.get(0) : policy;
+	}
+	
+	/***
+	 * @param address
+	 * @return The limit the IP is held to; that of the most specific range
+	 * with a policy, if any, otherwise "RequestLimitHits" per
+	 * "TimeLimitSeconds".
+	 */
+	final public RateLimitTier limitForIP(InetAddress address) {
+		RateLimitingBehaviour behaviour = this.getRateLimitingBehaviour();
+		RateLimitTier policy = behaviour.Policies.LimitForIP(address);
+		return policy == null ? behaviour.Tiers.get(0) : policy;
+	}
+	
+	/***
+	 * @return How many requests each identity may have in flight at once,
+	 * or 0 for no limit.
+	 */
+	final public int maxInFlightPerIdentity() {
+		return this.getRateLimitingBehaviour().MaxInFlightPerIdentity;
+	}
+	
 	/***
 	 * @return true if hostile IPs are being stored against the IDataStore,
 	 * otherwise false
@@ -83,6 +154,13 @@ public abstract class AbstractRateLimiter <RateLimitingMap> {
 		return this.getRateLimitingBehaviour().ApprovedUsersOnly;
 	}
 	
+	/***
+	 * @return The algorithm with which this rate limiter was made to limit
+	 */
+	final public RateLimitingAlgorithm rateLimitingAlgorithm() {
+		return this.getRateLimitingBehaviour().Algorithm;
+	}
+	
 	/*
 	 * The "Rate limiting map" getters, and for the hostile IP and User Auth
 	 */
@@ -91,7 +169,12 @@ public abstract class AbstractRateLimiter <RateLimitingMap> {
 	
 	abstract protected RateLimitingMap getUserAttemptsMap();
 	
-	abstract protected ConcurrentHashMap<String,RateLimitingMap> getEndpointAttemptsMap();
+	/***
+	 * Every identity's end-point attempts are held in this one map, keyed by
+	 * the identity and endpoint together.
+	 * @return
+	 */
+	abstract protected RateLimitingMap getEndpointAttemptsMap();
 	
 	/***
 	 * Used to require that an implementing subclass has a member variable 
@@ -109,6 +192,60 @@ public abstract class AbstractRateLimiter <RateLimitingMap> {
 	 */
 	abstract protected ArrayList<String> getHostileIPs();
 	
+	/***
+	 * Used to require that an implementing subclass has a member variable 
+	 * that is an IPAddressSet, holding the same hostile IPs as the list, 
+	 * keyed by address so sockets can be checked without an address String.
+	 * @return
+	 */
+	abstract protected IPAddressSet getHostileIPAddresses();
+	
+	/***
+	 * Used to require that an implementing subclass has a member variable 
+	 * that is an IKeyedAttemptsMap, which rate limits attempts made by
+	 * precomputed key; IP attempts made straight from the address of a 
+	 * socket, and attempts made with an AdmissionKey. Made with
+	 * NewKeyedAttemptsMap, so it is held to the same cap as the identities,
+	 * unless the subclass holds keys to a limit of its own, such as every
+	 * tier of a multi-tier limit.
+	 * @return
+	 */
+	abstract protected IKeyedAttemptsMap getKeyedAttemptsMap();
+	
+	/***
+	 * @param rateLimitingBehaviour
+	 * @return A new map for attempts made by precomputed key, tracking at
+	 * most "MaxTrackedIdentities" keys, and forgetting each once idle; its
+	 * memory is only allocated once keys are first limited in it.
+	 */
+	protected static OffHeapGCRARateLimitingMap NewKeyedAttemptsMap(RateLimitingBehaviour rateLimitingBehaviour) {
+		return new OffHeapGCRARateLimitingMap(rateLimitingBehaviour.MaxTrackedIdentities, rateLimitingBehaviour.FailClosedWhenUntracked);
+	}
+	
+	/***
+	 * Used to require that an implementing subclass has a member variable 
+	 * that is the pool of AdmissionTickets handed out for admitted attempts
+	 * whose actual cost is to be settled once they have been handled.
+	 * @return
+	 */
+	abstract protected AdmissionTickets getAdmissionTickets();
+	
+	/***
+	 * Used to require that an implementing subclass has a member variable 
+	 * that is the InFlightCounters of the requests each identity has in 
+	 * flight at once.
+	 * @return
+	 */
+	abstract protected InFlightCounters getInFlightCounters();
+	
+	/***
+	 * Used to require that an implementing subclass has a member variable 
+	 * that is the IClock from which all of its times are read, so that every
+	 * rate limiting decision is made against the same monotonic time.
+	 * @return
+	 */
+	abstract protected IClock getClock();
+	
 	/*
 	 * The "main functionality" of the AbstractRateLimiter
 	 * dealing with RateLimitedIdentity instances
@@ -128,8 +265,22 @@ public abstract class AbstractRateLimiter <RateLimitingMap> {
 	 * @return
 	 */
 	final public RateLimitedIdentity getRateLimitedIdentityFromRateLimiterContext(String clientIP, String UserAuth, String endpoint){
+		return getRateLimitedIdentityFromRateLimiterContext(clientIP,UserAuth,RouteRegistry.NoRoute,endpoint);
+	}
+	
+	/***
+	 * Forms the appropriate RateLimitedIdentity as above, but with end-point
+	 * identities keyed by the route the request matched in a RouteRegistry,
+	 * rather than by the endpoint String, unless the route is NoRoute.
+	 * @param clientIP
+	 * @param UserAuth
+	 * @param routeId
+	 * @param endpoint The endpoint of the route, as given by the registry.
+	 * @return
+	 */
+	final public RateLimitedIdentity getRateLimitedIdentityFromRateLimiterContext(String clientIP, String UserAuth, int routeId, String endpoint){
 		if(rateLimitingByEndpoint()) {
-			return nullOrNewRateLimitedEndpoint(clientIP,UserAuth,endpoint);
+			return nullOrNewRateLimitedEndpoint(clientIP,UserAuth,routeId,endpoint);
 		} else if(rateLimitingByUser() && !UserAuth.isEmpty()) {
 			return NewRateLimitedUser(UserAuth);
 		} else if(rateLimitingByIP()) {
@@ -142,15 +293,16 @@ public abstract class AbstractRateLimiter <RateLimitingMap> {
 	/***
 	 * @param clientIP
 	 * @param UserAuth
+	 * @param routeId
 	 * @param endpoint
 	 * @return A new rate limited endpoint identity, or null if the identity is empty.
 	 */
-	private RateLimitedIdentity nullOrNewRateLimitedEndpoint(String clientIP, String UserAuth, String endpoint) {
+	private RateLimitedIdentity nullOrNewRateLimitedEndpoint(String clientIP, String UserAuth, int routeId, String endpoint) {
 		String identity = GetEndpointIdentity(clientIP,UserAuth);
 		if(identity.isEmpty()) {
 			return null;
 		} else {
-			return NewRateLimitedEndpoint(identity,endpoint);
+			return NewRateLimitedEndpoint(identity,routeId,endpoint);
 		}
 	}
 	
@@ -165,23 +317,77 @@ public abstract class AbstractRateLimiter <RateLimitingMap> {
 	 * @return
 	 */
 	final public String IsAttemptRateLimited(RateLimitedIdentity RLIdentity) {
-		boolean requestWasRateLimited = !RecordNewAttempt(RLIdentity,requestLimitHits(),timeLimitSeconds());
+		return IsAttemptRateLimited(RLIdentity,1);
+	}
+	
+	/***
+	 * As above, for an attempt costing "cost" attempts, such as the cost
+	 * a RouteRegistry gives the route requested.
+	 * @param RLIdentity
+	 * @param cost
+	 * @return
+	 * @throws IllegalArgumentException If the cost is less than 1.
+	 */
+	final public String IsAttemptRateLimited(RateLimitedIdentity RLIdentity, int cost) {
+		if(cost < 1) {
+			throw new IllegalArgumentException("An attempt must cost at least 1, not "+cost);
+		}
+		RateLimitTier limit = limitFor(RLIdentity);
+		boolean requestWasRateLimited = !RecordNewAttempt(RLIdentity,cost,limit.RequestLimitHits,limit.TimeLimitSeconds);
 		if(requestWasRateLimited) {
-			switch(RLIdentity.GetRateLimitedIdentityType()) {
-				case IP:
-					return ("Found rate limited IP: "+RLIdentity.GetIdentity());
-				case User:
-					return ("Found rate limited User: "+RLIdentity.GetIdentity());
-				case Endpoint:
-					return ("Found rate limited Identity: "+RLIdentity.GetIdentity()+"; per resource "+RLIdentity.GetEndpoint());
-				default:
-					return "Request was Rate Limited but without Type";
-			}
+			return RateLimitedMessage(RLIdentity);
 		} else {
 			return "";
 		}
 	}
 	
+	/***
+	 * @param RLIdentity
+	 * @return The message for an attempt by the identity that was rate limited.
+	 */
+	final public String RateLimitedMessage(RateLimitedIdentity RLIdentity) {
+		switch(RLIdentity.GetRateLimitedIdentityType()) {
+			case IP:
+				return ("Found rate limited IP: "+RLIdentity.GetIdentity());
+			case User:
+				return ("Found rate limited User: "+RLIdentity.GetIdentity());
+			case Endpoint:
+				return ("Found rate limited Identity: "+RLIdentity.GetIdentity()+"; per resource "+RLIdentity.GetEndpoint());
+			default:
+				return "Request was Rate Limited but without Type";
+		}
+	}
+
+	/***
+	 * As IsAttemptRateLimited, without blocking the calling thread on the
+	 * decision, so a non-blocking server can decide the attempts of many
+	 * connections without a thread for each. Rate limiters that hold their
+	 * attempts in memory have already decided when this returns; those held
+	 * in a slower store complete it on the store's own threads.
+	 * @param RLIdentity
+	 * @return Completed with an empty String, if the attempt was recorded,
+	 * otherwise a message for the attempt that was rate limited.
+	 */
+	final public CompletableFuture<String> IsAttemptRateLimitedAsync(RateLimitedIdentity RLIdentity) {
+		return IsAttemptRateLimitedAsync(RLIdentity,1);
+	}
+
+	/***
+	 * As above, for an attempt costing "cost" attempts.
+	 * @param RLIdentity
+	 * @param cost
+	 * @return
+	 * @throws IllegalArgumentException If the cost is less than 1.
+	 */
+	final public CompletableFuture<String> IsAttemptRateLimitedAsync(RateLimitedIdentity RLIdentity, int cost) {
+		if(cost < 1) {
+			throw new IllegalArgumentException("An attempt must cost at least 1, not "+cost);
+		}
+		RateLimitTier limit = limitFor(RLIdentity);
+		return RecordNewAttemptAsync(RLIdentity,cost,limit.RequestLimitHits,limit.TimeLimitSeconds)
+				.thenApply(recorded -> recorded ? "" : RateLimitedMessage(RLIdentity));
+	}
+
 	/***
 	 * Serves a simple Http429 to the handed output stream, with a message
 	 * related to the Identity, as per the passed RateLimitedIdentity
@@ -207,7 +413,7 @@ public abstract class AbstractRateLimiter <RateLimitingMap> {
 	 * @return
 	 */
 	private String TryAgainMessage(LocalDateTime next) {
-		long seconds = ChronoUnit.SECONDS.between(LocalDateTime.now(), next);
+		long seconds = ChronoUnit.SECONDS.between(getClock().Now(), next);
 		return "Rate limit exceeded. Try again in "+seconds+" seconds";
 	}
 	
@@ -217,7 +423,8 @@ public abstract class AbstractRateLimiter <RateLimitingMap> {
 	 * @return
 	 */
 	private LocalDateTime CheckWhenNextRequestAllowed(RateLimitedIdentity RLIdentity) {
-		return CheckWhenNextRequestAllowed(RLIdentity,requestLimitHits(),timeLimitSeconds());
+		RateLimitTier limit = limitFor(RLIdentity);
+		return CheckWhenNextRequestAllowed(RLIdentity,limit.RequestLimitHits,limit.TimeLimitSeconds);
 	}
 	
 	/***
@@ -226,7 +433,8 @@ public abstract class AbstractRateLimiter <RateLimitingMap> {
 	 * the resource string being accessed. Assumes that the resource string
 	 * has been cleaned by the Server class to represent an actual resource,
 	 * i.e. clipped it to a known end-point that will be handled, so as to not
-	 * store path arguments or query strings.
+	 * store path arguments or query strings. A RouteRegistry does this 
+	 * cleaning, giving the same endpoint for every request to a route.
 	 * @param httpVerb
 	 * @param resource
 	 * @return
@@ -376,8 +584,7 @@ public abstract class AbstractRateLimiter <RateLimitingMap> {
 	 * @param clientSocket
 	 */
 	final public boolean IsIPHostile(Socket clientSocket) {
-		String IP = clientSocket.getInetAddress().getHostAddress();
-		return (storingHostileIPs() && this.containsHostileIP(IP));
+		return (storingHostileIPs() && getHostileIPAddresses().Contains(clientSocket.getInetAddress()));
 	}
 
 
@@ -413,11 +620,12 @@ public abstract class AbstractRateLimiter <RateLimitingMap> {
 	}
 	
 	/***
-	 * Records a new hostile IP
+	 * Records a new hostile IP, also keyed by address if it is an IP literal
 	 * @param IP
 	 */
 	final public void recordHostileIP(String IP) {
 		AddToArrayList(getHostileIPs(),IP);
+		getHostileIPAddresses().Add(IPAddressKey.KeyOfLiteral(IP));
 	}
 	
 	/***
@@ -426,6 +634,406 @@ public abstract class AbstractRateLimiter <RateLimitingMap> {
 	 */
 	final public void removeHostileIP(String IP) {
 		RemoveFromArrayList(getHostileIPs(),IP);
+		getHostileIPAddresses().Remove(IPAddressKey.KeyOfLiteral(IP));
+	}
+	
+	/*
+	 * IP address fast path; rate limits IP attempts straight from the bytes
+	 * of the socket's address, without forming an IP String or identity.
+	 * Opt in; attempts made this way are limited with GCRA whatever the
+	 * algorithm of the rate limiter, in state of its own, held off the heap
+	 * by this process or, for a data store rate limiter, in its store; so a
+	 * sliding log allows its bursts differently. IsAttemptRateLimited holds
+	 * IP attempts to the rate limiter's own algorithm and state.
+	 */
+	
+	/***
+	 * @param UserAuth
+	 * @return True, if the RateLimitedIdentity formed for a request with the
+	 * UserAuth would be an IP, so the request can be rate limited by address.
+	 */
+	final public boolean RateLimitsByIPAddress(String UserAuth) {
+		return (!rateLimitingByEndpoint() 
+				&& !(rateLimitingByUser() && !UserAuth.isEmpty()) 
+				&& rateLimitingByIP());
+	}
+	
+	/***
+	 * Records an IP attempt from the address, if it is not rate limited. IP
+	 * attempts made by address are always limited with GCRA, held off the
+	 * heap, whatever the algorithm of the rate limiter, and separately from
+	 * IP attempts made by RateLimitedIdentity; a multi-tier rate limiter
+	 * holds them to every tier. An IP in a range with a policy is held to
+	 * the policy's limit, in place of the first tier. As for identities, at most
+	 * "MaxTrackedIdentities" addresses are tracked, and each is forgotten
+	 * once its attempts have all been paid back.
+	 * @param address
+	 * @return An empty String, if the attempt was recorded, otherwise a
+	 * message for the attempt that was rate limited.
+	 */
+	final public String IsIPAttemptRateLimited(InetAddress address) {
+		return IsIPAttemptRateLimited(address,1);
+	}
+	
+	/***
+	 * As above, for an attempt costing "cost" attempts.
+	 * @param address
+	 * @param cost
+	 * @return An empty String, if the attempt was recorded, otherwise a
+	 * message for the attempt that was rate limited.
+	 * @throws IllegalArgumentException If the cost is less than 1.
+	 */
+	final public String IsIPAttemptRateLimited(InetAddress address, int cost) {
+		if(cost < 1) {
+			throw new IllegalArgumentException("An attempt must cost at least 1, not "+cost);
+		}
+		RateLimitTier limit = limitForIP(address);
+		long decision = getKeyedAttemptsMap().AdmitOrWait(IPAddressKey.KeyOf(address),cost,limit.RequestLimitHits,limit.TimeLimitSeconds,getClock().NanoTime());
+		if(decision == Admitted) {
+			return "";
+		} else {
+			return RateLimitedMessage(address);
+		}
+	}
+	
+	/***
+	 * @param address
+	 * @return The message for an IP attempt by address that was rate limited.
+	 */
+	final public String RateLimitedMessage(InetAddress address) {
+		return ("Found rate limited IP: "+address.getHostAddress());
+	}
+	
+	/*
+	 * Allocation free admission; rate limits attempts with precomputed keys,
+	 * without forming a RateLimitedIdentity, endpoint or message String.
+	 */
+	
+	/***
+	 * Returned by TryAdmit when the attempt was admitted.
+	 */
+	static final public long Admitted = IKeyedAttemptsMap.Admitted;
+	
+	/***
+	 * Records an attempt against the key held by the AdmissionKey, if it is
+	 * not rate limited. Allocates nothing, so a thread can reuse one
+	 * AdmissionKey for every decision it makes.
+	 * @param admissionKey
+	 * @return "Admitted", if the attempt was recorded, otherwise the 
+	 * nanoseconds until an attempt would be.
+	 */
+	final public long TryAdmit(AdmissionKey admissionKey) {
+		return TryAdmit(admissionKey.Key());
+	}
+	
+	/***
+	 * Records an attempt against a precomputed key, if it is not rate 
+	 * limited. As for IP attempts made by address, attempts made by key are
+	 * limited with GCRA, held off the heap, or in the store of a data store
+	 * rate limiter, whatever the algorithm of the rate limiter, and
+	 * separately from attempts by RateLimitedIdentity; a multi-tier rate
+	 * limiter holds them to every tier.
+	 * @param key
+	 * @return "Admitted", if the attempt was recorded, otherwise the 
+	 * nanoseconds until an attempt would be.
+	 */
+	final public long TryAdmit(long key) {
+		return TryAdmit(key,1);
+	}
+	
+	/***
+	 * Records an attempt costing "cost" attempts against a precomputed key,
+	 * if it is not rate limited, in one step whatever the cost.
+	 * @param key
+	 * @param cost At least 1.
+	 * @return "Admitted", if the attempt was recorded, otherwise the 
+	 * nanoseconds until it would be.
+	 * @throws IllegalArgumentException If the cost is less than 1.
+	 */
+	final public long TryAdmit(long key, int cost) {
+		if(cost < 1) {
+			throw new IllegalArgumentException("An attempt must cost at least 1, not "+cost);
+		}
+		RateLimitTier limit = this.getRateLimitingBehaviour().Tiers.get(0);
+		return getKeyedAttemptsMap().AdmitOrWait(key,cost,limit.RequestLimitHits,limit.TimeLimitSeconds,getClock().NanoTime());
+	}
+	
+	/***
+	 * @return How many keys, and addresses of IP attempts made by address,
+	 * are tracked.
+	 */
+	final public int trackedKeys() {
+		return getKeyedAttemptsMap().Size();
+	}
+	
+	/***
+	 * @return How many bytes are held off the heap to track keys, and
+	 * addresses of IP attempts made by address.
+	 */
+	final public long keyedOffHeapBytes() {
+		return getKeyedAttemptsMap().OffHeapBytes();
+	}
+	
+	/***
+	 * Serves a simple Http429 to the handed output stream, for an IP attempt
+	 * rate limited by address.
+	 * @param printWriter
+	 * @param address
+	 */
+	final public void ServeHttp429PerIPAttempt(PrintWriter printWriter, InetAddress address) {
+		long now = getClock().NanoTime();
+		RateLimitTier limit = limitForIP(address);
+		long wait = getKeyedAttemptsMap().NanosUntilAdmitted(IPAddressKey.KeyOf(address),limit.RequestLimitHits,limit.TimeLimitSeconds,now);
+		ServeHttpErrorResponse(printWriter,429,TryAgainMessage(getClock().LocalDateTimeAt(now + wait)));
+	}
+	
+	/*
+	 * Admission tickets; admit an attempt at the cost estimated before it is
+	 * handled, then settle its actual cost, such as the time taken to handle
+	 * it, once it has been, so identities can be limited by what their
+	 * requests really cost the server rather than by how many they make.
+	 */
+	
+	/***
+	 * Returned by AdmitAttempt and AdmitIPAttempt when the attempt was
+	 * rate limited.
+	 */
+	static final public long Refused = -1L;
+	
+	/***
+	 * Returned by AdmitAttempt and AdmitIPAttempt when the attempt was 
+	 * admitted while every ticket was out, so its estimated cost stands.
+	 */
+	static final public long NoTicket = AdmissionTickets.NoTicket;
+	
+	/***
+	 * As IsAttemptRateLimited, but hands back a ticket for the admitted 
+	 * attempt, with which to settle its actual cost by ReconcileAttempt once
+	 * it has been handled. Tickets are primitive, taken from a fixed pool,
+	 * so admitting attempts this way allocates nothing more.
+	 * @param RLIdentity
+	 * @param cost The estimated cost, at least 1.
+	 * @return The ticket, always positive, or "NoTicket" if the attempt was
+	 * admitted without one, or "Refused" if it was rate limited.
+	 * @throws IllegalArgumentException If the cost is less than 1.
+	 */
+	final public long AdmitAttempt(RateLimitedIdentity RLIdentity, int cost) {
+		if(cost < 1) {
+			throw new IllegalArgumentException("An attempt must cost at least 1, not "+cost);
+		}
+		RateLimitTier limit = limitFor(RLIdentity);
+		if(!RecordNewAttempt(RLIdentity,cost,limit.RequestLimitHits,limit.TimeLimitSeconds)) {
+			return Refused;
+		}
+		return getAdmissionTickets().Issue(RLIdentity,0L,cost,limit.RequestLimitHits,limit.TimeLimitSeconds);
+	}
+	
+	/***
+	 * As IsIPAttemptRateLimited, but hands back a ticket for the admitted
+	 * attempt, with which to settle its actual cost by ReconcileAttempt.
+	 * @param address
+	 * @param cost The estimated cost, at least 1.
+	 * @return The ticket, always positive, or "NoTicket" if the attempt was
+	 * admitted without one, or "Refused" if it was rate limited.
+	 * @throws IllegalArgumentException If the cost is less than 1.
+	 */
+	final public long AdmitIPAttempt(InetAddress address, int cost) {
+		if(cost < 1) {
+			throw new IllegalArgumentException("An attempt must cost at least 1, not "+cost);
+		}
+		RateLimitTier limit = limitForIP(address);
+		long key = IPAddressKey.KeyOf(address);
+		if(getKeyedAttemptsMap().AdmitOrWait(key,cost,limit.RequestLimitHits,limit.TimeLimitSeconds,getClock().NanoTime()) != Admitted) {
+			return Refused;
+		}
+		return getAdmissionTickets().Issue(null,key,cost,limit.RequestLimitHits,limit.TimeLimitSeconds);
+	}
+	
+	/***
+	 * Settle the actual cost of an admitted attempt, debiting the identity
+	 * it was admitted for if it cost more than estimated, or refunding it if
+	 * less, against the limit it was admitted under, and return the ticket
+	 * to the pool. Each ticket is settled once; settling "NoTicket", 
+	 * "Refused" or a ticket already settled does nothing.
+	 * 
+	 * Debits may take an identity past its limit, refusing it until it has
+	 * paid the debt off. The counting and logging algorithms can only 
+	 * reconcile the attempts still within their window, and the logs settle
+	 * against the identity's newest attempt, which stays at least one.
+	 * @param ticket
+	 * @param actualCost At least 0.
+	 * @throws IllegalArgumentException If the actual cost is negative.
+	 */
+	final public void ReconcileAttempt(long ticket, int actualCost) {
+		if(actualCost < 0) {
+			throw new IllegalArgumentException("An attempt can't cost less than nothing, not "+actualCost);
+		}
+		AdmissionTickets tickets = getAdmissionTickets();
+		int slot = tickets.Redeem(ticket);
+		if(slot == AdmissionTickets.NoSlot) {
+			return;
+		}
+		try {
+			int extraCost = actualCost - tickets.Cost(slot);
+			RateLimitedIdentity RLIdentity = tickets.Identity(slot);
+			if(extraCost == 0) {
+				return;
+			} else if(RLIdentity == null) {
+				getKeyedAttemptsMap().ReconcileAttempt(tickets.Key(slot),extraCost,tickets.MaxAttempts(slot),tickets.WindowSeconds(slot),getClock().NanoTime());
+			} else {
+				ReconcileAttempt(RLIdentity,extraCost,tickets.MaxAttempts(slot),tickets.WindowSeconds(slot));
+			}
+		} finally {
+			tickets.Release(slot);
+		}
+	}
+	
+	/***
+	 * @return How many admission tickets are out, not yet settled.
+	 */
+	final public int outstandingTickets() {
+		return getAdmissionTickets().Outstanding();
+	}
+	
+	/*
+	 * In-flight limiting; limits how many requests each identity may have
+	 * admitted but not yet handled at once, whatever its rate, so that no
+	 * identity can hold open a thread per slow request. Counted exactly per
+	 * user or IP, not per end-point, and forgotten once none are in flight.
+	 */
+	
+	/***
+	 * Returned by AcquireInFlight and AcquireIPInFlight when the identity 
+	 * already has as many requests in flight as it may.
+	 */
+	static final public long InFlightRefused = InFlightCounters.Refused;
+	
+	/***
+	 * Count a request in flight for the user or IP of the identity, if it
+	 * has fewer than "MaxInFlightPerIdentity" in flight; to be released by
+	 * ReleaseInFlight once the request has been handled, however it ends.
+	 * @param RLIdentity
+	 * @return A permit with which to release the request, or 
+	 * "InFlightRefused". Any other permit must be released, even when there
+	 * is no limit and nothing was counted.
+	 */
+	final public long AcquireInFlight(RateLimitedIdentity RLIdentity) {
+		return getInFlightCounters().TryAcquire(OffHeapStateTable.KeyOf(RLIdentity.GetIdentity()),maxInFlightPerIdentity());
+	}
+	
+	/***
+	 * As above, for a request from the IP of the address, counted straight
+	 * from its bytes without forming an IP String.
+	 * @param address
+	 * @return A permit with which to release the request, or 
+	 * "InFlightRefused".
+	 */
+	final public long AcquireIPInFlight(InetAddress address) {
+		return getInFlightCounters().TryAcquire(IPAddressKey.KeyOf(address),maxInFlightPerIdentity());
+	}
+	
+	/***
+	 * Uncount a request acquired in flight, once it has been handled. Does
+	 * nothing for "InFlightRefused".
+	 * @param permit
+	 */
+	final public void ReleaseInFlight(long permit) {
+		getInFlightCounters().Release(permit);
+	}
+	
+	/***
+	 * @param RLIdentity
+	 * @return How many requests are counted in flight for the identity.
+	 */
+	final public int inFlight(RateLimitedIdentity RLIdentity) {
+		return getInFlightCounters().InFlight(OffHeapStateTable.KeyOf(RLIdentity.GetIdentity()));
+	}
+	
+	/***
+	 * @return How many users or IPs have requests counted in flight.
+	 */
+	final public int identitiesInFlight() {
+		return getInFlightCounters().Size();
+	}
+	
+	/***
+	 * @param RLIdentity
+	 * @return The message for a request refused as the identity had too
+	 * many in flight.
+	 */
+	final public String InFlightLimitedMessage(RateLimitedIdentity RLIdentity) {
+		return ("Found too many requests in flight from: "+RLIdentity.GetIdentity());
+	}
+	
+	/***
+	 * @param address
+	 * @return The message for a request refused as the IP had too many 
+	 * in flight.
+	 */
+	final public String InFlightLimitedMessage(InetAddress address) {
+		return ("Found too many requests in flight from IP: "+address.getHostAddress());
+	}
+	
+	/***
+	 * Serves a simple Http429 to the handed output stream, for a request
+	 * refused as its identity had too many in flight.
+	 * @param printWriter
+	 */
+	final public void ServeHttp429PerInFlight(PrintWriter printWriter) {
+		ServeHttpErrorResponse(printWriter,429,"Too many requests in flight. Try again once one has been handled");
+	}
+
+	/***
+	 * Serves a simple Http503 to the handed output stream, for a request
+	 * shed as the server was handling as many as its adaptive concurrency
+	 * limit allows; the server's doing, not the client's.
+	 * @param printWriter
+	 */
+	final public void ServeHttp503PerConcurrencyLimit(PrintWriter printWriter) {
+		ServeHttpErrorResponse(printWriter,503,"The server is busy. Try again shortly");
+	}
+	
+	/* STATIC METHOD TO GET NEW AbstractRateLimiter INSTANCES
+	 * Selects the implementing subclass from the algorithm in the behaviour.
+	 */
+	
+	/***
+	 * Make a new rate limiter, of the implementation 
+	 * that uses the algorithm named in the behaviour.
+	 * @param rateLimitingBehaviour
+	 * @return
+	 */
+	final public static AbstractRateLimiter<?> NewRateLimiter(RateLimitingBehaviour rateLimitingBehaviour) {
+		return NewRateLimiter(rateLimitingBehaviour, new MonotonicClock());
+	}
+	
+	/***
+	 * Make a new rate limiter, of the implementation that uses the algorithm
+	 * named in the behaviour, reading the time from the given clock.
+	 * @param rateLimitingBehaviour
+	 * @param clock
+	 * @return
+	 */
+	final public static AbstractRateLimiter<?> NewRateLimiter(RateLimitingBehaviour rateLimitingBehaviour, IClock clock) {
+		switch(rateLimitingBehaviour.Algorithm) {
+			case TokenBucket:
+				return new TokenBucketRateLimiter(rateLimitingBehaviour, clock);
+			case SlidingWindowCounter:
+				return new SlidingWindowCounterRateLimiter(rateLimitingBehaviour, clock);
+			case FixedWindowCounter:
+				return new FixedWindowCounterRateLimiter(rateLimitingBehaviour, clock);
+			case GCRA:
+				return new GCRARateLimiter(rateLimitingBehaviour, clock);
+			case RingBufferSlidingLog:
+				return new RingBufferRateLimiter(rateLimitingBehaviour, clock);
+			case OffHeapGCRA:
+				return new OffHeapGCRARateLimiter(rateLimitingBehaviour, clock);
+			case MultiTierGCRA:
+				return new MultiTierGCRARateLimiter(rateLimitingBehaviour, clock);
+			case SlidingLog:
+			default:
+				return new RateLimiter(rateLimitingBehaviour, clock);
+		}
 	}
 	
 	/* STATIC METHODS TO GET NEW RateLimitedIdentity INSTANCES
@@ -466,6 +1074,19 @@ public abstract class AbstractRateLimiter <RateLimitingMap> {
 		return new RateLimitedIdentity(identity,endpoint,RateLimitedIdentityType.Endpoint);
 	}
 	
+	/***
+	 * Define a method to return an inner instance that encapsulates the 
+	 * "Rate limited identity" when that identity is an End-point Identity,
+	 * keyed by the route of the end-point in a RouteRegistry.
+	 * @param identity
+	 * @param routeId
+	 * @param endpoint The endpoint of the route, as given by the registry.
+	 * @return
+	 */
+	final public static RateLimitedIdentity NewRateLimitedEndpoint(String identity,int routeId,String endpoint) {
+		return new RateLimitedIdentity(identity,endpoint,routeId,RateLimitedIdentityType.Endpoint);
+	}
+	
 	/*
 	 * Helper functions common to any implementing sub class trying to pick
 	 * which attempt map to put attempts in based on the behaviour with regards
@@ -485,11 +1106,7 @@ public abstract class AbstractRateLimiter <RateLimitingMap> {
 			case User:
 				return getUserAttemptsMap();
 			case Endpoint:
-				if(getEndpointAttemptsMap().containsKey(RLIdentity.GetIdentity())) {
-					return getEndpointAttemptsMap().get(RLIdentity.GetIdentity());
-				} else {
-					return null;
-				}
+				return getEndpointAttemptsMap();
 			default:
 				return null;
 		}
@@ -497,18 +1114,21 @@ public abstract class AbstractRateLimiter <RateLimitingMap> {
 	
 	/***
 	 * Returns the lookup key to be checked against in the map for
-	 * the local context of the RateLimitedIdentity
+	 * the local context of the RateLimitedIdentity; the identity String for
+	 * IP and user attempts, and the RateLimitedIdentity itself for end-point
+	 * attempts, which is equal to any other for the same identity and route
+	 * or endpoint, so no key is made for the pair.
 	 * @param RLIdentity
 	 * @return
 	 */
-	final protected String GetAttemptKeyForIdentity(RateLimitedIdentity RLIdentity){
+	final protected Object GetAttemptKeyForIdentity(RateLimitedIdentity RLIdentity){
 		switch(RLIdentity.GetRateLimitedIdentityType()) {
 			case IP:
 				return RLIdentity.GetIdentity();
 			case User:
 				return RLIdentity.GetIdentity();
 			case Endpoint:
-				return RLIdentity.GetEndpoint();
+				return RLIdentity;
 			default:
 				return null;
 		}
@@ -531,8 +1151,200 @@ public abstract class AbstractRateLimiter <RateLimitingMap> {
 	 * @param maxSeconds
 	 * @return
 	 */
-	abstract public boolean RecordNewAttempt(RateLimitedIdentity rateLimitedIdentity, int maxAttempts, int maxSeconds);
+	final public boolean RecordNewAttempt(RateLimitedIdentity rateLimitedIdentity, int maxAttempts, int maxSeconds) {
+		return RecordNewAttempt(rateLimitedIdentity, 1, maxAttempts, maxSeconds);
+	}
 	
+	/***
+	 * Record a new attempt from a rateLimitedIdentity costing "cost" 
+	 * attempts, such as an expensive search, if the identity has room for
+	 * all of it; it is recorded once, with its cost, in the same time as a
+	 * single attempt, and counts as "cost" attempts against "maxAttempts".
+	 * @param rateLimitedIdentity
+	 * @param cost At least 1.
+	 * @param maxAttempts
+	 * @param maxSeconds
+	 * @return
+	 */
+	abstract public boolean RecordNewAttempt(RateLimitedIdentity rateLimitedIdentity, int cost, int maxAttempts, int maxSeconds);
+
+	/***
+	 * As RecordNewAttempt, as of the clock's "now" in nanoseconds, already
+	 * read, so a batch of attempts can share one reading of the clock.
+	 * Every implementation overrides it to decide the attempt as of "now";
+	 * this default reads the clock again.
+	 * @param rateLimitedIdentity
+	 * @param cost At least 1.
+	 * @param maxAttempts
+	 * @param maxSeconds
+	 * @param now
+	 * @return
+	 */
+	protected boolean RecordNewAttemptAt(RateLimitedIdentity rateLimitedIdentity, int cost, int maxAttempts, int maxSeconds, long now) {
+		return RecordNewAttempt(rateLimitedIdentity, cost, maxAttempts, maxSeconds);
+	}
+
+	/***
+	 * As RecordNewAttempt, without blocking the calling thread on the
+	 * decision. Records the attempt on the calling thread, and returns it
+	 * already completed, as deciding attempts held in memory never waits;
+	 * implementations holding attempts in a slower store, such as on disk
+	 * or in another process, override it to complete on the store's own
+	 * threads instead.
+	 * @param rateLimitedIdentity
+	 * @param cost At least 1.
+	 * @param maxAttempts
+	 * @param maxSeconds
+	 * @return Completed with whether the attempt was recorded, or
+	 * exceptionally if deciding it failed.
+	 */
+	public CompletableFuture<Boolean> RecordNewAttemptAsync(RateLimitedIdentity rateLimitedIdentity, int cost, int maxAttempts, int maxSeconds) {
+		CompletableFuture<Boolean> recorded = new CompletableFuture<Boolean>();
+		try {
+			recorded.complete(RecordNewAttempt(rateLimitedIdentity, cost, maxAttempts, maxSeconds));
+		} catch (RuntimeException e) {
+			recorded.completeExceptionally(e);
+		}
+		return recorded;
+	}
+
+	/*
+	 * Batch admission; records the attempts of many identities, such as the
+	 * sub-resources one request fans out to, in one call. The batch is
+	 * decided as of one reading of the clock, and sorted so the attempts of
+	 * each identity are decided together; its limit is found once, and its
+	 * attempts are first tried as one attempt of their total cost, which
+	 * records them all with one lookup of the identity's state whenever
+	 * every one of them would be recorded. Only if not are they decided one
+	 * by one, in the order they were batched in, to split those recorded
+	 * from those refused; once one is refused, any costing as much are
+	 * refused without being looked up again. No lock is held across
+	 * identities, in whatever order.
+	 */
+
+	/***
+	 * Orders identities by their type and key, so those with the same state
+	 * are adjacent.
+	 */
+	static final private Comparator<RateLimitedIdentity> BatchOrder = Comparator
+			.comparing(RateLimitedIdentity::GetRateLimitedIdentityType)
+			.thenComparing(RateLimitedIdentity::GetIdentity)
+			.thenComparing(RateLimitedIdentity::GetEndpoint, Comparator.nullsFirst(Comparator.naturalOrder()))
+			.thenComparingInt(RateLimitedIdentity::GetRouteId);
+
+	/***
+	 * Record an attempt from each of the identities, each costing 1.
+	 * @param rateLimitedIdentities
+	 * @param maxAttempts
+	 * @param maxSeconds
+	 * @return Whether each attempt was recorded, in the order given.
+	 */
+	final public boolean[] RecordNewAttempts(RateLimitedIdentity[] rateLimitedIdentities, int maxAttempts, int maxSeconds) {
+		int[] costs = new int[rateLimitedIdentities.length];
+		Arrays.fill(costs, 1);
+		return RecordNewAttempts(rateLimitedIdentities, costs, new RateLimitTier(maxAttempts, maxSeconds));
+	}
+
+	/***
+	 * Record an attempt from each of the identities, costing the cost at
+	 * the same index.
+	 * @param rateLimitedIdentities
+	 * @param costs Each at least 1.
+	 * @param maxAttempts
+	 * @param maxSeconds
+	 * @return Whether each attempt was recorded, in the order given.
+	 * @throws IllegalArgumentException If there isn't one cost for each
+	 * identity, or a cost is less than 1.
+	 */
+	final public boolean[] RecordNewAttempts(RateLimitedIdentity[] rateLimitedIdentities, int[] costs, int maxAttempts, int maxSeconds) {
+		return RecordNewAttempts(rateLimitedIdentities, costs, new RateLimitTier(maxAttempts, maxSeconds));
+	}
+
+	/***
+	 * Record an attempt from each of the identities, costing the cost at
+	 * the same index, each against the limit the identity is held to.
+	 * @param rateLimitedIdentities
+	 * @param costs Each at least 1.
+	 * @return Whether each attempt was recorded, in the order given.
+	 * @throws IllegalArgumentException If there isn't one cost for each
+	 * identity, or a cost is less than 1.
+	 */
+	final public boolean[] RecordNewAttempts(RateLimitedIdentity[] rateLimitedIdentities, int[] costs) {
+		return RecordNewAttempts(rateLimitedIdentities, costs, null);
+	}
+
+	/***
+	 * @param RLIdentities
+	 * @param costs
+	 * @param limit The limit every identity is held to, or null for each
+	 * to be held to its own.
+	 * @return
+	 */
+	private boolean[] RecordNewAttempts(RateLimitedIdentity[] RLIdentities, int[] costs, RateLimitTier limit) {
+		if(costs.length != RLIdentities.length) {
+			throw new IllegalArgumentException("A batch needs one cost for each of its "+RLIdentities.length+" attempts, not "+costs.length);
+		}
+		for(int cost : costs) {
+			if(cost < 1) {
+				throw new IllegalArgumentException("An attempt must cost at least 1, not "+cost);
+			}
+		}
+		Integer[] order = new Integer[RLIdentities.length];
+		for(int k = 0; k < order.length; k++) {
+			order[k] = k;
+		}
+		// A stable sort, so attempts of an identity keep their order
+		Arrays.sort(order, (a, b) -> BatchOrder.compare(RLIdentities[a], RLIdentities[b]));
+		boolean[] recorded = new boolean[RLIdentities.length];
+		long now = getClock().NanoTime();
+		int first = 0;
+		while(first < order.length) {
+			RateLimitedIdentity RLIdentity = RLIdentities[order[first]];
+			// The attempts of the identity are from "first" up to "end"
+			int end = first + 1;
+			long totalCost = costs[order[first]];
+			while(end < order.length && BatchOrder.compare(RLIdentities[order[end]], RLIdentity) == 0) {
+				totalCost += costs[order[end]];
+				end++;
+			}
+			RateLimitTier identityLimit = limit == null ? limitFor(RLIdentity) : limit;
+			if(end - first > 1 && totalCost <= identityLimit.RequestLimitHits 
+					&& RecordNewAttemptAt(RLIdentity, (int) totalCost, identityLimit.RequestLimitHits, identityLimit.TimeLimitSeconds, now)) {
+				for(int k = first; k < end; k++) {
+					recorded[order[k]] = true;
+				}
+			} else {
+				RecordEachAttempt(RLIdentity, order, first, end, costs, identityLimit, now, recorded);
+			}
+			first = end;
+		}
+		return recorded;
+	}
+
+	/***
+	 * Decide the attempts of one identity one by one, in batch order.
+	 * @param RLIdentity
+	 * @param order
+	 * @param first
+	 * @param end
+	 * @param costs
+	 * @param identityLimit
+	 * @param now
+	 * @param recorded Set for each attempt recorded.
+	 */
+	private void RecordEachAttempt(RateLimitedIdentity RLIdentity, Integer[] order, int first, int end, int[] costs, RateLimitTier identityLimit, long now, boolean[] recorded) {
+		int refusedCost = Integer.MAX_VALUE;
+		for(int k = first; k < end; k++) {
+			int index = order[k];
+			if(costs[index] < refusedCost) {
+				recorded[index] = RecordNewAttemptAt(RLIdentity, costs[index], identityLimit.RequestLimitHits, identityLimit.TimeLimitSeconds, now);
+				if(!recorded[index]) {
+					refusedCost = costs[index];
+				}
+			}
+		}
+	}
+
 	/***
 	 * Query the data store to check when the next available request 
 	 * by an identity will be allowed. If the next attempt is allowed now, 
@@ -543,6 +1355,17 @@ public abstract class AbstractRateLimiter <RateLimitingMap> {
 	 * @return
 	 */
 	abstract public LocalDateTime CheckWhenNextRequestAllowed(RateLimitedIdentity rateLimitedIdentity, int maxAttempts, int maxSeconds);
+	
+	/***
+	 * Settle the cost of an attempt already recorded from a 
+	 * rateLimitedIdentity, once its actual cost is known.
+	 * @param rateLimitedIdentity
+	 * @param extraCost The actual cost less the cost recorded; positive to
+	 * debit the identity, negative to refund it.
+	 * @param maxAttempts
+	 * @param maxSeconds
+	 */
+	abstract public void ReconcileAttempt(RateLimitedIdentity rateLimitedIdentity, int extraCost, int maxAttempts, int maxSeconds);
 
 	
 	/*
@@ -0,0 +1,191 @@
+package RateLimiterService;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/***
+ * A global limit on how many requests may be handled at once, which adapts
+ * itself to the latency of the requests handled, rather than being set. A
+ * static limit is too loose while the backend is slow, letting requests
+ * queue, and too strict while it is quiet; this finds the concurrency at
+ * which requests are handled about as fast as they can be, and refuses
+ * requests past it, so they are shed rather than queued.
+ *
+ * The limit follows a gradient; the ratio of the baseline latency, the
+ * least latency recently seen, to the latency of each request handled.
+ * While requests take no longer than "Tolerance" times the baseline, the
+ * limit grows by about its square root per request, if it is being used;
+ * once they take longer, requests are queueing, so the limit shrinks in
+ * proportion. It settles where requests queue by about the square root of
+ * the limit. The baseline is the least latency of the last two windows of
+ * "BaselineWindow" requests, so it rises if the backend stays slow.
+ *
+ * Acquiring is a compare-and-set against the current limit, without a lock;
+ * only the limit's estimate is updated under a lock, once per request.
+ */
+final public class AdaptiveConcurrencyLimit {
+
+	static final public int InitialLimit_Standard = 20;
+
+	static final public int MinLimit_Standard = 1;
+
+	static final public int MaxLimit_Standard = 1000;
+
+	/***
+	 * How much longer than the baseline requests may take before the limit
+	 * shrinks.
+	 */
+	static final public double Tolerance = 1.5;
+
+	/***
+	 * How many requests the baseline latency is found over, before it is
+	 * allowed to rise.
+	 */
+	static final public int BaselineWindow = 1000;
+
+	/***
+	 * The least gradient applied by a single request, so one outlier can't
+	 * halve the limit more than once.
+	 */
+	static final private double MinGradient = 0.5;
+
+	/***
+	 * How far each request moves the limit's estimate toward its target.
+	 */
+	static final private double Smoothing = 0.2;
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private final AtomicInteger inFlight;
+
+	/***
+	 * The limit acquiring is checked against; the estimate, rounded down.
+	 */
+	private volatile int limit;
+
+	/*
+	 * Only read and written while synchronised
+	 */
+
+	private double estimate;
+
+	private long baselineNanos;
+
+	private long windowMinNanos;
+
+	private int windowSamples;
+
+	/***
+	 * Make a limit starting at "InitialLimit_Standard", adapting between
+	 * "MinLimit_Standard" and "MaxLimit_Standard".
+	 */
+	public AdaptiveConcurrencyLimit() {
+		this(InitialLimit_Standard, MinLimit_Standard, MaxLimit_Standard);
+	}
+
+	/***
+	 * Make a limit starting at "initialLimit", adapting between "minLimit"
+	 * and "maxLimit".
+	 * @param initialLimit
+	 * @param minLimit At least 1.
+	 * @param maxLimit
+	 * @throws IllegalArgumentException If the limits are not ordered
+	 * "1 <= minLimit <= initialLimit <= maxLimit".
+	 */
+	public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+		if(minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+			throw new IllegalArgumentException("An adaptive limit must start from "+minLimit+" to "+maxLimit+", not "+initialLimit);
+		}
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.inFlight = new AtomicInteger();
+		this.limit = initialLimit;
+		this.estimate = initialLimit;
+		this.baselineNanos = Long.MAX_VALUE;
+		this.windowMinNanos = Long.MAX_VALUE;
+		this.windowSamples = 0;
+	}
+
+	/***
+	 * Count a request in flight, if fewer than the limit are.
+	 * @return True, if the request may be handled; it must then be released
+	 * by Release or ReleaseWithoutSample, however it ends.
+	 */
+	public boolean TryAcquire() {
+		int current;
+		do {
+			current = inFlight.get();
+			if(current >= limit) {
+				return false;
+			}
+		} while(!inFlight.compareAndSet(current, current + 1));
+		return true;
+	}
+
+	/***
+	 * Uncount a request that has been handled, and adapt the limit to how
+	 * long it took.
+	 * @param latencyNanos How long handling it took.
+	 */
+	public void Release(long latencyNanos) {
+		int wasInFlight = inFlight.getAndDecrement();
+		Sample(Math.max(1L, latencyNanos), wasInFlight);
+	}
+
+	/***
+	 * Uncount a request that wasn't handled, such as one refused by a rate
+	 * limit after it was acquired, without adapting the limit.
+	 */
+	public void ReleaseWithoutSample() {
+		inFlight.decrementAndGet();
+	}
+
+	/***
+	 * @return How many requests may currently be in flight at once.
+	 */
+	public int Limit() {
+		return limit;
+	}
+
+	/***
+	 * @return How many requests are in flight.
+	 */
+	public int InFlight() {
+		return inFlight.get();
+	}
+
+	/***
+	 * @return The least latency recently seen, or Long.MAX_VALUE before any
+	 * request has been handled.
+	 */
+	public synchronized long BaselineNanos() {
+		return baselineNanos;
+	}
+
+	/***
+	 * Move the limit toward "limit * gradient + sqrt(limit)". Doesn't grow
+	 * it while fewer than half of it are in flight, as the latency then says
+	 * nothing about whether more could be handled.
+	 * @param latencyNanos
+	 * @param wasInFlight How many were in flight, with this request.
+	 */
+	private synchronized void Sample(long latencyNanos, int wasInFlight) {
+		baselineNanos = Math.min(baselineNanos, latencyNanos);
+		windowMinNanos = Math.min(windowMinNanos, latencyNanos);
+		if(++windowSamples == BaselineWindow) {
+			// Forget latencies from before the last window
+			baselineNanos = windowMinNanos;
+			windowMinNanos = Long.MAX_VALUE;
+			windowSamples = 0;
+		}
+		double gradient = Math.max(MinGradient, Math.min(1d, Tolerance * baselineNanos / latencyNanos));
+		if(gradient == 1d && wasInFlight * 2 < estimate) {
+			return;
+		}
+		double target = estimate * gradient + Math.sqrt(estimate);
+		estimate = Math.max(minLimit, Math.min(maxLimit, estimate * (1d - Smoothing) + target * Smoothing));
+		limit = (int) estimate;
+	}
+
+}
@@ -0,0 +1,129 @@
+package RateLimiterService;
+
+import java.net.InetAddress;
+
+/***
+ * A reusable, mutable holder of the primitive key of one identity, for
+ * admitting attempts with AbstractRateLimiter.TryAdmit without allocating.
+ * A thread keeps one AdmissionKey, sets it to each identity it admits an
+ * attempt for, and hands it to TryAdmit; setting the key hashes the
+ * identity straight from its chars or bytes, so no String, identity or
+ * endpoint object is made per decision.
+ *
+ * IP keys are the same keys as IPAddressKey gives, so an IP admitted by
+ * key and by socket address shares one limit. Users and endpoints are
+ * hashed with a tag for their kind, so a user, an endpoint and an IP never
+ * share a key by having the same text.
+ *
+ * Not thread safe; each thread should have its own.
+ */
+final public class AdmissionKey {
+
+	static final private long UserTag = 0x5555555555555555L;
+
+	static final private long EndpointTag = 0x3333333333333333L;
+
+	static final private long FNVOffset = 0xCBF29CE484222325L;
+
+	static final private long FNVPrime = 0x100000001B3L;
+
+	private long key;
+
+	/***
+	 * Make an AdmissionKey that holds no key, until set.
+	 */
+	public AdmissionKey() {
+		this.key = IPAddressKey.NoKey;
+	}
+
+	/***
+	 * Hold the key of an IPv4 address.
+	 * @param address The 32 bits of the address, in network order.
+	 * @return This AdmissionKey.
+	 */
+	public AdmissionKey ForIPv4(int address) {
+		this.key = IPAddressKey.KeyOfIPv4(address);
+		return this;
+	}
+
+	/***
+	 * Hold the key of an IP address.
+	 * @param address The 4 or 16 bytes of an IP address, in network order.
+	 * @return This AdmissionKey.
+	 */
+	public AdmissionKey ForIP(byte[] address) {
+		this.key = IPAddressKey.KeyOf(address);
+		return this;
+	}
+
+	/***
+	 * Hold the key of an IP address. InetAddress only hands out a copy of
+	 * its bytes, so this allocates one small array; to allocate nothing,
+	 * use ForIPv4 or ForIP with bytes already held.
+	 * @param address
+	 * @return This AdmissionKey.
+	 */
+	public AdmissionKey ForIP(InetAddress address) {
+		this.key = IPAddressKey.KeyOf(address);
+		return this;
+	}
+
+	/***
+	 * Hold the key of a user.
+	 * @param user
+	 * @return This AdmissionKey.
+	 */
+	public AdmissionKey ForUser(CharSequence user) {
+		this.key = Finish(Mix(FNVOffset ^ UserTag, user));
+		return this;
+	}
+
+	/***
+	 * Hold the key of an endpoint, as attempted by an identity.
+	 * @param identity The IP or user attempting the endpoint.
+	 * @param endpoint
+	 * @return This AdmissionKey.
+	 */
+	public AdmissionKey ForEndpoint(CharSequence identity, CharSequence endpoint) {
+		long hash = Mix(FNVOffset ^ EndpointTag, identity);
+		hash = (hash ^ identity.length()) * FNVPrime;
+		this.key = Finish(Mix(hash, endpoint));
+		return this;
+	}
+
+	/***
+	 * Hold the key of a route, from a RouteRegistry, as attempted by an
+	 * identity.
+	 * @param identity The IP or user attempting the route.
+	 * @param routeId
+	 * @return This AdmissionKey.
+	 */
+	public AdmissionKey ForRoute(CharSequence identity, int routeId) {
+		long hash = Mix(FNVOffset ^ EndpointTag, identity);
+		hash = (hash ^ ~identity.length()) * FNVPrime;
+		this.key = Finish(hash ^ routeId);
+		return this;
+	}
+
+	/***
+	 * @return The key held, or IPAddressKey.NoKey if none is.
+	 */
+	public long Key() {
+		return key;
+	}
+
+	private static long Mix(long hash, CharSequence chars) {
+		for(int k = 0; k < chars.length(); k++) {
+			hash = (hash ^ chars.charAt(k)) * FNVPrime;
+		}
+		return hash;
+	}
+
+	private static long Finish(long hash) {
+		hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+		hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		hash = hash ^ (hash >>> 33);
+		return hash == IPAddressKey.NoKey ? 1L : hash;
+	}
+
+}
@@ -0,0 +1,177 @@
+package RateLimiterService;
+
+/***
+ * A fixed pool of admission tickets, each holding what is needed to settle
+ * the cost of an admitted attempt once the request it admitted has been
+ * handled; the identity, or precomputed key, it was recorded against, the
+ * cost it was recorded with, and the limit it was recorded against.
+ * Tickets are handed out as primitive longs, packing the index of a pooled
+ * slot with the slot's generation, so issuing and settling a ticket
+ * allocates nothing, and a ticket settled twice, or after its slot has been
+ * reused, is recognised as stale and ignored.
+ *
+ * When every ticket is out, attempts are still admitted, but with
+ * "NoTicket", so their cost is never settled and stays as estimated.
+ */
+final class AdmissionTickets {
+
+	/***
+	 * Issued when the attempt was admitted, but no ticket was free.
+	 */
+	static final long NoTicket = 0L;
+
+	/***
+	 * Returned by Redeem for a ticket that isn't out.
+	 */
+	static final int NoSlot = -1;
+
+	/***
+	 * How many tickets a rate limiter can have out at once; as many as the
+	 * requests it would be handling at once.
+	 */
+	static final int DefaultCapacity = 1 << 12;
+
+	/***
+	 * The identity each ticket was admitted for, or null if it was admitted
+	 * by precomputed key.
+	 */
+	private final RateLimitedIdentity[] identities;
+
+	/***
+	 * The precomputed key each ticket was admitted for, if it has no identity.
+	 */
+	private final long[] keys;
+
+	private final int[] costs;
+
+	private final int[] maxAttempts;
+
+	private final int[] windowSeconds;
+
+	/***
+	 * The generation of each slot; changed each time it is issued or
+	 * redeemed, so only the latest ticket for a slot matches it.
+	 */
+	private final int[] generations;
+
+	/***
+	 * The indices of the slots not out, as a stack.
+	 */
+	private final int[] free;
+
+	private int freeCount;
+
+	/***
+	 * Make a pool of "DefaultCapacity" tickets.
+	 */
+	AdmissionTickets() {
+		this(DefaultCapacity);
+	}
+
+	/***
+	 * Make a pool of "capacity" tickets.
+	 * @param capacity
+	 */
+	AdmissionTickets(int capacity) {
+		this.identities = new RateLimitedIdentity[capacity];
+		this.keys = new long[capacity];
+		this.costs = new int[capacity];
+		this.maxAttempts = new int[capacity];
+		this.windowSeconds = new int[capacity];
+		this.generations = new int[capacity];
+		this.free = new int[capacity];
+		for(int k = 0; k < capacity; k++) {
+			free[k] = capacity - 1 - k;
+		}
+		this.freeCount = capacity;
+	}
+
+	/***
+	 * Take a ticket from the pool for an admitted attempt.
+	 * @param identity The identity admitted, or null if admitted by key.
+	 * @param key The key admitted, if there is no identity.
+	 * @param cost
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @return The ticket, always positive, or "NoTicket" if none are free.
+	 */
+	synchronized long Issue(RateLimitedIdentity identity, long key, int cost, int maxAttempts, int windowSeconds) {
+		if(freeCount == 0) {
+			return NoTicket;
+		}
+		int slot = free[--freeCount];
+		identities[slot] = identity;
+		keys[slot] = key;
+		costs[slot] = cost;
+		this.maxAttempts[slot] = maxAttempts;
+		this.windowSeconds[slot] = windowSeconds;
+		generations[slot] = NextGeneration(generations[slot]);
+		return ((long) generations[slot] << 32) | slot;
+	}
+
+	/***
+	 * Take a ticket back, so it can't be redeemed again; its slot can be
+	 * read until it is released.
+	 * @param ticket
+	 * @return The slot of the ticket, or "NoSlot" if it isn't out.
+	 */
+	synchronized int Redeem(long ticket) {
+		int slot = (int) ticket;
+		int generation = (int) (ticket >>> 32);
+		if(ticket <= NoTicket || slot < 0 || slot >= generations.length || generations[slot] != generation) {
+			return NoSlot;
+		}
+		generations[slot] = NextGeneration(generation);
+		return slot;
+	}
+
+	/***
+	 * Return a redeemed ticket's slot to the pool.
+	 * @param slot
+	 */
+	synchronized void Release(int slot) {
+		identities[slot] = null;
+		free[freeCount++] = slot;
+	}
+
+	/*
+	 * Reading a redeemed ticket's slot
+	 */
+
+	RateLimitedIdentity Identity(int slot) {
+		return identities[slot];
+	}
+
+	long Key(int slot) {
+		return keys[slot];
+	}
+
+	int Cost(int slot) {
+		return costs[slot];
+	}
+
+	int MaxAttempts(int slot) {
+		return maxAttempts[slot];
+	}
+
+	int WindowSeconds(int slot) {
+		return windowSeconds[slot];
+	}
+
+	/***
+	 * @return How many tickets are out.
+	 */
+	synchronized int Outstanding() {
+		return generations.length - freeCount;
+	}
+
+	/***
+	 * @param generation
+	 * @return The next generation, wrapping within the positive ints so
+	 * every ticket is positive.
+	 */
+	private static int NextGeneration(int generation) {
+		return generation == Integer.MAX_VALUE ? 1 : generation + 1;
+	}
+
+}
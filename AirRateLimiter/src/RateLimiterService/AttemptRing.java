@@ -0,0 +1,205 @@
+package RateLimiterService;
+
+import java.util.Arrays;
+
+/***
+ * The state of a single exact sliding log, held as a ring of primitive
+ * IClock.NanoTime() stamps rather than a queue of LocalDateTime objects.
+ * Attempts are appended at the tail and expire from the head, so the count
+ * of attempts, the expiry of old attempts and the next allowed time are all
+ * found from the head and tail indices without walking the log. The ring
+ * grows, by doubling, up to the most attempts it has been asked to allow,
+ * and never allocates once it has reached that size. An attempt costing
+ * more than one attempt is recorded once, with its cost, so the ring only
+ * holds the costs of its attempts once it has recorded a costlier one.
+ */
+final class AttemptRing {
+	
+	/***
+	 * Nanoseconds per second, used to convert the window length.
+	 */
+	static final private long NanosPerSecond = 1_000_000_000L;
+	
+	/***
+	 * The capacity of the ring when it is first made, if the most attempts
+	 * allowed is larger than this.
+	 */
+	static final private int InitialCapacity = 8;
+	
+	/***
+	 * The recorded attempts, oldest first from the head.
+	 */
+	private long[] stamps;
+	
+	/***
+	 * The index of the oldest recorded attempt.
+	 */
+	private int head;
+	
+	/***
+	 * How many attempts are recorded.
+	 */
+	private int size;
+	
+	/***
+	 * The cost of each recorded attempt, by the index of its stamp; null
+	 * while every attempt recorded has cost one.
+	 */
+	private int[] costs;
+	
+	/***
+	 * The total cost of the recorded attempts.
+	 */
+	private long weight;
+	
+	/***
+	 * Create a new, empty ring able to hold up to "maxAttempts" 
+	 * before it needs to grow.
+	 * @param maxAttempts
+	 */
+	AttemptRing(int maxAttempts) {
+		this.stamps = new long[Math.max(1, Math.min(InitialCapacity, maxAttempts))];
+		this.head = 0;
+		this.size = 0;
+		this.costs = null;
+		this.weight = 0L;
+	}
+	
+	/***
+	 * Expire the attempts older than the window, and record a new attempt
+	 * costing "cost" attempts if that leaves no more than "maxAttempts".
+	 * @param nowNanos
+	 * @param cost
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @return True, if the attempt was recorded.
+	 */
+	synchronized boolean TryRecord(long nowNanos, int cost, int maxAttempts, int windowSeconds) {
+		ExpireOlderThan(nowNanos - windowSeconds * NanosPerSecond);
+		if(weight + cost > maxAttempts) {
+			return false;
+		}
+		if(size == stamps.length) {
+			Grow(maxAttempts);
+		}
+		if(cost != 1 && costs == null) {
+			costs = new int[stamps.length];
+			Arrays.fill(costs, 1);
+		}
+		if(costs != null) {
+			costs[Index(size)] = cost;
+		}
+		stamps[Index(size)] = nowNanos;
+		size++;
+		weight += cost;
+		return true;
+	}
+	
+	/***
+	 * Expire the attempts older than the window, and settle the cost of the
+	 * newest attempt still recorded, once the actual cost of an attempt is
+	 * known; a debit may leave more than "maxAttempts" recorded, and a
+	 * refund leaves the attempt costing at least one, as it stays recorded.
+	 * @param nowNanos
+	 * @param extraCost The actual cost less the cost recorded; positive to
+	 * record more, negative to record less.
+	 * @param windowSeconds
+	 */
+	synchronized void Reconcile(long nowNanos, int extraCost, int windowSeconds) {
+		ExpireOlderThan(nowNanos - windowSeconds * NanosPerSecond);
+		if(size == 0) {
+			return;
+		}
+		int newest = Index(size - 1);
+		int cost = (costs == null) ? 1 : costs[newest];
+		int reconciled = (int) Math.max(1L, Math.min(Integer.MAX_VALUE, (long) cost + extraCost));
+		if(reconciled != 1 && costs == null) {
+			costs = new int[stamps.length];
+			Arrays.fill(costs, 1);
+		}
+		if(costs != null) {
+			costs[newest] = reconciled;
+		}
+		weight += reconciled - cost;
+	}
+	
+	/***
+	 * Expire the attempts older than the window, and work out how long until
+	 * enough further attempts expire for fewer than "maxAttempts" to remain.
+	 * Once the ring holds costs, this walks from the head to find the attempt
+	 * that must expire.
+	 * @param nowNanos
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @return Nanoseconds until an attempt would be recorded, or 0 if now.
+	 */
+	synchronized long NanosUntilNextRecord(long nowNanos, int maxAttempts, int windowSeconds) {
+		long windowNanos = windowSeconds * NanosPerSecond;
+		ExpireOlderThan(nowNanos - windowNanos);
+		if(weight < maxAttempts) {
+			return 0L;
+		} else if(maxAttempts <= 0) {
+			return windowNanos;
+		} else if(costs == null) {
+			// The attempt which must expire to bring the count under the limit
+			long stamp = stamps[Index(size - maxAttempts)];
+			return Math.max(0L, stamp + windowNanos - nowNanos);
+		} else {
+			long remaining = weight;
+			int expiring = 0;
+			while((remaining -= costs[Index(expiring)]) >= maxAttempts) {
+				expiring++;
+			}
+			return Math.max(0L, stamps[Index(expiring)] + windowNanos - nowNanos);
+		}
+	}
+	
+	/***
+	 * @return How many attempts are recorded, including any not yet expired.
+	 */
+	synchronized int Size() {
+		return size;
+	}
+	
+	/***
+	 * Drop attempts from the head that were recorded at or before the cutoff.
+	 * @param cutoffNanos
+	 */
+	private void ExpireOlderThan(long cutoffNanos) {
+		while(size > 0 && stamps[head] - cutoffNanos <= 0) {
+			weight -= (costs == null) ? 1 : costs[head];
+			head = Index(1);
+			size--;
+		}
+	}
+	
+	/***
+	 * Double the capacity of the ring, up to "maxAttempts", 
+	 * laying the recorded attempts out from index 0.
+	 * @param maxAttempts
+	 */
+	private void Grow(int maxAttempts) {
+		int capacity = Math.max(size + 1, Math.min(maxAttempts, stamps.length * 2));
+		long[] grown = new long[capacity];
+		int[] grownCosts = (costs == null) ? null : new int[capacity];
+		for(int k = 0; k < size; k++) {
+			grown[k] = stamps[Index(k)];
+			if(grownCosts != null) {
+				grownCosts[k] = costs[Index(k)];
+			}
+		}
+		stamps = grown;
+		costs = grownCosts;
+		head = 0;
+	}
+	
+	/***
+	 * @param offset
+	 * @return The index in the ring "offset" places after the head.
+	 */
+	private int Index(int offset) {
+		int index = head + offset;
+		return (index >= stamps.length) ? index - stamps.length : index;
+	}
+	
+}
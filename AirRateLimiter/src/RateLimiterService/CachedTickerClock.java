@@ -0,0 +1,87 @@
+package RateLimiterService;
+
+import java.time.LocalDateTime;
+
+/***
+ * A coarse clock which caches the time of another clock, updated by a
+ * background thread once per tick. Reading the time is then a single read
+ * of a volatile field, at the cost of being up to one tick out of date. The
+ * background thread is a daemon, so it does not keep the process alive, but
+ * should be stopped with close() when the clock is no longer in use.
+ */
+public class CachedTickerClock implements IClock, AutoCloseable {
+	
+	/***
+	 * The standard tick is to update the cached time every millisecond
+	 */
+	static final public long TickMillis_Standard = 1;
+	
+	/***
+	 * The clock whose time is cached.
+	 */
+	private final IClock source;
+	
+	/***
+	 * The time of the source clock as of the last tick.
+	 */
+	private volatile long cachedNanos;
+	
+	/***
+	 * The background thread updating the cached time.
+	 */
+	private final Thread ticker;
+	
+	/***
+	 * Make a clock caching a monotonic clock every millisecond.
+	 */
+	public CachedTickerClock() {
+		this(new MonotonicClock(), TickMillis_Standard);
+	}
+	
+	/***
+	 * Make a clock caching the source clock every "tickMillis" milliseconds.
+	 * @param source
+	 * @param tickMillis
+	 */
+	public CachedTickerClock(IClock source, long tickMillis) {
+		this.source = source;
+		this.cachedNanos = source.NanoTime();
+		this.ticker = new Thread(() -> Tick(tickMillis), "CachedTickerClock");
+		this.ticker.setDaemon(true);
+		this.ticker.start();
+	}
+	
+	@Override
+	public long NanoTime() {
+		return cachedNanos;
+	}
+	
+	@Override
+	public LocalDateTime LocalDateTimeAt(long nanoTime) {
+		return source.LocalDateTimeAt(nanoTime);
+	}
+	
+	/***
+	 * Stop updating the cached time.
+	 */
+	@Override
+	public void close() {
+		ticker.interrupt();
+	}
+	
+	/***
+	 * Update the cached time every tick until interrupted.
+	 * @param tickMillis
+	 */
+	private void Tick(long tickMillis) {
+		while(!Thread.currentThread().isInterrupted()) {
+			cachedNanos = source.NanoTime();
+			try {
+				Thread.sleep(tickMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+}
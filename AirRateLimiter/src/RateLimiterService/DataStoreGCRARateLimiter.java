@@ -0,0 +1,249 @@
+package RateLimiterService;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import RateLimiterService.RateLimitingBehaviour.RateLimitingAlgorithm;
+
+/***
+ * Implements the expectations of the AbstractRateLimiter with the Generic
+ * Cell Rate Algorithm (GCRA), as the GCRARateLimiter does, with the
+ * theoretical arrival time of each rate limited identity held in an
+ * IDataStore rather than in this rate limiter's memory; so it can be held
+ * out of process, such as by a RemoteDataStore, and shared by every server
+ * limiting the same identities. IP, user and end-point attempts share the
+ * one store, each under their own prefix. The store expires each identity
+ * once its attempts have aged out, so the tracking of identities in the
+ * behaviour isn't applied. Attempts made by address or precomputed key are
+ * held in the store too, under a prefix of their own.
+ *
+ * The theoretical arrival times are read from the clock, so every rate
+ * limiter sharing a store must read the same clock; such as the EpochClock,
+ * read by default. A MonotonicClock counts from an origin of its own process,
+ * so is refused for any store but one held in memory by this process.
+ */
+public class DataStoreGCRARateLimiter extends AbstractRateLimiter<DataStoreGCRARateLimitingMap> {
+
+	private volatile RateLimitingBehaviour rateLimitingBehaviour;
+	
+	private final ArrayList<String> hostileIPs;
+	
+	private final ArrayList<String> ValidUserAuths;
+	
+	private final DataStoreGCRARateLimitingMap IPAttempts;
+	
+	private final DataStoreGCRARateLimitingMap UserAttempts;
+	
+	private final DataStoreGCRARateLimitingMap EndpointAttempts;
+	
+	private final IClock clock;
+	
+	private final DataStoreGCRARateLimitingMap KeyedAttempts;
+	
+	private final IPAddressSet hostileIPAddresses;
+	
+	private final AdmissionTickets admissionTickets;
+	
+	private final InFlightCounters inFlightCounters;
+	
+	/***
+	 * The threads asynchronous attempts are decided on, or null to decide
+	 * them on the calling thread.
+	 */
+	private final Executor storeThreads;
+	
+	/*
+	 * Constructors
+	 */
+	
+	/***
+	 * Make a GCRA rate limiter with the given behaviour, holding its state
+	 * in the data store, reading the time from the given clock, and 
+	 * deciding asynchronous attempts on the store's threads.
+	 * @param rateLimitingBehaviour Of the GCRA algorithm.
+	 * @param dataStore
+	 * @param clock
+	 * @param storeThreads The threads on which to wait for the data store
+	 * when deciding attempts asynchronously, or null to wait on the calling
+	 * thread, as for a store held in memory.
+	 * @throws IllegalArgumentException If the behaviour isn't of GCRA, or the
+	 * clock is a MonotonicClock but the store isn't an InMemoryDataStore.
+	 */
+	public DataStoreGCRARateLimiter(RateLimitingBehaviour rateLimitingBehaviour, IDataStore dataStore, IClock clock, Executor storeThreads) {
+		if(rateLimitingBehaviour.Algorithm != RateLimitingAlgorithm.GCRA) {
+			throw new IllegalArgumentException("A data store rate limiter limits with GCRA, not "+rateLimitingBehaviour.Algorithm);
+		} else if(clock instanceof MonotonicClock && !(dataStore instanceof InMemoryDataStore)) {
+			throw new IllegalArgumentException("A data store shared by other processes needs a clock they share, such as the EpochClock, not a MonotonicClock");
+		}
+		this.rateLimitingBehaviour = rateLimitingBehaviour;
+		this.clock = clock;
+		this.storeThreads = storeThreads;
+		this.hostileIPs = new ArrayList<String>();
+		this.hostileIPAddresses = new IPAddressSet();
+		this.KeyedAttempts = new DataStoreGCRARateLimitingMap(dataStore, "keyed:");
+		this.admissionTickets = new AdmissionTickets();
+		this.inFlightCounters = new InFlightCounters();
+		this.ValidUserAuths = new ArrayList<String>();
+		this.IPAttempts = new DataStoreGCRARateLimitingMap(dataStore, "ip:");
+		this.UserAttempts = new DataStoreGCRARateLimitingMap(dataStore, "user:");
+		this.EndpointAttempts = new DataStoreGCRARateLimitingMap(dataStore, "endpoint:");
+	}
+	
+	/***
+	 * Make a GCRA rate limiter with the given behaviour, holding its state
+	 * in the data store, reading the time from the given clock.
+	 * @param rateLimitingBehaviour Of the GCRA algorithm.
+	 * @param dataStore
+	 * @param clock
+	 * @throws IllegalArgumentException If the behaviour isn't of GCRA, or the
+	 * clock is a MonotonicClock but the store isn't an InMemoryDataStore.
+	 */
+	public DataStoreGCRARateLimiter(RateLimitingBehaviour rateLimitingBehaviour, IDataStore dataStore, IClock clock) {
+		this(rateLimitingBehaviour, dataStore, clock, null);
+	}
+	
+	/***
+	 * Make a GCRA rate limiter with the given behaviour, holding its state
+	 * in the data store, reading the time from an EpochClock, as every other
+	 * process sharing the store can.
+	 * @param rateLimitingBehaviour Of the GCRA algorithm.
+	 * @param dataStore
+	 */
+	public DataStoreGCRARateLimiter(RateLimitingBehaviour rateLimitingBehaviour, IDataStore dataStore) {
+		this(rateLimitingBehaviour, dataStore, new EpochClock());
+	}
+	
+	/***
+	 * Make a GCRA rate limiter with the given behaviour, holding its state
+	 * in a data store of its own in memory.
+	 * @param rateLimitingBehaviour Of the GCRA algorithm.
+	 */
+	public DataStoreGCRARateLimiter(RateLimitingBehaviour rateLimitingBehaviour) {
+		this(rateLimitingBehaviour, new InMemoryDataStore());
+	}
+	
+	/*
+	 * Getter overrides
+	 */
+	
+	@Override
+	public RateLimitingBehaviour getRateLimitingBehaviour() {
+		return this.rateLimitingBehaviour;
+	}
+	
+	@Override
+	protected void setRateLimitingBehaviour(RateLimitingBehaviour rateLimitingBehaviour) {
+		this.rateLimitingBehaviour = rateLimitingBehaviour;
+	}
+	
+	@Override
+	protected DataStoreGCRARateLimitingMap getIPAttemptsMap() {
+		return IPAttempts;
+	}
+
+	@Override
+	protected DataStoreGCRARateLimitingMap getUserAttemptsMap() {
+		return UserAttempts;
+	}
+
+	@Override
+	protected DataStoreGCRARateLimitingMap getEndpointAttemptsMap() {
+		return EndpointAttempts;
+	}
+
+	@Override
+	protected ArrayList<String> getHostileIPs() {
+		return hostileIPs;
+	}
+	
+	@Override
+	protected IPAddressSet getHostileIPAddresses() {
+		return hostileIPAddresses;
+	}
+	
+	@Override
+	protected DataStoreGCRARateLimitingMap getKeyedAttemptsMap() {
+		return KeyedAttempts;
+	}
+	
+	@Override
+	protected AdmissionTickets getAdmissionTickets() {
+		return admissionTickets;
+	}
+	
+	@Override
+	protected InFlightCounters getInFlightCounters() {
+		return inFlightCounters;
+	}
+
+	@Override
+	protected ArrayList<String> getValidUserAuths() {
+		return ValidUserAuths;
+	}
+	
+	@Override
+	protected IClock getClock() {
+		return clock;
+	}
+	
+	/* Overrides
+	 * Functions that take a RateLimitedIdentity to record a new attempt
+	 * or check when the next request by that identity will be allowed
+	 */
+	
+	@Override
+	public boolean RecordNewAttempt(RateLimitedIdentity RLIdentity, int cost, int maxAttempts, int maxSeconds) {
+		return RecordNewAttemptAt(RLIdentity, cost, maxAttempts, maxSeconds, getClock().NanoTime());
+	}
+	
+	@Override
+	protected boolean RecordNewAttemptAt(RateLimitedIdentity RLIdentity, int cost, int maxAttempts, int maxSeconds, long now) {
+		if(maxAttempts <= 0) {
+			return false;
+		}
+		DataStoreGCRARateLimitingMap RLMap = GetAttemptMapForIdentity(RLIdentity);
+		return RLMap.TryRecordAttempt(StoreKeyOf(RLIdentity), cost, maxAttempts, maxSeconds, now);
+	}
+	
+	@Override
+	public CompletableFuture<Boolean> RecordNewAttemptAsync(RateLimitedIdentity RLIdentity, int cost, int maxAttempts, int maxSeconds) {
+		if(storeThreads == null) {
+			return super.RecordNewAttemptAsync(RLIdentity, cost, maxAttempts, maxSeconds);
+		}
+		return CompletableFuture.supplyAsync(() -> RecordNewAttempt(RLIdentity, cost, maxAttempts, maxSeconds), storeThreads);
+	}
+	
+	@Override
+	public void ReconcileAttempt(RateLimitedIdentity RLIdentity, int extraCost, int maxAttempts, int maxSeconds) {
+		DataStoreGCRARateLimitingMap RLMap = GetAttemptMapForIdentity(RLIdentity);
+		if(RLMap != null) {
+			RLMap.ReconcileAttempt(StoreKeyOf(RLIdentity), extraCost, maxAttempts, maxSeconds, getClock().NanoTime());
+		}
+	}
+	
+	@Override
+	public LocalDateTime CheckWhenNextRequestAllowed(RateLimitedIdentity RLIdentity, int maxAttempts, int maxSeconds) {
+		DataStoreGCRARateLimitingMap lookupMap = GetAttemptMapForIdentity(RLIdentity);
+		long now = getClock().NanoTime();
+		if(lookupMap == null) {
+			return getClock().LocalDateTimeAt(now);
+		} else {
+			String lookupKey = StoreKeyOf(RLIdentity);
+			long wait = lookupMap.NanosUntilNextAttempt(lookupKey, maxAttempts, maxSeconds, now);
+			return getClock().LocalDateTimeAt(now + wait);
+		}
+	}
+	
+	/***
+	 * The store is keyed by String, so end-point attempts are keyed by the
+	 * identity and route, or endpoint, joined.
+	 * @param RLIdentity
+	 * @return The key of the identity in its map.
+	 */
+	private static String StoreKeyOf(RateLimitedIdentity RLIdentity) {
+		return RLIdentity.IsIdentityAnEndpointAttempt() ? RLIdentity.GetEndpointKey() : RLIdentity.GetIdentity();
+	}
+	
+}
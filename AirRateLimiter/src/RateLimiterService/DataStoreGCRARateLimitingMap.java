@@ -0,0 +1,169 @@
+package RateLimiterService;
+
+/***
+ * Implements the Generic Cell Rate Algorithm (GCRA) as the GCRARateLimitingMap
+ * does, with each key's theoretical arrival time held in an IDataStore,
+ * rather than in memory, as an 8 byte state blob. Each attempt reads the
+ * blob and compare-and-sets it, retrying if another attempt set it first,
+ * so concurrent attempts, even from other processes sharing the store, can
+ * never over-record. Each blob expires at its theoretical arrival time,
+ * after which a key is no different from one that never made an attempt,
+ * so the store forgets idle keys by itself.
+ *
+ * Many maps can share one store, each keeping its keys under its own prefix.
+ * Attempts made by precomputed key are held under the key in hexadecimal,
+ * so the keyed attempts of every process sharing the store are shared too;
+ * unlike the off-heap map, each costs the store's round trips and a key
+ * String. The store forgets keys by itself, so none are counted as tracked.
+ */
+public class DataStoreGCRARateLimitingMap implements IKeyedAttemptsMap {
+
+	/***
+	 * Nanoseconds per second, used to convert the window length.
+	 */
+	static final private long NanosPerSecond = 1_000_000_000L;
+
+	private final IDataStore dataStore;
+
+	private final String prefix;
+
+	/***
+	 * Make a map holding its keys in the data store, under the prefix.
+	 * @param dataStore
+	 * @param prefix
+	 */
+	public DataStoreGCRARateLimitingMap(IDataStore dataStore, String prefix) {
+		this.dataStore = dataStore;
+		this.prefix = prefix;
+	}
+
+	/***
+	 * Record an attempt costing "cost" attempts against the theoretical
+	 * arrival time held for the key, advancing it by "cost" emission
+	 * intervals at once; allowed if it would arrive within the window.
+	 * @param key
+	 * @param cost
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return True, if the attempt was recorded.
+	 */
+	public boolean TryRecordAttempt(String key, int cost, int maxAttempts, int windowSeconds, long nowNanos) {
+		if(maxAttempts <= 0) {
+			return false;
+		}
+		return AdmitOrWaitAt(prefix + key, cost, maxAttempts, windowSeconds, nowNanos) == Admitted;
+	}
+
+	@Override
+	public long AdmitOrWait(long key, int cost, int maxAttempts, int windowSeconds, long nowNanos) {
+		if(maxAttempts <= 0) {
+			//Never admitted, so never "Admitted", even with no window
+			return Math.max(1L, windowSeconds * NanosPerSecond);
+		}
+		return AdmitOrWaitAt(prefix + Long.toHexString(key), cost, maxAttempts, windowSeconds, nowNanos);
+	}
+
+	@Override
+	public long NanosUntilAdmitted(long key, int maxAttempts, int windowSeconds, long nowNanos) {
+		return NanosUntilNextAttempt(Long.toHexString(key), maxAttempts, windowSeconds, nowNanos);
+	}
+
+	@Override
+	public void ReconcileAttempt(long key, int extraCost, int maxAttempts, int windowSeconds, long nowNanos) {
+		ReconcileAttempt(Long.toHexString(key), extraCost, maxAttempts, windowSeconds, nowNanos);
+	}
+
+	@Override
+	public int Size() {
+		return 0;
+	}
+
+	@Override
+	public long OffHeapBytes() {
+		return 0L;
+	}
+
+	/***
+	 * Record an attempt against the theoretical arrival time held under the
+	 * store key, as TryRecordAttempt does.
+	 * @param storeKey
+	 * @param cost
+	 * @param maxAttempts At least 1.
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return "Admitted", if the attempt was recorded, otherwise the
+	 * nanoseconds until it would be.
+	 */
+	private long AdmitOrWaitAt(String storeKey, int cost, int maxAttempts, int windowSeconds, long nowNanos) {
+		if(windowSeconds <= 0) {
+			return Admitted;
+		}
+		long window = windowSeconds * NanosPerSecond;
+		long increment = GCRARateLimitingMap.Span(cost, GCRARateLimitingMap.EmissionInterval(maxAttempts,windowSeconds), window);
+		long tolerance = window - increment;
+		byte[] current;
+		long updated;
+		do {
+			current = dataStore.Get(storeKey, nowNanos);
+			long base = current == null ? nowNanos : Math.max(InMemoryDataStore.DecodeLong(current), nowNanos);
+			if(base - nowNanos > tolerance) {
+				return Math.max(1L, base - tolerance - nowNanos);
+			}
+			updated = base + increment;
+		} while(!dataStore.CompareAndSet(storeKey, current, InMemoryDataStore.EncodeLong(updated), updated, nowNanos));
+		return Admitted;
+	}
+
+	/***
+	 * Settle the cost of an attempt already recorded against the key, as
+	 * GCRARateLimitingMap.ReconcileAttempt does; a debit of a key whose
+	 * blob has since expired is debited from now.
+	 * @param key
+	 * @param extraCost The actual cost less the cost recorded; positive to
+	 * debit the key, negative to refund it.
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 */
+	public void ReconcileAttempt(String key, int extraCost, int maxAttempts, int windowSeconds, long nowNanos) {
+		if(extraCost == 0 || maxAttempts <= 0 || windowSeconds <= 0) {
+			return;
+		}
+		String storeKey = prefix + key;
+		long window = windowSeconds * NanosPerSecond;
+		long adjustment = GCRARateLimitingMap.Span(extraCost, GCRARateLimitingMap.EmissionInterval(maxAttempts,windowSeconds), window);
+		byte[] current;
+		long updated;
+		do {
+			current = dataStore.Get(storeKey, nowNanos);
+			if(current == null && adjustment < 0) {
+				// Already expired, so has nothing left to refund
+				return;
+			}
+			long theoretical = current == null ? nowNanos : InMemoryDataStore.DecodeLong(current);
+			updated = GCRARateLimitingMap.Reconciled(theoretical, adjustment, window, nowNanos);
+		} while(!dataStore.CompareAndSet(storeKey, current, updated > nowNanos ? InMemoryDataStore.EncodeLong(updated) : null, updated, nowNanos));
+	}
+
+	/***
+	 * Check how long until the key is allowed to record another attempt.
+	 * @param key
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return Nanoseconds until an attempt would be recorded, or 0 if now, or
+	 * the key holds no theoretical arrival time.
+	 */
+	public long NanosUntilNextAttempt(String key, int maxAttempts, int windowSeconds, long nowNanos) {
+		byte[] current = dataStore.Get(prefix + key, nowNanos);
+		if(current == null || windowSeconds <= 0) {
+			return 0L;
+		} else if(maxAttempts <= 0) {
+			return windowSeconds * NanosPerSecond;
+		}
+		long tolerance = windowSeconds * NanosPerSecond - GCRARateLimitingMap.EmissionInterval(maxAttempts,windowSeconds);
+		return Math.max(0L, InMemoryDataStore.DecodeLong(current) - tolerance - nowNanos);
+	}
+
+}
@@ -0,0 +1,174 @@
+package RateLimiterService;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/***
+ * The wire protocol spoken between a RemoteDataStore and the server standing
+ * in for a remote data store. Each request is an operation byte followed by
+ * its arguments, answered by its result, over a connection kept open for
+ * many requests; keys are modified UTF-8, blobs are a length, -1 for null,
+ * then their bytes, and everything else is big-endian.
+ *
+ * IncrementAndGet: key, delta, expiresAt, now; answered by the counter.
+ * Get: key, now; answered by the blob.
+ * CompareAndSet: key, expected blob, update blob, expiresAt, now; answered
+ * by a boolean.
+ * IncrementAndGetAll: count, then a key and delta each, expiresAt, now;
+ * answered by a counter each.
+ * GetAll: count, then a key each, now; answered by a blob each.
+ *
+ * Blobs longer than MaxBlobLength, and batches of more than MaxBatchSize
+ * keys, are refused, so a peer can't have the other allocate whatever
+ * length it sends.
+ */
+final public class DataStoreProtocol {
+
+	static final public byte IncrementAndGet = 1;
+
+	static final public byte Get = 2;
+
+	static final public byte CompareAndSet = 3;
+
+	static final public byte IncrementAndGetAll = 4;
+
+	static final public byte GetAll = 5;
+
+	/***
+	 * The longest blob read; far longer than the state of any rate limiting
+	 * algorithm.
+	 */
+	static final public int MaxBlobLength = 1 << 16;
+
+	/***
+	 * The most keys a batched operation may hold.
+	 */
+	static final public int MaxBatchSize = 1 << 16;
+
+	private DataStoreProtocol() {}
+
+	/***
+	 * @param out
+	 * @param blob May be null.
+	 * @throws IOException If the stream fails, or the blob is longer than
+	 * MaxBlobLength.
+	 */
+	static public void WriteBlob(DataOutputStream out, byte[] blob) throws IOException {
+		if(blob != null && blob.length > MaxBlobLength) {
+			throw new IOException("A blob of "+blob.length+" bytes is longer than the "+MaxBlobLength+" the data store protocol allows");
+		}
+		if(blob == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(blob.length);
+			out.write(blob);
+		}
+	}
+
+	/***
+	 * @param in
+	 * @return The blob, or null.
+	 * @throws IOException If the stream fails, or the blob is longer than
+	 * MaxBlobLength.
+	 */
+	static public byte[] ReadBlob(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if(length < 0) {
+			return null;
+		}
+		if(length > MaxBlobLength) {
+			throw new IOException("A blob of "+length+" bytes is longer than the "+MaxBlobLength+" the data store protocol allows");
+		}
+		byte[] blob = new byte[length];
+		in.readFully(blob);
+		return blob;
+	}
+
+	/***
+	 * @param count How many keys a batch holds.
+	 * @throws IllegalArgumentException If it's more than MaxBatchSize.
+	 */
+	static public void CheckBatchSize(int count) {
+		if(count > MaxBatchSize) {
+			throw new IllegalArgumentException("A batch of "+count+" keys is more than the "+MaxBatchSize+" the data store protocol allows");
+		}
+	}
+
+	/***
+	 * @param in
+	 * @return The count of keys in a batch.
+	 * @throws IOException If the stream fails, or the count is negative or
+	 * more than MaxBatchSize.
+	 */
+	static private int ReadBatchSize(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		if(count < 0 || count > MaxBatchSize) {
+			throw new IOException("A batch of "+count+" keys is outside the 0 to "+MaxBatchSize+" the data store protocol allows");
+		}
+		return count;
+	}
+
+	/***
+	 * Read one request from the stream, apply it to the store, and write its
+	 * result to the other stream, unflushed.
+	 * @param store
+	 * @param in
+	 * @param out
+	 * @throws IOException If the streams fail, the operation is unknown, or
+	 * a blob or batch is over the protocol's bounds.
+	 */
+	static public void Serve(IDataStore store, DataInputStream in, DataOutputStream out) throws IOException {
+		byte operation = in.readByte();
+		switch(operation) {
+			case IncrementAndGet: {
+				String key = in.readUTF();
+				long delta = in.readLong();
+				long expiresAt = in.readLong();
+				out.writeLong(store.IncrementAndGet(key, delta, expiresAt, in.readLong()));
+				break;
+			}
+			case Get: {
+				String key = in.readUTF();
+				WriteBlob(out, store.Get(key, in.readLong()));
+				break;
+			}
+			case CompareAndSet: {
+				String key = in.readUTF();
+				byte[] expected = ReadBlob(in);
+				byte[] update = ReadBlob(in);
+				long expiresAt = in.readLong();
+				out.writeBoolean(store.CompareAndSet(key, expected, update, expiresAt, in.readLong()));
+				break;
+			}
+			case IncrementAndGetAll: {
+				int count = ReadBatchSize(in);
+				String[] keys = new String[count];
+				long[] deltas = new long[count];
+				for(int k = 0; k < count; k++) {
+					keys[k] = in.readUTF();
+					deltas[k] = in.readLong();
+				}
+				long expiresAt = in.readLong();
+				for(long counter : store.IncrementAndGetAll(keys, deltas, expiresAt, in.readLong())) {
+					out.writeLong(counter);
+				}
+				break;
+			}
+			case GetAll: {
+				int count = ReadBatchSize(in);
+				String[] keys = new String[count];
+				for(int k = 0; k < count; k++) {
+					keys[k] = in.readUTF();
+				}
+				for(byte[] blob : store.GetAll(keys, in.readLong())) {
+					WriteBlob(out, blob);
+				}
+				break;
+			}
+			default:
+				throw new IOException("Unknown data store operation "+operation);
+		}
+	}
+
+}
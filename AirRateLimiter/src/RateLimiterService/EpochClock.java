@@ -0,0 +1,59 @@
+package RateLimiterService;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/***
+ * A clock counting nanoseconds since the Unix epoch, so its readings mean
+ * the same in every process whose system time is synchronised; as the
+ * theoretical arrival times held in a data store shared by many servers
+ * must. The wall clock is read once, when the clock is made, and the time
+ * is advanced from it by System.nanoTime(), so readings never go backwards
+ * when the system time is corrected; processes agree only as closely as
+ * their system times did when their clocks were made.
+ */
+public class EpochClock implements IClock {
+
+	/***
+	 * Nanoseconds per millisecond, used to convert the wall clock time.
+	 */
+	static final private long NanosPerMilli = 1_000_000L;
+
+	/***
+	 * The wall clock time at which this clock was made, in nanoseconds
+	 * since the epoch.
+	 */
+	private final long anchorEpochNanos;
+
+	/***
+	 * The wall clock time at which this clock was made.
+	 */
+	private final LocalDateTime anchorTime;
+
+	/***
+	 * The System.nanoTime() at which this clock was made.
+	 */
+	private final long anchorNanos;
+
+	/***
+	 * Make an epoch clock anchored to the current wall clock time.
+	 */
+	public EpochClock() {
+		long epochMillis = System.currentTimeMillis();
+		this.anchorNanos = System.nanoTime();
+		this.anchorEpochNanos = epochMillis * NanosPerMilli;
+		this.anchorTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+	}
+
+	@Override
+	public long NanoTime() {
+		return anchorEpochNanos + (System.nanoTime() - anchorNanos);
+	}
+
+	@Override
+	public LocalDateTime LocalDateTimeAt(long nanoTime) {
+		return anchorTime.plusNanos(nanoTime - anchorEpochNanos);
+	}
+
+}
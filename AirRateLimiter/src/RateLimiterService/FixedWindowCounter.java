@@ -0,0 +1,121 @@
+package RateLimiterService;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/***
+ * The fixed-size state of a single fixed window counter; the index of the
+ * window being counted, and an atomic count of the attempts made in it. The
+ * count is reset lazily, by the first attempt to observe that the window has
+ * ended, so no background work is needed to start each new window. Attempts
+ * are counted with a compare-and-set, without holding a lock; only the reset
+ * at the start of each window is synchronised. The window length and limit
+ * are passed to each operation rather than stored, in keeping with the rate
+ * limiter handing "maxAttempts" and "maxSeconds" to every recorded attempt.
+ */
+final class FixedWindowCounter {
+	
+	/***
+	 * Nanoseconds per second, used to convert the window length.
+	 */
+	static final private long NanosPerSecond = 1_000_000_000L;
+	
+	/***
+	 * The index of the window being counted, as "nanoTime / window length".
+	 */
+	private volatile long epoch;
+	
+	/***
+	 * The count of attempts made in the window being counted.
+	 */
+	private final AtomicLong count;
+	
+	/***
+	 * Create a new counter with nothing counted in any window.
+	 */
+	FixedWindowCounter() {
+		this.epoch = Long.MIN_VALUE;
+		this.count = new AtomicLong();
+	}
+	
+	/***
+	 * Count an attempt of "cost" attempts in the current window, if that 
+	 * leaves no more than "maxAttempts" counted in it.
+	 * @param nowNanos
+	 * @param cost
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @return True, if the attempt was counted.
+	 */
+	boolean TryCount(long nowNanos, int cost, int maxAttempts, int windowSeconds) {
+		if(windowSeconds <= 0) {
+			return (maxAttempts > 0);
+		}
+		long current = Math.floorDiv(nowNanos, windowSeconds * NanosPerSecond);
+		if(epoch < current) {
+			Advance(current);
+		}
+		long counted;
+		do {
+			counted = count.get();
+			if(counted + cost > maxAttempts) {
+				return false;
+			}
+		} while(!count.compareAndSet(counted, counted + cost));
+		return true;
+	}
+	
+	/***
+	 * Settle the cost of an attempt already counted, once its actual cost is
+	 * known, in the current window; a debit may count past "maxAttempts", 
+	 * and a refund never counts below none. An attempt counted in a window
+	 * that has since ended can't be refunded, but is debited in the current.
+	 * @param nowNanos
+	 * @param extraCost The actual cost less the cost counted; positive to
+	 * count more, negative to count less.
+	 * @param windowSeconds
+	 */
+	void Reconcile(long nowNanos, int extraCost, int windowSeconds) {
+		if(windowSeconds <= 0) {
+			return;
+		}
+		long current = Math.floorDiv(nowNanos, windowSeconds * NanosPerSecond);
+		if(epoch < current) {
+			Advance(current);
+		}
+		count.accumulateAndGet(extraCost, (counted, extra) -> Math.max(0L, counted + extra));
+	}
+	
+	/***
+	 * Work out how long until the current window has room for another
+	 * attempt; either now, or at the end of the current window.
+	 * @param nowNanos
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @return Nanoseconds until an attempt would be counted, or 0 if now.
+	 */
+	long NanosUntilNextCount(long nowNanos, int maxAttempts, int windowSeconds) {
+		if(windowSeconds <= 0) {
+			return 0L;
+		}
+		long windowNanos = windowSeconds * NanosPerSecond;
+		long counted = epoch;
+		if(counted < Math.floorDiv(nowNanos, windowNanos) || count.get() < maxAttempts) {
+			return 0L;
+		} else {
+			return Math.max(0L, (counted + 1) * windowNanos - nowNanos);
+		}
+	}
+	
+	/***
+	 * Start counting a new window, unless another 
+	 * thread already started it.
+	 * @param current
+	 */
+	private synchronized void Advance(long current) {
+		if(epoch < current) {
+			count.set(0L);
+			epoch = current;
+		}
+	}
+	
+}
@@ -0,0 +1,88 @@
+package RateLimiterService;
+
+/***
+ * A class to abstract the instantiation of a thread-safe mapping
+ * from identity keys to a single FixedWindowCounter per key. Implements a true
+ * "Fixed Window Counter" methodology, where attempts are counted in
+ * consecutive windows of a fixed length, and up to twice the limit can be
+ * recorded in a short time across the boundary of two windows. In exchange,
+ * recording an attempt costs a single atomic increment.
+ */
+public class FixedWindowCounterRateLimitingMap extends StateMap<Object,FixedWindowCounter> {
+	
+	/***
+	 * Create a new instance of the map from 
+	 * identity keys to instances of FixedWindowCounter
+	 */
+	public FixedWindowCounterRateLimitingMap(){
+		super();
+	}
+	
+	/***
+	 * Count an attempt against the counter mapped to by the key, making a new
+	 * counter for the key if it is not yet mapped. Will not make a counter
+	 * when no attempts are allowed, as nothing could ever be counted in it.
+	 * @param key
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return True, if the attempt was counted.
+	 */
+	public boolean TryCountAttempt(Object key, int maxAttempts, int windowSeconds, long nowNanos) {
+		return TryCountAttempt(key, 1, maxAttempts, windowSeconds, nowNanos);
+	}
+	
+	/***
+	 * Count an attempt costing "cost" attempts against the counter mapped to
+	 * by the key, adding the whole cost at once.
+	 * @param key
+	 * @param cost
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return True, if the attempt was counted.
+	 */
+	public boolean TryCountAttempt(Object key, int cost, int maxAttempts, int windowSeconds, long nowNanos) {
+		if(maxAttempts <= 0) {
+			return false;
+		}
+		FixedWindowCounter counter = GetOrInitialiseState(key, k -> new FixedWindowCounter());
+		return counter.TryCount(nowNanos,cost,maxAttempts,windowSeconds);
+	}
+	
+	/***
+	 * Settle the cost of an attempt already counted against the counter
+	 * mapped to by the key, once its actual cost is known.
+	 * @param key
+	 * @param extraCost The actual cost less the cost counted; positive to
+	 * debit the key, negative to refund it.
+	 * @param windowSeconds
+	 * @param nowNanos
+	 */
+	public void ReconcileAttempt(Object key, int extraCost, int windowSeconds, long nowNanos) {
+		FixedWindowCounter counter = GetState(key);
+		if(counter != null && extraCost != 0) {
+			counter.Reconcile(nowNanos,extraCost,windowSeconds);
+		}
+	}
+	
+	/***
+	 * Check how long until the counter mapped to by the key 
+	 * has room to count another attempt.
+	 * @param key
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return Nanoseconds until an attempt would be counted, or 0 if now, or
+	 * the key is not mapped to a counter.
+	 */
+	public long NanosUntilNextCount(Object key, int maxAttempts, int windowSeconds, long nowNanos) {
+		FixedWindowCounter counter = GetState(key);
+		if(counter == null) {
+			return 0L;
+		} else {
+			return counter.NanosUntilNextCount(nowNanos,maxAttempts,windowSeconds);
+		}
+	}
+	
+}
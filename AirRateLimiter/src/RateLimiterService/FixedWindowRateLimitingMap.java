@@ -1,23 +1,118 @@
 package RateLimiterService;
 
 import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 /***
  * A class to abstract the instantiation of a thread-safe mapping
- * from Strings to a thread-safe queue of LocalDateTime objects.
+ * from identity keys to a thread-safe queue of LocalDateTime objects.
  * This is currently intended to be sufficient in implementing a
- * "Fixed Window Counter" methodology.
+ * "Fixed Window Counter" methodology. As every attempt within the last
+ * window is kept, it behaves as a "Sliding Log"; for a true fixed window
+ * see the FixedWindowCounterRateLimitingMap.
  */
-public class FixedWindowRateLimitingMap extends QueueMap<String,LocalDateTime> {
+public class FixedWindowRateLimitingMap extends QueueMap<Object,LocalDateTime> {
 	
+	/***
+	 * How many nanoseconds stamps may be moved ahead of the time they were
+	 * recorded to keep them unique, which expiry allows as a tolerance.
+	 */
 	public static final int deduplicationThresholdPerMilliSecond = 1000;
 	
 	/***
-	 * Create a new instance of the map from type 
-	 * String to queues of type LocalDateTime
+	 * The last time stamped per key, from which the next 
+	 * unique time in the key's queue is stamped.
+	 */
+	private final ConcurrentHashMap<Object,LocalDateTime> lastStamps;
+	
+	/***
+	 * The cost beyond one of each costlier attempt, by the key and stamp of
+	 * the attempt, which is queued once like any other. Only keys that have
+	 * recorded a costlier attempt, still within its window, have any.
+	 */
+	private final ConcurrentHashMap<Object,ExtraCosts> extraCosts;
+	
+	/***
+	 * The time, in the clock's nanoseconds, after which each key recorded
+	 * by TryRecordAttempt has no attempts left within any window it was
+	 * recorded with, and can be forgotten.
+	 */
+	private final ConcurrentHashMap<Object,Long> idleDeadlines;
+	
+	/***
+	 * The latest idle deadline of any key, after which the whole map is idle.
+	 */
+	private final AtomicLong latestIdleDeadline;
+	
+	/***
+	 * Revisits keys at their idle deadlines to forget the idle ones.
+	 */
+	private final TimingWheel<Object> idleKeys;
+	
+	/***
+	 * Caps how many keys TryRecordAttempt tracks, or null if uncapped.
+	 */
+	private final FrequencyAdmissionPolicy<Object,ConcurrentLinkedQueue<LocalDateTime>> admission;
+	
+	/***
+	 * Whether attempts are refused, rather than allowed, for keys that can't
+	 * be tracked as the map is full.
+	 */
+	private final boolean failClosedWhenUntracked;
+	
+	/***
+	 * The clock from which the time of each attempt is read.
+	 */
+	private final IClock clock;
+	
+	/***
+	 * Create a new instance of the map from 
+	 * identity keys to queues of type LocalDateTime
 	 */
 	public FixedWindowRateLimitingMap(){
+		this(new MonotonicClock());
+	}
+	
+	/***
+	 * Create a new instance of the map from identity keys to queues of 
+	 * type LocalDateTime, reading the time from the given clock
+	 * @param clock
+	 */
+	public FixedWindowRateLimitingMap(IClock clock){
+		this(clock, Integer.MAX_VALUE, false);
+	}
+	
+	/***
+	 * Create a new instance of the map from identity keys to queues of type
+	 * LocalDateTime, reading the time from the given clock, which tracks at
+	 * most "maxKeys" keys. Once full, a new key is only tracked if it has
+	 * recently been seen more often than a key it evicts; the evicted key's
+	 * attempts are forgotten, so it starts afresh if it returns. Attempts for
+	 * keys that aren't tracked are allowed, unless "failClosedWhenUntracked".
+	 * @param clock
+	 * @param maxKeys
+	 * @param failClosedWhenUntracked
+	 */
+	public FixedWindowRateLimitingMap(IClock clock, int maxKeys, boolean failClosedWhenUntracked){
 		super();
+		this.lastStamps = new ConcurrentHashMap<Object,LocalDateTime>();
+		this.extraCosts = new ConcurrentHashMap<Object,ExtraCosts>();
+		this.idleDeadlines = new ConcurrentHashMap<Object,Long>();
+		this.clock = clock;
+		long nowNanos = clock.NanoTime();
+		this.latestIdleDeadline = new AtomicLong(nowNanos);
+		this.idleKeys = new TimingWheel<Object>(nowNanos);
+		this.failClosedWhenUntracked = failClosedWhenUntracked;
+		if(maxKeys == Integer.MAX_VALUE) {
+			this.admission = null;
+		} else {
+			this.admission = new FrequencyAdmissionPolicy<Object,ConcurrentLinkedQueue<LocalDateTime>>(maxKeys,
+					(key, queue) -> GetQueue(key) == queue,
+					(key, queue) -> ForgetQueue(key, queue));
+		}
 	}
 	
 	/***
@@ -25,34 +120,33 @@ public class FixedWindowRateLimitingMap extends QueueMap<String,LocalDateTime> {
 	 * @param key
 	 * @return
 	 */
-	public LocalDateTime MakeNewQueueWithNowAtTip(String key) {
-		return InitialiseQueueWith(key,LocalDateTime.now());
+	public LocalDateTime MakeNewQueueWithNowAtTip(Object key) {
+		return InitialiseQueueWith(key,StampAfterLast(key,clock.Now()));
 	}
 	
 	/***
-	 * Attempts to deduplicate entries in the queue up to a threshold
-	 * amount of possible deduplications per millisecond (per JAVA 8 millis
-	 * being the maximum precision of LocalDateTime.now()). If the milli
-	 * second counter ticks up while trying to deduplicate, return that!
-	 * If fails to deduplicate, will return null as no entry could be made!
-	 * 
+	 * Stamps a time that is unique within the key's queue, by keeping the
+	 * last time stamped per key and moving each new time to a nanosecond 
+	 * after it if it would not otherwise be later. Each stamp is a single
+	 * atomic operation on the key's last stamp, so a burst of N attempts
+	 * read at the same time from a coarse clock costs O(N) in total, rather
+	 * than scanning the queue for each attempt.
 	 * @param key
 	 * @param now
 	 * @return
 	 */
-	private LocalDateTime DeduplicateValue(String key, LocalDateTime now) {
-		int thresholdCount = 0;
-		while(this.QueueContainsNonDiscreteValue(key, now)) {
-			now = now.plusNanos(1);
-			if(thresholdCount < deduplicationThresholdPerMilliSecond) {
-				thresholdCount++;
-			} else if(LocalDateTime.now().isAfter(now)){
-				return LocalDateTime.now();
-			} else {
-				return null;
-			}
-		}
-		return now;
+	private LocalDateTime StampAfterLast(Object key, LocalDateTime now) {
+		return lastStamps.merge(key, now, FixedWindowRateLimitingMap::LaterOrNext);
+	}
+	
+	/***
+	 * @param last
+	 * @param now
+	 * @return Now, if it is after the last stamp, otherwise 
+	 * a nanosecond after the last stamp.
+	 */
+	private static LocalDateTime LaterOrNext(LocalDateTime last, LocalDateTime now) {
+		return now.isAfter(last) ? now : last.plusNanos(1);
 	}
 	
 	/***
@@ -60,10 +154,301 @@ public class FixedWindowRateLimitingMap extends QueueMap<String,LocalDateTime> {
 	 * @param key
 	 * @return
 	 */
-	public LocalDateTime AddCurrentTimeToExistingQueue(String key) {
-		LocalDateTime now = DeduplicateValue(key,LocalDateTime.now());
+	public LocalDateTime AddCurrentTimeToExistingQueue(Object key) {
+		LocalDateTime now = StampAfterLast(key,clock.Now());
 		this.AddToQueue(key, now);
 		return now;
 	}
 	
-}
\ No newline at end of file
+	/***
+	 * Records the current time in the queue mapped to by the key, as a single
+	 * atomic step for that key; clears the attempts older than the window,
+	 * and only records the attempt if fewer than "maxAttempts" remain. Makes
+	 * the queue if the key is not yet mapped, unless no attempts are allowed,
+	 * or the map is full and the key is not admitted.
+	 * Concurrent attempts for the same key are decided one at a time, so they
+	 * can never record more than "maxAttempts" between them.
+	 * 
+	 * Each recorded attempt keeps its key from being forgotten until the
+	 * window it was recorded with has passed; keys are forgotten once idle
+	 * for that long, as later attempts advance the map's timing wheel.
+	 * @param key
+	 * @param maxAttempts
+	 * @param maxSeconds
+	 * @return The time recorded, or null if the attempt was not recorded. If
+	 * the key could not be tracked, the time now when failing open, as the
+	 * attempt is allowed without being recorded, or null when failing closed.
+	 */
+	public LocalDateTime TryRecordAttempt(Object key, int maxAttempts, int maxSeconds) {
+		return TryRecordAttempt(key, 1, maxAttempts, maxSeconds);
+	}
+	
+	/***
+	 * Records the current time in the queue mapped to by the key, for an
+	 * attempt costing "cost" attempts, if that leaves no more than
+	 * "maxAttempts" within the window. The attempt is queued once, as any
+	 * other, with its cost beyond one held by its stamp until it expires.
+	 * @param key
+	 * @param cost
+	 * @param maxAttempts
+	 * @param maxSeconds
+	 * @return The time recorded, or null if the attempt was not recorded, as
+	 * for a single attempt.
+	 */
+	public LocalDateTime TryRecordAttempt(Object key, int cost, int maxAttempts, int maxSeconds) {
+		return TryRecordAttemptAt(key, cost, maxAttempts, maxSeconds, clock.NanoTime());
+	}
+	
+	/***
+	 * As above, as of "nowNanos" already read from the map's clock, so a
+	 * batch of attempts can share one reading.
+	 * @param key
+	 * @param cost
+	 * @param maxAttempts
+	 * @param maxSeconds
+	 * @param nowNanos
+	 * @return The time recorded, or null if the attempt was not recorded.
+	 */
+	public LocalDateTime TryRecordAttemptAt(Object key, int cost, int maxAttempts, int maxSeconds, long nowNanos) {
+		if(admission != null) {
+			admission.RecordAccess(key);
+			if(maxAttempts > 0 && !MapsFromKey(key) && !admission.TryAdmit(key, Size())) {
+				return failClosedWhenUntracked ? null : clock.LocalDateTimeAt(nowNanos);
+			}
+		}
+		LocalDateTime[] recorded = new LocalDateTime[1];
+		boolean[] made = new boolean[1];
+		ConcurrentLinkedQueue<LocalDateTime> attempts = ComputeQueue(key, (k, queue) -> {
+			if(queue == null) {
+				if(maxAttempts <= 0) {
+					return null;
+				}
+				queue = new ConcurrentLinkedQueue<LocalDateTime>();
+				made[0] = true;
+			}
+			LocalDateTime now = clock.LocalDateTimeAt(nowNanos);
+			ClearAttemptsBefore(k, queue, now.minusSeconds(maxSeconds).plusNanos(deduplicationThresholdPerMilliSecond));
+			if(queue.size() + ExtraCost(k) + cost <= maxAttempts) {
+				recorded[0] = StampAfterLast(k, now);
+				queue.add(recorded[0]);
+				if(cost > 1) {
+					extraCosts.computeIfAbsent(k, unused -> new ExtraCosts()).Add(recorded[0], cost - 1);
+				}
+				ExtendIdleDeadline(k, nowNanos + maxSeconds * 1_000_000_000L);
+			}
+			return queue;
+		});
+		if(made[0] && admission != null) {
+			admission.Track(key, attempts);
+		}
+		ExpireIdleKeys(nowNanos);
+		return recorded[0];
+	}
+	
+	/***
+	 * Settle the cost of an attempt already recorded in the queue mapped to
+	 * by the key, once its actual cost is known, against the extra cost of
+	 * the newest attempt still queued; a debit may leave more than
+	 * "maxAttempts" within the window, and a refund leaves the attempt 
+	 * costing at least one, as it stays queued.
+	 * @param key
+	 * @param extraCost The actual cost less the cost recorded; positive to
+	 * debit the key, negative to refund it.
+	 * @param maxSeconds
+	 */
+	public void ReconcileAttempt(Object key, int extraCost, int maxSeconds) {
+		if(extraCost == 0 || !MapsFromKey(key)) {
+			return;
+		}
+		ComputeQueue(key, (k, queue) -> {
+			if(queue == null) {
+				return null;
+			}
+			LocalDateTime now = clock.Now();
+			ClearAttemptsBefore(k, queue, now.minusSeconds(maxSeconds).plusNanos(deduplicationThresholdPerMilliSecond));
+			LocalDateTime newest = lastStamps.get(k);
+			if(!queue.isEmpty() && newest != null) {
+				ExtraCosts extra = extraCosts.computeIfAbsent(k, unused -> new ExtraCosts());
+				extra.Adjust(newest, extraCost);
+				if(extra.total == 0L) {
+					extraCosts.remove(k);
+				}
+			}
+			return queue;
+		});
+	}
+	
+	/***
+	 * Moves the key's idle deadline later, if the new deadline is later, and
+	 * schedules the key on the timing wheel the first time it gets one. Only
+	 * called while computing the key's queue, so it is atomic for the key.
+	 * @param key
+	 * @param deadlineNanos
+	 */
+	private void ExtendIdleDeadline(Object key, long deadlineNanos) {
+		Long previous = idleDeadlines.get(key);
+		if(previous == null) {
+			idleDeadlines.put(key, deadlineNanos);
+			idleKeys.Schedule(key, deadlineNanos);
+		} else if(deadlineNanos > previous) {
+			idleDeadlines.put(key, deadlineNanos);
+		}
+		latestIdleDeadline.accumulateAndGet(deadlineNanos, Math::max);
+	}
+	
+	/***
+	 * Forget the keys that have been idle past their deadline. Costs O(1)
+	 * amortised over the calls to it, as the timing wheel only revisits the
+	 * keys that were due in the time since it was last advanced.
+	 * @return How many keys were forgotten.
+	 */
+	public int ExpireIdleKeys() {
+		return ExpireIdleKeys(clock.NanoTime());
+	}
+	
+	private int ExpireIdleKeys(long nowNanos) {
+		return idleKeys.Advance(nowNanos, key -> ExpireIfIdle(key, nowNanos));
+	}
+	
+	/***
+	 * Forgets the key's queue and stamps if it is past its idle deadline.
+	 * @param key
+	 * @param nowNanos
+	 * @return The key's idle deadline if it is not idle yet, otherwise 
+	 * TimingWheel.Expired.
+	 */
+	private long ExpireIfIdle(Object key, long nowNanos) {
+		long[] nextDeadline = {TimingWheel.Expired};
+		ComputeQueue(key, (k, queue) -> {
+			Long deadline = idleDeadlines.get(k);
+			if(deadline != null && deadline > nowNanos) {
+				nextDeadline[0] = deadline;
+				return queue;
+			}
+			ForgetStamps(k);
+			return null;
+		});
+		return nextDeadline[0];
+	}
+	
+	/***
+	 * Forgets the key's queue and stamps if it still maps to the queue.
+	 * @param key
+	 * @param queue
+	 * @return True, if the key was forgotten.
+	 */
+	private boolean ForgetQueue(Object key, ConcurrentLinkedQueue<LocalDateTime> queue) {
+		boolean[] forgotten = new boolean[1];
+		ComputeQueue(key, (k, current) -> {
+			if(current != queue) {
+				return current;
+			}
+			ForgetStamps(k);
+			forgotten[0] = true;
+			return null;
+		});
+		return forgotten[0];
+	}
+	
+	private void ForgetStamps(Object key) {
+		extraCosts.remove(key);
+		idleDeadlines.remove(key);
+		lastStamps.remove(key);
+	}
+	
+	/***
+	 * @return How many keys have been evicted to make room for others.
+	 */
+	public long Evictions() {
+		return admission == null ? 0L : admission.Evictions();
+	}
+	
+	/***
+	 * @return How many keys could not be tracked, as the map was full of
+	 * keys seen more often.
+	 */
+	public long Untracked() {
+		return admission == null ? 0L : admission.Rejections();
+	}	
+	/***
+	 * @return True, if every key has been idle past its deadline, so the
+	 * whole map can be forgotten.
+	 */
+	public boolean IsIdle() {
+		return clock.NanoTime() >= latestIdleDeadline.get();
+	}
+	
+	/***
+	 * @return The latest idle deadline of any key, in the clock's nanoseconds.
+	 */
+	public long LatestIdleDeadline() {
+		return latestIdleDeadline.get();
+	}
+	
+	/***
+	 * @param key
+	 * @return The cost of the key's recorded attempts beyond one each, so
+	 * the queue's size plus this is the total cost of its attempts.
+	 */
+	public long ExtraCost(Object key) {
+		ExtraCosts extra = extraCosts.get(key);
+		return extra == null ? 0L : extra.total;
+	}
+	
+	/***
+	 * Destroys recorded attempts from the tip of the key's queue that are 
+	 * older than the cutoff, with any extra cost they held.
+	 * @param key
+	 * @param queue
+	 * @param cutoff
+	 */
+	private void ClearAttemptsBefore(Object key, ConcurrentLinkedQueue<LocalDateTime> queue, LocalDateTime cutoff) {
+		ExtraCosts extra = extraCosts.get(key);
+		LocalDateTime tip;
+		while((tip = queue.peek()) != null && tip.isBefore(cutoff)) {
+			queue.poll();
+			if(extra != null) {
+				extra.Remove(tip);
+			}
+		}
+		if(extra != null && extra.total == 0L) {
+			extraCosts.remove(key);
+		}
+	}
+	
+	/***
+	 * The extra cost of one key's costlier attempts; only changed while
+	 * computing the key's queue, so one at a time.
+	 */
+	private static final class ExtraCosts {
+		
+		private final HashMap<LocalDateTime,Integer> byStamp = new HashMap<LocalDateTime,Integer>();
+		
+		private volatile long total;
+		
+		void Add(LocalDateTime stamp, int extraCost) {
+			byStamp.put(stamp, extraCost);
+			total += extraCost;
+		}
+		
+		void Adjust(LocalDateTime stamp, int extraCost) {
+			Integer previous = byStamp.get(stamp);
+			int before = previous == null ? 0 : previous;
+			int after = (int) Math.max(0L, Math.min(Integer.MAX_VALUE, (long) before + extraCost));
+			if(after == 0) {
+				byStamp.remove(stamp);
+			} else {
+				byStamp.put(stamp, after);
+			}
+			total += after - before;
+		}
+		
+		void Remove(LocalDateTime stamp) {
+			Integer extraCost = byStamp.remove(stamp);
+			if(extraCost != null) {
+				total -= extraCost;
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,169 @@
+package RateLimiterService;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+
+/***
+ * Caps how many keys a table tracks, deciding which keys to keep with a
+ * TinyLFU admission policy. Every access to a key is counted in a
+ * FrequencySketch. While the table is below its cap, new keys are always
+ * admitted; once it is full, a new key is only admitted if it has recently
+ * been seen more often than the eviction candidate, which is then evicted
+ * to make room. So clients that keep coming back stay resident, while a
+ * flood of keys seen once, like a scan of spoofed IPs, churns through
+ * without displacing them.
+ *
+ * Eviction candidates are taken from a ring of the tracked keys, in the
+ * order they were tracked. A candidate that survives a comparison goes to
+ * the back of the ring, so each comparison is against a different key, as
+ * the hand of a clock. Keys forgotten by the table itself, such as by idle
+ * expiry, are dropped from the ring as they reach its front; each key
+ * tracked turns the ring by a couple of places, so these never pile up.
+ * Admitting a key costs O(1) amortised.
+ *
+ * The table may exceed its cap by as many keys as are admitted at once.
+ * @param <K> The type of key
+ * @param <T> The type of value tracked for each key, used to tell a tracked
+ * key from a newer entry for the same key.
+ */
+final class FrequencyAdmissionPolicy<K,T> {
+
+	/***
+	 * A tracked key, and the value it was tracked with.
+	 * @param <K>
+	 * @param <T>
+	 */
+	private static final class Tracked<K,T> {
+
+		final K key;
+
+		final T value;
+
+		Tracked(K key, T value){
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	/***
+	 * How many keys at the front of the ring to tidy per key tracked.
+	 */
+	static final private int TidyPerTrack = 2;
+
+	private final int maxKeys;
+
+	private final FrequencySketch sketch;
+
+	private final ConcurrentLinkedQueue<Tracked<K,T>> ring;
+
+	/***
+	 * Whether the table still maps the key to the value it was tracked with.
+	 */
+	private final BiPredicate<K,T> isCurrent;
+
+	/***
+	 * Evicts the key from the table if it still maps to the value it was
+	 * tracked with, returning whether it did.
+	 */
+	private final BiPredicate<K,T> evict;
+
+	private final LongAdder evictions;
+
+	private final LongAdder rejections;
+
+	/***
+	 * Make a policy capping a table at "maxKeys"
+	 * @param maxKeys
+	 * @param isCurrent
+	 * @param evict
+	 */
+	FrequencyAdmissionPolicy(int maxKeys, BiPredicate<K,T> isCurrent, BiPredicate<K,T> evict){
+		this.maxKeys = maxKeys;
+		this.sketch = new FrequencySketch(maxKeys);
+		this.ring = new ConcurrentLinkedQueue<Tracked<K,T>>();
+		this.isCurrent = isCurrent;
+		this.evict = evict;
+		this.evictions = new LongAdder();
+		this.rejections = new LongAdder();
+	}
+
+	/***
+	 * Count an access to the key, whether or not it is tracked
+	 * @param key
+	 */
+	void RecordAccess(K key) {
+		sketch.Increment(key);
+	}
+
+	/***
+	 * Decide whether a key that is not tracked may be, evicting another key
+	 * to make room for it if the table is full.
+	 * @param key
+	 * @param size How many keys the table currently tracks.
+	 * @return True, if the key may be tracked.
+	 */
+	boolean TryAdmit(K key, int size) {
+		if(size < maxKeys) {
+			return true;
+		}
+		int frequency = sketch.Frequency(key);
+		Tracked<K,T> candidate;
+		while((candidate = ring.poll()) != null) {
+			if(!isCurrent.test(candidate.key, candidate.value)) {
+				continue;
+			}
+			if(frequency <= sketch.Frequency(candidate.key)) {
+				ring.add(candidate);
+				rejections.increment();
+				return false;
+			}
+			if(evict.test(candidate.key, candidate.value)) {
+				evictions.increment();
+				return true;
+			}
+		}
+		//Nothing left to evict; every tracked key is being admitted right now
+		rejections.increment();
+		return false;
+	}
+
+	/***
+	 * Record that the table has started tracking the key with the value,
+	 * and tidy the front of the ring.
+	 * @param key
+	 * @param value
+	 */
+	void Track(K key, T value) {
+		ring.add(new Tracked<K,T>(key,value));
+		for(int k = 0; k < TidyPerTrack; k++) {
+			Tracked<K,T> front = ring.poll();
+			if(front == null) {
+				return;
+			}
+			if(isCurrent.test(front.key, front.value)) {
+				ring.add(front);
+			}
+		}
+	}
+
+	/***
+	 * @return How many keys have been evicted to make room for others.
+	 */
+	long Evictions() {
+		return evictions.sum();
+	}
+
+	/***
+	 * @return How many keys were not admitted, as the table was full of
+	 * keys seen more often.
+	 */
+	long Rejections() {
+		return rejections.sum();
+	}
+
+	int MaxKeys() {
+		return maxKeys;
+	}
+
+}
@@ -0,0 +1,121 @@
+package RateLimiterService;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/***
+ * A count-min sketch estimating how often each key has been seen recently,
+ * in a fixed amount of memory however many distinct keys are seen. Each key
+ * is counted in one small counter per row, and its estimate is the least of
+ * them, so keys only ever overestimate by sharing counters with other keys.
+ * Counters saturate at 15, as the sketch only needs to tell keys seen a few
+ * times from keys seen once; and every counter is halved once enough keys
+ * have been counted, so the estimates follow recent frequency rather than
+ * all-time frequency.
+ *
+ * Counting is not atomic, so concurrent counts of the same counter may be
+ * lost; the estimates are only used to compare keys, so this is tolerated
+ * rather than paying for atomic updates on every attempt.
+ */
+final class FrequencySketch {
+
+	static final private int Rows = 4;
+
+	static final private int MaxCount = 15;
+
+	static final private int[] Seeds = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+	private final byte[][] counters;
+
+	private final int mask;
+
+	/***
+	 * How many keys to count before halving every counter.
+	 */
+	private final int sampleSize;
+
+	private final AtomicInteger counted;
+
+	/***
+	 * Make a sketch wide enough to count about "expectedKeys" distinct keys
+	 * @param expectedKeys
+	 */
+	FrequencySketch(int expectedKeys){
+		int width = Integer.highestOneBit(Math.max(64, Math.min(expectedKeys, 1 << 24)) - 1) << 1;
+		this.counters = new byte[Rows][width];
+		this.mask = width - 1;
+		this.sampleSize = 10 * width;
+		this.counted = new AtomicInteger();
+	}
+
+	/***
+	 * Count that the key has been seen once more
+	 * @param key
+	 */
+	void Increment(Object key) {
+		IncrementHash(key.hashCode());
+	}
+
+	/***
+	 * Count that the primitive key has been seen once more, without boxing it
+	 * @param key
+	 */
+	void Increment(long key) {
+		IncrementHash(Long.hashCode(key));
+	}
+
+	private void IncrementHash(int hash) {
+		for(int row = 0; row < Rows; row++) {
+			int index = IndexOf(hash, row);
+			if(counters[row][index] < MaxCount) {
+				counters[row][index]++;
+			}
+		}
+		if(counted.incrementAndGet() == sampleSize) {
+			Halve();
+		}
+	}
+
+	/***
+	 * @param key
+	 * @return An estimate, from 0 to 15, of how often the key has recently
+	 * been seen.
+	 */
+	int Frequency(Object key) {
+		return FrequencyOfHash(key.hashCode());
+	}
+
+	/***
+	 * @param key
+	 * @return An estimate, from 0 to 15, of how often the primitive key has
+	 * recently been seen.
+	 */
+	int Frequency(long key) {
+		return FrequencyOfHash(Long.hashCode(key));
+	}
+
+	private int FrequencyOfHash(int hash) {
+		int frequency = MaxCount;
+		for(int row = 0; row < Rows; row++) {
+			frequency = Math.min(frequency, counters[row][IndexOf(hash, row)]);
+		}
+		return frequency;
+	}
+
+	/***
+	 * Ages every count by halving it, then starts counting a new sample
+	 */
+	private void Halve() {
+		for(byte[] row : counters) {
+			for(int k = 0; k < row.length; k++) {
+				row[k] = (byte) (row[k] >> 1);
+			}
+		}
+		counted.set(0);
+	}
+
+	private int IndexOf(int hash, int row) {
+		int mixed = (hash ^ (hash >>> 16)) * Seeds[row];
+		return (mixed ^ (mixed >>> 15)) & mask;
+	}
+
+}
@@ -0,0 +1,220 @@
+package RateLimiterService;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+
+/***
+ * Implements the expectations of the AbstractRateLimiter with the Generic
+ * Cell Rate Algorithm (GCRA) per rate limited identity. Each identity holds
+ * only its "theoretical arrival time", advanced by one "emission interval" of
+ * "maxSeconds / maxAttempts" per recorded attempt in a single compare-and-set
+ * loop. Attempts are paced smoothly after an initial burst of "maxAttempts",
+ * and the next allowed time is known exactly from the theoretical arrival.
+ */
+public class GCRARateLimiter extends AbstractRateLimiter<GCRARateLimitingMap> {
+
+	private volatile RateLimitingBehaviour rateLimitingBehaviour;
+	
+	private final ArrayList<String> hostileIPs;
+	
+	private final ArrayList<String> ValidUserAuths;
+	
+	private final GCRARateLimitingMap IPAttempts;
+	
+	private final GCRARateLimitingMap UserAttempts;
+	
+	private final GCRARateLimitingMap EndpointAttempts;
+	
+	private final IClock clock;
+	
+	private final OffHeapGCRARateLimitingMap KeyedAttempts;
+	
+	private final IPAddressSet hostileIPAddresses;
+	
+	private final AdmissionTickets admissionTickets;
+	
+	private final InFlightCounters inFlightCounters;
+	
+	/*
+	 * Constructors
+	 */
+	
+	/***
+	 * Make a GCRA rate limiter with the given behaviour, 
+	 * reading the time from the given clock.
+	 * @param rateLimitingBehaviour
+	 * @param clock
+	 */
+	public GCRARateLimiter(RateLimitingBehaviour rateLimitingBehaviour, IClock clock) {
+		this.rateLimitingBehaviour = rateLimitingBehaviour;
+		this.clock = clock;
+		this.hostileIPs = new ArrayList<String>();
+		this.hostileIPAddresses = new IPAddressSet();
+		this.KeyedAttempts = NewKeyedAttemptsMap(this.rateLimitingBehaviour);
+		this.admissionTickets = new AdmissionTickets();
+		this.inFlightCounters = new InFlightCounters();
+		this.ValidUserAuths = new ArrayList<String>();
+		this.IPAttempts = new GCRARateLimitingMap();
+		this.UserAttempts = new GCRARateLimitingMap();
+		this.EndpointAttempts = new GCRARateLimitingMap();
+	}
+	
+	/***
+	 * Make a GCRA rate limiter with the given behaviour.
+	 * @param rateLimitingBehaviour
+	 */
+	public GCRARateLimiter(RateLimitingBehaviour rateLimitingBehaviour) {
+		this(rateLimitingBehaviour, new MonotonicClock());
+	}
+	
+	/***
+	 * The most generic constructor. Assign everything
+	 * @param RequestLimitHits
+	 * @param TimeLimitSeconds
+	 * @param storeHostileIPs
+	 * @param rateLimitByIP
+	 * @param rateLimitByUser
+	 * @param rateLimitByEndpoint
+	 * @param approvedUsersOnly
+	 */
+	public GCRARateLimiter(int RequestLimitHits, 
+								  int TimeLimitSeconds, 
+								  boolean storeHostileIPs, 
+								  boolean rateLimitByIP, 
+								  boolean rateLimitByUser, 
+								  boolean rateLimitByEndpoint, 
+								  boolean approvedUsersOnly) {
+		this(new RateLimitingBehaviour(RequestLimitHits,
+				TimeLimitSeconds,
+				storeHostileIPs,
+				rateLimitByIP,
+				rateLimitByUser,
+				rateLimitByEndpoint,
+				approvedUsersOnly));
+	}
+	
+	/***
+	 * Make a rate limiter which limits on End-points per User identities,
+	 * but allow generic assignment of the approvedUsers and 
+	 * the metrics by which the rate limiter operates.
+	 * @param RequestLimitHits
+	 * @param TimeLimitSeconds
+	 * @param approvedUsersOnly
+	 */
+	public GCRARateLimiter(int RequestLimitHits, int TimeLimitSeconds, boolean approvedUsersOnly) {
+		this(new RateLimitingBehaviour(RequestLimitHits,TimeLimitSeconds,approvedUsersOnly));
+	}
+	
+	/***
+	 * Least generic constructor. Makes a rate limiter with the standard
+	 * rate at which to limit, which limits on End-points per User Identities
+	 */
+	public GCRARateLimiter() {
+		this(new RateLimitingBehaviour());
+	}
+	
+	/*
+	 * Getter overrides
+	 */
+	
+	@Override
+	public RateLimitingBehaviour getRateLimitingBehaviour() {
+		return this.rateLimitingBehaviour;
+	}
+	
+	@Override
+	protected void setRateLimitingBehaviour(RateLimitingBehaviour rateLimitingBehaviour) {
+		this.rateLimitingBehaviour = rateLimitingBehaviour;
+	}
+	
+	@Override
+	protected GCRARateLimitingMap getIPAttemptsMap() {
+		return IPAttempts;
+	}
+
+	@Override
+	protected GCRARateLimitingMap getUserAttemptsMap() {
+		return UserAttempts;
+	}
+
+	@Override
+	protected GCRARateLimitingMap getEndpointAttemptsMap() {
+		return EndpointAttempts;
+	}
+
+	@Override
+	protected ArrayList<String> getHostileIPs() {
+		return hostileIPs;
+	}
+	
+	@Override
+	protected IPAddressSet getHostileIPAddresses() {
+		return hostileIPAddresses;
+	}
+	
+	@Override
+	protected OffHeapGCRARateLimitingMap getKeyedAttemptsMap() {
+		return KeyedAttempts;
+	}
+	
+	@Override
+	protected AdmissionTickets getAdmissionTickets() {
+		return admissionTickets;
+	}
+	
+	@Override
+	protected InFlightCounters getInFlightCounters() {
+		return inFlightCounters;
+	}
+
+	@Override
+	protected ArrayList<String> getValidUserAuths() {
+		return ValidUserAuths;
+	}
+	
+	@Override
+	protected IClock getClock() {
+		return clock;
+	}
+	
+	/* Overrides
+	 * Functions that take a RateLimitedIdentity to record a new attempt
+	 * or check when the next request by that identity will be allowed
+	 */
+	
+	@Override
+	public boolean RecordNewAttempt(RateLimitedIdentity RLIdentity, int cost, int maxAttempts, int maxSeconds) {
+		return RecordNewAttemptAt(RLIdentity, cost, maxAttempts, maxSeconds, getClock().NanoTime());
+	}
+	
+	@Override
+	protected boolean RecordNewAttemptAt(RateLimitedIdentity RLIdentity, int cost, int maxAttempts, int maxSeconds, long now) {
+		if(maxAttempts <= 0) {
+			return false;
+		}
+		GCRARateLimitingMap RLMap = GetAttemptMapForIdentity(RLIdentity);
+		return RLMap.TryRecordAttempt(GetAttemptKeyForIdentity(RLIdentity), cost, maxAttempts, maxSeconds, now);
+	}
+	
+	@Override
+	public void ReconcileAttempt(RateLimitedIdentity RLIdentity, int extraCost, int maxAttempts, int maxSeconds) {
+		GCRARateLimitingMap RLMap = GetAttemptMapForIdentity(RLIdentity);
+		if(RLMap != null) {
+			RLMap.ReconcileAttempt(GetAttemptKeyForIdentity(RLIdentity), extraCost, maxAttempts, maxSeconds, getClock().NanoTime());
+		}
+	}
+	
+	@Override
+	public LocalDateTime CheckWhenNextRequestAllowed(RateLimitedIdentity RLIdentity, int maxAttempts, int maxSeconds) {
+		GCRARateLimitingMap lookupMap = GetAttemptMapForIdentity(RLIdentity);
+		long now = getClock().NanoTime();
+		if(lookupMap == null) {
+			return getClock().LocalDateTimeAt(now);
+		} else {
+			Object lookupKey = GetAttemptKeyForIdentity(RLIdentity);
+			long wait = lookupMap.NanosUntilNextAttempt(lookupKey, maxAttempts, maxSeconds, now);
+			return getClock().LocalDateTimeAt(now + wait);
+		}
+	}
+	
+}
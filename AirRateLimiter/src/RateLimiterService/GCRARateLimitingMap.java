@@ -0,0 +1,189 @@
+package RateLimiterService;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/***
+ * A class to abstract the instantiation of a thread-safe mapping from
+ * identity keys to a single "theoretical arrival time" per key, implementing the
+ * Generic Cell Rate Algorithm (GCRA). Attempts are spaced by an "emission
+ * interval" of "windowSeconds / maxAttempts", and an attempt is allowed if
+ * it arrives no more than "windowSeconds" less one emission interval before
+ * its theoretical arrival time, which allows a burst of up to "maxAttempts".
+ * Each key holds one long, which is read and advanced with a single
+ * compare-and-set loop, so concurrent attempts can never over-record.
+ */
+public class GCRARateLimitingMap extends StateMap<Object,AtomicLong> {
+	
+	/***
+	 * Nanoseconds per second, used to convert the window length.
+	 */
+	static final private long NanosPerSecond = 1_000_000_000L;
+	
+	/***
+	 * The theoretical arrival time of a key that has never made an attempt;
+	 * always earlier than now, whatever the origin of the clock.
+	 */
+	static final private long NeverArrived = Long.MIN_VALUE;
+	
+	/***
+	 * How many windows ahead of now a theoretical arrival time may be moved
+	 * by a single attempt or debit, however large its cost.
+	 */
+	static final long MaxSpanWindows = 2L;
+	
+	/***
+	 * Create a new instance of the map from 
+	 * identity keys to theoretical arrival times
+	 */
+	public GCRARateLimitingMap(){
+		super();
+	}
+	
+	/***
+	 * Record an attempt against the theoretical arrival time mapped to by the
+	 * key, making a new one for the key if it is not yet mapped. Will not make
+	 * one when no attempts are allowed, as nothing could ever be recorded.
+	 * @param key
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return True, if the attempt was recorded.
+	 */
+	public boolean TryRecordAttempt(Object key, int maxAttempts, int windowSeconds, long nowNanos) {
+		return TryRecordAttempt(key, 1, maxAttempts, windowSeconds, nowNanos);
+	}
+	
+	/***
+	 * Record an attempt costing "cost" attempts against the theoretical
+	 * arrival time mapped to by the key, advancing it by "cost" emission
+	 * intervals at once; allowed if it would arrive within the window.
+	 * @param key
+	 * @param cost
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return True, if the attempt was recorded.
+	 */
+	public boolean TryRecordAttempt(Object key, int cost, int maxAttempts, int windowSeconds, long nowNanos) {
+		if(maxAttempts <= 0) {
+			return false;
+		} else if(windowSeconds <= 0) {
+			return true;
+		}
+		AtomicLong arrival = GetOrInitialiseState(key, k -> new AtomicLong(NeverArrived));
+		long window = windowSeconds * NanosPerSecond;
+		long increment = Span(cost, EmissionInterval(maxAttempts,windowSeconds), window);
+		long tolerance = window - increment;
+		long theoretical;
+		long base;
+		do {
+			theoretical = arrival.get();
+			base = Math.max(theoretical, nowNanos);
+			if(base - nowNanos > tolerance) {
+				return false;
+			}
+		} while(!arrival.compareAndSet(theoretical, base + increment));
+		return true;
+	}
+	
+	/***
+	 * Settle the cost of an attempt already recorded against the key, once
+	 * its actual cost is known; moves the theoretical arrival time later by
+	 * an emission interval per attempt debited, even past the window, or
+	 * earlier by one per attempt refunded, but never earlier than now.
+	 * @param key
+	 * @param extraCost The actual cost less the cost recorded; positive to
+	 * debit the key, negative to refund it.
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 */
+	public void ReconcileAttempt(Object key, int extraCost, int maxAttempts, int windowSeconds, long nowNanos) {
+		AtomicLong arrival = GetState(key);
+		if(arrival == null || extraCost == 0 || maxAttempts <= 0 || windowSeconds <= 0) {
+			return;
+		}
+		long window = windowSeconds * NanosPerSecond;
+		long adjustment = Span(extraCost, EmissionInterval(maxAttempts,windowSeconds), window);
+		long theoretical;
+		do {
+			theoretical = arrival.get();
+		} while(!arrival.compareAndSet(theoretical, Reconciled(theoretical, adjustment, window, nowNanos)));
+	}
+
+	/***
+	 * @param theoretical
+	 * @param adjustment The nanoseconds to debit, or refund if negative.
+	 * @param windowNanos
+	 * @param nowNanos
+	 * @return The theoretical arrival time, debited from no earlier than now
+	 * to no later than MaxSpanWindows windows from now, or refunded to no
+	 * earlier than now, nor moved if it already is.
+	 */
+	static long Reconciled(long theoretical, long adjustment, long windowNanos, long nowNanos) {
+		if(adjustment > 0) {
+			long base = Math.max(theoretical, nowNanos);
+			return base + Math.min(adjustment, nowNanos + MaxSpanWindows * windowNanos - base);
+		} else if(theoretical > nowNanos) {
+			return Math.max(theoretical + adjustment, nowNanos);
+		} else {
+			return theoretical;
+		}
+	}
+
+	/***
+	 * Check how long until the key is allowed to record another attempt.
+	 * @param key
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return Nanoseconds until an attempt would be recorded, or 0 if now, or
+	 * the key is not mapped to a theoretical arrival time.
+	 */
+	public long NanosUntilNextAttempt(Object key, int maxAttempts, int windowSeconds, long nowNanos) {
+		AtomicLong arrival = GetState(key);
+		if(arrival == null || windowSeconds <= 0) {
+			return 0L;
+		} else if(maxAttempts <= 0) {
+			return windowSeconds * NanosPerSecond;
+		}
+		long tolerance = windowSeconds * NanosPerSecond - EmissionInterval(maxAttempts,windowSeconds);
+		long theoretical = arrival.get();
+		if(theoretical == NeverArrived) {
+			return 0L;
+		} else {
+			return Math.max(0L, theoretical - tolerance - nowNanos);
+		}
+	}
+	
+	/***
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @return The nanoseconds by which consecutive attempts are spaced.
+	 */
+	static long EmissionInterval(int maxAttempts, int windowSeconds) {
+		return (windowSeconds * NanosPerSecond) / maxAttempts;
+	}
+	
+	/***
+	 * @param attempts Negative for a refund.
+	 * @param emissionInterval
+	 * @param windowNanos
+	 * @return The nanoseconds spanned by as many emission intervals as
+	 * attempts, saturated at MaxSpanWindows windows either way; so however
+	 * large the cost, a debit never wraps to a refund, nor a refusal to an
+	 * admission, and still waits out more than a whole window.
+	 */
+	static long Span(long attempts, long emissionInterval, long windowNanos) {
+		long maxSpan = MaxSpanWindows * windowNanos;
+		if(emissionInterval <= 0) {
+			return 0L;
+		} else if(attempts > maxSpan / emissionInterval) {
+			return maxSpan;
+		} else if(attempts < -maxSpan / emissionInterval) {
+			return -maxSpan;
+		}
+		return attempts * emissionInterval;
+	}
+	
+}
@@ -0,0 +1,34 @@
+package RateLimiterService;
+
+import java.time.LocalDateTime;
+
+/***
+ * Defines the source of time for the rate limiters. Rate limiting decisions
+ * are made against a monotonic count of nanoseconds, which unlike the wall
+ * clock does not jump when the system time is corrected, and which costs no
+ * allocation or time zone lookup to read. LocalDateTime values are only
+ * derived from it where the rate limiter contract requires them, such as
+ * reporting when the next request will be allowed.
+ */
+public interface IClock {
+	
+	/***
+	 * @return The current time, in nanoseconds from an arbitrary origin
+	 * fixed by the clock; only differences between readings are meaningful.
+	 */
+	long NanoTime();
+	
+	/***
+	 * @param nanoTime
+	 * @return The LocalDateTime corresponding to a reading of NanoTime().
+	 */
+	LocalDateTime LocalDateTimeAt(long nanoTime);
+	
+	/***
+	 * @return The current time, as a LocalDateTime.
+	 */
+	default LocalDateTime Now() {
+		return LocalDateTimeAt(NanoTime());
+	}
+	
+}
@@ -0,0 +1,89 @@
+package RateLimiterService;
+
+/***
+ * Defines the store the rate limiters' state can be held in, in place of
+ * the maps they hold in memory, so it can be moved out of process and
+ * shared between the servers limiting the same identities. Offers only the
+ * atomic primitives rate limiting algorithms need, each deciding one key in
+ * one step however many callers race on it; counters incremented with an
+ * expiry, for the counts of windows, and state blobs compared and set, for
+ * state such as GCRA's theoretical arrival times, plus batches of each, so
+ * a remote store can answer many keys in one round trip.
+ *
+ * Entries expire at a time given by the caller, in nanoseconds of the
+ * caller's IClock; the store keeps no clock of its own, so every caller
+ * sharing a store must read a clock with the same origin. An expired entry
+ * reads as absent, so idle identities are forgotten without being removed.
+ */
+public interface IDataStore {
+
+	/***
+	 * The expiry of an entry that never expires.
+	 */
+	static final long NeverExpires = Long.MAX_VALUE;
+
+	/***
+	 * Add "delta" to the counter at the key, starting it from 0 if it is
+	 * absent or expired, in which case it expires at "expiresAtNanos";
+	 * otherwise it keeps its expiry.
+	 * @param key
+	 * @param delta
+	 * @param expiresAtNanos
+	 * @param nowNanos
+	 * @return The counter, with "delta" added.
+	 */
+	long IncrementAndGet(String key, long delta, long expiresAtNanos, long nowNanos);
+
+	/***
+	 * @param key
+	 * @param nowNanos
+	 * @return The state blob at the key, or null if it is absent or expired.
+	 */
+	byte[] Get(String key, long nowNanos);
+
+	/***
+	 * Set the state blob at the key, if it is still the "expected" blob.
+	 * @param key
+	 * @param expected The blob expected at the key, or null if it is
+	 * expected to be absent or expired.
+	 * @param update The blob to set, or null to remove the key.
+	 * @param expiresAtNanos When the update expires.
+	 * @param nowNanos
+	 * @return True, if the blob at the key was the expected blob, and has
+	 * been set.
+	 */
+	boolean CompareAndSet(String key, byte[] expected, byte[] update, long expiresAtNanos, long nowNanos);
+
+	/***
+	 * As IncrementAndGet, for each key in turn, each with the delta at the
+	 * same index and the same expiry; a remote store answers in one round
+	 * trip.
+	 * @param keys
+	 * @param deltas
+	 * @param expiresAtNanos
+	 * @param nowNanos
+	 * @return Each counter, with its delta added, in the order given.
+	 */
+	default long[] IncrementAndGetAll(String[] keys, long[] deltas, long expiresAtNanos, long nowNanos) {
+		long[] counters = new long[keys.length];
+		for(int k = 0; k < keys.length; k++) {
+			counters[k] = IncrementAndGet(keys[k], deltas[k], expiresAtNanos, nowNanos);
+		}
+		return counters;
+	}
+
+	/***
+	 * As Get, for each key; a remote store answers in one round trip.
+	 * @param keys
+	 * @param nowNanos
+	 * @return Each blob, or null, in the order given.
+	 */
+	default byte[][] GetAll(String[] keys, long nowNanos) {
+		byte[][] blobs = new byte[keys.length][];
+		for(int k = 0; k < keys.length; k++) {
+			blobs[k] = Get(keys[k], nowNanos);
+		}
+		return blobs;
+	}
+
+}
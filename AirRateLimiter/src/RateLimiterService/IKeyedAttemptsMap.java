@@ -0,0 +1,64 @@
+package RateLimiterService;
+
+/***
+ * Defines the map in which a rate limiter limits attempts made by
+ * precomputed key; IP attempts made straight from the address of a socket,
+ * and attempts made with an AdmissionKey. A single limit is held to it by
+ * the OffHeapGCRARateLimitingMap, or in a data store by the
+ * DataStoreGCRARateLimitingMap, and every tier of a multi-tier limit by the
+ * MultiTierGCRARateLimitingMap; either way the "maxAttempts" per
+ * "windowSeconds" handed in are the limit, or the limit of the first tier.
+ */
+public interface IKeyedAttemptsMap {
+
+	/***
+	 * Returned by AdmitOrWait when the attempt was admitted.
+	 */
+	static final long Admitted = 0L;
+
+	/***
+	 * Record an attempt costing "cost" attempts against the key, if it is not
+	 * rate limited. Allocates nothing, unless held in a data store.
+	 * @param key
+	 * @param cost
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return "Admitted", if the attempt was recorded, otherwise the
+	 * nanoseconds until it would be.
+	 */
+	long AdmitOrWait(long key, int cost, int maxAttempts, int windowSeconds, long nowNanos);
+
+	/***
+	 * @param key
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return The nanoseconds until an attempt against the key would be
+	 * recorded, or 0 if it would be now; without recording anything.
+	 */
+	long NanosUntilAdmitted(long key, int maxAttempts, int windowSeconds, long nowNanos);
+
+	/***
+	 * Settle the cost of an attempt already recorded against the key, once
+	 * its actual cost is known.
+	 * @param key
+	 * @param extraCost The actual cost less the cost recorded; positive to
+	 * debit the key, negative to refund it.
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 */
+	void ReconcileAttempt(long key, int extraCost, int maxAttempts, int windowSeconds, long nowNanos);
+
+	/***
+	 * @return How many keys are tracked.
+	 */
+	int Size();
+
+	/***
+	 * @return How many bytes the map holds off the heap.
+	 */
+	long OffHeapBytes();
+
+}
@@ -0,0 +1,164 @@
+package RateLimiterService;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/***
+ * Turns IP addresses into primitive 64-bit keys, straight from the bytes of
+ * an InetAddress, so IP rate limiting never formats, hashes or allocates an
+ * address String. IPv4 addresses, including IPv4 addresses mapped into IPv6,
+ * are keyed exactly by their 32 bits. IPv6 addresses are keyed by their /64
+ * prefix, as a single client is usually given a whole /64, and could
+ * otherwise evade a limit by cycling through the addresses in it.
+ *
+ * Keys are spread with a reversible mix, so IPv4 keys never collide with
+ * each other, and are never 0, which is free to mean "no key".
+ */
+final public class IPAddressKey {
+	
+	/***
+	 * The key of nothing; never the key of an address.
+	 */
+	static final public long NoKey = 0L;
+	
+	/***
+	 * Set above the 32 bits of an IPv4 address before mixing, to keep IPv4
+	 * keys apart from the keys of IPv6 prefixes.
+	 */
+	static final private long IPv4Tag = 1L << 32;
+	
+	/***
+	 * Mixed into IPv6 prefixes, to keep their keys apart from IPv4 keys.
+	 */
+	static final private long IPv6Tag = 0x9E3779B97F4A7C15L;
+	
+	private IPAddressKey() {}
+	
+	/***
+	 * @param address
+	 * @return The key of the address.
+	 */
+	static public long KeyOf(InetAddress address) {
+		return KeyOf(address.getAddress());
+	}
+	
+	/***
+	 * @param address The 4 or 16 bytes of an IP address, in network order.
+	 * @return The key of the address, or NoKey if it is neither 4 nor 16 bytes.
+	 */
+	static public long KeyOf(byte[] address) {
+		if(address.length == 4) {
+			return IPv4Key(Int(address, 0));
+		} else if(address.length == 16) {
+			long prefix = Long(address, 0);
+			long suffix = Long(address, 8);
+			if(prefix == 0L && (suffix >>> 32) == 0xFFFFL) {
+				//An IPv4 address mapped into IPv6; ::ffff:a.b.c.d
+				return IPv4Key((int) suffix);
+			}
+			return NonZero(Mix(prefix ^ IPv6Tag));
+		} else {
+			return NoKey;
+		}
+	}
+	
+	/***
+	 * Key an IP address written as a String, without ever looking up a host
+	 * name; only dotted decimal IPv4 and colon separated IPv6 literals are
+	 * parsed.
+	 * @param IP
+	 * @return The key of the address, or NoKey if it is not an IP literal.
+	 */
+	static public long KeyOfLiteral(String IP) {
+		if(IP == null || IP.isEmpty()) {
+			return NoKey;
+		} else if(IP.indexOf(':') >= 0) {
+			try {
+				//Never a host name lookup, as host names can't contain colons
+				return KeyOf(InetAddress.getByName(IP));
+			} catch (UnknownHostException e) {
+				return NoKey;
+			}
+		} else {
+			return KeyOfIPv4Literal(IP);
+		}
+	}
+	
+	/***
+	 * @param address The 32 bits of an IPv4 address, in network order.
+	 * @return The key of the address.
+	 */
+	static public long KeyOfIPv4(int address) {
+		return IPv4Key(address);
+	}
+	
+	private static long KeyOfIPv4Literal(String IP) {
+		long address = IPv4OfLiteral(IP);
+		return address == NotIPv4 ? NoKey : IPv4Key((int) address);
+	}
+	
+	/***
+	 * Returned by IPv4OfLiteral for a String that isn't an IPv4 literal.
+	 */
+	static final long NotIPv4 = -1L;
+	
+	/***
+	 * @param IP
+	 * @return The 32 bits of a dotted decimal IPv4 literal, or NotIPv4.
+	 */
+	static long IPv4OfLiteral(String IP) {
+		int address = 0;
+		int octets = 0;
+		int octet = -1;
+		for(int k = 0; k <= IP.length(); k++) {
+			char c = k < IP.length() ? IP.charAt(k) : '.';
+			if(c == '.') {
+				if(octet < 0 || ++octets > 4) {
+					return NotIPv4;
+				}
+				address = (address << 8) | octet;
+				octet = -1;
+			} else if(c >= '0' && c <= '9') {
+				octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+				if(octet > 255) {
+					return NotIPv4;
+				}
+			} else {
+				return NotIPv4;
+			}
+		}
+		return octets == 4 ? (address & 0xFFFFFFFFL) : NotIPv4;
+	}
+	
+	private static long IPv4Key(int address) {
+		return Mix(IPv4Tag | (address & 0xFFFFFFFFL));
+	}
+	
+	private static int Int(byte[] bytes, int from) {
+		return ((bytes[from] & 0xFF) << 24)
+				| ((bytes[from + 1] & 0xFF) << 16)
+				| ((bytes[from + 2] & 0xFF) << 8)
+				| (bytes[from + 3] & 0xFF);
+	}
+	
+	private static long Long(byte[] bytes, int from) {
+		return ((long) Int(bytes, from) << 32) | (Int(bytes, from + 4) & 0xFFFFFFFFL);
+	}
+	
+	/***
+	 * A reversible mix of every bit of the value into every other; distinct
+	 * values always give distinct results, and only 0 gives 0.
+	 * @param value
+	 * @return
+	 */
+	private static long Mix(long value) {
+		value = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+		value = (value ^ (value >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return value ^ (value >>> 33);
+	}
+	
+	private static long NonZero(long key) {
+		return key == NoKey ? 1L : key;
+	}
+	
+}
@@ -0,0 +1,88 @@
+package RateLimiterService;
+
+import java.net.InetAddress;
+
+/***
+ * A thread-safe set of IP addresses, keyed by the primitive IPAddressKey of
+ * each address and held off the heap, so checking whether the address of a
+ * new connection is in the set never formats the address as a String.
+ */
+public class IPAddressSet {
+	
+	/***
+	 * Slots of no words; only the key of each address.
+	 */
+	private final OffHeapStateTable addresses;
+	
+	/***
+	 * Leaves the slot of an address as it is; it has no words.
+	 */
+	static final private OffHeapStateTable.SlotFunction Present = (slot, nowNanos, unused, unusedToo) -> 0L;
+	
+	/***
+	 * Create a new empty set of IP addresses
+	 */
+	public IPAddressSet() {
+		this.addresses = new OffHeapStateTable(2, 16, null, Integer.MAX_VALUE);
+	}
+	
+	/***
+	 * @param address
+	 * @return True, if the address is in the set.
+	 */
+	public boolean Contains(InetAddress address) {
+		return Contains(IPAddressKey.KeyOf(address));
+	}
+	
+	/***
+	 * @param key
+	 * @return True, if the key of an address is in the set.
+	 */
+	public boolean Contains(long key) {
+		return key != IPAddressKey.NoKey && addresses.Contains(key);
+	}
+	
+	/***
+	 * Add the address to the set
+	 * @param address
+	 */
+	public void Add(InetAddress address) {
+		Add(IPAddressKey.KeyOf(address));
+	}
+	
+	/***
+	 * Add the key of an address to the set
+	 * @param key
+	 */
+	public void Add(long key) {
+		if(key != IPAddressKey.NoKey) {
+			addresses.Compute(key, Present, 0L, 0L, 0L, 0L);
+		}
+	}
+	
+	/***
+	 * Remove the address from the set
+	 * @param address
+	 */
+	public void Remove(InetAddress address) {
+		Remove(IPAddressKey.KeyOf(address));
+	}
+	
+	/***
+	 * Remove the key of an address from the set
+	 * @param key
+	 */
+	public void Remove(long key) {
+		if(key != IPAddressKey.NoKey) {
+			addresses.Remove(key);
+		}
+	}
+	
+	/***
+	 * @return How many addresses are in the set.
+	 */
+	public int Size() {
+		return addresses.Size();
+	}
+	
+}
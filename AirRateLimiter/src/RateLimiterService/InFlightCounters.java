@@ -0,0 +1,91 @@
+package RateLimiterService;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/***
+ * Counts the requests each identity has in flight, admitted but not yet
+ * handled, so that no identity can hold more than a set number open at
+ * once, however slowly they are handled. Each identity's key has its own
+ * exact count, held only while it has requests in flight, and removed once
+ * its last is released, so counting holds nothing for idle identities; the
+ * map is striped for contention only, never sharing a count between keys.
+ */
+final class InFlightCounters {
+
+	/***
+	 * Returned by TryAcquire when the identity already has its limit in
+	 * flight; never a permit.
+	 */
+	static final long Refused = -1;
+
+	/***
+	 * Returned by TryAcquire when there is no limit, so nothing was counted;
+	 * never a permit.
+	 */
+	static final long Uncounted = -2;
+
+	private final ConcurrentHashMap<Long, Integer> counts = new ConcurrentHashMap<Long, Integer>();
+
+	/***
+	 * Count a request in flight for the key, if that leaves no more than
+	 * "maxInFlight" in flight for it. The request is counted before it is
+	 * checked, and uncounted if over the limit, so racing requests can
+	 * never leave more than "maxInFlight" in flight between them.
+	 * @param key A hashed identity, such as from OffHeapStateTable.KeyOf
+	 * or IPAddressKey.KeyOf.
+	 * @param maxInFlight 0 for no limit.
+	 * @return The permit with which to Release the request, "Uncounted" if
+	 * there is no limit, or "Refused".
+	 */
+	long TryAcquire(long key, int maxInFlight) {
+		if(maxInFlight <= 0) {
+			return Uncounted;
+		}
+		long permit = PermitOf(key);
+		if(counts.merge(permit, 1, Integer::sum) > maxInFlight) {
+			Release(permit);
+			return Refused;
+		}
+		return permit;
+	}
+
+	/***
+	 * Uncount a request acquired with the permit, once it has been handled,
+	 * forgetting its key once none are left in flight. Does nothing for
+	 * "Uncounted" or "Refused".
+	 * @param permit
+	 */
+	void Release(long permit) {
+		if(permit != Refused && permit != Uncounted) {
+			counts.computeIfPresent(permit, (key, inFlight) -> inFlight == 1 ? null : inFlight - 1);
+		}
+	}
+
+	/***
+	 * @param key
+	 * @return How many requests are in flight for the key.
+	 */
+	int InFlight(long key) {
+		return counts.getOrDefault(PermitOf(key), 0);
+	}
+
+	/***
+	 * @return How many keys have requests in flight.
+	 */
+	int Size() {
+		return counts.size();
+	}
+
+	/***
+	 * The permit of a key is the key itself, but for the two keys that are
+	 * "Refused" and "Uncounted", which take their bitwise complements, so
+	 * share the counts of the keys 0 and 1; as likely as any two identities
+	 * hashing to the same key.
+	 * @param key
+	 * @return
+	 */
+	private static long PermitOf(long key) {
+		return key == Refused || key == Uncounted ? ~key : key;
+	}
+
+}
@@ -0,0 +1,133 @@
+package RateLimiterService;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/***
+ * Holds the state of the data store in memory, in a thread-safe map from
+ * keys to immutable entries, each replaced in one atomic compute of the
+ * map, so racing increments or compare-and-sets of a key are decided one
+ * at a time. Counters are held as 8 byte blobs, so a key can be read as
+ * either. Expired entries are dropped when next touched, or by
+ * RemoveExpired.
+ */
+public class InMemoryDataStore implements IDataStore {
+
+	/***
+	 * A blob, never changed once stored, with when it expires.
+	 */
+	static final private class Entry {
+
+		final byte[] blob;
+
+		final long expiresAtNanos;
+
+		Entry(byte[] blob, long expiresAtNanos) {
+			this.blob = blob;
+			this.expiresAtNanos = expiresAtNanos;
+		}
+
+		boolean IsLiveAt(long nowNanos) {
+			return nowNanos < expiresAtNanos;
+		}
+
+	}
+
+	private final ConcurrentHashMap<String,Entry> entries;
+
+	/***
+	 * Make an empty store.
+	 */
+	public InMemoryDataStore() {
+		this.entries = new ConcurrentHashMap<String,Entry>();
+	}
+
+	@Override
+	public long IncrementAndGet(String key, long delta, long expiresAtNanos, long nowNanos) {
+		Entry entry = entries.compute(key, (k, current) -> {
+			if(current == null || !current.IsLiveAt(nowNanos)) {
+				return new Entry(EncodeLong(delta), expiresAtNanos);
+			} else {
+				return new Entry(EncodeLong(DecodeLong(current.blob) + delta), current.expiresAtNanos);
+			}
+		});
+		return DecodeLong(entry.blob);
+	}
+
+	@Override
+	public byte[] Get(String key, long nowNanos) {
+		Entry entry = entries.get(key);
+		if(entry == null || !entry.IsLiveAt(nowNanos)) {
+			return null;
+		}
+		return entry.blob.clone();
+	}
+
+	@Override
+	public boolean CompareAndSet(String key, byte[] expected, byte[] update, long expiresAtNanos, long nowNanos) {
+		byte[] stored = update == null ? null : update.clone();
+		boolean[] set = new boolean[1];
+		entries.compute(key, (k, current) -> {
+			byte[] currentBlob = current == null || !current.IsLiveAt(nowNanos) ? null : current.blob;
+			if(!Arrays.equals(currentBlob, expected)) {
+				return currentBlob == null ? null : current;
+			}
+			set[0] = true;
+			return stored == null ? null : new Entry(stored, expiresAtNanos);
+		});
+		return set[0];
+	}
+
+	/***
+	 * Forget every entry that has expired.
+	 * @param nowNanos
+	 * @return How many entries were forgotten.
+	 */
+	public int RemoveExpired(long nowNanos) {
+		int removed = 0;
+		for(String key : entries.keySet()) {
+			if(entries.computeIfPresent(key, (k, current) -> current.IsLiveAt(nowNanos) ? current : null) == null) {
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	/***
+	 * @return How many entries are held, including any expired but not yet
+	 * forgotten.
+	 */
+	public int Size() {
+		return entries.size();
+	}
+
+	/***
+	 * @param value
+	 * @return The value as an 8 byte, big-endian blob.
+	 */
+	static byte[] EncodeLong(long value) {
+		byte[] blob = new byte[Long.BYTES];
+		for(int k = Long.BYTES - 1; k >= 0; k--) {
+			blob[k] = (byte) value;
+			value >>>= 8;
+		}
+		return blob;
+	}
+
+	/***
+	 * @param blob
+	 * @return The value of an 8 byte, big-endian blob, or 0 if the blob is
+	 * not one.
+	 */
+	static long DecodeLong(byte[] blob) {
+		if(blob == null || blob.length != Long.BYTES) {
+			return 0L;
+		}
+		long value = 0L;
+		for(int k = 0; k < Long.BYTES; k++) {
+			value = (value << 8) | (blob[k] & 0xFFL);
+		}
+		return value;
+	}
+
+}
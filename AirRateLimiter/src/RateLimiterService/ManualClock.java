@@ -0,0 +1,68 @@
+package RateLimiterService;
+
+import java.time.LocalDateTime;
+
+/***
+ * A deterministic clock which only moves when told to, for testing the rate
+ * limiters without sleeping, or replaying a known sequence of attempts.
+ */
+public class ManualClock implements IClock {
+	
+	/***
+	 * Nanoseconds per second, used to advance the clock in seconds.
+	 */
+	static final private long NanosPerSecond = 1_000_000_000L;
+	
+	/***
+	 * The LocalDateTime at which the clock reads zero nanoseconds.
+	 */
+	private final LocalDateTime anchorTime;
+	
+	/***
+	 * The current time of the clock.
+	 */
+	private volatile long nanos;
+	
+	/***
+	 * Make a manual clock reading zero nanoseconds at the current wall time.
+	 */
+	public ManualClock() {
+		this(LocalDateTime.now());
+	}
+	
+	/***
+	 * Make a manual clock reading zero nanoseconds at the given time.
+	 * @param anchorTime
+	 */
+	public ManualClock(LocalDateTime anchorTime) {
+		this.anchorTime = anchorTime;
+		this.nanos = 0L;
+	}
+	
+	@Override
+	public long NanoTime() {
+		return nanos;
+	}
+	
+	@Override
+	public LocalDateTime LocalDateTimeAt(long nanoTime) {
+		return anchorTime.plusNanos(nanoTime);
+	}
+	
+	/***
+	 * Move the clock forward.
+	 * @param nanoseconds
+	 */
+	public synchronized void AdvanceNanos(long nanoseconds) {
+		nanos += nanoseconds;
+	}
+	
+	/***
+	 * Move the clock forward.
+	 * @param seconds
+	 */
+	public void AdvanceSeconds(long seconds) {
+		AdvanceNanos(seconds * NanosPerSecond);
+	}
+	
+}
@@ -0,0 +1,41 @@
+package RateLimiterService;
+
+import java.time.LocalDateTime;
+
+/***
+ * The standard clock of the rate limiters, read from System.nanoTime(). The
+ * wall clock is read once, when the clock is made, and LocalDateTime values
+ * are derived from the monotonic time elapsed since then, so they are not
+ * moved by any later correction of the system time.
+ */
+public class MonotonicClock implements IClock {
+	
+	/***
+	 * The wall clock time at which this clock was made.
+	 */
+	private final LocalDateTime anchorTime;
+	
+	/***
+	 * The System.nanoTime() at which this clock was made.
+	 */
+	private final long anchorNanos;
+	
+	/***
+	 * Make a monotonic clock anchored to the current wall clock time.
+	 */
+	public MonotonicClock() {
+		this.anchorNanos = System.nanoTime();
+		this.anchorTime = LocalDateTime.now();
+	}
+	
+	@Override
+	public long NanoTime() {
+		return System.nanoTime();
+	}
+	
+	@Override
+	public LocalDateTime LocalDateTimeAt(long nanoTime) {
+		return anchorTime.plusNanos(nanoTime - anchorNanos);
+	}
+	
+}
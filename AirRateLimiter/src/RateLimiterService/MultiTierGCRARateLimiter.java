@@ -0,0 +1,309 @@
+package RateLimiterService;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+
+/***
+ * Implements the expectations of the AbstractRateLimiter with the Generic
+ * Cell Rate Algorithm (GCRA) for every tier of a multi-tier limit at once,
+ * such as a burst of 20 requests per second and a quota of 100,000 requests
+ * per day. Each identity's theoretical arrival times, one per tier, are held
+ * together off the heap, so an attempt is decided against every tier with
+ * one lookup, atomically, and is only recorded if every tier allows it.
+ *
+ * The "maxAttempts" per "maxSeconds" handed to RecordNewAttempt replace the
+ * limit of the first tier of the behaviour, as for the single limit of the
+ * other rate limiters; the other tiers always apply. A refused attempt may
+ * be retried once every tier allows it, which is when 
+ * CheckWhenNextRequestAllowed says; DecideAttempt also reports the tier
+ * that refused it. IP attempts made by address, and attempts made by
+ * precomputed key, are held to every tier too, in a map of their own.
+ */
+public class MultiTierGCRARateLimiter extends AbstractRateLimiter<MultiTierGCRARateLimitingMap> {
+
+	private volatile RateLimitingBehaviour rateLimitingBehaviour;
+	
+	private final ArrayList<String> hostileIPs;
+	
+	private final ArrayList<String> ValidUserAuths;
+	
+	private final MultiTierGCRARateLimitingMap IPAttempts;
+	
+	private final MultiTierGCRARateLimitingMap UserAttempts;
+	
+	private final MultiTierGCRARateLimitingMap EndpointAttempts;
+	
+	private final IClock clock;
+	
+	private final MultiTierGCRARateLimitingMap KeyedAttempts;
+	
+	private final IPAddressSet hostileIPAddresses;
+	
+	private final AdmissionTickets admissionTickets;
+	
+	private final InFlightCounters inFlightCounters;
+	
+	/*
+	 * Constructors
+	 */
+	
+	/***
+	 * Make a multi-tier GCRA rate limiter with the given behaviour, 
+	 * reading the time from the given clock.
+	 * @param rateLimitingBehaviour
+	 * @param clock
+	 */
+	public MultiTierGCRARateLimiter(RateLimitingBehaviour rateLimitingBehaviour, IClock clock) {
+		this.rateLimitingBehaviour = rateLimitingBehaviour;
+		this.clock = clock;
+		this.hostileIPs = new ArrayList<String>();
+		this.hostileIPAddresses = new IPAddressSet();
+		this.KeyedAttempts = NewIdentityAttemptsMap(rateLimitingBehaviour);
+		this.admissionTickets = new AdmissionTickets();
+		this.inFlightCounters = new InFlightCounters();
+		this.ValidUserAuths = new ArrayList<String>();
+		this.IPAttempts = NewIdentityAttemptsMap(rateLimitingBehaviour);
+		this.UserAttempts = NewIdentityAttemptsMap(rateLimitingBehaviour);
+		this.EndpointAttempts = NewIdentityAttemptsMap(rateLimitingBehaviour);
+	}
+	
+	/***
+	 * Make a map of attempts per identity, which tracks no more
+	 * identities than the rate limiting behaviour allows.
+	 * @param rateLimitingBehaviour
+	 * @return
+	 */
+	private static MultiTierGCRARateLimitingMap NewIdentityAttemptsMap(RateLimitingBehaviour rateLimitingBehaviour) {
+		return new MultiTierGCRARateLimitingMap(rateLimitingBehaviour.Tiers, rateLimitingBehaviour.MaxTrackedIdentities, rateLimitingBehaviour.FailClosedWhenUntracked);
+	}
+	
+	/***
+	 * Make a multi-tier GCRA rate limiter with the given behaviour.
+	 * @param rateLimitingBehaviour
+	 */
+	public MultiTierGCRARateLimiter(RateLimitingBehaviour rateLimitingBehaviour) {
+		this(rateLimitingBehaviour, new MonotonicClock());
+	}
+	
+	/***
+	 * The most generic constructor. Assign everything
+	 * @param RequestLimitHits
+	 * @param TimeLimitSeconds
+	 * @param storeHostileIPs
+	 * @param rateLimitByIP
+	 * @param rateLimitByUser
+	 * @param rateLimitByEndpoint
+	 * @param approvedUsersOnly
+	 */
+	public MultiTierGCRARateLimiter(int RequestLimitHits, 
+								  int TimeLimitSeconds, 
+								  boolean storeHostileIPs, 
+								  boolean rateLimitByIP, 
+								  boolean rateLimitByUser, 
+								  boolean rateLimitByEndpoint, 
+								  boolean approvedUsersOnly) {
+		this(new RateLimitingBehaviour(RequestLimitHits,
+				TimeLimitSeconds,
+				storeHostileIPs,
+				rateLimitByIP,
+				rateLimitByUser,
+				rateLimitByEndpoint,
+				approvedUsersOnly));
+	}
+	
+	/***
+	 * Make a rate limiter which limits on End-points per User identities,
+	 * but allow generic assignment of the approvedUsers and 
+	 * the metrics by which the rate limiter operates.
+	 * @param RequestLimitHits
+	 * @param TimeLimitSeconds
+	 * @param approvedUsersOnly
+	 */
+	public MultiTierGCRARateLimiter(int RequestLimitHits, int TimeLimitSeconds, boolean approvedUsersOnly) {
+		this(new RateLimitingBehaviour(RequestLimitHits,TimeLimitSeconds,approvedUsersOnly));
+	}
+	
+	/***
+	 * Least generic constructor. Makes a rate limiter with the standard
+	 * rate at which to limit, which limits on End-points per User Identities
+	 */
+	public MultiTierGCRARateLimiter() {
+		this(new RateLimitingBehaviour());
+	}
+	
+	/*
+	 * Getter overrides
+	 */
+	
+	@Override
+	public RateLimitingBehaviour getRateLimitingBehaviour() {
+		return this.rateLimitingBehaviour;
+	}
+	
+	@Override
+	protected void setRateLimitingBehaviour(RateLimitingBehaviour rateLimitingBehaviour) {
+		IPAttempts.SetTiers(rateLimitingBehaviour.Tiers);
+		UserAttempts.SetTiers(rateLimitingBehaviour.Tiers);
+		EndpointAttempts.SetTiers(rateLimitingBehaviour.Tiers);
+		KeyedAttempts.SetTiers(rateLimitingBehaviour.Tiers);
+		this.rateLimitingBehaviour = rateLimitingBehaviour;
+	}
+	
+	@Override
+	protected MultiTierGCRARateLimitingMap getIPAttemptsMap() {
+		return IPAttempts;
+	}
+
+	@Override
+	protected MultiTierGCRARateLimitingMap getUserAttemptsMap() {
+		return UserAttempts;
+	}
+
+	@Override
+	protected MultiTierGCRARateLimitingMap getEndpointAttemptsMap() {
+		return EndpointAttempts;
+	}
+
+	@Override
+	protected ArrayList<String> getHostileIPs() {
+		return hostileIPs;
+	}
+	
+	@Override
+	protected IPAddressSet getHostileIPAddresses() {
+		return hostileIPAddresses;
+	}
+	
+	@Override
+	protected MultiTierGCRARateLimitingMap getKeyedAttemptsMap() {
+		return KeyedAttempts;
+	}
+	
+	@Override
+	protected AdmissionTickets getAdmissionTickets() {
+		return admissionTickets;
+	}
+	
+	@Override
+	protected InFlightCounters getInFlightCounters() {
+		return inFlightCounters;
+	}
+
+	@Override
+	protected ArrayList<String> getValidUserAuths() {
+		return ValidUserAuths;
+	}
+	
+	@Override
+	protected IClock getClock() {
+		return clock;
+	}
+	
+	/*
+	 * Eviction counts
+	 */
+	
+	/***
+	 * @return How many identities have been evicted, with their attempts
+	 * forgotten, to make room for identities seen more often.
+	 */
+	public long EvictionCount() {
+		return IPAttempts.Evictions() + UserAttempts.Evictions() + EndpointAttempts.Evictions();
+	}
+	
+	/***
+	 * @return How many times an identity could not be tracked, as the
+	 * limiter was full of identities seen more often; these attempts were
+	 * allowed or refused according to "FailClosedWhenUntracked".
+	 */
+	public long UntrackedCount() {
+		return IPAttempts.Untracked() + UserAttempts.Untracked() + EndpointAttempts.Untracked();
+	}
+	
+	/* Overrides
+	 * Functions that take a RateLimitedIdentity to record a new attempt
+	 * or check when the next request by that identity will be allowed
+	 */
+	
+	@Override
+	public boolean RecordNewAttempt(RateLimitedIdentity RLIdentity, int cost, int maxAttempts, int maxSeconds) {
+		return DecideAttempt(RLIdentity, cost, maxAttempts, maxSeconds) == MultiTierGCRARateLimitingMap.Admitted;
+	}
+	
+	@Override
+	protected boolean RecordNewAttemptAt(RateLimitedIdentity RLIdentity, int cost, int maxAttempts, int maxSeconds, long now) {
+		return GetAttemptMapForIdentity(RLIdentity).TryAdmit(KeyOf(RLIdentity), cost, maxAttempts, maxSeconds, now) == MultiTierGCRARateLimitingMap.Admitted;
+	}
+	
+	@Override
+	public void ReconcileAttempt(RateLimitedIdentity RLIdentity, int extraCost, int maxAttempts, int maxSeconds) {
+		MultiTierGCRARateLimitingMap RLMap = GetAttemptMapForIdentity(RLIdentity);
+		RLMap.ReconcileAttempt(KeyOf(RLIdentity), extraCost, maxAttempts, maxSeconds, getClock().NanoTime());
+	}
+	
+	/***
+	 * Decide an attempt against every tier of the behaviour, with the first
+	 * tier replaced by the limit of the identity's policy, if it has one.
+	 * @param RLIdentity
+	 * @return "MultiTierGCRARateLimitingMap.Admitted", if the attempt was
+	 * recorded, otherwise the decision refusing it, from which to read the 
+	 * tier that refused it and the wait until every tier would allow it.
+	 */
+	public long DecideAttempt(RateLimitedIdentity RLIdentity) {
+		RateLimitTier limit = limitFor(RLIdentity);
+		return DecideAttempt(RLIdentity, limit.RequestLimitHits, limit.TimeLimitSeconds);
+	}
+	
+	/***
+	 * Decide an attempt against every tier, with the first tier limited to
+	 * "maxAttempts" per "maxSeconds".
+	 * @param RLIdentity
+	 * @param maxAttempts
+	 * @param maxSeconds
+	 * @return "MultiTierGCRARateLimitingMap.Admitted", or the decision 
+	 * refusing the attempt.
+	 */
+	public long DecideAttempt(RateLimitedIdentity RLIdentity, int maxAttempts, int maxSeconds) {
+		return DecideAttempt(RLIdentity, 1, maxAttempts, maxSeconds);
+	}
+	
+	/***
+	 * Decide an attempt costing "cost" attempts against every tier, with the
+	 * first tier limited to "maxAttempts" per "maxSeconds".
+	 * @param RLIdentity
+	 * @param cost
+	 * @param maxAttempts
+	 * @param maxSeconds
+	 * @return "MultiTierGCRARateLimitingMap.Admitted", or the decision 
+	 * refusing the attempt.
+	 */
+	public long DecideAttempt(RateLimitedIdentity RLIdentity, int cost, int maxAttempts, int maxSeconds) {
+		MultiTierGCRARateLimitingMap RLMap = GetAttemptMapForIdentity(RLIdentity);
+		return RLMap.TryAdmit(KeyOf(RLIdentity), cost, maxAttempts, maxSeconds, getClock().NanoTime());
+	}
+	
+	@Override
+	public LocalDateTime CheckWhenNextRequestAllowed(RateLimitedIdentity RLIdentity, int maxAttempts, int maxSeconds) {
+		long now = getClock().NanoTime();
+		MultiTierGCRARateLimitingMap lookupMap = GetAttemptMapForIdentity(RLIdentity);
+		long decision = lookupMap.Peek(KeyOf(RLIdentity), maxAttempts, maxSeconds, now);
+		return getClock().LocalDateTimeAt(now + MultiTierGCRARateLimitingMap.NanosToWait(decision));
+	}
+	
+	/***
+	 * End-point attempts are keyed by the identity and endpoint, or route,
+	 * hashed together, without forming the composite key String.
+	 * @param RLIdentity
+	 * @return The key of the identity in its map.
+	 */
+	private long KeyOf(RateLimitedIdentity RLIdentity) {
+		if(RLIdentity.IsIdentityARouteAttempt()) {
+			return MultiTierGCRARateLimitingMap.KeyOf(RLIdentity.GetIdentity(), RLIdentity.GetRouteId());
+		} else if(RLIdentity.IsIdentityAnEndpointAttempt()) {
+			return MultiTierGCRARateLimitingMap.KeyOf(RLIdentity.GetIdentity(), RLIdentity.GetEndpoint());
+		} else {
+			return MultiTierGCRARateLimitingMap.KeyOf(RLIdentity.GetIdentity());
+		}
+	}
+	
+}
@@ -0,0 +1,484 @@
+package RateLimiterService;
+
+import java.util.Arrays;
+import java.util.List;
+
+/***
+ * A class to abstract the instantiation of a thread-safe mapping from
+ * identities to a "theoretical arrival time" per tier of a multi-tier
+ * limit, such as 20 requests per second and 100,000 requests per day,
+ * implementing the Generic Cell Rate Algorithm (GCRA) for every tier at
+ * once. The arrival times of all of a key's tiers are held together, off
+ * the heap, in one slot of an OffHeapStateTable, so an attempt is decided
+ * against every tier with one lookup, in one step atomic for the key; it is
+ * only recorded, in every tier, if every tier allows it.
+ *
+ * Decisions are returned as a primitive; "Admitted", or the nanoseconds
+ * until every tier would allow the attempt, packed with the tier that
+ * refused it for longest, read with "NanosToWait" and "TrippedTier".
+ *
+ * A key whose every theoretical arrival time has passed holds no more than
+ * a key never seen, so is forgotten as the table sweeps it; and the map may
+ * be capped at a number of keys, as the FixedWindowRateLimitingMap may.
+ */
+public class MultiTierGCRARateLimitingMap implements IKeyedAttemptsMap {
+
+	/***
+	 * The bits of a decision holding the tier that refused it.
+	 */
+	static final int TierBits = 4;
+
+	/***
+	 * The most tiers a map can decide between.
+	 */
+	static final public int MaxTiers = 1 << TierBits;
+
+	/***
+	 * Returned as the decision for an attempt that was recorded.
+	 */
+	static final public long Admitted = 0L;
+
+	static final private long NanosPerSecond = 1_000_000_000L;
+
+	/***
+	 * The longest wait a decision can hold; longer waits are clipped to it.
+	 */
+	static final private long MaxWaitNanos = Long.MAX_VALUE >> TierBits;
+
+	/***
+	 * The theoretical arrival time of a tier that has never had an attempt
+	 * recorded; always earlier than now, whatever the origin of the clock.
+	 */
+	static final private long NeverArrived = Long.MIN_VALUE;
+
+	/***
+	 * The words of each key; a theoretical arrival time per tier.
+	 */
+	private final OffHeapStateTable arrivals;
+
+	/***
+	 * The emission interval and tolerance of each tier, swapped together
+	 * when the tiers are reloaded; the first tier's limit is handed in with
+	 * each decision, packed with "Limit", so a caller may replace it.
+	 */
+	private volatile TierLimits limits;
+
+	/***
+	 * Decides an attempt against every tier, recording it in every tier if
+	 * none refuse it.
+	 */
+	private final OffHeapStateTable.SlotFunction admit;
+
+	/***
+	 * Finds how long until every tier would allow an attempt.
+	 */
+	private final OffHeapStateTable.SlotFunction wait;
+
+	/***
+	 * Moves every tier by the attempts debited or refunded.
+	 */
+	private final OffHeapStateTable.SlotFunction reconcile;
+
+	/***
+	 * Whether attempts are refused, rather than allowed, for keys that can't
+	 * be tracked as the map is full.
+	 */
+	private final boolean failClosedWhenUntracked;
+
+	/***
+	 * Create a new instance of the off-heap map from identities
+	 * to theoretical arrival times, one per tier.
+	 * @param tiers
+	 * @throws IllegalArgumentException If there are no tiers, or more than
+	 * "MaxTiers".
+	 */
+	public MultiTierGCRARateLimitingMap(List<RateLimitTier> tiers) {
+		this(tiers, Integer.MAX_VALUE, false);
+	}
+
+	/***
+	 * Create a new instance of the off-heap map from identities to
+	 * theoretical arrival times, one per tier, which tracks at most
+	 * "maxKeys" keys. Once full, a new key is only tracked if it has
+	 * recently been seen more often than a key it evicts. Attempts for keys
+	 * that aren't tracked are allowed, unless "failClosedWhenUntracked".
+	 * @param tiers
+	 * @param maxKeys
+	 * @param failClosedWhenUntracked
+	 * @throws IllegalArgumentException If there are no tiers, or more than
+	 * "MaxTiers".
+	 */
+	public MultiTierGCRARateLimitingMap(List<RateLimitTier> tiers, int maxKeys, boolean failClosedWhenUntracked) {
+		if(tiers.isEmpty() || tiers.size() > MaxTiers) {
+			throw new IllegalArgumentException("A multi-tier limit needs from 1 to "+MaxTiers+" tiers");
+		}
+		int count = tiers.size();
+		long[] initialWords = new long[count];
+		Arrays.fill(initialWords, NeverArrived);
+		this.limits = new TierLimits(tiers);
+		this.failClosedWhenUntracked = failClosedWhenUntracked;
+		this.arrivals = new OffHeapStateTable((slot, nowNanos, unused, unusedToo) -> {
+			for(int tier = 0; tier < count; tier++) {
+				if(slot.Get(tier) > nowNanos) {
+					return 0L;
+				}
+			}
+			return OffHeapStateTable.Idle;
+		}, maxKeys, initialWords);
+		this.admit = (slot, nowNanos, firstLimit, cost) -> {
+			TierLimits current = limits;
+			long firstInterval = EmissionInterval(MaxAttempts(firstLimit), WindowSeconds(firstLimit));
+			long decision = Decide(slot, nowNanos, current, firstLimit, cost);
+			if(decision == Admitted) {
+				long firstTolerance = Tolerance(MaxAttempts(firstLimit), WindowSeconds(firstLimit));
+				for(int tier = 0; tier < count; tier++) {
+					long base = Math.max(slot.Get(tier), nowNanos);
+					long interval = tier == 0 ? firstInterval : current.emissionIntervals[tier];
+					long tolerance = tier == 0 ? firstTolerance : current.tolerances[tier];
+					slot.Set(tier, base + Span(cost, interval, tolerance));
+				}
+			}
+			return decision;
+		};
+		this.wait = (slot, nowNanos, firstLimit, cost) -> Decide(slot, nowNanos, limits, firstLimit, cost);
+		this.reconcile = (slot, nowNanos, firstLimit, extraCost) -> {
+			TierLimits current = limits;
+			long firstInterval = EmissionInterval(MaxAttempts(firstLimit), WindowSeconds(firstLimit));
+			long firstTolerance = Tolerance(MaxAttempts(firstLimit), WindowSeconds(firstLimit));
+			for(int tier = 0; tier < count; tier++) {
+				long interval = tier == 0 ? firstInterval : current.emissionIntervals[tier];
+				long tolerance = tier == 0 ? firstTolerance : current.tolerances[tier];
+				slot.Set(tier, GCRARateLimitingMap.Reconciled(slot.Get(tier), Span(extraCost, interval, tolerance), tolerance + interval, nowNanos));
+			}
+			return Admitted;
+		};
+	}
+
+	/***
+	 * The emission interval and tolerance of each tier of a limit.
+	 */
+	private static final class TierLimits {
+
+		final long firstLimit;
+
+		final long[] emissionIntervals;
+
+		final long[] tolerances;
+
+		TierLimits(List<RateLimitTier> tiers) {
+			this.firstLimit = Limit(tiers.get(0).RequestLimitHits, tiers.get(0).TimeLimitSeconds);
+			this.emissionIntervals = new long[tiers.size()];
+			this.tolerances = new long[tiers.size()];
+			for(int tier = 0; tier < tiers.size(); tier++) {
+				emissionIntervals[tier] = EmissionInterval(tiers.get(tier).RequestLimitHits, tiers.get(tier).TimeLimitSeconds);
+				tolerances[tier] = Tolerance(tiers.get(tier).RequestLimitHits, tiers.get(tier).TimeLimitSeconds);
+			}
+		}
+	}
+
+	/***
+	 * Replace the limit of every tier, keeping the theoretical arrival times
+	 * of every key, so the attempts already recorded count against the new
+	 * limits. Decisions already underway finish against the old limits.
+	 * @param tiers
+	 * @throws IllegalArgumentException If there are not as many tiers as
+	 * the map was made with.
+	 */
+	public void SetTiers(List<RateLimitTier> tiers) {
+		if(tiers.size() != Tiers()) {
+			throw new IllegalArgumentException("A multi-tier limit of "+Tiers()+" tiers can't be reloaded with "+tiers.size());
+		}
+		this.limits = new TierLimits(tiers);
+	}
+
+	/***
+	 * Find the tier that would refuse an attempt costing "cost" attempts for
+	 * longest, reading the slot once. Each tier allows the attempt if its
+	 * tolerance is left room for every emission interval past the first.
+	 * @param slot
+	 * @param nowNanos
+	 * @param current
+	 * @param firstLimit
+	 * @param cost
+	 * @return "Admitted", or the decision refusing the attempt.
+	 */
+	private static long Decide(OffHeapStateTable.Slot slot, long nowNanos, TierLimits current, long firstLimit, long cost) {
+		int firstAttempts = MaxAttempts(firstLimit);
+		int firstSeconds = WindowSeconds(firstLimit);
+		long longestWait = 0L;
+		int trippedTier = 0;
+		for(int tier = 0; tier < current.tolerances.length; tier++) {
+			long base = Math.max(slot.Get(tier), nowNanos);
+			long interval = tier == 0 ? EmissionInterval(firstAttempts, firstSeconds) : current.emissionIntervals[tier];
+			long tolerance = tier == 0 ? Tolerance(firstAttempts, firstSeconds) : current.tolerances[tier];
+			long wait = (base - nowNanos) - (tolerance - Span(cost - 1, interval, tolerance));
+			if(wait > longestWait) {
+				longestWait = wait;
+				trippedTier = tier;
+			}
+		}
+		return longestWait == 0L ? Admitted : Refused(trippedTier, longestWait);
+	}
+
+	/*
+	 * Deciding attempts
+	 */
+
+	/***
+	 * Decide an attempt against every tier of the key, recording it in
+	 * every tier if none refuse it. Allocates nothing.
+	 * @param key
+	 * @param nowNanos
+	 * @return "Admitted", or the decision refusing the attempt.
+	 */
+	public long TryAdmit(long key, long nowNanos) {
+		long firstLimit = limits.firstLimit;
+		return arrivals.Compute(key, admit, nowNanos, firstLimit, 1L, Untracked(firstLimit, 1L));
+	}
+
+	/***
+	 * Decide an attempt against every tier of the key, with the first tier
+	 * limited to "maxAttempts" per "windowSeconds" rather than its own limit.
+	 * @param key
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return "Admitted", or the decision refusing the attempt.
+	 */
+	public long TryAdmit(long key, int maxAttempts, int windowSeconds, long nowNanos) {
+		return TryAdmit(key, 1, maxAttempts, windowSeconds, nowNanos);
+	}
+
+	/***
+	 * Decide an attempt costing "cost" attempts against every tier of the
+	 * key, advancing every tier by "cost" emission intervals in one step, as
+	 * cheaply as a single attempt.
+	 * @param key
+	 * @param cost
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return "Admitted", or the decision refusing the attempt. If the key
+	 * could not be tracked, "Admitted" when failing open, or a refusal by
+	 * the first tier for the cost's emission intervals when failing closed.
+	 */
+	public long TryAdmit(long key, int cost, int maxAttempts, int windowSeconds, long nowNanos) {
+		long firstLimit = Limit(maxAttempts,windowSeconds);
+		return arrivals.Compute(key, admit, nowNanos, firstLimit, cost, Untracked(firstLimit, cost));
+	}
+
+	/***
+	 * @param firstLimit
+	 * @param cost
+	 * @return The decision for an attempt whose key could not be tracked.
+	 */
+	private long Untracked(long firstLimit, long cost) {
+		if(!failClosedWhenUntracked) {
+			return Admitted;
+		}
+		int firstAttempts = MaxAttempts(firstLimit);
+		int firstSeconds = WindowSeconds(firstLimit);
+		return Refused(0, Math.max(1L, Span(cost, EmissionInterval(firstAttempts, firstSeconds), Tolerance(firstAttempts, firstSeconds))));
+	}
+
+	/***
+	 * Settle the cost of an attempt already recorded against every tier of
+	 * the key, once its actual cost is known, moving each tier by as many of
+	 * its own emission intervals. Allocates nothing.
+	 * @param key
+	 * @param extraCost The actual cost less the cost recorded; positive to
+	 * debit the key, negative to refund it.
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 */
+	@Override
+	public void ReconcileAttempt(long key, int extraCost, int maxAttempts, int windowSeconds, long nowNanos) {
+		if(extraCost != 0) {
+			arrivals.Read(key, reconcile, nowNanos, Limit(maxAttempts,windowSeconds), extraCost, Admitted);
+		}
+	}
+
+	/***
+	 * @param key
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return "Admitted", if every tier would allow an attempt now, or the
+	 * decision that would refuse it; without recording anything.
+	 */
+	public long Peek(long key, int maxAttempts, int windowSeconds, long nowNanos) {
+		return arrivals.Read(key, wait, nowNanos, Limit(maxAttempts,windowSeconds), 1L, Admitted);
+	}
+
+	/***
+	 * As TryAdmit, holding the key to every tier.
+	 * @return "Admitted", or the nanoseconds until every tier would allow
+	 * the attempt.
+	 */
+	@Override
+	public long AdmitOrWait(long key, int cost, int maxAttempts, int windowSeconds, long nowNanos) {
+		return NanosToWait(TryAdmit(key, cost, maxAttempts, windowSeconds, nowNanos));
+	}
+
+	@Override
+	public long NanosUntilAdmitted(long key, int maxAttempts, int windowSeconds, long nowNanos) {
+		return NanosToWait(Peek(key, maxAttempts, windowSeconds, nowNanos));
+	}
+
+	/***
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @return A limit packed into a long, to hand to the slot functions.
+	 */
+	private static long Limit(int maxAttempts, int windowSeconds) {
+		return ((long) maxAttempts << 32) | (windowSeconds & 0xFFFFFFFFL);
+	}
+
+	private static int MaxAttempts(long limit) {
+		return (int) (limit >> 32);
+	}
+
+	private static int WindowSeconds(long limit) {
+		return (int) limit;
+	}
+
+	/*
+	 * Reading decisions
+	 */
+
+	/***
+	 * @param decision
+	 * @return The nanoseconds until every tier would allow the attempt, or 0
+	 * if it was admitted.
+	 */
+	static public long NanosToWait(long decision) {
+		return decision >>> TierBits;
+	}
+
+	/***
+	 * @param decision
+	 * @return The index of the tier that refused the attempt for longest,
+	 * or -1 if it was admitted.
+	 */
+	static public int TrippedTier(long decision) {
+		return decision == Admitted ? -1 : (int) (decision & (MaxTiers - 1));
+	}
+
+	private static long Refused(int tier, long waitNanos) {
+		return (Math.min(waitNanos, MaxWaitNanos) << TierBits) | tier;
+	}
+
+	/***
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @return The nanoseconds by which the tier spaces consecutive attempts;
+	 * none, when the tier is unlimited or allows nothing.
+	 */
+	private static long EmissionInterval(int maxAttempts, int windowSeconds) {
+		if(maxAttempts <= 0 || windowSeconds <= 0) {
+			return 0L;
+		}
+		return GCRARateLimitingMap.EmissionInterval(maxAttempts,windowSeconds);
+	}
+
+	/***
+	 * @param attempts Negative for a refund.
+	 * @param emissionInterval
+	 * @param tolerance
+	 * @return The nanoseconds spanned by as many of the tier's emission
+	 * intervals as attempts, saturated as GCRARateLimitingMap.Span does at
+	 * the tier's window; none, when the tier is unlimited or allows nothing.
+	 */
+	private static long Span(long attempts, long emissionInterval, long tolerance) {
+		if(emissionInterval <= 0) {
+			return 0L;
+		}
+		return GCRARateLimitingMap.Span(attempts, emissionInterval, tolerance + emissionInterval);
+	}
+
+	/***
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @return How far ahead of now the tier's theoretical arrival time may be
+	 * while still allowing an attempt; negative when the tier allows nothing,
+	 * so it always refuses for its whole window.
+	 */
+	private static long Tolerance(int maxAttempts, int windowSeconds) {
+		if(maxAttempts <= 0) {
+			return -Math.max(1L, windowSeconds * NanosPerSecond);
+		} else if(windowSeconds <= 0) {
+			return Long.MAX_VALUE;
+		}
+		return windowSeconds * NanosPerSecond - GCRARateLimitingMap.EmissionInterval(maxAttempts,windowSeconds);
+	}
+
+	/*
+	 * Keys
+	 */
+
+	/***
+	 * @param key
+	 * @return The key of an identity in the map.
+	 */
+	static public long KeyOf(String key) {
+		return OffHeapStateTable.KeyOf(key);
+	}
+
+	/***
+	 * @param identity
+	 * @param endpoint
+	 * @return The key of an identity and endpoint together in the map.
+	 */
+	static public long KeyOf(String identity, String endpoint) {
+		return OffHeapStateTable.KeyOf(identity, endpoint);
+	}
+
+	/***
+	 * @param identity
+	 * @param routeId
+	 * @return The key of an identity and route together in the map.
+	 */
+	static public long KeyOf(String identity, int routeId) {
+		return OffHeapStateTable.KeyOf(identity, routeId);
+	}
+
+	/***
+	 * @return How many tiers each key is decided against.
+	 */
+	public int Tiers() {
+		return limits.tolerances.length;
+	}
+
+	/***
+	 * @return How many keys currently map to theoretical arrival times.
+	 */
+	@Override
+	public int Size() {
+		return arrivals.Size();
+	}
+
+	/***
+	 * @return How many bytes the map holds off the heap.
+	 */
+	@Override
+	public long OffHeapBytes() {
+		return arrivals.OffHeapBytes();
+	}
+
+	/***
+	 * @return How many keys have been evicted to make room for others.
+	 */
+	public long Evictions() {
+		return arrivals.Evictions();
+	}
+
+	/***
+	 * @return How many times a key could not be tracked, as the map was
+	 * full of keys seen more often.
+	 */
+	public long Untracked() {
+		return arrivals.Untracked();
+	}
+
+}
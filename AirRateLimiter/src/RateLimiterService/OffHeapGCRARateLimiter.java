@@ -0,0 +1,272 @@
+package RateLimiterService;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+
+/***
+ * Implements the expectations of the AbstractRateLimiter with the Generic
+ * Cell Rate Algorithm (GCRA) per rate limited identity, as the
+ * GCRARateLimiter does, but with every identity's theoretical arrival time
+ * held off the heap, so that tracking tens of millions of identities does
+ * not lengthen garbage collection. Identities are forgotten once idle, and
+ * no more than "MaxTrackedIdentities" of each kind are tracked, as for the
+ * sliding log RateLimiter; raise it to track more. As for the other rate
+ * limiters, end-point attempts are all held in one map keyed by identity
+ * and endpoint together, which here are hashed straight into the key,
+ * without forming the composite key String.
+ */
+public class OffHeapGCRARateLimiter extends AbstractRateLimiter<OffHeapGCRARateLimitingMap> {
+
+	private volatile RateLimitingBehaviour rateLimitingBehaviour;
+	
+	private final ArrayList<String> hostileIPs;
+	
+	private final ArrayList<String> ValidUserAuths;
+	
+	private final OffHeapGCRARateLimitingMap IPAttempts;
+	
+	private final OffHeapGCRARateLimitingMap UserAttempts;
+	
+	private final OffHeapGCRARateLimitingMap EndpointAttempts;
+	
+	private final IClock clock;
+	
+	private final OffHeapGCRARateLimitingMap KeyedAttempts;
+	
+	private final IPAddressSet hostileIPAddresses;
+	
+	private final AdmissionTickets admissionTickets;
+	
+	private final InFlightCounters inFlightCounters;
+	
+	/*
+	 * Constructors
+	 */
+	
+	/***
+	 * Make a GCRA rate limiter with the given behaviour, 
+	 * reading the time from the given clock.
+	 * @param rateLimitingBehaviour
+	 * @param clock
+	 */
+	public OffHeapGCRARateLimiter(RateLimitingBehaviour rateLimitingBehaviour, IClock clock) {
+		this.rateLimitingBehaviour = rateLimitingBehaviour;
+		this.clock = clock;
+		this.hostileIPs = new ArrayList<String>();
+		this.hostileIPAddresses = new IPAddressSet();
+		this.KeyedAttempts = NewKeyedAttemptsMap(this.rateLimitingBehaviour);
+		this.admissionTickets = new AdmissionTickets();
+		this.inFlightCounters = new InFlightCounters();
+		this.ValidUserAuths = new ArrayList<String>();
+		this.IPAttempts = NewIdentityAttemptsMap(rateLimitingBehaviour);
+		this.UserAttempts = NewIdentityAttemptsMap(rateLimitingBehaviour);
+		this.EndpointAttempts = NewIdentityAttemptsMap(rateLimitingBehaviour);
+	}
+	
+	/***
+	 * Make a map of attempts per identity, which tracks no more
+	 * identities than the rate limiting behaviour allows.
+	 * @param rateLimitingBehaviour
+	 * @return
+	 */
+	private static OffHeapGCRARateLimitingMap NewIdentityAttemptsMap(RateLimitingBehaviour rateLimitingBehaviour) {
+		return new OffHeapGCRARateLimitingMap(rateLimitingBehaviour.MaxTrackedIdentities, rateLimitingBehaviour.FailClosedWhenUntracked);
+	}
+	
+	/***
+	 * Make a GCRA rate limiter with the given behaviour.
+	 * @param rateLimitingBehaviour
+	 */
+	public OffHeapGCRARateLimiter(RateLimitingBehaviour rateLimitingBehaviour) {
+		this(rateLimitingBehaviour, new MonotonicClock());
+	}
+	
+	/***
+	 * The most generic constructor. Assign everything
+	 * @param RequestLimitHits
+	 * @param TimeLimitSeconds
+	 * @param storeHostileIPs
+	 * @param rateLimitByIP
+	 * @param rateLimitByUser
+	 * @param rateLimitByEndpoint
+	 * @param approvedUsersOnly
+	 */
+	public OffHeapGCRARateLimiter(int RequestLimitHits, 
+								  int TimeLimitSeconds, 
+								  boolean storeHostileIPs, 
+								  boolean rateLimitByIP, 
+								  boolean rateLimitByUser, 
+								  boolean rateLimitByEndpoint, 
+								  boolean approvedUsersOnly) {
+		this(new RateLimitingBehaviour(RequestLimitHits,
+				TimeLimitSeconds,
+				storeHostileIPs,
+				rateLimitByIP,
+				rateLimitByUser,
+				rateLimitByEndpoint,
+				approvedUsersOnly));
+	}
+	
+	/***
+	 * Make a rate limiter which limits on End-points per User identities,
+	 * but allow generic assignment of the approvedUsers and 
+	 * the metrics by which the rate limiter operates.
+	 * @param RequestLimitHits
+	 * @param TimeLimitSeconds
+	 * @param approvedUsersOnly
+	 */
+	public OffHeapGCRARateLimiter(int RequestLimitHits, int TimeLimitSeconds, boolean approvedUsersOnly) {
+		this(new RateLimitingBehaviour(RequestLimitHits,TimeLimitSeconds,approvedUsersOnly));
+	}
+	
+	/***
+	 * Least generic constructor. Makes a rate limiter with the standard
+	 * rate at which to limit, which limits on End-points per User Identities
+	 */
+	public OffHeapGCRARateLimiter() {
+		this(new RateLimitingBehaviour());
+	}
+	
+	/*
+	 * Getter overrides
+	 */
+	
+	@Override
+	public RateLimitingBehaviour getRateLimitingBehaviour() {
+		return this.rateLimitingBehaviour;
+	}
+	
+	@Override
+	protected void setRateLimitingBehaviour(RateLimitingBehaviour rateLimitingBehaviour) {
+		this.rateLimitingBehaviour = rateLimitingBehaviour;
+	}
+	
+	@Override
+	protected OffHeapGCRARateLimitingMap getIPAttemptsMap() {
+		return IPAttempts;
+	}
+
+	@Override
+	protected OffHeapGCRARateLimitingMap getUserAttemptsMap() {
+		return UserAttempts;
+	}
+
+	@Override
+	protected OffHeapGCRARateLimitingMap getEndpointAttemptsMap() {
+		return EndpointAttempts;
+	}
+
+	@Override
+	protected ArrayList<String> getHostileIPs() {
+		return hostileIPs;
+	}
+	
+	@Override
+	protected IPAddressSet getHostileIPAddresses() {
+		return hostileIPAddresses;
+	}
+	
+	@Override
+	protected OffHeapGCRARateLimitingMap getKeyedAttemptsMap() {
+		return KeyedAttempts;
+	}
+	
+	@Override
+	protected AdmissionTickets getAdmissionTickets() {
+		return admissionTickets;
+	}
+	
+	@Override
+	protected InFlightCounters getInFlightCounters() {
+		return inFlightCounters;
+	}
+
+	@Override
+	protected ArrayList<String> getValidUserAuths() {
+		return ValidUserAuths;
+	}
+	
+	@Override
+	protected IClock getClock() {
+		return clock;
+	}
+	
+	/*
+	 * Eviction counts
+	 */
+	
+	/***
+	 * @return How many identities have been evicted, with their attempts
+	 * forgotten, to make room for identities seen more often.
+	 */
+	public long EvictionCount() {
+		return IPAttempts.Evictions() + UserAttempts.Evictions() + EndpointAttempts.Evictions();
+	}
+	
+	/***
+	 * @return How many times an identity could not be tracked, as the
+	 * limiter was full of identities seen more often; these attempts were
+	 * allowed or refused according to "FailClosedWhenUntracked".
+	 */
+	public long UntrackedCount() {
+		return IPAttempts.Untracked() + UserAttempts.Untracked() + EndpointAttempts.Untracked();
+	}
+	
+	/* Overrides
+	 * Functions that take a RateLimitedIdentity to record a new attempt
+	 * or check when the next request by that identity will be allowed
+	 */
+	
+	@Override
+	public boolean RecordNewAttempt(RateLimitedIdentity RLIdentity, int cost, int maxAttempts, int maxSeconds) {
+		return RecordNewAttemptAt(RLIdentity, cost, maxAttempts, maxSeconds, getClock().NanoTime());
+	}
+	
+	@Override
+	protected boolean RecordNewAttemptAt(RateLimitedIdentity RLIdentity, int cost, int maxAttempts, int maxSeconds, long now) {
+		if(RLIdentity.IsIdentityARouteAttempt()) {
+			return EndpointAttempts.TryRecordAttempt(OffHeapStateTable.KeyOf(RLIdentity.GetIdentity(), RLIdentity.GetRouteId()), cost, maxAttempts, maxSeconds, now);
+		} else if(RLIdentity.IsIdentityAnEndpointAttempt()) {
+			return EndpointAttempts.TryRecordAttempt(OffHeapStateTable.KeyOf(RLIdentity.GetIdentity(), RLIdentity.GetEndpoint()), cost, maxAttempts, maxSeconds, now);
+		}
+		OffHeapGCRARateLimitingMap RLMap = GetAttemptMapForIdentity(RLIdentity);
+		if(RLMap == null) {
+			return false;
+		}
+		return RLMap.TryRecordAttempt(OffHeapStateTable.KeyOf(RLIdentity.GetIdentity()), cost, maxAttempts, maxSeconds, now);
+	}
+	
+	@Override
+	public void ReconcileAttempt(RateLimitedIdentity RLIdentity, int extraCost, int maxAttempts, int maxSeconds) {
+		long now = getClock().NanoTime();
+		if(RLIdentity.IsIdentityARouteAttempt()) {
+			EndpointAttempts.ReconcileAttempt(OffHeapStateTable.KeyOf(RLIdentity.GetIdentity(), RLIdentity.GetRouteId()), extraCost, maxAttempts, maxSeconds, now);
+		} else if(RLIdentity.IsIdentityAnEndpointAttempt()) {
+			EndpointAttempts.ReconcileAttempt(OffHeapStateTable.KeyOf(RLIdentity.GetIdentity(), RLIdentity.GetEndpoint()), extraCost, maxAttempts, maxSeconds, now);
+		} else {
+			OffHeapGCRARateLimitingMap RLMap = GetAttemptMapForIdentity(RLIdentity);
+			if(RLMap != null) {
+				RLMap.ReconcileAttempt(OffHeapStateTable.KeyOf(RLIdentity.GetIdentity()), extraCost, maxAttempts, maxSeconds, now);
+			}
+		}
+	}
+	
+	@Override
+	public LocalDateTime CheckWhenNextRequestAllowed(RateLimitedIdentity RLIdentity, int maxAttempts, int maxSeconds) {
+		long now = getClock().NanoTime();
+		long wait;
+		if(RLIdentity.IsIdentityARouteAttempt()) {
+			wait = EndpointAttempts.NanosUntilNextAttempt(OffHeapStateTable.KeyOf(RLIdentity.GetIdentity(), RLIdentity.GetRouteId()), maxAttempts, maxSeconds, now);
+		} else if(RLIdentity.IsIdentityAnEndpointAttempt()) {
+			wait = EndpointAttempts.NanosUntilNextAttempt(RLIdentity.GetIdentity(), RLIdentity.GetEndpoint(), maxAttempts, maxSeconds, now);
+		} else {
+			OffHeapGCRARateLimitingMap lookupMap = GetAttemptMapForIdentity(RLIdentity);
+			if(lookupMap == null) {
+				return getClock().LocalDateTimeAt(now);
+			}
+			wait = lookupMap.NanosUntilNextAttempt(RLIdentity.GetIdentity(), maxAttempts, maxSeconds, now);
+		}
+		return getClock().LocalDateTimeAt(now + wait);
+	}
+	
+}
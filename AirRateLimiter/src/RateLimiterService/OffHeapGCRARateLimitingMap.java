@@ -0,0 +1,333 @@
+package RateLimiterService;
+
+/***
+ * A class to abstract the instantiation of a thread-safe mapping from
+ * identities to a single "theoretical arrival time" per key, implementing
+ * the Generic Cell Rate Algorithm (GCRA) as the GCRARateLimitingMap does,
+ * but held off the heap in an OffHeapStateTable. Each key is a 64-bit hash
+ * of an identity, or of an identity and an endpoint together, so a single
+ * map can hold every endpoint attempt without a map per identity.
+ *
+ * A key whose theoretical arrival time has passed holds no more than a key
+ * never seen, so is forgotten as the table sweeps it; and the map may be
+ * capped at a number of keys, as the FixedWindowRateLimitingMap may.
+ */
+public class OffHeapGCRARateLimitingMap implements IKeyedAttemptsMap {
+	
+	/***
+	 * Nanoseconds per second, used to convert the window length.
+	 */
+	static final private long NanosPerSecond = 1_000_000_000L;
+	
+	/***
+	 * The theoretical arrival time of a key that has never made an attempt;
+	 * always earlier than now, whatever the origin of the clock.
+	 */
+	static final private long NeverArrived = Long.MIN_VALUE;
+	
+	/***
+	 * Returned by TryAdmit when the attempt was recorded.
+	 */
+	static final public long Admitted = 0L;
+	
+	/***
+	 * Returned by reading a key that is not in the table.
+	 */
+	static final private long Absent = Long.MIN_VALUE;
+	
+	/***
+	 * One word per key; the theoretical arrival time.
+	 */
+	private final OffHeapStateTable arrivals;
+	
+	/***
+	 * Whether attempts are refused, rather than allowed, for keys that can't
+	 * be tracked as the map is full.
+	 */
+	private final boolean failClosedWhenUntracked;
+	
+	/***
+	 * Create a new instance of the off-heap map from 
+	 * identities to theoretical arrival times
+	 */
+	public OffHeapGCRARateLimitingMap(){
+		this(Integer.MAX_VALUE, false);
+	}
+	
+	/***
+	 * Create a new instance of the off-heap map from identities to
+	 * theoretical arrival times, which tracks at most "maxKeys" keys. Once
+	 * full, a new key is only tracked if it has recently been seen more often
+	 * than a key it evicts. Attempts for keys that aren't tracked are
+	 * allowed, unless "failClosedWhenUntracked".
+	 * @param maxKeys
+	 * @param failClosedWhenUntracked
+	 */
+	public OffHeapGCRARateLimitingMap(int maxKeys, boolean failClosedWhenUntracked){
+		this.arrivals = new OffHeapStateTable(Passed, maxKeys, NeverArrived);
+		this.failClosedWhenUntracked = failClosedWhenUntracked;
+	}
+	
+	/***
+	 * A key is idle once its theoretical arrival time has passed.
+	 */
+	static final private OffHeapStateTable.SlotFunction Passed = (arrival, nowNanos, unused, unusedToo) -> 
+			arrival.Get(0) <= nowNanos ? OffHeapStateTable.Idle : 0L;
+	
+	/***
+	 * Record an attempt against the theoretical arrival time mapped to by the
+	 * key, making a new one for the key if it is not yet mapped. Will not make
+	 * one when no attempts are allowed, as nothing could ever be recorded.
+	 * @param key
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return True, if the attempt was recorded.
+	 */
+	public boolean TryRecordAttempt(String key, int maxAttempts, int windowSeconds, long nowNanos) {
+		return TryRecordAttempt(OffHeapStateTable.KeyOf(key), maxAttempts, windowSeconds, nowNanos);
+	}
+	
+	/***
+	 * Record an attempt against the theoretical arrival time mapped to by the
+	 * identity and endpoint together.
+	 * @param identity
+	 * @param endpoint
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return True, if the attempt was recorded.
+	 */
+	public boolean TryRecordAttempt(String identity, String endpoint, int maxAttempts, int windowSeconds, long nowNanos) {
+		return TryRecordAttempt(OffHeapStateTable.KeyOf(identity, endpoint), maxAttempts, windowSeconds, nowNanos);
+	}
+	
+	/***
+	 * Record an attempt against the theoretical arrival time mapped to by a
+	 * precomputed key, such as from an AdmissionKey or IPAddressKey.
+	 * @param key
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return True, if the attempt was recorded.
+	 */
+	public boolean TryRecordAttempt(long key, int maxAttempts, int windowSeconds, long nowNanos) {
+		return TryAdmit(key, 1, maxAttempts, windowSeconds, nowNanos) == Admitted;
+	}
+	
+	/***
+	 * Record an attempt costing "cost" attempts against the theoretical
+	 * arrival time mapped to by a precomputed key.
+	 * @param key
+	 * @param cost
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return True, if the attempt was recorded.
+	 */
+	public boolean TryRecordAttempt(long key, int cost, int maxAttempts, int windowSeconds, long nowNanos) {
+		return TryAdmit(key, cost, maxAttempts, windowSeconds, nowNanos) == Admitted;
+	}
+	
+	/***
+	 * Record an attempt against the theoretical arrival time mapped to by a
+	 * precomputed key, and if it can't be recorded, find how long until it
+	 * could be, in the same step. Allocates nothing.
+	 * @param key
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return "Admitted", if the attempt was recorded, otherwise the
+	 * nanoseconds until an attempt would be recorded.
+	 */
+	public long TryAdmit(long key, int maxAttempts, int windowSeconds, long nowNanos) {
+		return TryAdmit(key, 1, maxAttempts, windowSeconds, nowNanos);
+	}
+	
+	/***
+	 * Record an attempt costing "cost" attempts against the theoretical
+	 * arrival time mapped to by a precomputed key, advancing it by "cost"
+	 * emission intervals in one step, as cheaply as a single attempt.
+	 * @param key
+	 * @param cost
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return "Admitted", if the attempt was recorded, otherwise the
+	 * nanoseconds until it would be. If the key could not be tracked, 
+	 * "Admitted" when failing open, or the cost's emission intervals when
+	 * failing closed.
+	 */
+	public long TryAdmit(long key, int cost, int maxAttempts, int windowSeconds, long nowNanos) {
+		if(maxAttempts <= 0) {
+			//Never admitted, so never "Admitted", even with no window
+			return Math.max(1L, windowSeconds * NanosPerSecond);
+		} else if(windowSeconds <= 0) {
+			return Admitted;
+		}
+		long window = windowSeconds * NanosPerSecond;
+		long increment = GCRARateLimitingMap.Span(cost, GCRARateLimitingMap.EmissionInterval(maxAttempts,windowSeconds), window);
+		long tolerance = window - increment;
+		return arrivals.Compute(key, Admit, nowNanos, increment, tolerance, failClosedWhenUntracked ? Math.max(1L, increment) : Admitted);
+	}
+	
+	/***
+	 * Advances the theoretical arrival time by the emission interval if the
+	 * attempt is within the tolerance, otherwise finds the wait until it is.
+	 */
+	static final private OffHeapStateTable.SlotFunction Admit = (arrival, nowNanos, emissionInterval, tolerance) -> {
+		long base = Math.max(arrival.Get(0), nowNanos);
+		if(base - nowNanos > tolerance) {
+			return base - tolerance - nowNanos;
+		}
+		arrival.Set(0, base + emissionInterval);
+		return Admitted;
+	};
+	
+	/***
+	 * Settle the cost of an attempt already recorded against a precomputed
+	 * key, once its actual cost is known, as for the GCRARateLimitingMap.
+	 * Allocates nothing.
+	 * @param key
+	 * @param extraCost The actual cost less the cost recorded; positive to
+	 * debit the key, negative to refund it.
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 */
+	@Override
+	public void ReconcileAttempt(long key, int extraCost, int maxAttempts, int windowSeconds, long nowNanos) {
+		if(extraCost == 0 || maxAttempts <= 0 || windowSeconds <= 0) {
+			return;
+		}
+		long window = windowSeconds * NanosPerSecond;
+		long adjustment = GCRARateLimitingMap.Span(extraCost, GCRARateLimitingMap.EmissionInterval(maxAttempts,windowSeconds), window);
+		arrivals.Read(key, Reconcile, nowNanos, adjustment, window, Absent);
+	}
+
+	/***
+	 * Moves the theoretical arrival time by the nanoseconds debited or
+	 * refunded.
+	 */
+	static final private OffHeapStateTable.SlotFunction Reconcile = (arrival, nowNanos, adjustment, windowNanos) -> {
+		long theoretical = arrival.Get(0);
+		if(theoretical != NeverArrived) {
+			arrival.Set(0, GCRARateLimitingMap.Reconciled(theoretical, adjustment, windowNanos, nowNanos));
+		}
+		return Admitted;
+	};
+
+	/***
+	 * Reads the theoretical arrival time.
+	 */
+	static final private OffHeapStateTable.SlotFunction Arrival = (arrival, nowNanos, unused, unusedToo) -> arrival.Get(0);
+	
+	/***
+	 * Check how long until the key is allowed to record another attempt.
+	 * @param key
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return Nanoseconds until an attempt would be recorded, or 0 if now, or
+	 * the key is not mapped to a theoretical arrival time.
+	 */
+	public long NanosUntilNextAttempt(String key, int maxAttempts, int windowSeconds, long nowNanos) {
+		return NanosUntilNextAttempt(OffHeapStateTable.KeyOf(key), maxAttempts, windowSeconds, nowNanos);
+	}
+	
+	/***
+	 * Check how long until the identity and endpoint together are allowed
+	 * to record another attempt.
+	 * @param identity
+	 * @param endpoint
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return Nanoseconds until an attempt would be recorded, or 0 if now, or
+	 * they are not mapped to a theoretical arrival time.
+	 */
+	public long NanosUntilNextAttempt(String identity, String endpoint, int maxAttempts, int windowSeconds, long nowNanos) {
+		return NanosUntilNextAttempt(OffHeapStateTable.KeyOf(identity, endpoint), maxAttempts, windowSeconds, nowNanos);
+	}
+	
+	@Override
+	public long AdmitOrWait(long key, int cost, int maxAttempts, int windowSeconds, long nowNanos) {
+		return TryAdmit(key, cost, maxAttempts, windowSeconds, nowNanos);
+	}
+	
+	@Override
+	public long NanosUntilAdmitted(long key, int maxAttempts, int windowSeconds, long nowNanos) {
+		return NanosUntilNextAttempt(key, maxAttempts, windowSeconds, nowNanos);
+	}
+	
+	/***
+	 * Check how long until a precomputed key is allowed 
+	 * to record another attempt.
+	 * @param key
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return Nanoseconds until an attempt would be recorded, or 0 if now, or
+	 * the key is not mapped to a theoretical arrival time.
+	 */
+	public long NanosUntilNextAttempt(long key, int maxAttempts, int windowSeconds, long nowNanos) {
+		long theoretical = arrivals.Read(key, Arrival, nowNanos, 0L, 0L, Absent);
+		if(theoretical == NeverArrived || windowSeconds <= 0) {
+			return 0L;
+		} else if(maxAttempts <= 0) {
+			return windowSeconds * NanosPerSecond;
+		}
+		long tolerance = windowSeconds * NanosPerSecond - GCRARateLimitingMap.EmissionInterval(maxAttempts,windowSeconds);
+		return Math.max(0L, theoretical - tolerance - nowNanos);
+	}
+	
+	/***
+	 * Indicates if a key maps to a theoretical arrival time.
+	 * @param key
+	 * @return True, if the key is mapped.
+	 */
+	public boolean MapsFromKey(String key) {
+		return arrivals.Contains(OffHeapStateTable.KeyOf(key));
+	}
+	
+	/***
+	 * Forget the theoretical arrival time mapped to from a key
+	 * @param key
+	 * @return True, if the key was mapped.
+	 */
+	public boolean RemoveState(String key) {
+		return arrivals.Remove(OffHeapStateTable.KeyOf(key));
+	}
+	
+	/***
+	 * @return How many keys currently map to a theoretical arrival time.
+	 */
+	@Override
+	public int Size() {
+		return arrivals.Size();
+	}
+	
+	/***
+	 * @return How many keys have been evicted to make room for others.
+	 */
+	public long Evictions() {
+		return arrivals.Evictions();
+	}
+	
+	/***
+	 * @return How many times a key could not be tracked, as the map was
+	 * full of keys seen more often.
+	 */
+	public long Untracked() {
+		return arrivals.Untracked();
+	}
+	
+	/***
+	 * @return How many bytes the map holds off the heap.
+	 */
+	@Override
+	public long OffHeapBytes() {
+		return arrivals.OffHeapBytes();
+	}
+	
+}
@@ -0,0 +1,650 @@
+package RateLimiterService;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/***
+ * An open-addressing hash table of fixed-width state, held off the heap in
+ * direct ByteBuffers. Each key is a 64-bit hash of an identity, and maps to
+ * a slot of "words" longs, such as counters and timestamps. However many
+ * keys are tracked, the heap only holds the table's few buffer objects, so
+ * the time taken by garbage collection does not grow with the number of
+ * identities tracked, as it does for maps of per-key objects.
+ *
+ * The table is split into segments by the top bits of the key, each its
+ * own linearly probed table guarded by its own lock, so attempts for keys
+ * in different segments never contend. A segment doubles its buffer when
+ * three quarters full. Removal shifts later keys back into the gap, so
+ * there are no tombstones and probes stay short.
+ *
+ * Keys whose slots are idle, so hold no more than a new slot would, are
+ * forgotten; each Compute sweeps a couple of the slots of its segment for
+ * idle keys, and a segment is swept whole before it grows, so the cost of
+ * forgetting is amortised over the attempts made, and a segment only grows
+ * for keys that aren't idle. A table may also be capped at "maxKeys" keys,
+ * deciding which to keep as the FrequencyAdmissionPolicy does; once full, a
+ * new key is only made if it has recently been seen more often than the key
+ * under the eviction hand of the next segment in turn, which is then
+ * evicted, or if an idle key is found under the hands of the segments
+ * after it. The table may exceed its cap by as many keys as are made at once.
+ * Nothing is allocated for a segment, or for counting how often keys are
+ * seen, until the first key is made, so a table that is never used costs
+ * next to nothing.
+ *
+ * Keys are hashes, so two identities with the same 64-bit hash share a
+ * slot; with a well mixed hash this is vanishingly unlikely, even with tens
+ * of millions of identities, and only ever makes the two share a limit.
+ */
+final class OffHeapStateTable {
+
+	/***
+	 * Reads and writes the words of the slot for one key, while the table
+	 * holds the lock for the slot's segment. The arguments are passed through
+	 * from the caller, so a function that captures nothing can be kept in a
+	 * constant, and applying it allocates nothing.
+	 */
+	interface SlotFunction {
+		/***
+		 * @param slot
+		 * @param nowNanos
+		 * @param first
+		 * @param second
+		 * @return Any result to be passed back to the caller.
+		 */
+		long Apply(Slot slot, long nowNanos, long first, long second);
+	}
+
+	/***
+	 * The words of the slot for one key. Only valid during a SlotFunction.
+	 */
+	static final class Slot {
+
+		private ByteBuffer buffer;
+
+		private int offset;
+
+		private Slot() {}
+
+		/***
+		 * @param word
+		 * @return The value of the word in the slot.
+		 */
+		long Get(int word) {
+			return buffer.getLong(offset + (word + 1) * Long.BYTES);
+		}
+
+		/***
+		 * Set the value of the word in the slot.
+		 * @param word
+		 * @param value
+		 */
+		void Set(int word, long value) {
+			buffer.putLong(offset + (word + 1) * Long.BYTES, value);
+		}
+	}
+
+	/***
+	 * One linearly probed table, with its own lock.
+	 */
+	private static final class Segment {
+
+		/***
+		 * Null until the segment's first key is made.
+		 */
+		ByteBuffer buffer;
+
+		int capacity;
+
+		int size;
+
+		/***
+		 * The next slot to sweep for an idle key.
+		 */
+		int sweepHand;
+
+		/***
+		 * The next slot to consider evicting, once the table is full.
+		 */
+		int evictionHand;
+
+		final Slot slot = new Slot();
+
+		Segment(int capacity) {
+			this.capacity = capacity;
+		}
+	}
+
+	/***
+	 * The key of an empty slot; no hash is ever this key.
+	 */
+	static final private long EmptyKey = 0L;
+
+	static final int SegmentBits_Standard = 6;
+
+	static final int InitialSlotsPerSegment_Standard = 1024;
+
+	/***
+	 * The most slots a segment may have, so that offsets into its buffer
+	 * fit in an int for the widest slots.
+	 */
+	static final private int MaxSlotsPerSegment = 1 << 24;
+
+	/***
+	 * How many slots each Compute sweeps for idle keys.
+	 */
+	static final private int SweepPerCompute = 2;
+
+	/***
+	 * Returned by the idle function of a slot that can be forgotten.
+	 */
+	static final long Idle = 1L;
+
+	private final Segment[] segments;
+
+	private final int segmentShift;
+
+	private final int words;
+
+	private final int slotBytes;
+
+	/***
+	 * The words of each new slot, before it is first updated.
+	 */
+	private final long[] initialWords;
+
+	/***
+	 * Returns "Idle" for a slot that holds no more than a new slot would,
+	 * as of now, so its key can be forgotten; null if keys are never idle.
+	 */
+	private final SlotFunction idle;
+
+	private final int maxKeys;
+
+	/***
+	 * Counts how often keys are seen, to decide which to keep once the
+	 * table is full; null if uncapped, or until the first key is computed.
+	 */
+	private volatile FrequencySketch sketch;
+
+	private final AtomicInteger keys;
+
+	/***
+	 * The segment whose eviction hand is next compared against.
+	 */
+	private final AtomicInteger evictionSegment;
+
+	private final LongAdder evictions;
+
+	private final LongAdder untracked;
+
+	/***
+	 * Make an uncapped table with the standard number and size of segments,
+	 * whose slots start with the given words.
+	 * @param idle
+	 * @param initialWords
+	 */
+	OffHeapStateTable(SlotFunction idle, long... initialWords){
+		this(idle, Integer.MAX_VALUE, initialWords);
+	}
+
+	/***
+	 * Make a table with the standard number and size of segments, whose
+	 * slots start with the given words, holding at most "maxKeys" keys.
+	 * @param idle
+	 * @param maxKeys Integer.MAX_VALUE for no cap.
+	 * @param initialWords
+	 */
+	OffHeapStateTable(SlotFunction idle, int maxKeys, long... initialWords){
+		this(SegmentBits_Standard, InitialSlotsPerSegment_Standard, idle, maxKeys, initialWords);
+	}
+
+	/***
+	 * Make a table of "2^segmentBits" segments of "initialSlotsPerSegment"
+	 * slots each, whose slots start with the given words.
+	 * @param segmentBits
+	 * @param initialSlotsPerSegment
+	 * @param idle null if keys are never idle.
+	 * @param maxKeys Integer.MAX_VALUE for no cap.
+	 * @param initialWords
+	 */
+	OffHeapStateTable(int segmentBits, int initialSlotsPerSegment, SlotFunction idle, int maxKeys, long... initialWords){
+		if(maxKeys < 1) {
+			throw new IllegalArgumentException("A table must hold at least 1 key, not "+maxKeys);
+		}
+		this.idle = idle;
+		this.maxKeys = maxKeys;
+		this.keys = new AtomicInteger();
+		this.evictionSegment = new AtomicInteger();
+		this.evictions = new LongAdder();
+		this.untracked = new LongAdder();
+		this.words = initialWords.length;
+		this.slotBytes = (words + 1) * Long.BYTES;
+		this.initialWords = initialWords.clone();
+		this.segmentShift = Long.SIZE - segmentBits;
+		this.segments = new Segment[1 << segmentBits];
+		int slots = Integer.highestOneBit(Math.max(4, initialSlotsPerSegment) - 1) << 1;
+		for(int k = 0; k < segments.length; k++) {
+			segments[k] = new Segment(slots);
+		}
+	}
+
+	/***
+	 * Apply the function to the slot for the key, making the slot with the
+	 * initial words if the key is not yet in the table. The function runs
+	 * while holding the lock for the key's segment, so it is atomic for the
+	 * key, and should be short.
+	 * @param key
+	 * @param function
+	 * @param nowNanos
+	 * @param first
+	 * @param second
+	 * @param untrackedResult Returned if the key is not in the table, and
+	 * can't be made as the table is full of keys seen more often.
+	 * @return The result of the function, or "untrackedResult".
+	 */
+	long Compute(long key, SlotFunction function, long nowNanos, long first, long second, long untrackedResult) {
+		key = Occupied(key);
+		if(maxKeys != Integer.MAX_VALUE) {
+			Sketch().Increment(key);
+		}
+		Segment segment = SegmentFor(key);
+		boolean admitted = false;
+		while(true) {
+			synchronized(segment) {
+				if(segment.buffer == null) {
+					segment.buffer = Allocate(segment.capacity, slotBytes);
+				}
+				Sweep(segment, SweepPerCompute, nowNanos);
+				int index = IndexOf(segment, key);
+				boolean full = false;
+				if(KeyAt(segment, index) == EmptyKey) {
+					full = !admitted && keys.get() >= maxKeys;
+					if(!full) {
+						if((segment.size + 1) * 4L > segment.capacity * 3L && segment.capacity < MaxSlotsPerSegment) {
+							//Only grow for keys that aren't idle
+							Sweep(segment, segment.capacity, nowNanos);
+							if((segment.size + 1) * 4L > segment.capacity * 3L) {
+								Grow(segment);
+							}
+							index = IndexOf(segment, key);
+						}
+						Insert(segment, index, key);
+					}
+				}
+				if(!full) {
+					return ApplyAt(segment, index, function, nowNanos, first, second);
+				}
+			}
+			//Make room outside the segment's lock, so only one is held at once
+			if(!TryEvictFor(key, nowNanos)) {
+				untracked.increment();
+				return untrackedResult;
+			}
+			admitted = true;
+		}
+	}
+
+	/***
+	 * Apply the function to the slot for the key, if it is in the table.
+	 * @param key
+	 * @param function
+	 * @param nowNanos
+	 * @param first
+	 * @param second
+	 * @param absent
+	 * @return The result of the function, or "absent" if the key is not in
+	 * the table.
+	 */
+	long Read(long key, SlotFunction function, long nowNanos, long first, long second, long absent) {
+		key = Occupied(key);
+		Segment segment = SegmentFor(key);
+		synchronized(segment) {
+			if(segment.buffer == null) {
+				return absent;
+			}
+			int index = IndexOf(segment, key);
+			if(KeyAt(segment, index) == EmptyKey) {
+				return absent;
+			}
+			return ApplyAt(segment, index, function, nowNanos, first, second);
+		}
+	}
+
+	/***
+	 * @param key
+	 * @return True, if the key is in the table.
+	 */
+	boolean Contains(long key) {
+		key = Occupied(key);
+		Segment segment = SegmentFor(key);
+		synchronized(segment) {
+			return segment.buffer != null && KeyAt(segment, IndexOf(segment, key)) != EmptyKey;
+		}
+	}
+
+	/***
+	 * Forget the key's slot, shifting back any later keys that probed past it.
+	 * @param key
+	 * @return True, if the key was in the table.
+	 */
+	boolean Remove(long key) {
+		key = Occupied(key);
+		Segment segment = SegmentFor(key);
+		synchronized(segment) {
+			if(segment.buffer == null) {
+				return false;
+			}
+			int index = IndexOf(segment, key);
+			if(KeyAt(segment, index) == EmptyKey) {
+				return false;
+			}
+			RemoveAt(segment, index);
+			return true;
+		}
+	}
+
+	/***
+	 * @return How many keys are in the table.
+	 */
+	int Size() {
+		return keys.get();
+	}
+
+	/***
+	 * @return How many keys have been evicted to make room for others.
+	 */
+	long Evictions() {
+		return evictions.sum();
+	}
+
+	/***
+	 * @return How many times a key could not be made, as the table was full
+	 * of keys seen more often.
+	 */
+	long Untracked() {
+		return untracked.sum();
+	}
+
+	/***
+	 * @return How many bytes the table holds off the heap.
+	 */
+	long OffHeapBytes() {
+		long bytes = 0L;
+		for(Segment segment : segments) {
+			synchronized(segment) {
+				if(segment.buffer != null) {
+					bytes += (long) segment.capacity * slotBytes;
+				}
+			}
+		}
+		return bytes;
+	}
+
+	/*
+	 * Hashing
+	 */
+
+	/***
+	 * @param identity
+	 * @return A 64-bit hash of the identity, to key it in a table.
+	 */
+	static long KeyOf(String identity) {
+		return Finish(Mix(FNVOffset, identity));
+	}
+
+	/***
+	 * @param identity
+	 * @param endpoint
+	 * @return A 64-bit hash of the identity and endpoint together, to key
+	 * them in a table.
+	 */
+	static long KeyOf(String identity, String endpoint) {
+		long hash = Mix(FNVOffset, identity);
+		hash = (hash ^ identity.length()) * FNVPrime;
+		return Finish(Mix(hash, endpoint));
+	}
+
+	/***
+	 * @param identity
+	 * @param routeId
+	 * @return A 64-bit hash of the identity and the route ID of an endpoint
+	 * together, to key them in a table.
+	 */
+	static long KeyOf(String identity, int routeId) {
+		long hash = Mix(FNVOffset, identity);
+		hash = (hash ^ ~identity.length()) * FNVPrime;
+		return Finish(hash ^ routeId);
+	}
+	
+	static final private long FNVOffset = 0xCBF29CE484222325L;
+
+	static final private long FNVPrime = 0x100000001B3L;
+
+	private static long Mix(long hash, String string) {
+		for(int k = 0; k < string.length(); k++) {
+			hash = (hash ^ string.charAt(k)) * FNVPrime;
+		}
+		return hash;
+	}
+
+	/***
+	 * Spread the bits of the hash, so both the top bits that pick the
+	 * segment and the bottom bits that pick the slot are well mixed.
+	 * @param hash
+	 * @return
+	 */
+	private static long Finish(long hash) {
+		hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+		hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		hash = hash ^ (hash >>> 33);
+		return hash == EmptyKey ? 1L : hash;
+	}
+
+	/*
+	 * Helpers, called while holding the segment's lock
+	 */
+
+	/***
+	 * Keys handed in precomputed may be the empty key, which is shared with
+	 * the key 1, the same as a hash that finishes as the empty key.
+	 * @param key
+	 * @return
+	 */
+	private static long Occupied(long key) {
+		return key == EmptyKey ? 1L : key;
+	}
+	
+	private Segment SegmentFor(long key) {
+		return segments[(int) (key >>> segmentShift) & (segments.length - 1)];
+	}
+
+	private static int HomeOf(Segment segment, long key) {
+		return (int) key & (segment.capacity - 1);
+	}
+
+	/***
+	 * @param segment
+	 * @param key
+	 * @return The index of the key's slot, or of the empty slot it would go in.
+	 */
+	private int IndexOf(Segment segment, long key) {
+		int mask = segment.capacity - 1;
+		int index = HomeOf(segment, key);
+		long found;
+		while((found = KeyAt(segment, index)) != EmptyKey && found != key) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	private long KeyAt(Segment segment, int index) {
+		return segment.buffer.getLong(index * slotBytes);
+	}
+
+	private void Insert(Segment segment, int index, long key) {
+		int offset = index * slotBytes;
+		segment.buffer.putLong(offset, key);
+		for(int word = 0; word < words; word++) {
+			segment.buffer.putLong(offset + (word + 1) * Long.BYTES, initialWords[word]);
+		}
+		segment.size++;
+		keys.incrementAndGet();
+	}
+
+	/***
+	 * Forget the key at the index, shifting back any later keys that probed
+	 * past it, so the index then holds the next key to visit, if any.
+	 * @param segment
+	 * @param index
+	 */
+	private void RemoveAt(Segment segment, int index) {
+		int mask = segment.capacity - 1;
+		int gap = index;
+		int next = (gap + 1) & mask;
+		long nextKey;
+		while((nextKey = KeyAt(segment, next)) != EmptyKey) {
+			int home = HomeOf(segment, nextKey);
+			//Move the key back if its home is not between the gap and it
+			if(((next - home) & mask) >= ((next - gap) & mask)) {
+				CopySlot(segment.buffer, next, gap);
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		segment.buffer.putLong(gap * slotBytes, EmptyKey);
+		segment.size--;
+		keys.decrementAndGet();
+	}
+
+	/***
+	 * Visit the next "slots" slots of the segment from its sweep hand,
+	 * forgetting the keys of those that are idle.
+	 * @param segment
+	 * @param slots
+	 * @param nowNanos
+	 */
+	private void Sweep(Segment segment, int slots, long nowNanos) {
+		if(idle == null) {
+			return;
+		}
+		int mask = segment.capacity - 1;
+		for(int visited = 0; visited < slots && segment.size > 0; visited++) {
+			int index = segment.sweepHand;
+			if(KeyAt(segment, index) != EmptyKey && ApplyAt(segment, index, idle, nowNanos, 0L, 0L) == Idle) {
+				//A later key may have been shifted back into the index
+				RemoveAt(segment, index);
+			} else {
+				segment.sweepHand = (index + 1) & mask;
+			}
+		}
+	}
+
+	/***
+	 * Make room in the full table for the key, by forgetting the key under
+	 * the eviction hand of the next segment holding any, if it is idle or
+	 * has been seen less often than the key; otherwise moves the hand on, so
+	 * the next key is compared against another, as the hand of a clock. Only
+	 * the first key is compared; the hands of the segments after it are
+	 * moved on past keys that aren't idle, looking for one that is, so a
+	 * table full of idle keys always makes room.
+	 * @param key
+	 * @param nowNanos
+	 * @return True, if the key may be made.
+	 */
+	private boolean TryEvictFor(long key, long nowNanos) {
+		FrequencySketch counting = Sketch();
+		int frequency = counting.Frequency(key);
+		boolean compared = false;
+		for(int tried = 0; tried < segments.length; tried++) {
+			Segment segment = segments[Math.floorMod(evictionSegment.getAndIncrement(), segments.length)];
+			synchronized(segment) {
+				if(segment.size == 0) {
+					continue;
+				}
+				int mask = segment.capacity - 1;
+				int index = segment.evictionHand;
+				long candidate;
+				while((candidate = KeyAt(segment, index)) == EmptyKey) {
+					index = (index + 1) & mask;
+				}
+				boolean idleCandidate = idle != null && ApplyAt(segment, index, idle, nowNanos, 0L, 0L) == Idle;
+				if(idleCandidate || (!compared && frequency > counting.Frequency(candidate))) {
+					RemoveAt(segment, index);
+					segment.evictionHand = index;
+					if(!idleCandidate) {
+						evictions.increment();
+					}
+					return true;
+				}
+				segment.evictionHand = (index + 1) & mask;
+				if(idle == null) {
+					return false;
+				}
+				compared = true;
+			}
+		}
+		//Every key has been forgotten since the table was found full, or no
+		//idle key was found
+		return !compared;
+	}
+
+	/***
+	 * @return The sketch counting how often keys are seen, made the first
+	 * time it is needed.
+	 */
+	private FrequencySketch Sketch() {
+		FrequencySketch counting = sketch;
+		if(counting == null) {
+			synchronized(this) {
+				counting = sketch;
+				if(counting == null) {
+					counting = new FrequencySketch(maxKeys);
+					sketch = counting;
+				}
+			}
+		}
+		return counting;
+	}
+
+	private long ApplyAt(Segment segment, int index, SlotFunction function, long nowNanos, long first, long second) {
+		segment.slot.buffer = segment.buffer;
+		segment.slot.offset = index * slotBytes;
+		return function.Apply(segment.slot, nowNanos, first, second);
+	}
+
+	private void CopySlot(ByteBuffer buffer, int from, int to) {
+		for(int word = 0; word <= words; word++) {
+			buffer.putLong(to * slotBytes + word * Long.BYTES, buffer.getLong(from * slotBytes + word * Long.BYTES));
+		}
+	}
+
+	/***
+	 * Double the segment's slots, re-inserting every key.
+	 * @param segment
+	 */
+	private void Grow(Segment segment) {
+		ByteBuffer old = segment.buffer;
+		int oldCapacity = segment.capacity;
+		segment.capacity = oldCapacity << 1;
+		segment.buffer = Allocate(segment.capacity, slotBytes);
+		segment.sweepHand = 0;
+		segment.evictionHand = 0;
+		for(int from = 0; from < oldCapacity; from++) {
+			long key = old.getLong(from * slotBytes);
+			if(key != EmptyKey) {
+				int to = IndexOf(segment, key);
+				for(int word = 0; word <= words; word++) {
+					segment.buffer.putLong(to * slotBytes + word * Long.BYTES, old.getLong(from * slotBytes + word * Long.BYTES));
+				}
+			}
+		}
+	}
+
+	private static ByteBuffer Allocate(int slots, int slotBytes) {
+		//Direct buffers are zeroed, so every slot starts empty
+		return ByteBuffer.allocateDirect(slots * slotBytes).order(ByteOrder.nativeOrder());
+	}
+
+}
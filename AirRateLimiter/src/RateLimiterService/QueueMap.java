@@ -2,6 +2,7 @@ package RateLimiterService;
 
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiFunction;
 
 /***
  * Define a class to abstract the occurrence of thread-safe maps which point to
@@ -44,6 +45,20 @@ public class QueueMap<K,V>{
 		return map.get(key);
 	}
 	
+	/***
+	 * Atomically computes the queue mapped to by a key from the queue that is
+	 * currently mapped to by it (or null if none). No other computation for
+	 * the same key can run at the same time, so the remapping function can
+	 * inspect and change the queue as a single step. Returning null from the
+	 * remapping function leaves the key unmapped.
+	 * @param key
+	 * @param remapping
+	 * @return The queue now mapped to by the key, or null.
+	 */
+	protected ConcurrentLinkedQueue<V> ComputeQueue(K key, BiFunction<? super K,ConcurrentLinkedQueue<V>,ConcurrentLinkedQueue<V>> remapping) {
+		return map.compute(key, remapping);
+	}
+	
 	/***
 	 * Add a new queue to the map for a given key
 	 * @param key
@@ -111,4 +126,11 @@ public class QueueMap<K,V>{
 		AddToQueue(key,item);
 		return item;
 	}
+	
+	/***
+	 * @return How many keys currently map to a queue.
+	 */
+	public int Size() {
+		return map.size();
+	}
 }
@@ -0,0 +1,318 @@
+package RateLimiterService;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/***
+ * A table of the limits of specific users, IP ranges and endpoints, such as
+ * the larger quotas of paying users, so that one rate limiter can hold
+ * different identities to different limits. Identities with no policy fall
+ * back to the limit of the rate limiting behaviour.
+ *
+ * Users and endpoints are looked up by hash; IP ranges by the longest
+ * matching prefix in a binary trie of address bits, in which IPv4 ranges
+ * are held as IPv4 addresses mapped into IPv6, so one trie holds both.
+ * An end-point attempt is held to the policy of its endpoint if it has one,
+ * so that an endpoint may be protected from every identity, otherwise to
+ * the policy of the user or IP attempting it.
+ *
+ * Policies are added to a table while it is built, by one thread, and the
+ * table is frozen when a rate limiting behaviour is made with it; the
+ * behaviour holds a frozen copy, whose policies can't be changed, so the
+ * threads looking limits up in it never see a half added policy. To change
+ * the policies of a rate limiter, build a new table and reload the rate
+ * limiter with a new behaviour holding it.
+ */
+final public class RateLimitPolicyTable {
+
+	/***
+	 * The index of a node with no child in the trie.
+	 */
+	static final private int NoNode = -1;
+
+	static final private long IPv4MappedPrefix = 0xFFFF_0000_0000L;
+
+	private final Map<String,RateLimitTier> users;
+
+	private final Map<String,RateLimitTier> endpoints;
+
+	/***
+	 * The trie of IP ranges; the children and limit of each node, by index.
+	 */
+	private int[] zeroChildren;
+
+	private int[] oneChildren;
+
+	private RateLimitTier[] rangeLimits;
+
+	private int nodes;
+
+	/***
+	 * Whether policies can no longer be added.
+	 */
+	private final boolean frozen;
+
+	/***
+	 * Make a table with no policies, so that every identity falls back to
+	 * the limit of the rate limiting behaviour.
+	 */
+	public RateLimitPolicyTable() {
+		this.users = new HashMap<String,RateLimitTier>();
+		this.endpoints = new HashMap<String,RateLimitTier>();
+		this.zeroChildren = new int[16];
+		this.oneChildren = new int[16];
+		this.rangeLimits = new RateLimitTier[16];
+		this.nodes = 0;
+		this.frozen = false;
+		NewNode();
+	}
+
+	/***
+	 * Make a frozen copy of the table.
+	 * @param table
+	 */
+	private RateLimitPolicyTable(RateLimitPolicyTable table) {
+		synchronized(table) {
+			this.users = Collections.unmodifiableMap(new HashMap<String,RateLimitTier>(table.users));
+			this.endpoints = Collections.unmodifiableMap(new HashMap<String,RateLimitTier>(table.endpoints));
+			this.zeroChildren = Arrays.copyOf(table.zeroChildren, table.nodes);
+			this.oneChildren = Arrays.copyOf(table.oneChildren, table.nodes);
+			this.rangeLimits = Arrays.copyOf(table.rangeLimits, table.nodes);
+			this.nodes = table.nodes;
+		}
+		this.frozen = true;
+	}
+
+	/***
+	 * @return A copy of the table to which no policies can be added, or the
+	 * table itself if it is already frozen.
+	 */
+	public RateLimitPolicyTable Frozen() {
+		return frozen ? this : new RateLimitPolicyTable(this);
+	}
+
+	/***
+	 * @return True, if policies can no longer be added to the table.
+	 */
+	public boolean IsFrozen() {
+		return frozen;
+	}
+
+	/*
+	 * Adding policies
+	 */
+
+	/***
+	 * Hold a user to their own limit.
+	 * @param UserAuth The user's authorization string.
+	 * @param limit
+	 * @throws IllegalStateException If the table is frozen.
+	 */
+	public synchronized void ForUser(String UserAuth, RateLimitTier limit) {
+		CheckNotFrozen();
+		users.put(UserAuth, limit);
+	}
+
+	/***
+	 * Hold an endpoint to its own limit, for every identity attempting it.
+	 * @param endpoint As formed by FormEndpointStringFromVerbAndResource, or
+	 * given by a RouteRegistry.
+	 * @param limit
+	 * @throws IllegalStateException If the table is frozen.
+	 */
+	public synchronized void ForEndpoint(String endpoint, RateLimitTier limit) {
+		CheckNotFrozen();
+		endpoints.put(endpoint, limit);
+	}
+
+	/***
+	 * Hold every IP in a range to a limit; more specific ranges take
+	 * precedence over the ranges they are within.
+	 * @param range An IPv4 or IPv6 range in CIDR notation, such as
+	 * "10.0.0.0/8" or "2001:db8::/32", or a single address.
+	 * @param limit
+	 * @throws IllegalArgumentException If the range is not an IP literal
+	 * with an optional prefix length that fits it.
+	 * @throws IllegalStateException If the table is frozen.
+	 */
+	public synchronized void ForIPRange(String range, RateLimitTier limit) {
+		CheckNotFrozen();
+		int slash = range.indexOf('/');
+		String literal = slash < 0 ? range : range.substring(0, slash);
+		long[] address = AddressOf(literal);
+		if(address == null) {
+			throw new IllegalArgumentException("Not an IP range: "+range);
+		}
+		boolean IPv4 = literal.indexOf(':') < 0;
+		int maxLength = IPv4 ? 32 : 128;
+		int length = maxLength;
+		if(slash >= 0) {
+			try {
+				length = Integer.parseInt(range.substring(slash + 1));
+			} catch(NumberFormatException e) {
+				throw new IllegalArgumentException("Not an IP range: "+range);
+			}
+			if(length < 0 || length > maxLength) {
+				throw new IllegalArgumentException("Not an IP range: "+range);
+			}
+		}
+		int bits = length + (128 - maxLength);
+		int node = 0;
+		for(int bit = 0; bit < bits; bit++) {
+			boolean zero = Bit(address, bit) == 0;
+			int child = zero ? zeroChildren[node] : oneChildren[node];
+			if(child == NoNode) {
+				//Growing may replace the arrays, so only index them after
+				child = NewNode();
+				(zero ? zeroChildren : oneChildren)[node] = child;
+			}
+			node = child;
+		}
+		rangeLimits[node] = limit;
+	}
+
+	private void CheckNotFrozen() {
+		if(frozen) {
+			throw new IllegalStateException("The policies of a rate limiting behaviour can't be changed; reload it with a new behaviour instead");
+		}
+	}
+
+	/*
+	 * Looking up limits
+	 */
+
+	/***
+	 * @param RLIdentity
+	 * @return The limit of the identity's policy, or null if it has none.
+	 */
+	public RateLimitTier LimitFor(RateLimitedIdentity RLIdentity) {
+		switch(RLIdentity.GetRateLimitedIdentityType()) {
+			case IP:
+				return LimitForIP(RLIdentity.GetIdentity());
+			case User:
+				return users.get(RLIdentity.GetIdentity());
+			case Endpoint:
+				RateLimitTier limit = endpoints.get(RLIdentity.GetEndpoint());
+				if(limit == null) {
+					limit = users.get(RLIdentity.GetIdentity());
+				}
+				return limit == null ? LimitForIP(RLIdentity.GetIdentity()) : limit;
+			default:
+				return null;
+		}
+	}
+
+	/***
+	 * @param IP An IPv4 or IPv6 literal.
+	 * @return The limit of the most specific range holding the IP, or null
+	 * if there is none, or it is not an IP literal.
+	 */
+	public RateLimitTier LimitForIP(String IP) {
+		if(nodes == 1) {
+			return null;
+		}
+		long IPv4 = IPAddressKey.IPv4OfLiteral(IP);
+		if(IPv4 != IPAddressKey.NotIPv4) {
+			return Lookup(0L, IPv4MappedPrefix | IPv4);
+		}
+		long[] address = IP.indexOf(':') < 0 ? null : AddressOf(IP);
+		return address == null ? null : Lookup(address[0], address[1]);
+	}
+
+	/***
+	 * @param address
+	 * @return The limit of the most specific range holding the address, or
+	 * null if there is none.
+	 */
+	public RateLimitTier LimitForIP(InetAddress address) {
+		if(nodes == 1) {
+			return null;
+		}
+		long[] bits = AddressOf(address.getAddress());
+		return bits == null ? null : Lookup(bits[0], bits[1]);
+	}
+
+	/***
+	 * @return True, if the table has no policies.
+	 */
+	public boolean IsEmpty() {
+		return users.isEmpty() && endpoints.isEmpty() && nodes == 1;
+	}
+
+	/*
+	 * The trie of IP ranges
+	 */
+
+	private RateLimitTier Lookup(long high, long low) {
+		RateLimitTier found = rangeLimits[0];
+		int node = 0;
+		for(int bit = 0; bit < 128; bit++) {
+			long bits = bit < 64 ? (high >>> (63 - bit)) : (low >>> (127 - bit));
+			node = (bits & 1L) == 0L ? zeroChildren[node] : oneChildren[node];
+			if(node == NoNode) {
+				break;
+			} else if(rangeLimits[node] != null) {
+				found = rangeLimits[node];
+			}
+		}
+		return found;
+	}
+
+	private int NewNode() {
+		if(nodes == rangeLimits.length) {
+			zeroChildren = Arrays.copyOf(zeroChildren, nodes * 2);
+			oneChildren = Arrays.copyOf(oneChildren, nodes * 2);
+			rangeLimits = Arrays.copyOf(rangeLimits, nodes * 2);
+		}
+		zeroChildren[nodes] = NoNode;
+		oneChildren[nodes] = NoNode;
+		rangeLimits[nodes] = null;
+		return nodes++;
+	}
+
+	private static int Bit(long[] address, int bit) {
+		return (int) (bit < 64 ? (address[0] >>> (63 - bit)) : (address[1] >>> (127 - bit))) & 1;
+	}
+
+	/***
+	 * @param literal An IPv4 or IPv6 literal; never a host name.
+	 * @return The 128 bits of the address, IPv4 mapped into IPv6, or null.
+	 */
+	private static long[] AddressOf(String literal) {
+		long IPv4 = IPAddressKey.IPv4OfLiteral(literal);
+		if(IPv4 != IPAddressKey.NotIPv4) {
+			return new long[] {0L, IPv4MappedPrefix | IPv4};
+		} else if(literal.indexOf(':') < 0) {
+			return null;
+		}
+		try {
+			//Never a host name lookup, as host names can't contain colons
+			return AddressOf(InetAddress.getByName(literal).getAddress());
+		} catch (UnknownHostException e) {
+			return null;
+		}
+	}
+
+	private static long[] AddressOf(byte[] address) {
+		if(address.length == 4) {
+			return new long[] {0L, IPv4MappedPrefix | (Long(address, 0, 4) & 0xFFFFFFFFL)};
+		} else if(address.length == 16) {
+			return new long[] {Long(address, 0, 8), Long(address, 8, 8)};
+		} else {
+			return null;
+		}
+	}
+
+	private static long Long(byte[] bytes, int from, int count) {
+		long value = 0L;
+		for(int k = from; k < from + count; k++) {
+			value = (value << 8) | (bytes[k] & 0xFF);
+		}
+		return value;
+	}
+
+}
@@ -0,0 +1,37 @@
+package RateLimiterService;
+
+/***
+ * One tier of a multi-tier limit; "RequestLimitHits" requests per
+ * "TimeLimitSeconds" seconds. A rate limiting behaviour with many tiers,
+ * such as 20 requests per second and 100,000 requests per day, only allows
+ * an attempt that every tier allows.
+ */
+final public class RateLimitTier {
+	
+	/***
+	 * The tier allows "RequestLimitHits" requests per "TimeLimitSeconds" seconds
+	 */
+	final public int RequestLimitHits;
+	
+	/***
+	 * The tier allows "RequestLimitHits" requests per "TimeLimitSeconds" seconds
+	 */
+	final public int TimeLimitSeconds;
+	
+	/***
+	 * Make a tier allowing "RequestLimitHits" requests per 
+	 * "TimeLimitSeconds" seconds.
+	 * @param RequestLimitHits
+	 * @param TimeLimitSeconds
+	 */
+	public RateLimitTier(int RequestLimitHits, int TimeLimitSeconds) {
+		this.RequestLimitHits = RequestLimitHits;
+		this.TimeLimitSeconds = TimeLimitSeconds;
+	}
+	
+	@Override
+	public String toString() {
+		return RequestLimitHits+" requests per "+TimeLimitSeconds+" seconds";
+	}
+	
+}
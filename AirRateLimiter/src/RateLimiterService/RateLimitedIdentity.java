@@ -16,9 +16,27 @@ public class RateLimitedIdentity{
 	private final String endpoint;
 	private final RateLimitedIdentityType rateLimitedIdentityType;
 	
+	/***
+	 * The route of an end-point attempt, from a RouteRegistry, or NoRoute if
+	 * the attempt is keyed by its endpoint String.
+	 */
+	private final int routeId;
+	
+	/***
+	 * The key of an end-point attempt in a map of all identities' end-point
+	 * attempts; made when first needed, and racily cached, as any thread
+	 * makes an equal String.
+	 */
+	private String endpointKey;
+	
 	RateLimitedIdentity(String identity, String endpoint, RateLimitedIdentityType rateLimitedIdentityType){
+		this(identity,endpoint,RouteRegistry.NoRoute,rateLimitedIdentityType);
+	}
+	
+	RateLimitedIdentity(String identity, String endpoint, int routeId, RateLimitedIdentityType rateLimitedIdentityType){
 		this.identity = identity;
 		this.endpoint = endpoint;
+		this.routeId = routeId;
 		this.rateLimitedIdentityType = rateLimitedIdentityType;
 	}
 	
@@ -30,6 +48,35 @@ public class RateLimitedIdentity{
 		return this.endpoint;
 	}
 	
+	public int GetRouteId() {
+		return this.routeId;
+	}
+	
+	public boolean IsIdentityARouteAttempt() {
+		return (this.routeId != RouteRegistry.NoRoute);
+	}
+	
+	/***
+	 * The identity and endpoint together, as one String key, for stores that
+	 * can only be keyed by String; the route ID instead of the endpoint when
+	 * there is one. The identity is prefixed with its length, so no two
+	 * pairs ever make the same key. The maps held in memory are keyed by the
+	 * RateLimitedIdentity itself instead, so as not to make this String.
+	 * @return
+	 */
+	String GetEndpointKey() {
+		String key = this.endpointKey;
+		if(key == null) {
+			if(IsIdentityARouteAttempt()) {
+				key = this.identity.length()+"#"+this.identity+this.routeId;
+			} else {
+				key = this.identity.length()+":"+this.identity+this.endpoint;
+			}
+			this.endpointKey = key;
+		}
+		return key;
+	}
+	
 	public RateLimitedIdentityType GetRateLimitedIdentityType() {
 		return this.rateLimitedIdentityType;
 	}
@@ -38,4 +85,38 @@ public class RateLimitedIdentity{
 		return (this.rateLimitedIdentityType == RateLimitedIdentityType.Endpoint);
 	}
 	
+	/***
+	 * Identities are equal if they are of the same type, for the same
+	 * identity and, for end-point attempts, the same route, or the same
+	 * endpoint if there is no route; so an end-point attempt can key a map of
+	 * attempts as the pair, by reference to its identity, without joining
+	 * them into a new String.
+	 */
+	@Override
+	public boolean equals(Object other) {
+		if(this == other) {
+			return true;
+		} else if(!(other instanceof RateLimitedIdentity)) {
+			return false;
+		}
+		RateLimitedIdentity that = (RateLimitedIdentity) other;
+		if(this.rateLimitedIdentityType != that.rateLimitedIdentityType 
+				|| this.routeId != that.routeId 
+				|| !this.identity.equals(that.identity)) {
+			return false;
+		}
+		return IsIdentityARouteAttempt() || !IsIdentityAnEndpointAttempt() || this.endpoint.equals(that.endpoint);
+	}
+	
+	@Override
+	public int hashCode() {
+		int hash = this.identity.hashCode() * 31 + this.rateLimitedIdentityType.ordinal();
+		if(IsIdentityARouteAttempt()) {
+			return hash * 31 + this.routeId;
+		} else if(IsIdentityAnEndpointAttempt()) {
+			return hash * 31 + this.endpoint.hashCode();
+		}
+		return hash;
+	}
+	
 };
@@ -2,14 +2,14 @@ package RateLimiterService;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /***
  * Implements the expectations of the AbstractRateLimiter
  */
 public class RateLimiter extends AbstractRateLimiter<FixedWindowRateLimitingMap> {
 
-	final private RateLimitingBehaviour rateLimitingBehaviour;
+	private volatile RateLimitingBehaviour rateLimitingBehaviour;
 	
 	private final ArrayList<String> hostileIPs;
 	
@@ -19,12 +19,55 @@ public class RateLimiter extends AbstractRateLimiter<FixedWindowRateLimitingMap>
 	
 	private final FixedWindowRateLimitingMap UserAttempts;
 	
-	private final ConcurrentHashMap<String,FixedWindowRateLimitingMap> EndpointAttempts;
+	private final FixedWindowRateLimitingMap EndpointAttempts;
+	
+	private final IClock clock;
+	
+	private final OffHeapGCRARateLimitingMap KeyedAttempts;
+	
+	private final IPAddressSet hostileIPAddresses;
+	
+	private final AdmissionTickets admissionTickets;
+	
+	private final InFlightCounters inFlightCounters;
+	
+	/***
+	 * Verbose message output to stream Out for each recorded attempt
+	 */
+	private volatile boolean verbose = true;
 	
 	/*
 	 * Constructors
 	 */
 	
+	/***
+	 * Make a rate limiter with the given behaviour, 
+	 * reading the time from the given clock.
+	 * @param rateLimitingBehaviour
+	 * @param clock
+	 */
+	public RateLimiter(RateLimitingBehaviour rateLimitingBehaviour, IClock clock) {
+		this.rateLimitingBehaviour = rateLimitingBehaviour;
+		this.clock = clock;
+		this.hostileIPs = new ArrayList<String>();
+		this.hostileIPAddresses = new IPAddressSet();
+		this.KeyedAttempts = NewKeyedAttemptsMap(this.rateLimitingBehaviour);
+		this.admissionTickets = new AdmissionTickets();
+		this.inFlightCounters = new InFlightCounters();
+		this.ValidUserAuths = new ArrayList<String>();
+		this.IPAttempts = NewIdentityAttemptsMap();
+		this.UserAttempts = NewIdentityAttemptsMap();
+		this.EndpointAttempts = NewIdentityAttemptsMap();
+	}
+	
+	/***
+	 * Make a rate limiter with the given behaviour.
+	 * @param rateLimitingBehaviour
+	 */
+	public RateLimiter(RateLimitingBehaviour rateLimitingBehaviour) {
+		this(rateLimitingBehaviour, new MonotonicClock());
+	}
+	
 	/***
 	 * The most generic constructor. Assign everything
 	 * @param GetDataStoreInstance()
@@ -50,11 +93,16 @@ public class RateLimiter extends AbstractRateLimiter<FixedWindowRateLimitingMap>
 				rateLimitByUser,
 				rateLimitByEndpoint,
 				approvedUsersOnly);
+		this.clock = new MonotonicClock();
 		this.hostileIPs = new ArrayList<String>();
+		this.hostileIPAddresses = new IPAddressSet();
+		this.KeyedAttempts = NewKeyedAttemptsMap(this.rateLimitingBehaviour);
+		this.admissionTickets = new AdmissionTickets();
+		this.inFlightCounters = new InFlightCounters();
 		this.ValidUserAuths = new ArrayList<String>();
-		this.IPAttempts = new FixedWindowRateLimitingMap();
-		this.UserAttempts = new FixedWindowRateLimitingMap();
-		this.EndpointAttempts = new ConcurrentHashMap<String,FixedWindowRateLimitingMap>();
+		this.IPAttempts = NewIdentityAttemptsMap();
+		this.UserAttempts = NewIdentityAttemptsMap();
+		this.EndpointAttempts = NewIdentityAttemptsMap();
 	}
 	
 	/***
@@ -79,11 +127,16 @@ public class RateLimiter extends AbstractRateLimiter<FixedWindowRateLimitingMap>
 				rateLimitByUser,
 				rateLimitByEndpoint,
 				approvedUsersOnly);
+		this.clock = new MonotonicClock();
 		this.hostileIPs = new ArrayList<String>();
+		this.hostileIPAddresses = new IPAddressSet();
+		this.KeyedAttempts = NewKeyedAttemptsMap(this.rateLimitingBehaviour);
+		this.admissionTickets = new AdmissionTickets();
+		this.inFlightCounters = new InFlightCounters();
 		this.ValidUserAuths = new ArrayList<String>();
-		this.IPAttempts = new FixedWindowRateLimitingMap();
-		this.UserAttempts = new FixedWindowRateLimitingMap();
-		this.EndpointAttempts = new ConcurrentHashMap<String,FixedWindowRateLimitingMap>();
+		this.IPAttempts = NewIdentityAttemptsMap();
+		this.UserAttempts = NewIdentityAttemptsMap();
+		this.EndpointAttempts = NewIdentityAttemptsMap();
 	}
 	
 	/***
@@ -97,11 +150,16 @@ public class RateLimiter extends AbstractRateLimiter<FixedWindowRateLimitingMap>
 	 */
 	public RateLimiter(int RequestLimitHits, int TimeLimitSeconds, boolean approvedUsersOnly) {
 		this.rateLimitingBehaviour = new RateLimitingBehaviour(RequestLimitHits,TimeLimitSeconds,approvedUsersOnly);
+		this.clock = new MonotonicClock();
 		this.hostileIPs = new ArrayList<String>();
+		this.hostileIPAddresses = new IPAddressSet();
+		this.KeyedAttempts = NewKeyedAttemptsMap(this.rateLimitingBehaviour);
+		this.admissionTickets = new AdmissionTickets();
+		this.inFlightCounters = new InFlightCounters();
 		this.ValidUserAuths = new ArrayList<String>();
-		this.IPAttempts = new FixedWindowRateLimitingMap();
-		this.UserAttempts = new FixedWindowRateLimitingMap();
-		this.EndpointAttempts = new ConcurrentHashMap<String,FixedWindowRateLimitingMap>();
+		this.IPAttempts = NewIdentityAttemptsMap();
+		this.UserAttempts = NewIdentityAttemptsMap();
+		this.EndpointAttempts = NewIdentityAttemptsMap();
 	}
 	
 	/***
@@ -112,11 +170,27 @@ public class RateLimiter extends AbstractRateLimiter<FixedWindowRateLimitingMap>
 	 */
 	public RateLimiter() {
 		this.rateLimitingBehaviour = new RateLimitingBehaviour();
+		this.clock = new MonotonicClock();
 		this.hostileIPs = new ArrayList<String>();
+		this.hostileIPAddresses = new IPAddressSet();
+		this.KeyedAttempts = NewKeyedAttemptsMap(this.rateLimitingBehaviour);
+		this.admissionTickets = new AdmissionTickets();
+		this.inFlightCounters = new InFlightCounters();
 		this.ValidUserAuths = new ArrayList<String>();
-		this.IPAttempts = new FixedWindowRateLimitingMap();
-		this.UserAttempts = new FixedWindowRateLimitingMap();
-		this.EndpointAttempts = new ConcurrentHashMap<String,FixedWindowRateLimitingMap>();
+		this.IPAttempts = NewIdentityAttemptsMap();
+		this.UserAttempts = NewIdentityAttemptsMap();
+		this.EndpointAttempts = NewIdentityAttemptsMap();
+	}
+	
+	/***
+	 * Make a map of attempts per identity, which tracks no more
+	 * identities than the rate limiting behaviour allows.
+	 * @return
+	 */
+	private FixedWindowRateLimitingMap NewIdentityAttemptsMap() {
+		return new FixedWindowRateLimitingMap(clock,
+				rateLimitingBehaviour.MaxTrackedIdentities,
+				rateLimitingBehaviour.FailClosedWhenUntracked);
 	}
 	
 	/*
@@ -128,6 +202,11 @@ public class RateLimiter extends AbstractRateLimiter<FixedWindowRateLimitingMap>
 		return this.rateLimitingBehaviour;
 	}
 	
+	@Override
+	protected void setRateLimitingBehaviour(RateLimitingBehaviour rateLimitingBehaviour) {
+		this.rateLimitingBehaviour = rateLimitingBehaviour;
+	}
+	
 	@Override
 	protected FixedWindowRateLimitingMap getIPAttemptsMap() {
 		return IPAttempts;
@@ -139,7 +218,7 @@ public class RateLimiter extends AbstractRateLimiter<FixedWindowRateLimitingMap>
 	}
 
 	@Override
-	protected ConcurrentHashMap<String, FixedWindowRateLimitingMap> getEndpointAttemptsMap() {
+	protected FixedWindowRateLimitingMap getEndpointAttemptsMap() {
 		return EndpointAttempts;
 	}
 
@@ -147,141 +226,128 @@ public class RateLimiter extends AbstractRateLimiter<FixedWindowRateLimitingMap>
 	protected ArrayList<String> getHostileIPs() {
 		return hostileIPs;
 	}
+	
+	@Override
+	protected IPAddressSet getHostileIPAddresses() {
+		return hostileIPAddresses;
+	}
+	
+	@Override
+	protected OffHeapGCRARateLimitingMap getKeyedAttemptsMap() {
+		return KeyedAttempts;
+	}
+	
+	@Override
+	protected AdmissionTickets getAdmissionTickets() {
+		return admissionTickets;
+	}
+	
+	@Override
+	protected InFlightCounters getInFlightCounters() {
+		return inFlightCounters;
+	}
 
 	@Override
 	protected ArrayList<String> getValidUserAuths() {
 		return ValidUserAuths;
 	}
 	
+	@Override
+	protected IClock getClock() {
+		return clock;
+	}
+	
+	/*
+	 * Eviction counts
+	 */
+	
+	/***
+	 * @return How many identities have been evicted, with their attempts
+	 * forgotten, to make room for identities seen more often.
+	 */
+	public long EvictionCount() {
+		return IPAttempts.Evictions() + UserAttempts.Evictions() + EndpointAttempts.Evictions();
+	}
+	
+	/***
+	 * @return How many times an identity could not be tracked, as the
+	 * limiter was full of identities seen more often; these attempts were
+	 * allowed or refused according to "FailClosedWhenUntracked".
+	 */
+	public long UntrackedCount() {
+		return IPAttempts.Untracked() + UserAttempts.Untracked() + EndpointAttempts.Untracked();
+	}
+	
+	/*
+	 * Verbosity
+	 */
+	
+	public void turnOnVerbose() {
+		verbose = true;
+	}
+	
+	public void turnOffVerbose() {
+		verbose = false;
+	}
+	
 	/* Overrides
 	 * Functions that take a RateLimitedIdentity to record a new attempt
 	 * or check when the next request by that identity will be allowed
 	 */
 	
 	@Override
-	public boolean RecordNewAttempt(RateLimitedIdentity RLIdentity, int maxAttempts, int maxSeconds) {
-		//Handle the special case when dealing with an End-point
-		//As end-points map identities to the regular attempt map types
-		if((RLIdentity.IsIdentityAnEndpointAttempt())) {
-			if(!EndpointAttempts.containsKey(RLIdentity.GetIdentity())) {
-				//If we don't contain the identity we must make it's entry!
-				if(maxAttempts > 0) {
-					return MakeEndpointMapWithNewQueue(RLIdentity, EndpointAttempts);
-				} else {
-					return GetRecordAttemptMessage(RLIdentity,null);
-				}
-			}
-		}
-		//Now we've addressed the end-point special case, treat all generic.
-		return RecoredNewAttemptInner(RLIdentity,maxAttempts,maxSeconds);
+	public boolean RecordNewAttempt(RateLimitedIdentity RLIdentity, int cost, int maxAttempts, int maxSeconds) {
+		return RecordNewAttemptAt(RLIdentity, cost, maxAttempts, maxSeconds, getClock().NanoTime());
 	}
 	
 	@Override
-	public LocalDateTime CheckWhenNextRequestAllowed(RateLimitedIdentity RLIdentity, int maxAttempts, int maxSeconds) {
-		FixedWindowRateLimitingMap lookupMap = GetAttemptMapForIdentity(RLIdentity);
-		if(lookupMap == null) {
-			return LocalDateTime.now();
-		} else {
-			String lookupKey = GetAttemptKeyForIdentity(RLIdentity);
-			if(lookupMap.MapsFromKey(lookupKey)) {
-				if(IdentityHasTooManyAttempts(lookupMap,lookupKey,maxAttempts)) {
-					return lookupMap.PeekQueueTip(lookupKey).plusSeconds(maxSeconds);
-				} else {
-					return LocalDateTime.now();
-				}
-			} else {
-				return LocalDateTime.now();
-			}
+	protected boolean RecordNewAttemptAt(RateLimitedIdentity RLIdentity, int cost, int maxAttempts, int maxSeconds, long now) {
+		FixedWindowRateLimitingMap RLMap = GetAttemptMapForIdentity(RLIdentity);
+		if(RLMap == null) {
+			return GetRecordAttemptMessage(RLIdentity,null);
 		}
+		//Clearing, counting and recording happen as one step per identity
+		LocalDateTime recorded = RLMap.TryRecordAttemptAt(GetAttemptKeyForIdentity(RLIdentity),cost,maxAttempts,maxSeconds,now);
+		return GetRecordAttemptMessage(RLIdentity,recorded);
 	}
 	
-	/*
-	 * Helpers
-	 */
-	
-	/***
-	 * Handles the inner generic method of adding a new attempt
-	 * @param RLIdentity
-	 * @param lookupKey
-	 * @param maxSeconds
-	 * @param maxAttempts
-	 * @return
-	 */
-	private boolean RecoredNewAttemptInner(RateLimitedIdentity RLIdentity, int maxAttempts,int maxSeconds) {
+	@Override
+	public void ReconcileAttempt(RateLimitedIdentity RLIdentity, int extraCost, int maxAttempts, int maxSeconds) {
 		FixedWindowRateLimitingMap RLMap = GetAttemptMapForIdentity(RLIdentity);
-		String lookupKey = GetAttemptKeyForIdentity(RLIdentity);
-		if(RLMap.MapsFromKey(lookupKey)) {
-			ClearOldAttemptsFromAttemptMap(RLMap,lookupKey,maxSeconds);
-			if(IdentityHasTooManyAttempts(RLMap, lookupKey, maxAttempts)){
-				return GetRecordAttemptMessage(RLIdentity,null);
-			} else {
-				// If not at maximum attempts, record the current attempt
-				LocalDateTime now = RLMap.AddCurrentTimeToExistingQueue(lookupKey);
-				return GetRecordAttemptMessage(RLIdentity,now);
-			}
-		} else if(maxAttempts > 0) {
-			// If not at maximum attempts, record the current attempt, 
-			// after creating the record for the IP
-			LocalDateTime now = RLMap.MakeNewQueueWithNowAtTip(lookupKey);
-			return GetRecordAttemptMessage(RLIdentity,now);
-		} else {
-			return GetRecordAttemptMessage(RLIdentity,null);
+		if(RLMap != null) {
+			RLMap.ReconcileAttempt(GetAttemptKeyForIdentity(RLIdentity), extraCost, maxSeconds);
 		}
 	}
 	
 	/***
-	 * Handles the logic specific to when we need to make a new "String ->
-	 * FixedWindowRateLimitingMap" entry
-	 * @param RLIdentity
-	 * @param EndpointMap
-	 * @return
+	 * Forget the end-points of identities whose attempts have gone idle.
+	 * @return How many end-points of identities were forgotten.
 	 */
-	private boolean MakeEndpointMapWithNewQueue(RateLimitedIdentity RLIdentity, ConcurrentHashMap<String,FixedWindowRateLimitingMap> EndpointMap) {
-		FixedWindowRateLimitingMap newMap = new FixedWindowRateLimitingMap();
-		LocalDateTime now = newMap.MakeNewQueueWithNowAtTip(RLIdentity.GetEndpoint());
-		EndpointMap.put(RLIdentity.GetIdentity(),newMap);
-		return GetRecordAttemptMessage(RLIdentity,now);
+	public int ExpireIdleEndpointIdentities() {
+		return EndpointAttempts.ExpireIdleKeys();
 	}
 	
-	/***
-	 * Destroys old recorded attempts from the RateLimitingMaps
-	 * @param attemptMap
-	 * @param lookupKey
-	 * @param maxSeconds
-	 */
-	private void ClearOldAttemptsFromAttemptMap(FixedWindowRateLimitingMap attemptMap, String lookupKey, int maxSeconds) {
-		LocalDateTime tip;
-		while((tip = attemptMap.PeekQueueTip(lookupKey)) != null) {
-			if(AttemptIsOld(tip,maxSeconds)){
-				attemptMap.PollQueueTip(lookupKey);
+	@Override
+	public LocalDateTime CheckWhenNextRequestAllowed(RateLimitedIdentity RLIdentity, int maxAttempts, int maxSeconds) {
+		FixedWindowRateLimitingMap lookupMap = GetAttemptMapForIdentity(RLIdentity);
+		if(lookupMap == null) {
+			return getClock().Now();
+		} else {
+			//Idle keys may be forgotten at any time, so read the queue once
+			Object lookupKey = GetAttemptKeyForIdentity(RLIdentity);
+			ConcurrentLinkedQueue<LocalDateTime> attempts = lookupMap.GetQueue(lookupKey);
+			LocalDateTime tip = attempts == null ? null : attempts.peek();
+			if(tip != null && attempts.size() + lookupMap.ExtraCost(lookupKey) >= maxAttempts) {
+				return tip.plusSeconds(maxSeconds);
 			} else {
-				break;
+				return getClock().Now();
 			}
 		}
 	}
 	
-	/***
-	 * Checks whether a single LocalDateTime entry is too old to keep storing
-	 * @param oldTime
-	 * @param maxSeconds
-	 * @return
-	 */
-	private boolean AttemptIsOld(LocalDateTime oldTime, int maxSeconds) {
-		return oldTime.isBefore(LocalDateTime.now().minusSeconds(maxSeconds)
-			 .plusNanos(FixedWindowRateLimitingMap.deduplicationThresholdPerMilliSecond));
-	}
-	
-	/***
-	 * Checks whether a FixedWindowRateLimitingMap already stores too many attempts
-	 * from a given identity against which the attempts are stored.
-	 * @param attemptMap
-	 * @param lookupKey
-	 * @param maxAttempts
-	 * @return
+	/*
+	 * Helpers
 	 */
-	private boolean IdentityHasTooManyAttempts(FixedWindowRateLimitingMap attemptMap, String lookupKey, int maxAttempts) {
-		return (attemptMap.GetQueue(lookupKey).size() >= maxAttempts);
-	}
 	
 	/***
 	 * Handles presenting a message to the terminal and returning according to
@@ -298,6 +364,9 @@ public class RateLimiter extends AbstractRateLimiter<FixedWindowRateLimitingMap>
 		if(RLIdentity.IsIdentityAnEndpointAttempt()) {
 			endingWord = "|"+RLIdentity.GetEndpoint()+"|";
 		}
+		if(!verbose) {
+			return StoredOn != null;
+		}
 		if(StoredOn == null) {
 			System.out.println("Datastore: Store new "+type+" attempt | Not stored, "+RLIdentity.GetIdentity()+" "+endingWord+" has too many already!");
 			return false;
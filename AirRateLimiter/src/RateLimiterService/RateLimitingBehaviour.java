@@ -1,11 +1,63 @@
 package RateLimiterService;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /***
  * Define the standard rate at which to rate limit requests.
  * Also define the standard implementation's behaviour
  */
 public class RateLimitingBehaviour {
 	
+	/***
+	 * The algorithms with which a rate limiter may decide whether to record
+	 * an attempt, selecting the implementation of the AbstractRateLimiter
+	 * made by AbstractRateLimiter.NewRateLimiter.
+	 */
+	public enum RateLimitingAlgorithm {
+		/***
+		 * Keep an exact log of every attempt in the window; the RateLimiter.
+		 */
+		SlidingLog,
+		/***
+		 * Keep a token count per identity; the TokenBucketRateLimiter.
+		 */
+		TokenBucket,
+		/***
+		 * Keep two window counts per identity, and estimate the count in the
+		 * sliding window with a bounded error; the 
+		 * SlidingWindowCounterRateLimiter.
+		 */
+		SlidingWindowCounter,
+		/***
+		 * Keep a count per identity in consecutive fixed windows; the
+		 * FixedWindowCounterRateLimiter.
+		 */
+		FixedWindowCounter,
+		/***
+		 * Keep a theoretical arrival time per identity, pacing attempts with
+		 * the Generic Cell Rate Algorithm; the GCRARateLimiter.
+		 */
+		GCRA,
+		/***
+		 * Keep an exact log of every attempt in the window, in a ring of
+		 * primitive times per identity; the RingBufferRateLimiter.
+		 */
+		RingBufferSlidingLog,
+		/***
+		 * Keep a theoretical arrival time per identity, as GCRA, held off
+		 * the heap; the OffHeapGCRARateLimiter.
+		 */
+		OffHeapGCRA,
+		/***
+		 * Keep a theoretical arrival time per identity for every tier of a
+		 * multi-tier limit, deciding them all at once, as GCRA, held off the
+		 * heap; the MultiTierGCRARateLimiter.
+		 */
+		MultiTierGCRA;
+	}
+	
 	/***
 	 * The standard rate at which to rate limit is 100 requests per 
 	 * "TimeLimitSeconds_Standard" seconds
@@ -46,6 +98,36 @@ public class RateLimitingBehaviour {
 	 */
 	static final public boolean ApprovedUsersOnly_Standard = false;
 	
+	/***
+	 * The standard rate limiting algorithm is to keep an exact sliding log
+	 */
+	static final public RateLimitingAlgorithm Algorithm_Standard = RateLimitingAlgorithm.SlidingLog;
+	
+	/***
+	 * The standard rate limiting implementation is to track at most this
+	 * many identities of each kind, evicting the least frequently seen.
+	 */
+	static final public int MaxTrackedIdentities_Standard = 100_000;
+	
+	/***
+	 * The standard rate limiting implementation is to fail open, allowing
+	 * attempts from identities that can't be tracked while the limiter is
+	 * full, rather than refusing them.
+	 */
+	static final public boolean FailClosedWhenUntracked_Standard = false;
+	
+	/***
+	 * The standard rate limiting implementation is to not limit how many
+	 * requests an identity may have in flight at once.
+	 */
+	static final public int MaxInFlightPerIdentity_Standard = 0;
+	
+	/***
+	 * The standard rate limiting implementation is to hold every identity to
+	 * the same limit, with no policies.
+	 */
+	static final public RateLimitPolicyTable Policies_Standard = new RateLimitPolicyTable().Frozen();
+	
 	/***
 	 * The set rate at which to rate limit is "RequestLimitHits" requests per 
 	 * "TimeLimitSeconds" seconds
@@ -86,6 +168,46 @@ public class RateLimitingBehaviour {
 	 */
 	final public boolean ApprovedUsersOnly;
 	
+	/***
+	 * The set rate limiting algorithm
+	 */
+	final public RateLimitingAlgorithm Algorithm;
+	
+	/***
+	 * The set maximum number of identities of each kind to track. Once
+	 * full, a new identity is only tracked if it has recently been seen more
+	 * often than an identity it evicts, whose attempts are then forgotten;
+	 * evicted identities fail open, starting afresh if they return.
+	 */
+	final public int MaxTrackedIdentities;
+	
+	/***
+	 * The set rate limiting implementation regarding attempts from
+	 * identities that can't be tracked while the limiter is full; if true
+	 * they are refused (fail closed), otherwise allowed (fail open).
+	 */
+	final public boolean FailClosedWhenUntracked;
+	
+	/***
+	 * The set tiers of the limit, each of which must allow an attempt. The
+	 * first tier is always "RequestLimitHits" per "TimeLimitSeconds"; only
+	 * the MultiTierGCRA algorithm limits by any later tiers.
+	 */
+	final public List<RateLimitTier> Tiers;
+	
+	/***
+	 * The set policies of users, IP ranges and endpoints held to their own
+	 * limit, rather than the first tier's; none, unless set. Frozen, so they
+	 * can only be changed by reloading a rate limiter with a new behaviour.
+	 */
+	final public RateLimitPolicyTable Policies;
+	
+	/***
+	 * The set maximum number of requests each identity may have in flight,
+	 * admitted but not yet handled, at once; 0 for no limit.
+	 */
+	final public int MaxInFlightPerIdentity;
+	
 	/***
 	 * Initialise a rate limiting behaviour with all the standard options
 	 */
@@ -97,6 +219,12 @@ public class RateLimitingBehaviour {
 		this.RateLimitByUser = RateLimitByUser_Standard;
 		this.RateLimitByEndpoint = RateLimitByEndpoint_Standard;
 		this.ApprovedUsersOnly = ApprovedUsersOnly_Standard;
+		this.Algorithm = Algorithm_Standard;
+		this.MaxTrackedIdentities = MaxTrackedIdentities_Standard;
+		this.FailClosedWhenUntracked = FailClosedWhenUntracked_Standard;
+		this.Tiers = SingleTier(this.RequestLimitHits, this.TimeLimitSeconds);
+		this.Policies = Policies_Standard;
+		this.MaxInFlightPerIdentity = MaxInFlightPerIdentity_Standard;
 	}
 	
 	/***
@@ -111,6 +239,12 @@ public class RateLimitingBehaviour {
 		this.RateLimitByUser = RateLimitByUser_Standard;
 		this.RateLimitByEndpoint = RateLimitByEndpoint_Standard;
 		this.ApprovedUsersOnly = ApprovedUsersOnly_Standard;
+		this.Algorithm = Algorithm_Standard;
+		this.MaxTrackedIdentities = MaxTrackedIdentities_Standard;
+		this.FailClosedWhenUntracked = FailClosedWhenUntracked_Standard;
+		this.Tiers = SingleTier(this.RequestLimitHits, this.TimeLimitSeconds);
+		this.Policies = Policies_Standard;
+		this.MaxInFlightPerIdentity = MaxInFlightPerIdentity_Standard;
 	}
 	
 	/***
@@ -125,6 +259,12 @@ public class RateLimitingBehaviour {
 		this.RateLimitByUser = RateLimitByUser_Standard;
 		this.RateLimitByEndpoint = RateLimitByEndpoint_Standard;
 		this.ApprovedUsersOnly = ApprovedUsersOnly;
+		this.Algorithm = Algorithm_Standard;
+		this.MaxTrackedIdentities = MaxTrackedIdentities_Standard;
+		this.FailClosedWhenUntracked = FailClosedWhenUntracked_Standard;
+		this.Tiers = SingleTier(this.RequestLimitHits, this.TimeLimitSeconds);
+		this.Policies = Policies_Standard;
+		this.MaxInFlightPerIdentity = MaxInFlightPerIdentity_Standard;
 	}
 	
 	/***
@@ -151,6 +291,12 @@ public class RateLimitingBehaviour {
 		this.RateLimitByUser = RateLimitByUser;
 		this.RateLimitByEndpoint = RateLimitByEndpoint;
 		this.ApprovedUsersOnly = ApprovedUsersOnly;
+		this.Algorithm = Algorithm_Standard;
+		this.MaxTrackedIdentities = MaxTrackedIdentities_Standard;
+		this.FailClosedWhenUntracked = FailClosedWhenUntracked_Standard;
+		this.Tiers = SingleTier(this.RequestLimitHits, this.TimeLimitSeconds);
+		this.Policies = Policies_Standard;
+		this.MaxInFlightPerIdentity = MaxInFlightPerIdentity_Standard;
 	}
 	
 	/***
@@ -173,6 +319,230 @@ public class RateLimitingBehaviour {
 		this.RateLimitByUser = RateLimitByUser;
 		this.RateLimitByEndpoint = RateLimitByEndpoint;
 		this.ApprovedUsersOnly = ApprovedUsersOnly;
+		this.Algorithm = Algorithm_Standard;
+		this.MaxTrackedIdentities = MaxTrackedIdentities_Standard;
+		this.FailClosedWhenUntracked = FailClosedWhenUntracked_Standard;
+		this.Tiers = SingleTier(this.RequestLimitHits, this.TimeLimitSeconds);
+		this.Policies = Policies_Standard;
+		this.MaxInFlightPerIdentity = MaxInFlightPerIdentity_Standard;
+	}
+	
+	/***
+	 * Initialise a rate limiting behaviour with the standard "limit by"
+	 * options, with different requests/seconds ratio and algorithm.
+	 * @param RequestLimitHits
+	 * @param TimeLimitSeconds
+	 * @param Algorithm
+	 */
+	public RateLimitingBehaviour(int RequestLimitHits, int TimeLimitSeconds, RateLimitingAlgorithm Algorithm) {
+		this.RequestLimitHits = RequestLimitHits;
+		this.TimeLimitSeconds = TimeLimitSeconds;
+		this.StoreHostileIPs = StoreHostileIPs_Standard;
+		this.RateLimitByIP = RateLimitByIP_Standard;
+		this.RateLimitByUser = RateLimitByUser_Standard;
+		this.RateLimitByEndpoint = RateLimitByEndpoint_Standard;
+		this.ApprovedUsersOnly = ApprovedUsersOnly_Standard;
+		this.Algorithm = Algorithm;
+		this.MaxTrackedIdentities = MaxTrackedIdentities_Standard;
+		this.FailClosedWhenUntracked = FailClosedWhenUntracked_Standard;
+		this.Tiers = SingleTier(this.RequestLimitHits, this.TimeLimitSeconds);
+		this.Policies = Policies_Standard;
+		this.MaxInFlightPerIdentity = MaxInFlightPerIdentity_Standard;
+	}
+	
+	/***
+	 * Initialise a customisable rate limiting behaviour, including the
+	 * algorithm used to rate limit.
+	 * @param RequestLimitHits
+	 * @param TimeLimitSeconds
+	 * @param StoreHostileIPs
+	 * @param RateLimitByIP
+	 * @param RateLimitByUser
+	 * @param RateLimitByEndpoint
+	 * @param ApprovedUsersOnly
+	 * @param Algorithm
+	 */
+	public RateLimitingBehaviour(int RequestLimitHits, 
+			int TimeLimitSeconds, 
+			boolean StoreHostileIPs, 
+			boolean RateLimitByIP, 
+			boolean RateLimitByUser, 
+			boolean RateLimitByEndpoint, 
+			boolean ApprovedUsersOnly,
+			RateLimitingAlgorithm Algorithm) {
+		this.RequestLimitHits = RequestLimitHits;
+		this.TimeLimitSeconds = TimeLimitSeconds;
+		this.StoreHostileIPs = StoreHostileIPs;
+		this.RateLimitByIP = RateLimitByIP;
+		this.RateLimitByUser = RateLimitByUser;
+		this.RateLimitByEndpoint = RateLimitByEndpoint;
+		this.ApprovedUsersOnly = ApprovedUsersOnly;
+		this.Algorithm = Algorithm;
+		this.MaxTrackedIdentities = MaxTrackedIdentities_Standard;
+		this.FailClosedWhenUntracked = FailClosedWhenUntracked_Standard;
+		this.Tiers = SingleTier(this.RequestLimitHits, this.TimeLimitSeconds);
+		this.Policies = Policies_Standard;
+		this.MaxInFlightPerIdentity = MaxInFlightPerIdentity_Standard;
+	}
+	
+	/***
+	 * Initialise a rate limiting behaviour with the standard "limit by"
+	 * options, with different requests/seconds ratio, which tracks at most
+	 * "MaxTrackedIdentities" identities of each kind.
+	 * @param RequestLimitHits
+	 * @param TimeLimitSeconds
+	 * @param MaxTrackedIdentities
+	 * @param FailClosedWhenUntracked
+	 */
+	public RateLimitingBehaviour(int RequestLimitHits, int TimeLimitSeconds, int MaxTrackedIdentities, boolean FailClosedWhenUntracked) {
+		this.RequestLimitHits = RequestLimitHits;
+		this.TimeLimitSeconds = TimeLimitSeconds;
+		this.StoreHostileIPs = StoreHostileIPs_Standard;
+		this.RateLimitByIP = RateLimitByIP_Standard;
+		this.RateLimitByUser = RateLimitByUser_Standard;
+		this.RateLimitByEndpoint = RateLimitByEndpoint_Standard;
+		this.ApprovedUsersOnly = ApprovedUsersOnly_Standard;
+		this.Algorithm = Algorithm_Standard;
+		this.MaxTrackedIdentities = MaxTrackedIdentities;
+		this.FailClosedWhenUntracked = FailClosedWhenUntracked;
+		this.Tiers = SingleTier(this.RequestLimitHits, this.TimeLimitSeconds);
+		this.Policies = Policies_Standard;
+		this.MaxInFlightPerIdentity = MaxInFlightPerIdentity_Standard;
+	}
+	
+	/***
+	 * Initialise a rate limiting behaviour with the standard "limit by"
+	 * options, which limits by every one of the tiers with the
+	 * MultiTierGCRA algorithm. The first tier sets "RequestLimitHits" and
+	 * "TimeLimitSeconds".
+	 * @param Tiers
+	 * @throws IllegalArgumentException If there are no tiers, or more than 
+	 * "MultiTierGCRARateLimitingMap.MaxTiers".
+	 */
+	public RateLimitingBehaviour(RateLimitTier... Tiers) {
+		this.Tiers = MultipleTiers(Tiers);
+		this.RequestLimitHits = Tiers[0].RequestLimitHits;
+		this.TimeLimitSeconds = Tiers[0].TimeLimitSeconds;
+		this.StoreHostileIPs = StoreHostileIPs_Standard;
+		this.RateLimitByIP = RateLimitByIP_Standard;
+		this.RateLimitByUser = RateLimitByUser_Standard;
+		this.RateLimitByEndpoint = RateLimitByEndpoint_Standard;
+		this.ApprovedUsersOnly = ApprovedUsersOnly_Standard;
+		this.Algorithm = RateLimitingAlgorithm.MultiTierGCRA;
+		this.MaxTrackedIdentities = MaxTrackedIdentities_Standard;
+		this.FailClosedWhenUntracked = FailClosedWhenUntracked_Standard;
+		this.Policies = Policies_Standard;
+		this.MaxInFlightPerIdentity = MaxInFlightPerIdentity_Standard;
+	}
+	
+	/***
+	 * Initialise a rate limiting behaviour the same as another, which holds
+	 * the users, IP ranges and endpoints in "Policies" to their own limits
+	 * rather than "RequestLimitHits" per "TimeLimitSeconds". The behaviour
+	 * holds a frozen copy of the policies, so adding any more to the table
+	 * doesn't change it.
+	 * @param behaviour
+	 * @param Policies
+	 */
+	public RateLimitingBehaviour(RateLimitingBehaviour behaviour, RateLimitPolicyTable Policies) {
+		this.RequestLimitHits = behaviour.RequestLimitHits;
+		this.TimeLimitSeconds = behaviour.TimeLimitSeconds;
+		this.StoreHostileIPs = behaviour.StoreHostileIPs;
+		this.RateLimitByIP = behaviour.RateLimitByIP;
+		this.RateLimitByUser = behaviour.RateLimitByUser;
+		this.RateLimitByEndpoint = behaviour.RateLimitByEndpoint;
+		this.ApprovedUsersOnly = behaviour.ApprovedUsersOnly;
+		this.Algorithm = behaviour.Algorithm;
+		this.MaxTrackedIdentities = behaviour.MaxTrackedIdentities;
+		this.FailClosedWhenUntracked = behaviour.FailClosedWhenUntracked;
+		this.Tiers = behaviour.Tiers;
+		this.Policies = Policies.Frozen();
+		this.MaxInFlightPerIdentity = behaviour.MaxInFlightPerIdentity;
+	}
+	
+	/***
+	 * Initialise a rate limiting behaviour the same as another, which limits
+	 * each identity to "MaxInFlightPerIdentity" requests in flight at once.
+	 * @param behaviour
+	 * @param MaxInFlightPerIdentity At least 1, or 0 for no limit.
+	 * @throws IllegalArgumentException If the limit is negative.
+	 */
+	public RateLimitingBehaviour(RateLimitingBehaviour behaviour, int MaxInFlightPerIdentity) {
+		if(MaxInFlightPerIdentity < 0) {
+			throw new IllegalArgumentException("Can't limit identities to "+MaxInFlightPerIdentity+" requests in flight");
+		}
+		this.RequestLimitHits = behaviour.RequestLimitHits;
+		this.TimeLimitSeconds = behaviour.TimeLimitSeconds;
+		this.StoreHostileIPs = behaviour.StoreHostileIPs;
+		this.RateLimitByIP = behaviour.RateLimitByIP;
+		this.RateLimitByUser = behaviour.RateLimitByUser;
+		this.RateLimitByEndpoint = behaviour.RateLimitByEndpoint;
+		this.ApprovedUsersOnly = behaviour.ApprovedUsersOnly;
+		this.Algorithm = behaviour.Algorithm;
+		this.MaxTrackedIdentities = behaviour.MaxTrackedIdentities;
+		this.FailClosedWhenUntracked = behaviour.FailClosedWhenUntracked;
+		this.Tiers = behaviour.Tiers;
+		this.Policies = behaviour.Policies;
+		this.MaxInFlightPerIdentity = MaxInFlightPerIdentity;
+	}
+	
+	/***
+	 * Initialise a rate limiting behaviour the same as another, which tracks
+	 * at most "MaxTrackedIdentities" identities of each kind.
+	 * @param behaviour
+	 * @param MaxTrackedIdentities
+	 * @param FailClosedWhenUntracked
+	 */
+	public RateLimitingBehaviour(RateLimitingBehaviour behaviour, int MaxTrackedIdentities, boolean FailClosedWhenUntracked) {
+		this.RequestLimitHits = behaviour.RequestLimitHits;
+		this.TimeLimitSeconds = behaviour.TimeLimitSeconds;
+		this.StoreHostileIPs = behaviour.StoreHostileIPs;
+		this.RateLimitByIP = behaviour.RateLimitByIP;
+		this.RateLimitByUser = behaviour.RateLimitByUser;
+		this.RateLimitByEndpoint = behaviour.RateLimitByEndpoint;
+		this.ApprovedUsersOnly = behaviour.ApprovedUsersOnly;
+		this.Algorithm = behaviour.Algorithm;
+		this.MaxTrackedIdentities = MaxTrackedIdentities;
+		this.FailClosedWhenUntracked = FailClosedWhenUntracked;
+		this.Tiers = behaviour.Tiers;
+		this.Policies = behaviour.Policies;
+		this.MaxInFlightPerIdentity = behaviour.MaxInFlightPerIdentity;
+	}
+	
+	/***
+	 * Initialise a rate limiting behaviour the same as another, which limits
+	 * by every one of the tiers with the MultiTierGCRA algorithm. The first
+	 * tier sets "RequestLimitHits" and "TimeLimitSeconds".
+	 * @param behaviour
+	 * @param Tiers
+	 * @throws IllegalArgumentException If there are no tiers, or more than 
+	 * "MultiTierGCRARateLimitingMap.MaxTiers".
+	 */
+	public RateLimitingBehaviour(RateLimitingBehaviour behaviour, RateLimitTier... Tiers) {
+		this.Tiers = MultipleTiers(Tiers);
+		this.RequestLimitHits = Tiers[0].RequestLimitHits;
+		this.TimeLimitSeconds = Tiers[0].TimeLimitSeconds;
+		this.StoreHostileIPs = behaviour.StoreHostileIPs;
+		this.RateLimitByIP = behaviour.RateLimitByIP;
+		this.RateLimitByUser = behaviour.RateLimitByUser;
+		this.RateLimitByEndpoint = behaviour.RateLimitByEndpoint;
+		this.ApprovedUsersOnly = behaviour.ApprovedUsersOnly;
+		this.Algorithm = RateLimitingAlgorithm.MultiTierGCRA;
+		this.MaxTrackedIdentities = behaviour.MaxTrackedIdentities;
+		this.FailClosedWhenUntracked = behaviour.FailClosedWhenUntracked;
+		this.Policies = behaviour.Policies;
+		this.MaxInFlightPerIdentity = behaviour.MaxInFlightPerIdentity;
+	}
+	
+	private static List<RateLimitTier> SingleTier(int RequestLimitHits, int TimeLimitSeconds) {
+		return Collections.singletonList(new RateLimitTier(RequestLimitHits, TimeLimitSeconds));
+	}
+	
+	private static List<RateLimitTier> MultipleTiers(RateLimitTier[] Tiers) {
+		if(Tiers.length == 0 || Tiers.length > MultiTierGCRARateLimitingMap.MaxTiers) {
+			throw new IllegalArgumentException("A multi-tier limit needs from 1 to "+MultiTierGCRARateLimitingMap.MaxTiers+" tiers");
+		}
+		return Collections.unmodifiableList(Arrays.asList(Tiers.clone()));
 	}
 
 }
@@ -0,0 +1,331 @@
+package RateLimiterService;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * A data store held in another process, reached over a pool of TCP
+ * connections kept open between requests, speaking the DataStoreProtocol.
+ * Each request borrows a connection to itself, waiting for its answer, so
+ * every operation costs a round trip, but as many threads as there are
+ * connections make their round trips at once; the batched operations answer
+ * all their keys in one. Connections are opened as they are needed, up to
+ * the limit, and a thread finding none free waits up to the timeout for one.
+ *
+ * A failure of a connection is thrown as an UncheckedIOException, as the
+ * rate limiters can't decide an attempt without its state. A store that
+ * doesn't answer within the timeout has failed; the connection is closed on
+ * its first failure, so no later request can read the answer to an earlier
+ * one, along with every idle connection, and requests needing a new
+ * connection fail fast until the timeout has passed again, when the next
+ * request connects afresh.
+ */
+public class RemoteDataStore implements IDataStore, Closeable {
+
+	static final public int TimeoutMillis_Standard = 1000;
+
+	static final public int Connections_Standard = 8;
+
+	/***
+	 * One request and the reading of its answer.
+	 */
+	@FunctionalInterface
+	private interface Exchange<T> {
+		T Run(DataInputStream in, DataOutputStream out) throws IOException;
+	}
+
+	/***
+	 * One open connection to the store, used by one request at a time.
+	 */
+	private static final class Connection {
+
+		private final Socket socket;
+
+		private final DataInputStream in;
+
+		private final DataOutputStream out;
+
+		private Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+
+		private void Close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// Already failed
+			}
+		}
+
+	}
+
+	private final InetSocketAddress address;
+
+	private final int timeoutMillis;
+
+	/***
+	 * The connections open and free, the most recently used first.
+	 */
+	private final ConcurrentLinkedDeque<Connection> idle;
+
+	/***
+	 * A permit for each connection that may be open.
+	 */
+	private final Semaphore connections;
+
+	/***
+	 * When a connection last failed, in System.nanoTime.
+	 */
+	private volatile long failedAtNanos;
+
+	/***
+	 * Whether a connection has failed, and none has connected since.
+	 */
+	private volatile boolean failed;
+
+	private volatile boolean closed;
+
+	/***
+	 * Connect to the data store listening on the host and port, waiting up
+	 * to TimeoutMillis_Standard for each answer, over up to
+	 * Connections_Standard connections.
+	 * @param host
+	 * @param port
+	 * @throws IOException
+	 */
+	public RemoteDataStore(String host, int port) throws IOException {
+		this(host, port, TimeoutMillis_Standard);
+	}
+
+	/***
+	 * Connect to the data store listening on the host and port, over up to
+	 * Connections_Standard connections.
+	 * @param host
+	 * @param port
+	 * @param timeoutMillis How long to wait to connect, or for an answer,
+	 * before failing; and, once failed, before connecting again.
+	 * @throws IOException
+	 */
+	public RemoteDataStore(String host, int port, int timeoutMillis) throws IOException {
+		this(host, port, timeoutMillis, Connections_Standard);
+	}
+
+	/***
+	 * Connect to the data store listening on the host and port.
+	 * @param host
+	 * @param port
+	 * @param timeoutMillis How long to wait to connect, for a free
+	 * connection, or for an answer, before failing; and, once failed, before
+	 * connecting again.
+	 * @param maxConnections How many connections may be open at once, so how
+	 * many requests may wait on the store at once.
+	 * @throws IOException
+	 */
+	public RemoteDataStore(String host, int port, int timeoutMillis, int maxConnections) throws IOException {
+		if(timeoutMillis < 1) {
+			throw new IllegalArgumentException("A remote data store needs a timeout of at least 1 millisecond, not "+timeoutMillis);
+		} else if(maxConnections < 1) {
+			throw new IllegalArgumentException("A remote data store needs at least 1 connection, not "+maxConnections);
+		}
+		this.address = new InetSocketAddress(host, port);
+		this.timeoutMillis = timeoutMillis;
+		this.idle = new ConcurrentLinkedDeque<Connection>();
+		this.connections = new Semaphore(maxConnections);
+		this.idle.push(Connect());
+	}
+
+	@Override
+	public long IncrementAndGet(String key, long delta, long expiresAtNanos, long nowNanos) {
+		return Request((in, out) -> {
+			out.writeByte(DataStoreProtocol.IncrementAndGet);
+			out.writeUTF(key);
+			out.writeLong(delta);
+			out.writeLong(expiresAtNanos);
+			out.writeLong(nowNanos);
+			out.flush();
+			return in.readLong();
+		});
+	}
+
+	@Override
+	public byte[] Get(String key, long nowNanos) {
+		return Request((in, out) -> {
+			out.writeByte(DataStoreProtocol.Get);
+			out.writeUTF(key);
+			out.writeLong(nowNanos);
+			out.flush();
+			return DataStoreProtocol.ReadBlob(in);
+		});
+	}
+
+	@Override
+	public boolean CompareAndSet(String key, byte[] expected, byte[] update, long expiresAtNanos, long nowNanos) {
+		return Request((in, out) -> {
+			out.writeByte(DataStoreProtocol.CompareAndSet);
+			out.writeUTF(key);
+			DataStoreProtocol.WriteBlob(out, expected);
+			DataStoreProtocol.WriteBlob(out, update);
+			out.writeLong(expiresAtNanos);
+			out.writeLong(nowNanos);
+			out.flush();
+			return in.readBoolean();
+		});
+	}
+
+	@Override
+	public long[] IncrementAndGetAll(String[] keys, long[] deltas, long expiresAtNanos, long nowNanos) {
+		DataStoreProtocol.CheckBatchSize(keys.length);
+		return Request((in, out) -> {
+			out.writeByte(DataStoreProtocol.IncrementAndGetAll);
+			out.writeInt(keys.length);
+			for(int k = 0; k < keys.length; k++) {
+				out.writeUTF(keys[k]);
+				out.writeLong(deltas[k]);
+			}
+			out.writeLong(expiresAtNanos);
+			out.writeLong(nowNanos);
+			out.flush();
+			long[] counters = new long[keys.length];
+			for(int k = 0; k < keys.length; k++) {
+				counters[k] = in.readLong();
+			}
+			return counters;
+		});
+	}
+
+	@Override
+	public byte[][] GetAll(String[] keys, long nowNanos) {
+		DataStoreProtocol.CheckBatchSize(keys.length);
+		return Request((in, out) -> {
+			out.writeByte(DataStoreProtocol.GetAll);
+			out.writeInt(keys.length);
+			for(String key : keys) {
+				out.writeUTF(key);
+			}
+			out.writeLong(nowNanos);
+			out.flush();
+			byte[][] blobs = new byte[keys.length][];
+			for(int k = 0; k < keys.length; k++) {
+				blobs[k] = DataStoreProtocol.ReadBlob(in);
+			}
+			return blobs;
+		});
+	}
+
+	/***
+	 * Close the connections to the data store; those still in use are
+	 * closed as their requests finish.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		CloseIdle();
+	}
+
+	/***
+	 * Make the request over a free connection, connecting a new one if none
+	 * is free, as long as none failed less than a timeout ago; closing it if
+	 * the request fails.
+	 * @param exchange
+	 * @return The answer read.
+	 * @throws UncheckedIOException If the request failed, no connection was
+	 * free within the timeout, or a connection failed too recently to try
+	 * again.
+	 */
+	private <T> T Request(Exchange<T> exchange) {
+		try {
+			if(closed) {
+				throw new IOException("The connection to the data store at "+address+" is closed");
+			} else if(!connections.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				throw new IOException("No connection to the data store at "+address+" was free within "+timeoutMillis+"ms");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UncheckedIOException(new InterruptedIOException("Interrupted waiting for a connection to the data store at "+address));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		try {
+			Connection connection = idle.poll();
+			if(connection == null) {
+				if(failed && System.nanoTime() - failedAtNanos < timeoutMillis * 1_000_000L) {
+					throw new IOException("The connection to the data store at "+address+" failed less than "+timeoutMillis+"ms ago");
+				}
+				connection = Connect();
+				failed = false;
+			}
+			T answer;
+			try {
+				answer = exchange.Run(connection.in, connection.out);
+			} catch (IOException e) {
+				Disconnect(connection);
+				throw e;
+			}
+			Release(connection);
+			return answer;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			connections.release();
+		}
+	}
+
+	private Connection Connect() throws IOException {
+		Socket connecting = new Socket();
+		try {
+			connecting.connect(address, timeoutMillis);
+			connecting.setTcpNoDelay(true);
+			connecting.setSoTimeout(timeoutMillis);
+			return new Connection(connecting);
+		} catch (IOException e) {
+			connecting.close();
+			throw e;
+		}
+	}
+
+	/***
+	 * Free a connection whose request has finished, for the next request;
+	 * or close it, if the store has been closed.
+	 * @param connection
+	 */
+	private void Release(Connection connection) {
+		idle.push(connection);
+		if(closed) {
+			CloseIdle();
+		}
+	}
+
+	/***
+	 * Close a failed connection, so an answer still on its way can't be
+	 * read as the answer to a later request; and every idle connection,
+	 * which would wait on the same failed store.
+	 * @param connection
+	 */
+	private void Disconnect(Connection connection) {
+		failedAtNanos = System.nanoTime();
+		failed = true;
+		connection.Close();
+		CloseIdle();
+	}
+
+	private void CloseIdle() {
+		Connection connection;
+		while((connection = idle.poll()) != null) {
+			connection.Close();
+		}
+	}
+
+}
@@ -0,0 +1,219 @@
+package RateLimiterService;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+
+/***
+ * Implements the expectations of the AbstractRateLimiter with the same exact
+ * sliding log as the RateLimiter, held per rate limited identity as a ring of
+ * primitive attempt times sized to "maxAttempts". Suited to where the exact
+ * count of attempts in the window is needed, without the allocation per
+ * attempt and the linear scans of the FixedWindowRateLimitingMap.
+ */
+public class RingBufferRateLimiter extends AbstractRateLimiter<RingBufferRateLimitingMap> {
+
+	private volatile RateLimitingBehaviour rateLimitingBehaviour;
+	
+	private final ArrayList<String> hostileIPs;
+	
+	private final ArrayList<String> ValidUserAuths;
+	
+	private final RingBufferRateLimitingMap IPAttempts;
+	
+	private final RingBufferRateLimitingMap UserAttempts;
+	
+	private final RingBufferRateLimitingMap EndpointAttempts;
+	
+	private final IClock clock;
+	
+	private final OffHeapGCRARateLimitingMap KeyedAttempts;
+	
+	private final IPAddressSet hostileIPAddresses;
+	
+	private final AdmissionTickets admissionTickets;
+	
+	private final InFlightCounters inFlightCounters;
+	
+	/*
+	 * Constructors
+	 */
+	
+	/***
+	 * Make a ring buffer sliding log rate limiter with the given behaviour, 
+	 * reading the time from the given clock.
+	 * @param rateLimitingBehaviour
+	 * @param clock
+	 */
+	public RingBufferRateLimiter(RateLimitingBehaviour rateLimitingBehaviour, IClock clock) {
+		this.rateLimitingBehaviour = rateLimitingBehaviour;
+		this.clock = clock;
+		this.hostileIPs = new ArrayList<String>();
+		this.hostileIPAddresses = new IPAddressSet();
+		this.KeyedAttempts = NewKeyedAttemptsMap(this.rateLimitingBehaviour);
+		this.admissionTickets = new AdmissionTickets();
+		this.inFlightCounters = new InFlightCounters();
+		this.ValidUserAuths = new ArrayList<String>();
+		this.IPAttempts = new RingBufferRateLimitingMap();
+		this.UserAttempts = new RingBufferRateLimitingMap();
+		this.EndpointAttempts = new RingBufferRateLimitingMap();
+	}
+	
+	/***
+	 * Make a ring buffer sliding log rate limiter with the given behaviour.
+	 * @param rateLimitingBehaviour
+	 */
+	public RingBufferRateLimiter(RateLimitingBehaviour rateLimitingBehaviour) {
+		this(rateLimitingBehaviour, new MonotonicClock());
+	}
+	
+	/***
+	 * The most generic constructor. Assign everything
+	 * @param RequestLimitHits
+	 * @param TimeLimitSeconds
+	 * @param storeHostileIPs
+	 * @param rateLimitByIP
+	 * @param rateLimitByUser
+	 * @param rateLimitByEndpoint
+	 * @param approvedUsersOnly
+	 */
+	public RingBufferRateLimiter(int RequestLimitHits, 
+								  int TimeLimitSeconds, 
+								  boolean storeHostileIPs, 
+								  boolean rateLimitByIP, 
+								  boolean rateLimitByUser, 
+								  boolean rateLimitByEndpoint, 
+								  boolean approvedUsersOnly) {
+		this(new RateLimitingBehaviour(RequestLimitHits,
+				TimeLimitSeconds,
+				storeHostileIPs,
+				rateLimitByIP,
+				rateLimitByUser,
+				rateLimitByEndpoint,
+				approvedUsersOnly));
+	}
+	
+	/***
+	 * Make a rate limiter which limits on End-points per User identities,
+	 * but allow generic assignment of the approvedUsers and 
+	 * the metrics by which the rate limiter operates.
+	 * @param RequestLimitHits
+	 * @param TimeLimitSeconds
+	 * @param approvedUsersOnly
+	 */
+	public RingBufferRateLimiter(int RequestLimitHits, int TimeLimitSeconds, boolean approvedUsersOnly) {
+		this(new RateLimitingBehaviour(RequestLimitHits,TimeLimitSeconds,approvedUsersOnly));
+	}
+	
+	/***
+	 * Least generic constructor. Makes a rate limiter with the standard
+	 * rate at which to limit, which limits on End-points per User Identities
+	 */
+	public RingBufferRateLimiter() {
+		this(new RateLimitingBehaviour());
+	}
+	
+	/*
+	 * Getter overrides
+	 */
+	
+	@Override
+	public RateLimitingBehaviour getRateLimitingBehaviour() {
+		return this.rateLimitingBehaviour;
+	}
+	
+	@Override
+	protected void setRateLimitingBehaviour(RateLimitingBehaviour rateLimitingBehaviour) {
+		this.rateLimitingBehaviour = rateLimitingBehaviour;
+	}
+	
+	@Override
+	protected RingBufferRateLimitingMap getIPAttemptsMap() {
+		return IPAttempts;
+	}
+
+	@Override
+	protected RingBufferRateLimitingMap getUserAttemptsMap() {
+		return UserAttempts;
+	}
+
+	@Override
+	protected RingBufferRateLimitingMap getEndpointAttemptsMap() {
+		return EndpointAttempts;
+	}
+
+	@Override
+	protected ArrayList<String> getHostileIPs() {
+		return hostileIPs;
+	}
+	
+	@Override
+	protected IPAddressSet getHostileIPAddresses() {
+		return hostileIPAddresses;
+	}
+	
+	@Override
+	protected OffHeapGCRARateLimitingMap getKeyedAttemptsMap() {
+		return KeyedAttempts;
+	}
+	
+	@Override
+	protected AdmissionTickets getAdmissionTickets() {
+		return admissionTickets;
+	}
+	
+	@Override
+	protected InFlightCounters getInFlightCounters() {
+		return inFlightCounters;
+	}
+
+	@Override
+	protected ArrayList<String> getValidUserAuths() {
+		return ValidUserAuths;
+	}
+	
+	@Override
+	protected IClock getClock() {
+		return clock;
+	}
+	
+	/* Overrides
+	 * Functions that take a RateLimitedIdentity to record a new attempt
+	 * or check when the next request by that identity will be allowed
+	 */
+	
+	@Override
+	public boolean RecordNewAttempt(RateLimitedIdentity RLIdentity, int cost, int maxAttempts, int maxSeconds) {
+		return RecordNewAttemptAt(RLIdentity, cost, maxAttempts, maxSeconds, getClock().NanoTime());
+	}
+	
+	@Override
+	protected boolean RecordNewAttemptAt(RateLimitedIdentity RLIdentity, int cost, int maxAttempts, int maxSeconds, long now) {
+		if(maxAttempts <= 0) {
+			return false;
+		}
+		RingBufferRateLimitingMap RLMap = GetAttemptMapForIdentity(RLIdentity);
+		return RLMap.TryRecordAttempt(GetAttemptKeyForIdentity(RLIdentity), cost, maxAttempts, maxSeconds, now);
+	}
+	
+	@Override
+	public void ReconcileAttempt(RateLimitedIdentity RLIdentity, int extraCost, int maxAttempts, int maxSeconds) {
+		RingBufferRateLimitingMap RLMap = GetAttemptMapForIdentity(RLIdentity);
+		if(RLMap != null) {
+			RLMap.ReconcileAttempt(GetAttemptKeyForIdentity(RLIdentity), extraCost, maxSeconds, getClock().NanoTime());
+		}
+	}
+	
+	@Override
+	public LocalDateTime CheckWhenNextRequestAllowed(RateLimitedIdentity RLIdentity, int maxAttempts, int maxSeconds) {
+		RingBufferRateLimitingMap lookupMap = GetAttemptMapForIdentity(RLIdentity);
+		long now = getClock().NanoTime();
+		if(lookupMap == null) {
+			return getClock().LocalDateTimeAt(now);
+		} else {
+			Object lookupKey = GetAttemptKeyForIdentity(RLIdentity);
+			long wait = lookupMap.NanosUntilNextAttempt(lookupKey, maxAttempts, maxSeconds, now);
+			return getClock().LocalDateTimeAt(now + wait);
+		}
+	}
+	
+}
@@ -0,0 +1,102 @@
+package RateLimiterService;
+
+/***
+ * A class to abstract the instantiation of a thread-safe mapping
+ * from identity keys to a ring of primitive attempt times per key. An alternative
+ * to the FixedWindowRateLimitingMap which keeps the same exact sliding log,
+ * but without allocating a LocalDateTime and a queue node per attempt, and
+ * without walking the queue to count or de-duplicate its entries.
+ */
+public class RingBufferRateLimitingMap extends StateMap<Object,AttemptRing> {
+	
+	/***
+	 * Create a new instance of the map from 
+	 * identity keys to instances of AttemptRing
+	 */
+	public RingBufferRateLimitingMap(){
+		super();
+	}
+	
+	/***
+	 * Record an attempt against the ring mapped to by the key, making a new
+	 * ring for the key if it is not yet mapped. Will not make a ring when no
+	 * attempts are allowed, as nothing could ever be recorded in it.
+	 * @param key
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return True, if the attempt was recorded.
+	 */
+	public boolean TryRecordAttempt(Object key, int maxAttempts, int windowSeconds, long nowNanos) {
+		return TryRecordAttempt(key, 1, maxAttempts, windowSeconds, nowNanos);
+	}
+	
+	/***
+	 * Record an attempt costing "cost" attempts against the ring mapped to by
+	 * the key, as one entry holding its cost, rather than an entry per unit.
+	 * @param key
+	 * @param cost
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return True, if the attempt was recorded.
+	 */
+	public boolean TryRecordAttempt(Object key, int cost, int maxAttempts, int windowSeconds, long nowNanos) {
+		if(maxAttempts <= 0) {
+			return false;
+		}
+		AttemptRing ring = GetOrInitialiseState(key, k -> new AttemptRing(maxAttempts));
+		return ring.TryRecord(nowNanos,cost,maxAttempts,windowSeconds);
+	}
+	
+	/***
+	 * Settle the cost of an attempt already recorded in the ring mapped to by
+	 * the key, once its actual cost is known, against the newest attempt the
+	 * ring still holds.
+	 * @param key
+	 * @param extraCost The actual cost less the cost recorded; positive to
+	 * debit the key, negative to refund it.
+	 * @param windowSeconds
+	 * @param nowNanos
+	 */
+	public void ReconcileAttempt(Object key, int extraCost, int windowSeconds, long nowNanos) {
+		AttemptRing ring = GetState(key);
+		if(ring != null && extraCost != 0) {
+			ring.Reconcile(nowNanos,extraCost,windowSeconds);
+		}
+	}
+	
+	/***
+	 * Check how long until the ring mapped to by the key 
+	 * has room to record another attempt.
+	 * @param key
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return Nanoseconds until an attempt would be recorded, or 0 if now, or
+	 * the key is not mapped to a ring.
+	 */
+	public long NanosUntilNextAttempt(Object key, int maxAttempts, int windowSeconds, long nowNanos) {
+		AttemptRing ring = GetState(key);
+		if(ring == null) {
+			return 0L;
+		} else {
+			return ring.NanosUntilNextRecord(nowNanos,maxAttempts,windowSeconds);
+		}
+	}
+	
+	/***
+	 * @param key
+	 * @return How many attempts the ring mapped to by the key holds, or 0 if
+	 * the key is not mapped to a ring.
+	 */
+	public int CountAttempts(Object key) {
+		AttemptRing ring = GetState(key);
+		if(ring == null) {
+			return 0;
+		} else {
+			return ring.Size();
+		}
+	}
+	
+}
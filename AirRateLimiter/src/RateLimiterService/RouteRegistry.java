@@ -0,0 +1,288 @@
+package RateLimiterService;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/***
+ * Normalises requested resources to the route templates a server handles,
+ * so that "/users/123" and "/users/456" are rate limited as the one end-point
+ * "GET /users/{id}", rather than each path argument making its own.
+ *
+ * Templates are an Http verb and a path, such as "GET /users/{id}/posts",
+ * where a "{name}" segment matches any one segment, and a final "*" segment
+ * matches any remaining segments, or none. Templates are compiled into a
+ * trie of path segments per verb, and each is interned as a small integer
+ * route ID, from 1; templates that differ only in the names of their
+ * parameters are the same route. A request is matched with one pass over
+ * its path, comparing each segment in place, preferring a literal segment
+ * over a parameter, and a parameter over a wildcard, only stepping back to
+ * try a less specific segment when a more specific one leads nowhere. The
+ * query string and fragment are ignored, as are empty segments.
+ *
+ * Requests matching no template are all given "NoRoute", so that unknown
+ * paths share one end-point rather than each making their own.
+ *
+ * Each route may be given a cost, so that a request to an expensive route,
+ * such as a search, counts as that many attempts against its limit.
+ *
+ * Routes should all be registered before the registry is shared with the
+ * threads matching requests against it.
+ */
+final public class RouteRegistry {
+
+	/***
+	 * The route ID of any request that matches no template.
+	 */
+	static final public int NoRoute = 0;
+
+	/***
+	 * The end-point of any request that matches no template.
+	 */
+	static final public String NoRouteEndpoint = "*|*";
+
+	/***
+	 * The cost of a request to a route that has not been given one.
+	 */
+	static final public int StandardCost = 1;
+
+	static final private String Parameter = "{}";
+
+	static final private String Wildcard = "*";
+
+	/***
+	 * One segment of a path, with the segments that may follow it.
+	 */
+	private static final class Node {
+
+		String[] literals = new String[0];
+
+		Node[] literalNodes = new Node[0];
+
+		Node parameter;
+
+		/***
+		 * The route of a path ending at this segment.
+		 */
+		int route = NoRoute;
+
+		/***
+		 * The route of a path continuing past this segment with anything.
+		 */
+		int wildcardRoute = NoRoute;
+
+		Node Literal(String segment) {
+			for(int k = 0; k < literals.length; k++) {
+				if(literals[k].equals(segment)) {
+					return literalNodes[k];
+				}
+			}
+			String[] grownLiterals = new String[literals.length + 1];
+			Node[] grownNodes = new Node[literals.length + 1];
+			System.arraycopy(literals, 0, grownLiterals, 0, literals.length);
+			System.arraycopy(literalNodes, 0, grownNodes, 0, literals.length);
+			grownLiterals[literals.length] = segment;
+			grownNodes[literals.length] = new Node();
+			literals = grownLiterals;
+			literalNodes = grownNodes;
+			return grownNodes[literals.length - 1];
+		}
+	}
+
+	/***
+	 * The root of the trie for each verb.
+	 */
+	private final HashMap<String,Node> roots;
+
+	/***
+	 * The end-point of each route, indexed by route ID; replaced, rather than
+	 * changed, as routes are registered.
+	 */
+	private volatile String[] endpoints;
+
+	/***
+	 * The cost of each route, indexed by route ID; replaced with the
+	 * end-points, so that it is never shorter.
+	 */
+	private volatile int[] costs;
+
+	/***
+	 * Make a registry with no routes, which matches every request to NoRoute.
+	 */
+	public RouteRegistry() {
+		this.roots = new HashMap<String,Node>();
+		this.costs = new int[] {StandardCost};
+		this.endpoints = new String[] {NoRouteEndpoint};
+	}
+
+	/***
+	 * Compile the template into the trie, and intern it as a route.
+	 * @param template An Http verb and path, separated by a space, such as
+	 * "GET /users/{id}" or "GET /static/*".
+	 * @return The route ID of the template; the same ID each time the same
+	 * route is registered.
+	 * @throws IllegalArgumentException If the template is not a verb and a
+	 * path starting with "/", or has a wildcard before its last segment.
+	 */
+	public synchronized int Register(String template) {
+		int space = template.indexOf(' ');
+		if(space <= 0 || !template.startsWith("/", space + 1)) {
+			throw new IllegalArgumentException("Not a route template: "+template);
+		}
+		String verb = template.substring(0, space).toUpperCase();
+		String[] segments = template.substring(space + 1).split("/");
+		Node node = roots.computeIfAbsent(verb, k -> new Node());
+		StringBuilder path = new StringBuilder();
+		boolean wildcard = false;
+		for(String segment : segments) {
+			if(segment.isEmpty()) {
+				continue;
+			} else if(wildcard) {
+				throw new IllegalArgumentException("A wildcard must be the last segment: "+template);
+			} else if(segment.equals(Wildcard)) {
+				wildcard = true;
+			} else if(segment.startsWith("{") && segment.endsWith("}")) {
+				if(node.parameter == null) {
+					node.parameter = new Node();
+				}
+				node = node.parameter;
+				path.append('/').append(Parameter);
+			} else {
+				node = node.Literal(segment);
+				path.append('/').append(segment);
+			}
+		}
+		if(wildcard) {
+			path.append('/').append(Wildcard);
+			if(node.wildcardRoute == NoRoute) {
+				node.wildcardRoute = Intern(verb, path);
+			}
+			return node.wildcardRoute;
+		} else {
+			if(path.length() == 0) {
+				path.append('/');
+			}
+			if(node.route == NoRoute) {
+				node.route = Intern(verb, path);
+			}
+			return node.route;
+		}
+	}
+
+	/***
+	 * Register the template, as above, with a cost for each request to it.
+	 * @param template
+	 * @param cost How many attempts each request to the route counts as.
+	 * @return The route ID of the template.
+	 * @throws IllegalArgumentException If the template is malformed, or the
+	 * cost is less than 1.
+	 */
+	public synchronized int Register(String template, int cost) {
+		if(cost < 1) {
+			throw new IllegalArgumentException("A route must cost at least 1, not "+cost);
+		}
+		int route = Register(template);
+		int[] changed = costs.clone();
+		changed[route] = cost;
+		costs = changed;
+		return route;
+	}
+
+	private int Intern(String verb, CharSequence path) {
+		int[] grownCosts = Arrays.copyOf(costs, costs.length + 1);
+		grownCosts[costs.length] = StandardCost;
+		costs = grownCosts;
+		String[] grown = Arrays.copyOf(endpoints, endpoints.length + 1);
+		grown[endpoints.length] = (verb+"|"+path).intern();
+		endpoints = grown;
+		return grown.length - 1;
+	}
+
+	/***
+	 * Find the route of a request, without allocating.
+	 * @param verb
+	 * @param resource The requested resource, which may have a query string.
+	 * @return The route ID of the most specific template matching the
+	 * request, or "NoRoute" if none do.
+	 */
+	public int Match(String verb, CharSequence resource) {
+		Node root = roots.get(verb);
+		if(root == null) {
+			return NoRoute;
+		}
+		int end = 0;
+		while(end < resource.length() && resource.charAt(end) != '?' && resource.charAt(end) != '#') {
+			end++;
+		}
+		return Match(root, resource, 0, end);
+	}
+
+	private static int Match(Node node, CharSequence resource, int from, int end) {
+		while(from < end && resource.charAt(from) == '/') {
+			from++;
+		}
+		if(from == end) {
+			return node.route != NoRoute ? node.route : node.wildcardRoute;
+		}
+		int to = from;
+		while(to < end && resource.charAt(to) != '/') {
+			to++;
+		}
+		for(int k = 0; k < node.literals.length; k++) {
+			if(SegmentEquals(node.literals[k], resource, from, to)) {
+				int route = Match(node.literalNodes[k], resource, to, end);
+				if(route != NoRoute) {
+					return route;
+				}
+			}
+		}
+		if(node.parameter != null) {
+			int route = Match(node.parameter, resource, to, end);
+			if(route != NoRoute) {
+				return route;
+			}
+		}
+		return node.wildcardRoute;
+	}
+
+	private static boolean SegmentEquals(String literal, CharSequence resource, int from, int to) {
+		if(literal.length() != to - from) {
+			return false;
+		}
+		for(int k = 0; k < literal.length(); k++) {
+			if(literal.charAt(k) != resource.charAt(from + k)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/***
+	 * @param route
+	 * @return The end-point of the route, formed as by
+	 * "FormEndpointStringFromVerbAndResource" from the route's verb and
+	 * template, with parameters written "{}"; the same String instance for
+	 * every request to the route.
+	 */
+	public String Endpoint(int route) {
+		String[] endpoints = this.endpoints;
+		return route > NoRoute && route < endpoints.length ? endpoints[route] : NoRouteEndpoint;
+	}
+
+	/***
+	 * @param route
+	 * @return How many attempts a request to the route counts as; 
+	 * "StandardCost", unless the route was registered with a cost.
+	 */
+	public int Cost(int route) {
+		int[] costs = this.costs;
+		return route > NoRoute && route < costs.length ? costs[route] : StandardCost;
+	}
+
+	/***
+	 * @return How many routes have been registered.
+	 */
+	public int Size() {
+		return endpoints.length - 1;
+	}
+
+}
@@ -0,0 +1,181 @@
+package RateLimiterService;
+
+/***
+ * The fixed-size state of a single sliding window counter; the index of the
+ * current window, and the attempt counts of the current and previous windows
+ * packed into a single long. The count of attempts in the sliding window is
+ * estimated as the current window's count, plus the previous window's count
+ * weighted by how much of the previous window still overlaps the sliding
+ * window, which assumes attempts in the previous window were evenly spread.
+ * The window length and limit are passed to each operation rather than
+ * stored, in keeping with the rate limiter handing "maxAttempts" and
+ * "maxSeconds" to every recorded attempt.
+ */
+final class SlidingWindowCounter {
+	
+	/***
+	 * Nanoseconds per second, used to convert the window length.
+	 */
+	static final private long NanosPerSecond = 1_000_000_000L;
+	
+	/***
+	 * Mask for the count of the current window in the packed counts.
+	 */
+	static final private long CurrentMask = 0xFFFFFFFFL;
+	
+	/***
+	 * The index of the current window, as "nanoTime / window length".
+	 */
+	private long window;
+	
+	/***
+	 * The previous window's count in the high 32 bits, 
+	 * and the current window's count in the low 32 bits.
+	 */
+	private long counts;
+	
+	/***
+	 * Create a new counter with nothing counted in any window.
+	 */
+	SlidingWindowCounter() {
+		this.window = Long.MIN_VALUE;
+		this.counts = 0L;
+	}
+	
+	/***
+	 * Count an attempt of "cost" attempts in the current window, if the 
+	 * estimated count of attempts in the sliding window leaves room for it.
+	 * @param nowNanos
+	 * @param cost
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @return True, if the attempt was counted.
+	 */
+	synchronized boolean TryCount(long nowNanos, int cost, int maxAttempts, int windowSeconds) {
+		if(windowSeconds <= 0) {
+			return (maxAttempts > 0);
+		}
+		long windowNanos = windowSeconds * NanosPerSecond;
+		Roll(nowNanos,windowNanos);
+		if(Estimate(nowNanos,windowNanos) + cost <= maxAttempts) {
+			counts += cost;
+			return true;
+		} else {
+			return false;
+		}
+	}
+	
+	/***
+	 * Settle the cost of an attempt already counted, once its actual cost is
+	 * known, in the current window; a debit may count past "maxAttempts",
+	 * and a refund never counts the current window below none.
+	 * @param nowNanos
+	 * @param extraCost The actual cost less the cost counted; positive to
+	 * count more, negative to count less.
+	 * @param windowSeconds
+	 */
+	synchronized void Reconcile(long nowNanos, int extraCost, int windowSeconds) {
+		if(windowSeconds <= 0) {
+			return;
+		}
+		Roll(nowNanos,windowSeconds * NanosPerSecond);
+		long current = Math.min(CurrentMask, Math.max(0L, Current() + extraCost));
+		counts = (counts & ~CurrentMask) | current;
+	}
+	
+	/***
+	 * Work out how long until the estimated count of attempts 
+	 * in the sliding window leaves room for another attempt.
+	 * @param nowNanos
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @return Nanoseconds until an attempt would be counted, or 0 if now.
+	 */
+	synchronized long NanosUntilNextCount(long nowNanos, int maxAttempts, int windowSeconds) {
+		if(windowSeconds <= 0) {
+			return 0L;
+		}
+		long windowNanos = windowSeconds * NanosPerSecond;
+		Roll(nowNanos,windowNanos);
+		if(Estimate(nowNanos,windowNanos) + 1d <= maxAttempts) {
+			return 0L;
+		}
+		long windowEnd = (window + 1) * windowNanos;
+		long current = Current();
+		long previous = Previous();
+		double room = maxAttempts - 1d - current;
+		if(maxAttempts <= 0) {
+			return windowNanos;
+		} else if(room >= 0 && previous > 0) {
+			// Still in this window, once enough of the previous window slides out
+			long at = window * windowNanos + (long) Math.ceil(windowNanos * (1d - room / previous));
+			return Math.max(0L, at - nowNanos);
+		} else {
+			// In the next window, once enough of this window slides out
+			long at = windowEnd + (long) Math.ceil(windowNanos * (1d - (maxAttempts - 1d) / current));
+			return Math.max(0L, at - nowNanos);
+		}
+	}
+	
+	/***
+	 * The most attempts by which the estimate may currently undercount the
+	 * true number of attempts in the sliding window; the part of the previous
+	 * window's count that the estimate assumes has already slid out.
+	 * @param nowNanos
+	 * @param windowSeconds
+	 * @return The current error bound of the estimate, in attempts.
+	 */
+	synchronized long ErrorBound(long nowNanos, int windowSeconds) {
+		if(windowSeconds <= 0) {
+			return 0L;
+		}
+		long windowNanos = windowSeconds * NanosPerSecond;
+		Roll(nowNanos,windowNanos);
+		return (long) Math.ceil(Previous() * ElapsedFraction(nowNanos,windowNanos));
+	}
+	
+	/***
+	 * Move the counts along if the current window has ended. If more than one
+	 * window has passed, neither count overlaps the sliding window any more.
+	 * @param nowNanos
+	 * @param windowNanos
+	 */
+	private void Roll(long nowNanos, long windowNanos) {
+		long index = Math.floorDiv(nowNanos,windowNanos);
+		if(index == window) {
+			return;
+		} else if(index == window + 1) {
+			counts = (counts << 32);
+		} else {
+			counts = 0L;
+		}
+		window = index;
+	}
+	
+	/***
+	 * @param nowNanos
+	 * @param windowNanos
+	 * @return The estimated count of attempts in the sliding window.
+	 */
+	private double Estimate(long nowNanos, long windowNanos) {
+		return Current() + Previous() * (1d - ElapsedFraction(nowNanos,windowNanos));
+	}
+	
+	/***
+	 * @param nowNanos
+	 * @param windowNanos
+	 * @return How far through the current window we are, from 0 to 1.
+	 */
+	private double ElapsedFraction(long nowNanos, long windowNanos) {
+		return (nowNanos - window * windowNanos) / (double) windowNanos;
+	}
+	
+	private long Current() {
+		return (counts & CurrentMask);
+	}
+	
+	private long Previous() {
+		return (counts >>> 32);
+	}
+	
+}
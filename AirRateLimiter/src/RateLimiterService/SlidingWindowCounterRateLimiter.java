@@ -0,0 +1,239 @@
+package RateLimiterService;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+
+/***
+ * Implements the expectations of the AbstractRateLimiter with a sliding window
+ * counter per rate limited identity. Only the counts of the current and
+ * previous fixed windows are kept per identity, and the count of attempts in
+ * the sliding window of "maxSeconds" is estimated by weighting the previous
+ * window's count by how much of it the sliding window still overlaps. This
+ * bounds the memory held per identity regardless of "maxAttempts", at the
+ * cost of a bounded error in the count; see CurrentErrorBound and 
+ * SlidingWindowCounterRateLimitingMap.WorstCaseAttemptsPerWindow.
+ */
+public class SlidingWindowCounterRateLimiter extends AbstractRateLimiter<SlidingWindowCounterRateLimitingMap> {
+
+	private volatile RateLimitingBehaviour rateLimitingBehaviour;
+	
+	private final ArrayList<String> hostileIPs;
+	
+	private final ArrayList<String> ValidUserAuths;
+	
+	private final SlidingWindowCounterRateLimitingMap IPAttempts;
+	
+	private final SlidingWindowCounterRateLimitingMap UserAttempts;
+	
+	private final SlidingWindowCounterRateLimitingMap EndpointAttempts;
+	
+	private final IClock clock;
+	
+	private final OffHeapGCRARateLimitingMap KeyedAttempts;
+	
+	private final IPAddressSet hostileIPAddresses;
+	
+	private final AdmissionTickets admissionTickets;
+	
+	private final InFlightCounters inFlightCounters;
+	
+	/*
+	 * Constructors
+	 */
+	
+	/***
+	 * Make a sliding window counter rate limiter with the given behaviour, 
+	 * reading the time from the given clock.
+	 * @param rateLimitingBehaviour
+	 * @param clock
+	 */
+	public SlidingWindowCounterRateLimiter(RateLimitingBehaviour rateLimitingBehaviour, IClock clock) {
+		this.rateLimitingBehaviour = rateLimitingBehaviour;
+		this.clock = clock;
+		this.hostileIPs = new ArrayList<String>();
+		this.hostileIPAddresses = new IPAddressSet();
+		this.KeyedAttempts = NewKeyedAttemptsMap(this.rateLimitingBehaviour);
+		this.admissionTickets = new AdmissionTickets();
+		this.inFlightCounters = new InFlightCounters();
+		this.ValidUserAuths = new ArrayList<String>();
+		this.IPAttempts = new SlidingWindowCounterRateLimitingMap();
+		this.UserAttempts = new SlidingWindowCounterRateLimitingMap();
+		this.EndpointAttempts = new SlidingWindowCounterRateLimitingMap();
+	}
+	
+	/***
+	 * Make a sliding window counter rate limiter with the given behaviour.
+	 * @param rateLimitingBehaviour
+	 */
+	public SlidingWindowCounterRateLimiter(RateLimitingBehaviour rateLimitingBehaviour) {
+		this(rateLimitingBehaviour, new MonotonicClock());
+	}
+	
+	/***
+	 * The most generic constructor. Assign everything
+	 * @param RequestLimitHits
+	 * @param TimeLimitSeconds
+	 * @param storeHostileIPs
+	 * @param rateLimitByIP
+	 * @param rateLimitByUser
+	 * @param rateLimitByEndpoint
+	 * @param approvedUsersOnly
+	 */
+	public SlidingWindowCounterRateLimiter(int RequestLimitHits, 
+								  int TimeLimitSeconds, 
+								  boolean storeHostileIPs, 
+								  boolean rateLimitByIP, 
+								  boolean rateLimitByUser, 
+								  boolean rateLimitByEndpoint, 
+								  boolean approvedUsersOnly) {
+		this(new RateLimitingBehaviour(RequestLimitHits,
+				TimeLimitSeconds,
+				storeHostileIPs,
+				rateLimitByIP,
+				rateLimitByUser,
+				rateLimitByEndpoint,
+				approvedUsersOnly));
+	}
+	
+	/***
+	 * Make a rate limiter which limits on End-points per User identities,
+	 * but allow generic assignment of the approvedUsers and 
+	 * the metrics by which the rate limiter operates.
+	 * @param RequestLimitHits
+	 * @param TimeLimitSeconds
+	 * @param approvedUsersOnly
+	 */
+	public SlidingWindowCounterRateLimiter(int RequestLimitHits, int TimeLimitSeconds, boolean approvedUsersOnly) {
+		this(new RateLimitingBehaviour(RequestLimitHits,TimeLimitSeconds,approvedUsersOnly));
+	}
+	
+	/***
+	 * Least generic constructor. Makes a rate limiter with the standard
+	 * rate at which to limit, which limits on End-points per User Identities
+	 */
+	public SlidingWindowCounterRateLimiter() {
+		this(new RateLimitingBehaviour());
+	}
+	
+	/*
+	 * Getter overrides
+	 */
+	
+	@Override
+	public RateLimitingBehaviour getRateLimitingBehaviour() {
+		return this.rateLimitingBehaviour;
+	}
+	
+	@Override
+	protected void setRateLimitingBehaviour(RateLimitingBehaviour rateLimitingBehaviour) {
+		this.rateLimitingBehaviour = rateLimitingBehaviour;
+	}
+	
+	@Override
+	protected SlidingWindowCounterRateLimitingMap getIPAttemptsMap() {
+		return IPAttempts;
+	}
+
+	@Override
+	protected SlidingWindowCounterRateLimitingMap getUserAttemptsMap() {
+		return UserAttempts;
+	}
+
+	@Override
+	protected SlidingWindowCounterRateLimitingMap getEndpointAttemptsMap() {
+		return EndpointAttempts;
+	}
+
+	@Override
+	protected ArrayList<String> getHostileIPs() {
+		return hostileIPs;
+	}
+	
+	@Override
+	protected IPAddressSet getHostileIPAddresses() {
+		return hostileIPAddresses;
+	}
+	
+	@Override
+	protected OffHeapGCRARateLimitingMap getKeyedAttemptsMap() {
+		return KeyedAttempts;
+	}
+	
+	@Override
+	protected AdmissionTickets getAdmissionTickets() {
+		return admissionTickets;
+	}
+	
+	@Override
+	protected InFlightCounters getInFlightCounters() {
+		return inFlightCounters;
+	}
+
+	@Override
+	protected ArrayList<String> getValidUserAuths() {
+		return ValidUserAuths;
+	}
+	
+	@Override
+	protected IClock getClock() {
+		return clock;
+	}
+	
+	/* Overrides
+	 * Functions that take a RateLimitedIdentity to record a new attempt
+	 * or check when the next request by that identity will be allowed
+	 */
+	
+	@Override
+	public boolean RecordNewAttempt(RateLimitedIdentity RLIdentity, int cost, int maxAttempts, int maxSeconds) {
+		return RecordNewAttemptAt(RLIdentity, cost, maxAttempts, maxSeconds, getClock().NanoTime());
+	}
+	
+	@Override
+	protected boolean RecordNewAttemptAt(RateLimitedIdentity RLIdentity, int cost, int maxAttempts, int maxSeconds, long now) {
+		if(maxAttempts <= 0) {
+			return false;
+		}
+		SlidingWindowCounterRateLimitingMap RLMap = GetAttemptMapForIdentity(RLIdentity);
+		return RLMap.TryCountAttempt(GetAttemptKeyForIdentity(RLIdentity), cost, maxAttempts, maxSeconds, now);
+	}
+	
+	@Override
+	public void ReconcileAttempt(RateLimitedIdentity RLIdentity, int extraCost, int maxAttempts, int maxSeconds) {
+		SlidingWindowCounterRateLimitingMap RLMap = GetAttemptMapForIdentity(RLIdentity);
+		if(RLMap != null) {
+			RLMap.ReconcileAttempt(GetAttemptKeyForIdentity(RLIdentity), extraCost, maxSeconds, getClock().NanoTime());
+		}
+	}
+	
+	@Override
+	public LocalDateTime CheckWhenNextRequestAllowed(RateLimitedIdentity RLIdentity, int maxAttempts, int maxSeconds) {
+		SlidingWindowCounterRateLimitingMap lookupMap = GetAttemptMapForIdentity(RLIdentity);
+		long now = getClock().NanoTime();
+		if(lookupMap == null) {
+			return getClock().LocalDateTimeAt(now);
+		} else {
+			Object lookupKey = GetAttemptKeyForIdentity(RLIdentity);
+			long wait = lookupMap.NanosUntilNextCount(lookupKey, maxAttempts, maxSeconds, now);
+			return getClock().LocalDateTimeAt(now + wait);
+		}
+	}
+	
+	/***
+	 * Check the most attempts by which the estimated count of attempts for an
+	 * identity may currently undercount the true number of attempts it has
+	 * made in the last "maxSeconds" seconds.
+	 * @param RLIdentity
+	 * @param maxSeconds
+	 * @return The current error bound of the estimate, in attempts.
+	 */
+	public long CurrentErrorBound(RateLimitedIdentity RLIdentity, int maxSeconds) {
+		SlidingWindowCounterRateLimitingMap lookupMap = GetAttemptMapForIdentity(RLIdentity);
+		if(lookupMap == null) {
+			return 0L;
+		} else {
+			return lookupMap.ErrorBound(GetAttemptKeyForIdentity(RLIdentity), maxSeconds, getClock().NanoTime());
+		}
+	}
+	
+}
@@ -0,0 +1,117 @@
+package RateLimiterService;
+
+/***
+ * A class to abstract the instantiation of a thread-safe mapping
+ * from identity keys to a single SlidingWindowCounter per key. Approximates the 
+ * exact log of the FixedWindowRateLimitingMap with two counts per key, 
+ * trading a bounded error for memory that does not grow with the number of
+ * allowed attempts.
+ */
+public class SlidingWindowCounterRateLimitingMap extends StateMap<Object,SlidingWindowCounter> {
+	
+	/***
+	 * Create a new instance of the map from 
+	 * identity keys to instances of SlidingWindowCounter
+	 */
+	public SlidingWindowCounterRateLimitingMap(){
+		super();
+	}
+	
+	/***
+	 * Count an attempt against the counter mapped to by the key, making a new
+	 * counter for the key if it is not yet mapped. Will not make a counter
+	 * when no attempts are allowed, as nothing could ever be counted in it.
+	 * @param key
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return True, if the attempt was counted.
+	 */
+	public boolean TryCountAttempt(Object key, int maxAttempts, int windowSeconds, long nowNanos) {
+		return TryCountAttempt(key, 1, maxAttempts, windowSeconds, nowNanos);
+	}
+	
+	/***
+	 * Count an attempt costing "cost" attempts against the counter mapped to
+	 * by the key, adding the whole cost at once.
+	 * @param key
+	 * @param cost
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return True, if the attempt was counted.
+	 */
+	public boolean TryCountAttempt(Object key, int cost, int maxAttempts, int windowSeconds, long nowNanos) {
+		if(maxAttempts <= 0) {
+			return false;
+		}
+		SlidingWindowCounter counter = GetOrInitialiseState(key, k -> new SlidingWindowCounter());
+		return counter.TryCount(nowNanos,cost,maxAttempts,windowSeconds);
+	}
+	
+	/***
+	 * Settle the cost of an attempt already counted against the counter
+	 * mapped to by the key, once its actual cost is known.
+	 * @param key
+	 * @param extraCost The actual cost less the cost counted; positive to
+	 * debit the key, negative to refund it.
+	 * @param windowSeconds
+	 * @param nowNanos
+	 */
+	public void ReconcileAttempt(Object key, int extraCost, int windowSeconds, long nowNanos) {
+		SlidingWindowCounter counter = GetState(key);
+		if(counter != null && extraCost != 0) {
+			counter.Reconcile(nowNanos,extraCost,windowSeconds);
+		}
+	}
+	
+	/***
+	 * Check how long until the counter mapped to by the key 
+	 * has room to count another attempt.
+	 * @param key
+	 * @param maxAttempts
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return Nanoseconds until an attempt would be counted, or 0 if now, or
+	 * the key is not mapped to a counter.
+	 */
+	public long NanosUntilNextCount(Object key, int maxAttempts, int windowSeconds, long nowNanos) {
+		SlidingWindowCounter counter = GetState(key);
+		if(counter == null) {
+			return 0L;
+		} else {
+			return counter.NanosUntilNextCount(nowNanos,maxAttempts,windowSeconds);
+		}
+	}
+	
+	/***
+	 * Check the most attempts by which the estimate for the key may currently
+	 * undercount the true number of attempts in the sliding window.
+	 * @param key
+	 * @param windowSeconds
+	 * @param nowNanos
+	 * @return The current error bound, in attempts, or 0 if the key is not
+	 * mapped to a counter.
+	 */
+	public long ErrorBound(Object key, int windowSeconds, long nowNanos) {
+		SlidingWindowCounter counter = GetState(key);
+		if(counter == null) {
+			return 0L;
+		} else {
+			return counter.ErrorBound(nowNanos,windowSeconds);
+		}
+	}
+	
+	/***
+	 * The estimate never counts an attempt once it reaches "maxAttempts", but
+	 * as it assumes the previous window's attempts were evenly spread, when
+	 * they were all made at the very end of the previous window, the true
+	 * sliding window can hold up to this many attempts.
+	 * @param maxAttempts
+	 * @return The most attempts ever counted in any true sliding window.
+	 */
+	public static int WorstCaseAttemptsPerWindow(int maxAttempts) {
+		return Math.max(0, 2*maxAttempts - 1);
+	}
+	
+}
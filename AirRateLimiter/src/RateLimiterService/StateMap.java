@@ -0,0 +1,80 @@
+package RateLimiterService;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/***
+ * Define a class to abstract the occurrence of thread-safe maps which point to
+ * a single, fixed-size state instance per key. Abstracted on type. Where the
+ * QueueMap holds a queue that grows with every recorded attempt, the StateMap
+ * holds exactly one state object per key, so the memory held and the work
+ * done per rate limiting decision does not depend on how many attempts a key
+ * has made. While this class can be instantiated, its intention is to be
+ * subclassed, in the same manner as the QueueMap.
+ * @param <K>
+ * @param <S>
+ */
+public class StateMap<K,S> {
+	
+	/***
+	 * The inner map from type K to a state of type S.
+	 */
+	private final ConcurrentHashMap<K,S> map;
+	
+	/***
+	 * Instantiates the map of type K to states of type S.
+	 */
+	StateMap(){
+		map = new ConcurrentHashMap<K,S>();
+	}
+	
+	/***
+	 * Indicates if a key maps to an existing state.
+	 * @param key
+	 * @return True, if the key K maps to a state.
+	 */
+	public boolean MapsFromKey(K key) {
+		return map.containsKey(key);
+	}
+	
+	/***
+	 * Gets the state mapped to from a key
+	 * @param key
+	 * @return The state of type S, or null if the key is not mapped.
+	 */
+	protected S GetState(K key) {
+		return map.get(key);
+	}
+	
+	/***
+	 * Gets the state mapped to from a key, atomically creating it with the
+	 * initialiser if the key is not yet mapped. Only one state is ever
+	 * created per key, even when many threads race to create it.
+	 * @param key
+	 * @param initialiser
+	 * @return The state of type S mapped to by the key.
+	 */
+	protected S GetOrInitialiseState(K key, Function<? super K,? extends S> initialiser) {
+		S state = map.get(key);
+		if(state == null) {
+			state = map.computeIfAbsent(key, initialiser);
+		}
+		return state;
+	}
+	
+	/***
+	 * Forget the state mapped to from a key
+	 * @param key
+	 * @return The state that was removed, or null if the key was not mapped.
+	 */
+	public S RemoveState(K key) {
+		return map.remove(key);
+	}
+	
+	/***
+	 * @return How many keys currently map to a state.
+	 */
+	public int Size() {
+		return map.size();
+	}
+}
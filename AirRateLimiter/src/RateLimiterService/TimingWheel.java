@@ -0,0 +1,148 @@
+package RateLimiterService;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.ToLongFunction;
+
+/***
+ * A hashed timing wheel of keys, each scheduled to be revisited at a
+ * deadline read from an IClock's nanoseconds. Deadlines are hashed by tick
+ * into a fixed ring of slots; deadlines further away than one turn of the
+ * wheel wait in their slot for as many turns as it takes. Scheduling a key
+ * costs O(1), and advancing the wheel only visits the slots for the ticks
+ * that have passed since it was last advanced, and the keys in them, so the
+ * cost of expiring keys is amortised over the operations that advance it,
+ * and never scans every key.
+ *
+ * Keys are revisited no earlier than their deadline, but up to a tick late.
+ * Only one thread advances the wheel at a time; others that try to while it
+ * is being advanced return immediately, leaving the work to that thread.
+ * @param <K>
+ */
+final class TimingWheel<K> {
+
+	/***
+	 * Returned when revisiting a key to indicate it has been expired, and
+	 * should not be scheduled again.
+	 */
+	static final long Expired = Long.MIN_VALUE;
+
+	static final long TickNanos_Standard = 1_000_000_000L;
+
+	static final int Slots_Standard = 512;
+
+	/***
+	 * A key scheduled at a deadline.
+	 * @param <K>
+	 */
+	private static final class Entry<K> {
+
+		final K key;
+
+		final long deadlineNanos;
+
+		Entry(K key, long deadlineNanos){
+			this.key = key;
+			this.deadlineNanos = deadlineNanos;
+		}
+	}
+
+	private final ArrayList<ConcurrentLinkedQueue<Entry<K>>> slots;
+
+	private final long tickNanos;
+
+	/***
+	 * The next tick whose slot has not been advanced past. Only written
+	 * by the thread that holds "advancing".
+	 */
+	private volatile long cursorTick;
+
+	private final AtomicBoolean advancing;
+
+	/***
+	 * Make a timing wheel with the standard tick and slot count
+	 * @param nowNanos
+	 */
+	TimingWheel(long nowNanos){
+		this(nowNanos, TickNanos_Standard, Slots_Standard);
+	}
+
+	/***
+	 * Make a timing wheel that starts at the given time
+	 * @param nowNanos
+	 * @param tickNanos
+	 * @param slotCount
+	 */
+	TimingWheel(long nowNanos, long tickNanos, int slotCount){
+		this.tickNanos = tickNanos;
+		this.slots = new ArrayList<ConcurrentLinkedQueue<Entry<K>>>(slotCount);
+		for(int k = 0; k < slotCount; k++) {
+			slots.add(new ConcurrentLinkedQueue<Entry<K>>());
+		}
+		this.cursorTick = Math.floorDiv(nowNanos, tickNanos);
+		this.advancing = new AtomicBoolean(false);
+	}
+
+	/***
+	 * Schedule the key to be revisited at the deadline. Deadlines in ticks
+	 * the wheel has already advanced past are revisited at the next advance.
+	 * @param key
+	 * @param deadlineNanos
+	 */
+	void Schedule(K key, long deadlineNanos) {
+		long tick = Math.max(Math.floorDiv(deadlineNanos, tickNanos), cursorTick);
+		SlotFor(tick).add(new Entry<K>(key,deadlineNanos));
+	}
+
+	/***
+	 * Revisit each key whose deadline is in a tick that has now passed. The
+	 * revisit function returns either the key's next deadline, at which it is
+	 * scheduled again, or "Expired" to forget it.
+	 * @param nowNanos
+	 * @param revisit
+	 * @return How many keys were expired.
+	 */
+	int Advance(long nowNanos, ToLongFunction<? super K> revisit) {
+		if(!advancing.compareAndSet(false, true)) {
+			return 0;
+		}
+		try {
+			long nowTick = Math.floorDiv(nowNanos, tickNanos);
+			//After a full turn, every slot has been visited once
+			long fromTick = Math.max(cursorTick, nowTick - slots.size());
+			int expired = 0;
+			ArrayList<Entry<K>> drained = new ArrayList<Entry<K>>();
+			for(long tick = fromTick; tick < nowTick; tick++) {
+				ConcurrentLinkedQueue<Entry<K>> slot = SlotFor(tick);
+				Entry<K> entry;
+				while((entry = slot.poll()) != null) {
+					drained.add(entry);
+				}
+				for(Entry<K> drainedEntry : drained) {
+					if(drainedEntry.deadlineNanos >= nowTick * tickNanos) {
+						//Hashed here, but due on a later turn
+						slot.add(drainedEntry);
+					} else {
+						long nextDeadline = revisit.applyAsLong(drainedEntry.key);
+						if(nextDeadline == Expired) {
+							expired++;
+						} else {
+							Schedule(drainedEntry.key, nextDeadline);
+						}
+					}
+				}
+				drained.clear();
+			}
+			cursorTick = Math.max(cursorTick, nowTick);
+			return expired;
+		} finally {
+			advancing.set(false);
+		}
+	}
+
+	private ConcurrentLinkedQueue<Entry<K>> SlotFor(long tick) {
+		return slots.get((int) Math.floorMod(tick, (long) slots.size()));
+	}
+
+}
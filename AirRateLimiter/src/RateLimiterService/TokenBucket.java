@@ -0,0 +1,117 @@
+package RateLimiterService;
+
+/***
+ * The fixed-size state of a single token bucket; how many tokens remain, and
+ * when the bucket was last refilled. The capacity and refill period are
+ * passed to each operation rather than stored, in keeping with the rate
+ * limiter handing "maxAttempts" and "maxSeconds" to every recorded attempt.
+ * A bucket holds "capacity" tokens at most, and regains "capacity" tokens
+ * evenly over "refillSeconds" seconds.
+ */
+final class TokenBucket {
+	
+	/***
+	 * Nanoseconds per second, used to convert the refill period.
+	 */
+	static final private double NanosPerSecond = 1_000_000_000d;
+	
+	/***
+	 * The (fractional) number of tokens held as of the last refill.
+	 */
+	private double tokens;
+	
+	/***
+	 * The IClock.NanoTime() at which the bucket was last refilled.
+	 */
+	private long lastRefillNanos;
+	
+	/***
+	 * Create a new bucket which starts full, whatever capacity it is 
+	 * first used with.
+	 * @param nowNanos
+	 */
+	TokenBucket(long nowNanos) {
+		this.tokens = Double.POSITIVE_INFINITY;
+		this.lastRefillNanos = nowNanos;
+	}
+	
+	/***
+	 * Refill the bucket and take "cost" tokens from it, if it holds that many.
+	 * @param nowNanos
+	 * @param cost
+	 * @param capacity
+	 * @param refillSeconds
+	 * @return True, if the tokens were taken.
+	 */
+	synchronized boolean TryConsume(long nowNanos, int cost, int capacity, int refillSeconds) {
+		Refill(nowNanos,capacity,refillSeconds);
+		if(tokens >= cost) {
+			tokens -= cost;
+			return true;
+		} else {
+			return false;
+		}
+	}
+	
+	/***
+	 * Refill the bucket and settle the cost of an attempt already taken from
+	 * it; a debit may leave the bucket in debt, below no tokens, which it
+	 * must refill before it next holds a token, and a refund never fills it
+	 * past its capacity.
+	 * @param nowNanos
+	 * @param extraCost The actual cost less the tokens taken; positive to
+	 * take more, negative to give some back.
+	 * @param capacity
+	 * @param refillSeconds
+	 */
+	synchronized void Reconcile(long nowNanos, int extraCost, int capacity, int refillSeconds) {
+		Refill(nowNanos,capacity,refillSeconds);
+		tokens = Math.min(capacity, tokens - extraCost);
+	}
+	
+	/***
+	 * Refill the bucket and work out how long until it next holds a token.
+	 * @param nowNanos
+	 * @param capacity
+	 * @param refillSeconds
+	 * @return Nanoseconds until a token is available, or 0 if one is now.
+	 */
+	synchronized long NanosUntilNextToken(long nowNanos, int capacity, int refillSeconds) {
+		Refill(nowNanos,capacity,refillSeconds);
+		if(tokens >= 1d) {
+			return 0L;
+		} else if(capacity <= 0) {
+			return (long) (refillSeconds * NanosPerSecond);
+		} else {
+			return (long) Math.ceil((1d - tokens) / RefillPerNano(capacity,refillSeconds));
+		}
+	}
+	
+	/***
+	 * Add the tokens accrued since the last refill, capped at the capacity.
+	 * @param nowNanos
+	 * @param capacity
+	 * @param refillSeconds
+	 */
+	private void Refill(long nowNanos, int capacity, int refillSeconds) {
+		long elapsed = nowNanos - lastRefillNanos;
+		if(refillSeconds <= 0) {
+			tokens = capacity;
+		} else if(elapsed > 0) {
+			tokens = Math.min(capacity, tokens + elapsed * RefillPerNano(capacity,refillSeconds));
+		} else {
+			tokens = Math.min(capacity, tokens);
+		}
+		lastRefillNanos = Math.max(lastRefillNanos, nowNanos);
+	}
+	
+	/***
+	 * @param capacity
+	 * @param refillSeconds
+	 * @return How many tokens are regained per elapsed nanosecond.
+	 */
+	private static double RefillPerNano(int capacity, int refillSeconds) {
+		return capacity / (refillSeconds * NanosPerSecond);
+	}
+	
+}
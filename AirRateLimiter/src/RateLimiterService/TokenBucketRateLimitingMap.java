@@ -0,0 +1,87 @@
+package RateLimiterService;
+
+/***
+ * A class to abstract the instantiation of a thread-safe mapping
+ * from identity keys to a single TokenBucket per key. Unlike the 
+ * FixedWindowRateLimitingMap, which keeps one LocalDateTime per recorded
+ * attempt, each key here holds a fixed-size record, so the memory and time
+ * needed to record an attempt is constant in the number of allowed attempts.
+ */
+public class TokenBucketRateLimitingMap extends StateMap<Object,TokenBucket> {
+	
+	/***
+	 * Create a new instance of the map from 
+	 * identity keys to instances of TokenBucket
+	 */
+	public TokenBucketRateLimitingMap(){
+		super();
+	}
+	
+	/***
+	 * Take a token from the bucket mapped to by the key, making a new full
+	 * bucket for the key if it is not yet mapped. Will not make a bucket when
+	 * the capacity is zero, as no attempt could ever be recorded against it.
+	 * @param key
+	 * @param capacity
+	 * @param refillSeconds
+	 * @param nowNanos
+	 * @return True, if a token was taken.
+	 */
+	public boolean TryConsumeToken(Object key, int capacity, int refillSeconds, long nowNanos) {
+		return TryConsumeTokens(key, 1, capacity, refillSeconds, nowNanos);
+	}
+	
+	/***
+	 * Take "cost" tokens from the bucket mapped to by the key at once, as for
+	 * a single token, if it holds that many.
+	 * @param key
+	 * @param cost
+	 * @param capacity
+	 * @param refillSeconds
+	 * @param nowNanos
+	 * @return True, if the tokens were taken.
+	 */
+	public boolean TryConsumeTokens(Object key, int cost, int capacity, int refillSeconds, long nowNanos) {
+		if(capacity <= 0) {
+			return false;
+		}
+		TokenBucket bucket = GetOrInitialiseState(key, k -> new TokenBucket(nowNanos));
+		return bucket.TryConsume(nowNanos,cost,capacity,refillSeconds);
+	}
+	
+	/***
+	 * Settle the cost of an attempt already taken from the bucket mapped to
+	 * by the key, once its actual cost is known.
+	 * @param key
+	 * @param extraCost The actual cost less the tokens taken; positive to
+	 * debit the key, negative to refund it.
+	 * @param capacity
+	 * @param refillSeconds
+	 * @param nowNanos
+	 */
+	public void ReconcileTokens(Object key, int extraCost, int capacity, int refillSeconds, long nowNanos) {
+		TokenBucket bucket = GetState(key);
+		if(bucket != null && extraCost != 0) {
+			bucket.Reconcile(nowNanos,extraCost,capacity,refillSeconds);
+		}
+	}
+	
+	/***
+	 * Check how long until the bucket mapped to by the key holds a token.
+	 * @param key
+	 * @param capacity
+	 * @param refillSeconds
+	 * @param nowNanos
+	 * @return Nanoseconds until a token is available, or 0 if one is now, or
+	 * the key is not mapped to a bucket.
+	 */
+	public long NanosUntilNextToken(Object key, int capacity, int refillSeconds, long nowNanos) {
+		TokenBucket bucket = GetState(key);
+		if(bucket == null) {
+			return 0L;
+		} else {
+			return bucket.NanosUntilNextToken(nowNanos,capacity,refillSeconds);
+		}
+	}
+	
+}
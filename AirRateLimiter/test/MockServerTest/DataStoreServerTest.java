@@ -0,0 +1,169 @@
+package MockServerTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import MockServer.DataStoreServer;
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.DataStoreGCRARateLimiter;
+import RateLimiterService.DataStoreProtocol;
+import RateLimiterService.InMemoryDataStore;
+import RateLimiterService.ManualClock;
+import RateLimiterService.MonotonicClock;
+import RateLimiterService.RateLimitedIdentity;
+import RateLimiterService.RateLimitingBehaviour;
+import RateLimiterService.RateLimitingBehaviour.RateLimitingAlgorithm;
+import RateLimiterService.RemoteDataStore;
+
+class DataStoreServerTest {
+
+	@Test
+	void RemoteStoresAnswerAsTheStoreServedTest() throws IOException {
+		InMemoryDataStore served = new InMemoryDataStore();
+		try(DataStoreServer server = new DataStoreServer(served, 0);
+				RemoteDataStore remote = new RemoteDataStore("localhost", server.Port())) {
+			assertTrue(remote.IncrementAndGet("window", 3, 100, 0) == 3);
+			assertTrue(served.IncrementAndGet("window", 0, 100, 0) == 3);
+			byte[] blob = {9, 8, 7};
+			assertTrue(remote.Get("state", 0) == null);
+			assertTrue(remote.CompareAndSet("state", null, blob, 100, 0));
+			assertFalse(remote.CompareAndSet("state", null, blob, 100, 0));
+			assertTrue(Arrays.equals(remote.Get("state", 0), blob));
+			assertTrue(Arrays.equals(remote.IncrementAndGetAll(new String[] {"a", "window"}, new long[] {1, 1}, 100, 0), new long[] {1, 4}));
+			byte[][] blobs = remote.GetAll(new String[] {"state", "missing"}, 0);
+			assertTrue(Arrays.equals(blobs[0], blob));
+			assertTrue(blobs[1] == null);
+			assertTrue(remote.CompareAndSet("state", blob, null, 100, 0));
+			assertTrue(served.Get("state", 0) == null);
+		}
+	}
+
+	@Test
+	void RateLimitersShareAttemptsThroughTheServerTest() throws IOException {
+		int maxAttempts = 5;
+		int maxSeconds = 3600;
+		RateLimitingBehaviour behaviour = new RateLimitingBehaviour(maxAttempts, maxSeconds, RateLimitingAlgorithm.GCRA);
+		ManualClock clock = new ManualClock();
+		try(DataStoreServer server = new DataStoreServer(new InMemoryDataStore(), 0);
+				RemoteDataStore firstStore = new RemoteDataStore("localhost", server.Port());
+				RemoteDataStore secondStore = new RemoteDataStore("localhost", server.Port())) {
+			AbstractRateLimiter<?> first = new DataStoreGCRARateLimiter(behaviour, firstStore, clock);
+			AbstractRateLimiter<?> second = new DataStoreGCRARateLimiter(behaviour, secondStore, clock);
+			RateLimitedIdentity identity = AbstractRateLimiter.NewRateLimitedUser("SuchUser");
+			for(int k = 0; k < maxAttempts; k++) {
+				assertTrue((k % 2 == 0 ? first : second).IsAttemptRateLimited(identity).isEmpty());
+			}
+			assertFalse(first.IsAttemptRateLimited(identity).isEmpty());
+			assertFalse(second.IsAttemptRateLimited(identity).isEmpty());
+		}
+	}
+
+	@Test
+	void RequestsAreMadeOverManyConnectionsAtOnceTest() throws Exception {
+		int threads = 4;
+		int requests = 200;
+		ExecutorService requesting = Executors.newFixedThreadPool(threads);
+		try(DataStoreServer server = new DataStoreServer(new InMemoryDataStore(), 0);
+				RemoteDataStore remote = new RemoteDataStore("localhost", server.Port(), RemoteDataStore.TimeoutMillis_Standard, threads)) {
+			ArrayList<Future<?>> requested = new ArrayList<Future<?>>();
+			for(int t = 0; t < threads; t++) {
+				requested.add(requesting.submit(() -> {
+					for(int k = 0; k < requests; k++) {
+						remote.IncrementAndGet("window", 1, 100, 0);
+					}
+				}));
+			}
+			for(Future<?> request : requested) {
+				request.get();
+			}
+			assertTrue(remote.IncrementAndGet("window", 0, 100, 0) == threads * requests);
+		} finally {
+			requesting.shutdownNow();
+		}
+	}
+
+	@Test
+	void StoresSharedByProcessesNeedASharedClockTest() throws IOException {
+		RateLimitingBehaviour behaviour = new RateLimitingBehaviour(5, 3600, RateLimitingAlgorithm.GCRA);
+		try(DataStoreServer server = new DataStoreServer(new InMemoryDataStore(), 0);
+				RemoteDataStore remote = new RemoteDataStore("localhost", server.Port())) {
+			assertThrows(IllegalArgumentException.class, () -> new DataStoreGCRARateLimiter(behaviour, remote, new MonotonicClock()));
+			// An EpochClock is read by default
+			AbstractRateLimiter<?> rateLimiter = new DataStoreGCRARateLimiter(behaviour, remote);
+			assertTrue(rateLimiter.IsAttemptRateLimited(AbstractRateLimiter.NewRateLimitedUser("SuchUser")).isEmpty());
+		}
+		new DataStoreGCRARateLimiter(behaviour, new InMemoryDataStore(), new MonotonicClock());
+	}
+
+	@Test
+	void StalledStoresFailAndAreReconnectedTest() throws IOException, InterruptedException {
+		int timeoutMillis = 100;
+		try(ServerSocket serverSocket = new ServerSocket(0)) {
+			// The first connection answers too late, the next in time
+			Thread stalledThenServed = new Thread(() -> {
+				try(Socket stalled = serverSocket.accept()) {
+					DataInputStream in = new DataInputStream(new BufferedInputStream(stalled.getInputStream()));
+					DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stalled.getOutputStream()));
+					in.readByte();
+					Thread.sleep(timeoutMillis * 3);
+					out.writeLong(999);
+					out.flush();
+					try(Socket served = serverSocket.accept()) {
+						in = new DataInputStream(new BufferedInputStream(served.getInputStream()));
+						out = new DataOutputStream(new BufferedOutputStream(served.getOutputStream()));
+						DataStoreProtocol.Serve(new InMemoryDataStore(), in, out);
+						out.flush();
+					}
+				} catch (IOException | InterruptedException e) {
+					// The test has failed, or ended
+				}
+			});
+			stalledThenServed.setDaemon(true);
+			stalledThenServed.start();
+			try(RemoteDataStore remote = new RemoteDataStore("localhost", serverSocket.getLocalPort(), timeoutMillis)) {
+				long started = System.nanoTime();
+				assertThrows(UncheckedIOException.class, () -> remote.IncrementAndGet("window", 1, 100, 0));
+				assertTrue(System.nanoTime() - started < timeoutMillis * 3 * 1_000_000L);
+				// Fails fast, without waiting on the store again
+				started = System.nanoTime();
+				assertThrows(UncheckedIOException.class, () -> remote.IncrementAndGet("window", 1, 100, 0));
+				assertTrue(System.nanoTime() - started < timeoutMillis * 1_000_000L);
+				// Then connects afresh, never reading the stalled answer
+				Thread.sleep(timeoutMillis * 4);
+				assertTrue(remote.IncrementAndGet("window", 1, 100, 0) == 1);
+			}
+		}
+	}
+
+	@Test
+	void OversizedLengthsAreRefusedTest() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(Integer.MAX_VALUE);
+		DataInputStream blob = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		assertThrows(IOException.class, () -> DataStoreProtocol.ReadBlob(blob));
+		bytes.reset();
+		out.writeByte(DataStoreProtocol.GetAll);
+		out.writeInt(Integer.MAX_VALUE);
+		DataInputStream batch = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		assertThrows(IOException.class, () -> DataStoreProtocol.Serve(new InMemoryDataStore(), batch, new DataOutputStream(new ByteArrayOutputStream())));
+	}
+
+}
@@ -9,6 +9,7 @@ import org.junit.jupiter.api.Test;
 import MockServer.Client;
 import MockServer.Server;
 import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.AdaptiveConcurrencyLimit;
 import RateLimiterService.RateLimiter;
 
 class ServerTest {
@@ -43,4 +44,46 @@ class ServerTest {
 		server.CloseServerSocketListener(8085);
 	}
 
+	@Test
+	void ShedRequestsAreNotChargedTest() throws IOException {
+		int maxAttempts = 5;
+		int maxSeconds = 60;
+		AbstractRateLimiter rateLimiter = new RateLimiter(maxAttempts,maxSeconds,false);
+		Server server = new Server(true,rateLimiter);
+		// A limit of one, already held, so every request is shed
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1,1,1);
+		assertTrue(limit.TryAcquire());
+		server.LimitConcurrencyAdaptively(limit);
+		server.AddServerSocket(8086);
+		Client client = new Client("localhost",8086,"GET","GG/M8","SuchUser","VeryPassword");
+		for(int k = 0; k <= maxAttempts; k++) {
+			assertTrue(client.SubmitRequest().split("`n")[0].contains("503"));
+		}
+		// Once the server has room, the user still has all their attempts
+		limit.ReleaseWithoutSample();
+		for(int k = 0; k < maxAttempts; k++) {
+			assertTrue(client.SubmitRequest().split("`n")[0].contains("200"));
+		}
+		assertTrue(client.SubmitRequest().split("`n")[0].contains("429"));
+		server.CloseServerSocketListener(8086);
+	}
+
+	@Test
+	void IPsAreLimitedByTheRateLimitersOwnAlgorithmTest() throws IOException {
+		int maxAttempts = 5;
+		int maxSeconds = 60;
+		// Limit by IP only, with the sliding log
+		AbstractRateLimiter<?> rateLimiter = new RateLimiter(maxAttempts,maxSeconds,false,true,false,false,false);
+		Server server = new Server(true,rateLimiter);
+		server.AddServerSocket(8087);
+		Client client = new Client("localhost",8087,"GET","GG/M8","SuchUser","VeryPassword");
+		for(int k = 0; k < maxAttempts; k++) {
+			assertTrue(client.SubmitRequest().split("`n")[0].contains("200"));
+		}
+		assertTrue(client.SubmitRequest().split("`n")[0].contains("429"));
+		// Unless chosen, nothing is limited on the fast path by address
+		assertTrue(rateLimiter.trackedKeys() == 0);
+		server.CloseServerSocketListener(8087);
+	}
+
 }
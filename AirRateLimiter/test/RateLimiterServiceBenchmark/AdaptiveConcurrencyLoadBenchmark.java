@@ -0,0 +1,136 @@
+package RateLimiterServiceBenchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+
+import RateLimiterService.AdaptiveConcurrencyLimit;
+
+/***
+ * A local load test of the adaptive concurrency limit, against a simulated
+ * backend that can handle "BackendCapacity" requests at once, each taking
+ * "ServiceMillis"; requests past its capacity queue for it, as they would
+ * for a server's threads or a database's connections. Closed loop clients,
+ * from 1 up to "MaxClients", each send a request as soon as their last one
+ * is answered, or a millisecond after it was shed.
+ *
+ * Without adaptation, throughput stops growing once there are as many
+ * clients as the backend's capacity, and latency grows with every client
+ * past it; the knee. With adaptation, the limit settles near the knee, so
+ * throughput is about the same but latency stays near the service time,
+ * and the requests that would have queued are shed instead.
+ *
+ * Run as a plain java application; prints the throughput, latency of the
+ * requests served and share shed for each number of clients, with and
+ * without adaptation.
+ */
+public class AdaptiveConcurrencyLoadBenchmark {
+
+	/***
+	 * How long to load the backend for with each number of clients.
+	 */
+	static final private long MeasureMillis = 1000;
+
+	static final private int BackendCapacity = 4;
+
+	static final private long ServiceMillis = 2;
+
+	static final private int MaxClients = 64;
+
+	public static void main(String[] args) throws InterruptedException {
+		System.out.println("backend capacity: "+BackendCapacity+", service time: "+ServiceMillis+"ms");
+		System.out.println("adaptive | clients | served/sec | p50 ms | p99 ms | shed % | limit");
+		for(boolean adaptive : new boolean[] {false, true}) {
+			for(int clients = 1; clients <= MaxClients; clients *= 2) {
+				Load(adaptive, clients);
+			}
+		}
+	}
+
+	/***
+	 * Load a new backend with the number of clients for "MeasureMillis",
+	 * and print a row of the results.
+	 * @param adaptive Whether to limit the requests handled at once by an
+	 * adaptive concurrency limit.
+	 * @param clients
+	 * @throws InterruptedException
+	 */
+	private static void Load(boolean adaptive, int clients) throws InterruptedException {
+		Semaphore backend = new Semaphore(BackendCapacity, true);
+		AdaptiveConcurrencyLimit limit = adaptive ? new AdaptiveConcurrencyLimit() : null;
+		CountDownLatch start = new CountDownLatch(1);
+		long[] deadline = new long[1];
+		long[][] latencies = new long[clients][];
+		int[] served = new int[clients];
+		int[] shed = new int[clients];
+		Thread[] workers = new Thread[clients];
+		for(int k = 0; k < clients; k++) {
+			final int index = k;
+			workers[k] = new Thread(() -> {
+				long[] mine = new long[(int) (MeasureMillis / ServiceMillis) + 1];
+				try {
+					start.await();
+					while(System.nanoTime() < deadline[0]) {
+						if(limit != null && !limit.TryAcquire()) {
+							shed[index]++;
+							Thread.sleep(1);
+							continue;
+						}
+						long started = System.nanoTime();
+						backend.acquire();
+						try {
+							Thread.sleep(ServiceMillis);
+						} finally {
+							backend.release();
+						}
+						long latency = System.nanoTime() - started;
+						if(limit != null) {
+							limit.Release(latency);
+						}
+						if(served[index] == mine.length) {
+							mine = Arrays.copyOf(mine, mine.length * 2);
+						}
+						mine[served[index]++] = latency;
+					}
+				} catch (InterruptedException e) {
+					return;
+				} finally {
+					latencies[index] = Arrays.copyOf(mine, served[index]);
+				}
+			});
+			workers[k].start();
+		}
+		deadline[0] = System.nanoTime() + MeasureMillis * 1_000_000L;
+		start.countDown();
+		for(Thread worker : workers) {
+			worker.join();
+		}
+		long[] all = new long[0];
+		int totalServed = 0;
+		int totalShed = 0;
+		for(int k = 0; k < clients; k++) {
+			int from = all.length;
+			all = Arrays.copyOf(all, from + latencies[k].length);
+			System.arraycopy(latencies[k], 0, all, from, latencies[k].length);
+			totalServed += served[k];
+			totalShed += shed[k];
+		}
+		Arrays.sort(all);
+		System.out.println(String.format("%-8s | %7d | %10d | %6.2f | %6.2f | %6.1f | %5s", adaptive, clients,
+				totalServed * 1000L / MeasureMillis, Percentile(all, 0.50), Percentile(all, 0.99),
+				100d * totalShed / Math.max(1, totalServed + totalShed), limit == null ? "-" : String.valueOf(limit.Limit())));
+	}
+
+	/***
+	 * @param sorted Latencies in nanoseconds, sorted.
+	 * @param fraction
+	 * @return The latency at the fraction, in milliseconds.
+	 */
+	private static double Percentile(long[] sorted, double fraction) {
+		if(sorted.length == 0) {
+			return 0d;
+		}
+		return sorted[(int) Math.min(sorted.length - 1, (long) (fraction * sorted.length))] / 1_000_000d;
+	}
+
+}
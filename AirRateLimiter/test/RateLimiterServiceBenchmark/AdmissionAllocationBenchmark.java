@@ -0,0 +1,103 @@
+package RateLimiterServiceBenchmark;
+
+import java.lang.management.ManagementFactory;
+
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.AdmissionKey;
+import RateLimiterService.RateLimitedIdentity;
+import RateLimiterService.RateLimiter;
+import RateLimiterService.RateLimitingBehaviour;
+import RateLimiterService.RateLimitingBehaviour.RateLimitingAlgorithm;
+
+/***
+ * Measures the bytes allocated on the heap per admission decision, for
+ * attempts recorded by RateLimitedIdentity with each algorithm's rate
+ * limiter, and for attempts admitted by precomputed key with a reused
+ * AdmissionKey. Decisions are made for a fixed set of identities that have
+ * all been seen during the warm up, so the figures are for the steady state;
+ * admission by AdmissionKey should allocate 0 bytes per decision.
+ *
+ * Run as a plain java application; prints the bytes allocated per decision
+ * for each path, read from the allocation counter of the running thread.
+ */
+public class AdmissionAllocationBenchmark {
+
+	static final private int Decisions = 200_000;
+
+	static final private int WarmUpRounds = 5;
+
+	static final private int Identities = 1024;
+
+	static final private int maxAttempts = 10;
+
+	static final private int maxSeconds = 3600;
+
+	/***
+	 * A path for making one admission decision for the k'th identity.
+	 */
+	private interface Decision {
+		long Make(int k);
+	}
+
+	public static void main(String[] args) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		threads.setThreadAllocatedMemoryEnabled(true);
+		String[] IPs = new String[Identities];
+		String[] users = new String[Identities];
+		for(int k = 0; k < Identities; k++) {
+			IPs[k] = "10.0."+(k >> 8)+"."+(k & 0xFF);
+			users[k] = "user"+k;
+		}
+		System.out.println("path                                 | bytes/decision");
+		for(RateLimitingAlgorithm algorithm : RateLimitingAlgorithm.values()) {
+			AbstractRateLimiter<?> rateLimiter = NewRateLimiter(algorithm);
+			Measure(threads, "RecordNewAttempt "+algorithm, k -> {
+				RateLimitedIdentity identity = AbstractRateLimiter.NewRateLimitedIP(IPs[k]);
+				return rateLimiter.RecordNewAttempt(identity, maxAttempts, maxSeconds) ? 0L : 1L;
+			});
+		}
+		AbstractRateLimiter<?> rateLimiter = NewRateLimiter(RateLimitingAlgorithm.GCRA);
+		AdmissionKey key = new AdmissionKey();
+		Measure(threads, "TryAdmit AdmissionKey IPv4", k -> rateLimiter.TryAdmit(key.ForIPv4(0x0A000000 | k)));
+		Measure(threads, "TryAdmit AdmissionKey user", k -> rateLimiter.TryAdmit(key.ForUser(users[k])));
+		Measure(threads, "TryAdmit AdmissionKey endpoint", k -> rateLimiter.TryAdmit(key.ForEndpoint(users[k], "GET /resource")));
+	}
+
+	private static AbstractRateLimiter<?> NewRateLimiter(RateLimitingAlgorithm algorithm) {
+		AbstractRateLimiter<?> rateLimiter = AbstractRateLimiter.NewRateLimiter(
+				new RateLimitingBehaviour(maxAttempts, maxSeconds, algorithm));
+		if(rateLimiter instanceof RateLimiter) {
+			((RateLimiter) rateLimiter).turnOffVerbose();
+		}
+		return rateLimiter;
+	}
+
+	/***
+	 * Warms up the path, then makes the decisions, cycling through the
+	 * identities, and prints the bytes the thread allocated per decision.
+	 * @param threads
+	 * @param path
+	 * @param decision
+	 */
+	private static void Measure(com.sun.management.ThreadMXBean threads, String path, Decision decision) {
+		long sink = 0L;
+		for(int round = 0; round < WarmUpRounds; round++) {
+			sink += Run(decision);
+		}
+		long thread = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(thread);
+		sink += Run(decision);
+		long allocated = threads.getThreadAllocatedBytes(thread) - before;
+		//Print the sum of results, so the decisions can't be optimised away
+		System.out.println(String.format("%-36s | %14.2f   (%d)", path, (double) allocated / Decisions, sink));
+	}
+
+	private static long Run(Decision decision) {
+		long sink = 0L;
+		for(int k = 0; k < Decisions; k++) {
+			sink += decision.Make(k & (Identities - 1));
+		}
+		return sink;
+	}
+
+}
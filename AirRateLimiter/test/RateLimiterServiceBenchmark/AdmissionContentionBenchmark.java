@@ -0,0 +1,102 @@
+package RateLimiterServiceBenchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.RateLimitedIdentity;
+import RateLimiterService.RateLimiter;
+import RateLimiterService.RateLimitingBehaviour;
+import RateLimiterService.RateLimitingBehaviour.RateLimitingAlgorithm;
+
+/***
+ * Measures the throughput of admission decisions made by each algorithm's
+ * rate limiter as the number of threads making them grows, from 1 up to
+ * twice the number of available processors. Each thread records attempts
+ * for its own identity, so the only contention is on the shared tables and
+ * not on any single identity's state; throughput should scale with threads
+ * up to the number of processors.
+ * 
+ * Run as a plain java application; prints the decisions per second for each
+ * algorithm and thread count, after a warm up.
+ */
+public class AdmissionContentionBenchmark {
+	
+	/***
+	 * How long to time each algorithm and thread count for.
+	 */
+	static final private long MeasureMillis = 500;
+	
+	/***
+	 * How long to warm up each algorithm for before measuring.
+	 */
+	static final private long WarmUpMillis = 200;
+	
+	/***
+	 * Allow many attempts in a long window, so the decisions made are a mix
+	 * of admitted attempts and refused ones once each identity is full.
+	 */
+	static final private int maxAttempts = 1000;
+	
+	static final private int maxSeconds = 3600;
+	
+	public static void main(String[] args) throws InterruptedException {
+		int processors = Runtime.getRuntime().availableProcessors();
+		System.out.println("available processors: "+processors);
+		System.out.println("algorithm            | threads | decisions/sec");
+		for(RateLimitingAlgorithm algorithm : RateLimitingAlgorithm.values()) {
+			TimeDecisions(algorithm, processors, WarmUpMillis);
+			for(int threads = 1; threads <= 2 * processors; threads *= 2) {
+				long decisions = TimeDecisions(algorithm, threads, MeasureMillis);
+				System.out.println(String.format("%-20s | %7d | %13d", algorithm, threads, 
+						decisions * 1000 / MeasureMillis));
+			}
+		}
+	}
+	
+	/***
+	 * Runs the given number of threads against a new rate limiter using the
+	 * algorithm, each recording attempts for its own identity until the time
+	 * is up.
+	 * @param algorithm
+	 * @param threads
+	 * @param millis
+	 * @return The total number of decisions made between all threads.
+	 * @throws InterruptedException
+	 */
+	private static long TimeDecisions(RateLimitingAlgorithm algorithm, int threads, long millis) throws InterruptedException {
+		AbstractRateLimiter<?> rateLimiter = AbstractRateLimiter.NewRateLimiter(
+				new RateLimitingBehaviour(maxAttempts, maxSeconds, algorithm));
+		if(rateLimiter instanceof RateLimiter) {
+			((RateLimiter) rateLimiter).turnOffVerbose();
+		}
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicLong decisions = new AtomicLong();
+		long[] deadline = new long[1];
+		Thread[] workers = new Thread[threads];
+		for(int k = 0; k < threads; k++) {
+			RateLimitedIdentity identity = AbstractRateLimiter.NewRateLimitedIP("10.0.0."+k);
+			workers[k] = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				long made = 0;
+				while(System.nanoTime() < deadline[0]) {
+					rateLimiter.RecordNewAttempt(identity, maxAttempts, maxSeconds);
+					made++;
+				}
+				decisions.addAndGet(made);
+			});
+			workers[k].start();
+		}
+		deadline[0] = System.nanoTime() + millis * 1_000_000L;
+		start.countDown();
+		for(Thread worker : workers) {
+			worker.join();
+		}
+		return decisions.get();
+	}
+	
+}
@@ -0,0 +1,119 @@
+package RateLimiterServiceBenchmark;
+
+import java.io.IOException;
+
+import MockServer.DataStoreServer;
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.DataStoreGCRARateLimiter;
+import RateLimiterService.IDataStore;
+import RateLimiterService.InMemoryDataStore;
+import RateLimiterService.RateLimitedIdentity;
+import RateLimiterService.RateLimitingBehaviour;
+import RateLimiterService.RateLimitingBehaviour.RateLimitingAlgorithm;
+import RateLimiterService.RemoteDataStore;
+
+/***
+ * Measures what holding rate limiting state in a data store costs, against
+ * the GCRA rate limiter holding it in its own memory; with the data store
+ * in memory, and reached over TCP on the loopback, through the stand-in
+ * DataStoreServer. Each decision through a data store reads the identity's
+ * state and compare-and-sets it, so costs two round trips to a remote one;
+ * a batch of reads costs one round trip however many keys it reads.
+ *
+ * Run as a plain java application; prints the mean microseconds per
+ * decision, or per key read, for each store, after a warm up.
+ */
+public class DataStoreLatencyBenchmark {
+
+	/***
+	 * How long to time each store for.
+	 */
+	static final private long MeasureMillis = 1000;
+
+	/***
+	 * How long to warm up each store for before measuring.
+	 */
+	static final private long WarmUpMillis = 300;
+
+	/***
+	 * How many keys each batched read reads.
+	 */
+	static final private int BatchSize = 16;
+
+	/***
+	 * How many identities decisions are spread over.
+	 */
+	static final private int Identities = 1024;
+
+	public static void main(String[] args) throws IOException {
+		RateLimitingBehaviour behaviour = new RateLimitingBehaviour(1_000_000, 3600, RateLimitingAlgorithm.GCRA);
+		System.out.println("store                     | operation      | micros each");
+		AbstractRateLimiter<?> inProcess = AbstractRateLimiter.NewRateLimiter(behaviour);
+		TimeDecisions(inProcess, WarmUpMillis);
+		System.out.println(String.format("%-25s | %-14s | %11.2f", "GCRA in process", "decision", TimeDecisions(inProcess, MeasureMillis)));
+		InMemoryDataStore inMemory = new InMemoryDataStore();
+		Measure("in memory", behaviour, inMemory);
+		try(DataStoreServer server = new DataStoreServer(new InMemoryDataStore(), 0);
+				RemoteDataStore remote = new RemoteDataStore("localhost", server.Port())) {
+			Measure("remote, TCP loopback", behaviour, remote);
+		}
+	}
+
+	/***
+	 * Time decisions and batched reads against the store, and print a row
+	 * for each.
+	 * @param name
+	 * @param behaviour
+	 * @param dataStore
+	 */
+	private static void Measure(String name, RateLimitingBehaviour behaviour, IDataStore dataStore) {
+		AbstractRateLimiter<?> rateLimiter = new DataStoreGCRARateLimiter(behaviour, dataStore);
+		TimeDecisions(rateLimiter, WarmUpMillis);
+		System.out.println(String.format("%-25s | %-14s | %11.2f", name, "decision", TimeDecisions(rateLimiter, MeasureMillis)));
+		TimeBatchedReads(dataStore, WarmUpMillis);
+		System.out.println(String.format("%-25s | %-14s | %11.2f", name, "batched read", TimeBatchedReads(dataStore, MeasureMillis)));
+	}
+
+	/***
+	 * @param rateLimiter
+	 * @param millis
+	 * @return The mean microseconds per decision, made for identities in
+	 * turn until the time is up.
+	 */
+	private static double TimeDecisions(AbstractRateLimiter<?> rateLimiter, long millis) {
+		RateLimitedIdentity[] identities = new RateLimitedIdentity[Identities];
+		for(int k = 0; k < Identities; k++) {
+			identities[k] = AbstractRateLimiter.NewRateLimitedIP("10.0."+(k >> 8)+"."+(k & 0xFF));
+		}
+		long started = System.nanoTime();
+		long deadline = started + millis * 1_000_000L;
+		long made = 0;
+		while(System.nanoTime() < deadline) {
+			rateLimiter.IsAttemptRateLimited(identities[(int) (made % Identities)]);
+			made++;
+		}
+		return (System.nanoTime() - started) / 1000d / made;
+	}
+
+	/***
+	 * @param dataStore
+	 * @param millis
+	 * @return The mean microseconds per key read, in batches of
+	 * "BatchSize" until the time is up.
+	 */
+	private static double TimeBatchedReads(IDataStore dataStore, long millis) {
+		String[] keys = new String[BatchSize];
+		for(int k = 0; k < BatchSize; k++) {
+			keys[k] = "ip:10.0.0."+k;
+		}
+		long started = System.nanoTime();
+		long deadline = started + millis * 1_000_000L;
+		long read = 0;
+		while(System.nanoTime() < deadline) {
+			dataStore.GetAll(keys, System.nanoTime());
+			read += BatchSize;
+		}
+		return (System.nanoTime() - started) / 1000d / read;
+	}
+
+}
@@ -0,0 +1,88 @@
+package RateLimiterServiceBenchmark;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import RateLimiterService.FixedWindowRateLimitingMap;
+
+/***
+ * Measures the cost of a single identity recording a burst of attempts in
+ * the same millisecond against the FixedWindowRateLimitingMap. Compares the
+ * per-key monotonic stamping now used to keep the queued times unique with
+ * the previous scheme, reproduced here, which scanned the queue for the
+ * candidate time and bumped it by a nanosecond until it was not found.
+ * 
+ * Run as a plain java application; prints the average cost per attempt for
+ * a range of burst sizes, after a warm up.
+ */
+public class DeduplicationBurstBenchmark {
+	
+	/***
+	 * The burst sizes to measure, in attempts by a single identity.
+	 */
+	static final private int[] BurstSizes = {10, 50, 100, 250, 500};
+	
+	/***
+	 * How many bursts to time for each burst size.
+	 */
+	static final private int Repetitions = 10;
+	
+	static final private String key = "A key";
+	
+	public static void main(String[] args) {
+		// Warm up both paths before measuring
+		for(int k = 0; k < 100; k++) {
+			TimeScanningBurst(100);
+			TimeStampingBurst(100);
+		}
+		System.out.println("burst size | scanning (ns/attempt) | stamping (ns/attempt)");
+		for(int burst : BurstSizes) {
+			long scanning = 0;
+			long stamping = 0;
+			for(int k = 0; k < Repetitions; k++) {
+				scanning += TimeScanningBurst(burst);
+				stamping += TimeStampingBurst(burst);
+			}
+			System.out.println(String.format("%10d | %21d | %21d", burst, 
+					scanning / ((long) Repetitions * burst), 
+					stamping / ((long) Repetitions * burst)));
+		}
+	}
+	
+	/***
+	 * Records a burst with the per-key monotonic stamping.
+	 * @param burst
+	 * @return Nanoseconds taken to record the burst.
+	 */
+	private static long TimeStampingBurst(int burst) {
+		FixedWindowRateLimitingMap rlMap = new FixedWindowRateLimitingMap();
+		long start = System.nanoTime();
+		rlMap.MakeNewQueueWithNowAtTip(key);
+		for(int k = 1; k < burst; k++) {
+			rlMap.AddCurrentTimeToExistingQueue(key);
+		}
+		return System.nanoTime() - start;
+	}
+	
+	/***
+	 * Records a burst with the previous scanning de-duplication, with every
+	 * attempt made in the same millisecond, and without the threshold that
+	 * gave up de-duplicating after 1000 bumps.
+	 * @param burst
+	 * @return Nanoseconds taken to record the burst.
+	 */
+	private static long TimeScanningBurst(int burst) {
+		ConcurrentLinkedQueue<LocalDateTime> queue = new ConcurrentLinkedQueue<LocalDateTime>();
+		LocalDateTime sameMilli = LocalDateTime.now();
+		long start = System.nanoTime();
+		for(int k = 0; k < burst; k++) {
+			LocalDateTime now = sameMilli;
+			while(queue.contains(now)) {
+				now = now.plusNanos(1);
+			}
+			queue.add(now);
+		}
+		return System.nanoTime() - start;
+	}
+	
+}
@@ -3,9 +3,20 @@ package RateLimiterServiceTest;
 import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.Test;
 
+import RateLimiterService.AbstractRateLimiter;
 import RateLimiterService.RateLimitedIdentity;
 import RateLimiterService.RateLimitedIdentity.RateLimitedIdentityType;
+import RateLimiterService.FixedWindowCounterRateLimiter;
 import RateLimiterService.FixedWindowRateLimitingMap;
+import RateLimiterService.GCRARateLimiter;
+import RateLimiterService.ManualClock;
+import RateLimiterService.OffHeapGCRARateLimiter;
+import RateLimiterService.RateLimiter;
+import RateLimiterService.RateLimitingBehaviour;
+import RateLimiterService.RateLimitingBehaviour.RateLimitingAlgorithm;
+import RateLimiterService.RingBufferRateLimiter;
+import RateLimiterService.SlidingWindowCounterRateLimiter;
+import RateLimiterService.TokenBucketRateLimiter;
 
 import java.time.LocalDateTime;
 
@@ -45,6 +56,42 @@ public class AbstractRateLimiterStaticTest extends AbstractRateLimiterTestBase{
 		assertTrue(EndpointIdentity.IsIdentityAnEndpointAttempt());
 	}
 	
+	@Test
+	void EndpointIdentitiesAreEqualByValueTest() {
+		RateLimitedIdentity route = AbstractRateLimiter.NewRateLimitedEndpoint(testIdentity, 7, testEndpoint);
+		RateLimitedIdentity sameRoute = AbstractRateLimiter.NewRateLimitedEndpoint(new String(testIdentity), 7, "/other");
+		assertTrue(route.equals(sameRoute) && route.hashCode() == sameRoute.hashCode());
+		assertFalse(route.equals(AbstractRateLimiter.NewRateLimitedEndpoint(testIdentity, 8, testEndpoint)));
+		RateLimitedIdentity endpoint = NewTestRateLimitedEndpoint(testIdentity, testEndpoint);
+		RateLimitedIdentity sameEndpoint = NewTestRateLimitedEndpoint(new String(testIdentity), new String(testEndpoint));
+		assertTrue(endpoint.equals(sameEndpoint) && endpoint.hashCode() == sameEndpoint.hashCode());
+		assertFalse(endpoint.equals(route));
+		assertFalse(endpoint.equals(NewTestRateLimitedEndpoint(testIdentity, "/another")));
+		assertFalse(NewTestRateLimitedIP(testIdentity).equals(NewTestRateLimitedUser(testIdentity)));
+	}
+	
+	@Test
+	void NewRateLimiterTest() {
+		assertTrue(AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour()) instanceof RateLimiter);
+		assertTrue(NewTestRateLimiterWith(RateLimitingAlgorithm.SlidingLog) instanceof RateLimiter);
+		assertTrue(NewTestRateLimiterWith(RateLimitingAlgorithm.TokenBucket) instanceof TokenBucketRateLimiter);
+		assertTrue(NewTestRateLimiterWith(RateLimitingAlgorithm.SlidingWindowCounter) instanceof SlidingWindowCounterRateLimiter);
+		assertTrue(NewTestRateLimiterWith(RateLimitingAlgorithm.FixedWindowCounter) instanceof FixedWindowCounterRateLimiter);
+		assertTrue(NewTestRateLimiterWith(RateLimitingAlgorithm.GCRA) instanceof GCRARateLimiter);
+		assertTrue(NewTestRateLimiterWith(RateLimitingAlgorithm.RingBufferSlidingLog) instanceof RingBufferRateLimiter);
+		assertTrue(NewTestRateLimiterWith(RateLimitingAlgorithm.OffHeapGCRA) instanceof OffHeapGCRARateLimiter);
+		for(RateLimitingAlgorithm algorithm : RateLimitingAlgorithm.values()) {
+			AbstractRateLimiter<?> arl = NewTestRateLimiterWith(algorithm);
+			assertTrue(arl.rateLimitingAlgorithm() == algorithm);
+			assertTrue(arl.requestLimitHits() == RequestLimitHits_Test);
+			assertTrue(arl.timeLimitSeconds() == TimeLimitSeconds_Test);
+		}
+	}
+	
+	private AbstractRateLimiter<?> NewTestRateLimiterWith(RateLimitingAlgorithm algorithm) {
+		return AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(RequestLimitHits_Test,TimeLimitSeconds_Test,algorithm));
+	}
+	
 	@Test
 	void RateLimitingMapTest_MakingANewQueueReturnsTheTip() {
 		FixedWindowRateLimitingMap rlMap = NewTestRateLimitingMap();
@@ -84,5 +131,87 @@ public class AbstractRateLimiterStaticTest extends AbstractRateLimiterTestBase{
 		fromPolling = rlMap.PollQueueTip(key);
 		assertTrue(fromPolling == null);
 	}
+	
+	@Test
+	void RateLimitingMapTest_IdleKeysAreForgottenAfterTheirWindow() {
+		ManualClock clock = new ManualClock();
+		FixedWindowRateLimitingMap rlMap = new FixedWindowRateLimitingMap(clock);
+		assertTrue(rlMap.TryRecordAttempt(key, manyAttempts, 10) != null);
+		assertTrue(rlMap.TryRecordAttempt(anotherKey, manyAttempts, 20) != null);
+		assertTrue(rlMap.Size() == 2);
+		//Not yet idle, within the window
+		clock.AdvanceSeconds(9);
+		assertTrue(rlMap.ExpireIdleKeys() == 0);
+		assertTrue(rlMap.MapsFromKey(key));
+		//Idle once the window has passed, by the next tick of the wheel
+		clock.AdvanceSeconds(3);
+		assertTrue(rlMap.ExpireIdleKeys() == 1);
+		assertFalse(rlMap.MapsFromKey(key));
+		assertTrue(rlMap.MapsFromKey(anotherKey));
+		assertFalse(rlMap.IsIdle());
+		clock.AdvanceSeconds(10);
+		assertTrue(rlMap.ExpireIdleKeys() == 1);
+		assertTrue(rlMap.Size() == 0);
+		assertTrue(rlMap.IsIdle());
+	}
+	
+	@Test
+	void RateLimitingMapTest_RecordingKeepsKeysFromBeingForgotten() {
+		ManualClock clock = new ManualClock();
+		FixedWindowRateLimitingMap rlMap = new FixedWindowRateLimitingMap(clock);
+		for(int k = 0; k < 5; k++) {
+			assertTrue(rlMap.TryRecordAttempt(key, manyAttempts, 10) != null);
+			clock.AdvanceSeconds(8);
+			rlMap.ExpireIdleKeys();
+			assertTrue(rlMap.MapsFromKey(key));
+		}
+		//A longer window given later keeps the key for longer
+		assertTrue(rlMap.TryRecordAttempt(key, manyAttempts, anHour) != null);
+		clock.AdvanceSeconds(60);
+		assertTrue(rlMap.ExpireIdleKeys() == 0);
+		assertTrue(rlMap.MapsFromKey(key));
+		//Forgotten keys start again from nothing
+		clock.AdvanceSeconds(anHour);
+		assertTrue(rlMap.ExpireIdleKeys() == 1);
+		assertTrue(rlMap.TryRecordAttempt(key, 1, anHour) != null);
+		assertTrue(rlMap.TryRecordAttempt(key, 1, anHour) == null);
+	}
+	
+	@Test
+	void RateLimitingMapTest_FrequentKeysStayTrackedThroughAScan() {
+		ManualClock clock = new ManualClock();
+		FixedWindowRateLimitingMap rlMap = new FixedWindowRateLimitingMap(clock, 2, false);
+		for(int k = 0; k < 3; k++) {
+			rlMap.TryRecordAttempt(key, anHour, anHour);
+			rlMap.TryRecordAttempt(anotherKey, anHour, anHour);
+		}
+		//A scan of keys seen once each fails open without evicting either
+		for(int k = 0; k < 100; k++) {
+			assertTrue(rlMap.TryRecordAttempt("Scan "+k, manyAttempts, anHour) != null);
+		}
+		assertTrue(rlMap.Size() == 2);
+		assertTrue(rlMap.MapsFromKey(key));
+		assertTrue(rlMap.MapsFromKey(anotherKey));
+		assertTrue(rlMap.Evictions() == 0);
+		assertTrue(rlMap.Untracked() == 100);
+		//A key that keeps returning is eventually admitted, evicting another
+		String returning = "Returning key";
+		for(int k = 0; k < 5; k++) {
+			rlMap.TryRecordAttempt(returning, anHour, anHour);
+		}
+		assertTrue(rlMap.MapsFromKey(returning));
+		assertTrue(rlMap.Size() == 2);
+		assertTrue(rlMap.Evictions() == 1);
+	}
+	
+	@Test
+	void RateLimitingMapTest_UntrackedKeysFailClosed() {
+		FixedWindowRateLimitingMap rlMap = new FixedWindowRateLimitingMap(new ManualClock(), 1, true);
+		assertTrue(rlMap.TryRecordAttempt(key, manyAttempts, anHour) != null);
+		assertTrue(rlMap.TryRecordAttempt(key, manyAttempts, anHour) != null);
+		assertTrue(rlMap.TryRecordAttempt(anotherKey, manyAttempts, anHour) == null);
+		assertFalse(rlMap.MapsFromKey(anotherKey));
+		assertTrue(rlMap.Untracked() == 1);
+	}
 
 }
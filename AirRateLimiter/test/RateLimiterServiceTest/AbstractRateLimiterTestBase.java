@@ -1,9 +1,16 @@
 package RateLimiterServiceTest;
 
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.function.Function;
 
 import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.IClock;
+import RateLimiterService.ManualClock;
 import RateLimiterService.RateLimitedIdentity;
 import RateLimiterService.RateLimiter;
 import RateLimiterService.FixedWindowRateLimitingMap;
@@ -534,6 +541,78 @@ public class AbstractRateLimiterTestBase {
 		return ((iterator & twoToThePowerOf(flag)) != 0);
 	}
 	
+	/* The following "...Contract" methods test what every implementation of
+	 * the AbstractRateLimiter must do, whatever its algorithm, each given a
+	 * function making the rate limiter under test from the clock to read
+	 */
+	
+	/***
+	 * Test recording attempts by IP, user and end-point identities, each
+	 * against a new rate limiter reading a ManualClock; nothing is recorded
+	 * when allowing zero attempts, "manyAttempts" are recorded per hour, the
+	 * next is refused until the time given as when it will be allowed, and
+	 * a zero second window always allows the attempt.
+	 * @param newRateLimiter
+	 */
+	public void RecordNewAttemptContract(Function<IClock,AbstractRateLimiter<?>> newRateLimiter) {
+		RateLimitedIdentity[] identities = {NewTestRateLimitedIP(), NewTestRateLimitedUser(), NewTestRateLimitedEndpoint()};
+		for(RateLimitedIdentity identity : identities) {
+			ManualClock clock = new ManualClock();
+			AbstractRateLimiter<?> arl = newRateLimiter.apply(clock);
+			// Can't record anything when allowing zero attempts
+			assertFalse(arl.RecordNewAttempt(identity, 0, anHour));
+			// Unknown identities are allowed now
+			assertTrue(arl.CheckWhenNextRequestAllowed(identity, manyAttempts, anHour).isEqual(clock.Now()));
+			for(int k = 0; k < manyAttempts; k++) {
+				assertTrue(arl.RecordNewAttempt(identity, manyAttempts, anHour));
+			}
+			// Can't record any more than that!
+			assertFalse(arl.RecordNewAttempt(identity, manyAttempts, anHour));
+			LocalDateTime next = arl.CheckWhenNextRequestAllowed(identity, manyAttempts, anHour);
+			assertTrue(next.isAfter(clock.Now()));
+			// Within two windows, for the sliding window counter's previous one
+			assertFalse(next.isAfter(clock.Now().plusSeconds(2 * anHour)));
+			// Until the next is allowed
+			clock.AdvanceNanos(Duration.between(clock.Now(), next).toNanos() - 1);
+			assertFalse(arl.RecordNewAttempt(identity, manyAttempts, anHour));
+			clock.AdvanceNanos(1);
+			assertTrue(arl.RecordNewAttempt(identity, manyAttempts, anHour));
+			assertTrue(arl.RecordNewAttempt(identity, manyAttempts, 0));
+		}
+	}
+	
+	/***
+	 * Test that attempts made by many threads at once against one identity
+	 * are recorded no more than the number allowed.
+	 * @param newRateLimiter
+	 * @throws InterruptedException
+	 */
+	public void ConcurrentAttemptsContract(Function<IClock,AbstractRateLimiter<?>> newRateLimiter) throws InterruptedException {
+		AbstractRateLimiter<?> arl = newRateLimiter.apply(new ManualClock());
+		RateLimitedIdentity identity = NewTestRateLimitedIP();
+		int threadCount = 8;
+		int attemptsPerThread = 1000;
+		int[] recorded = new int[threadCount];
+		Thread[] threads = new Thread[threadCount];
+		for(int t = 0; t < threadCount; t++) {
+			final int index = t;
+			threads[t] = new Thread(() -> {
+				for(int k = 0; k < attemptsPerThread; k++) {
+					if(arl.RecordNewAttempt(identity, attemptsPerThread, anHour)) {
+						recorded[index]++;
+					}
+				}
+			});
+			threads[t].start();
+		}
+		int total = 0;
+		for(int t = 0; t < threadCount; t++) {
+			threads[t].join();
+			total += recorded[t];
+		}
+		assertTrue(total == attemptsPerThread);
+	}
+	
 	/***
 	 * @return A new instance of the IDataStore's inner class FixedWindowRateLimitingMap
 	 */
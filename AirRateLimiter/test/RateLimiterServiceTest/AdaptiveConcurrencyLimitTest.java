@@ -0,0 +1,94 @@
+package RateLimiterServiceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import RateLimiterService.AdaptiveConcurrencyLimit;
+
+/***
+ * Test the global concurrency limit adapting to the latency of the requests
+ * handled under it
+ */
+class AdaptiveConcurrencyLimitTest {
+
+	private static final long aMillisecond = 1_000_000L;
+
+	/***
+	 * Acquire the whole limit, then release it all with the same latency.
+	 * @param limit
+	 * @param latencyNanos
+	 */
+	private void HandleAtTheLimit(AdaptiveConcurrencyLimit limit, long latencyNanos) {
+		int acquired = 0;
+		while(limit.TryAcquire()) {
+			acquired++;
+		}
+		for(int k = 0; k < acquired; k++) {
+			limit.Release(latencyNanos);
+		}
+	}
+
+	@Test
+	void RequestsPastTheLimitAreRefusedTest() {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 10);
+		assertTrue(limit.TryAcquire());
+		assertTrue(limit.TryAcquire());
+		assertFalse(limit.TryAcquire());
+		assertTrue(limit.InFlight() == 2);
+		limit.ReleaseWithoutSample();
+		assertTrue(limit.TryAcquire());
+		assertTrue(limit.Limit() == 2);
+	}
+
+	@Test
+	void FastRequestsGrowTheLimitTest() {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 1, 100);
+		for(int k = 0; k < 50; k++) {
+			HandleAtTheLimit(limit, aMillisecond);
+		}
+		assertTrue(limit.Limit() == 100);
+		assertTrue(limit.BaselineNanos() == aMillisecond);
+	}
+
+	@Test
+	void UnusedLimitsDontGrowTest() {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 1, 100);
+		for(int k = 0; k < 100; k++) {
+			assertTrue(limit.TryAcquire());
+			limit.Release(aMillisecond);
+		}
+		assertTrue(limit.Limit() == 20);
+	}
+
+	@Test
+	void SlowRequestsShrinkTheLimitTest() {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(50, 2, 100);
+		HandleAtTheLimit(limit, aMillisecond);
+		int grown = limit.Limit();
+		// The backend slows down tenfold, so requests are queueing
+		for(int k = 0; k < 20; k++) {
+			HandleAtTheLimit(limit, 10 * aMillisecond);
+		}
+		assertTrue(limit.Limit() < grown);
+		assertTrue(limit.Limit() <= 10);
+		assertTrue(limit.Limit() >= 2);
+		assertTrue(limit.InFlight() == 0);
+	}
+
+	@Test
+	void TheBaselineRisesIfTheBackendStaysSlowTest() {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 1, 1);
+		assertTrue(limit.BaselineNanos() == Long.MAX_VALUE);
+		limit.TryAcquire();
+		limit.Release(aMillisecond);
+		for(int k = 0; k < 2 * AdaptiveConcurrencyLimit.BaselineWindow; k++) {
+			limit.TryAcquire();
+			limit.Release(5 * aMillisecond);
+		}
+		assertTrue(limit.BaselineNanos() == 5 * aMillisecond);
+		assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrencyLimit(1, 0, 1));
+		assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrencyLimit(5, 1, 4));
+	}
+
+}
@@ -0,0 +1,105 @@
+package RateLimiterServiceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.jupiter.api.Test;
+
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.AdmissionKey;
+import RateLimiterService.IPAddressKey;
+import RateLimiterService.ManualClock;
+import RateLimiterService.RateLimiter;
+import RateLimiterService.RateLimitingBehaviour;
+
+/***
+ * Test the keying of identities by AdmissionKey, and admitting attempts
+ * by precomputed key
+ */
+class AdmissionKeyTest extends AbstractRateLimiterTestBase {
+
+	@Test
+	void IPKeysMatchIPAddressKeysTest() throws UnknownHostException {
+		AdmissionKey key = new AdmissionKey();
+		long IPKey = IPAddressKey.KeyOfLiteral("10.0.0.1");
+		assertTrue(key.ForIPv4(0x0A000001).Key() == IPKey);
+		assertTrue(key.ForIP(new byte[] {10,0,0,1}).Key() == IPKey);
+		assertTrue(key.ForIP(InetAddress.getByName("10.0.0.1")).Key() == IPKey);
+	}
+
+	@Test
+	void KindsOfIdentityAreKeyedApartTest() {
+		AdmissionKey key = new AdmissionKey();
+		assertTrue(key.Key() == IPAddressKey.NoKey);
+		long user = key.ForUser(testIdentity).Key();
+		long endpoint = key.ForEndpoint(testIdentity, testEndpoint).Key();
+		assertTrue(user != endpoint);
+		assertTrue(user != IPAddressKey.NoKey);
+		assertTrue(user == key.ForUser(new StringBuilder(testIdentity)).Key());
+		assertTrue(endpoint == key.ForEndpoint(new StringBuilder(testIdentity), testEndpoint).Key());
+		// The identity and endpoint are not simply joined
+		assertTrue(endpoint != key.ForEndpoint(testIdentity + "V", testEndpoint.substring(1)).Key());
+	}
+
+	@Test
+	void AttemptsAreAdmittedByKeyTest() {
+		ManualClock clock = new ManualClock();
+		AbstractRateLimiter<?> arl = new RateLimiter(new RateLimitingBehaviour(manyAttempts, anHour), clock);
+		AdmissionKey key = new AdmissionKey().ForUser(testIdentity);
+		for(int k = 0; k < manyAttempts; k++) {
+			assertTrue(arl.TryAdmit(key) == AbstractRateLimiter.Admitted);
+		}
+		long wait = arl.TryAdmit(key);
+		assertTrue(wait > 0 && wait <= anHour * 1_000_000_000L / manyAttempts);
+		assertTrue(arl.TryAdmit(key.ForUser(testUser)) == AbstractRateLimiter.Admitted);
+		clock.AdvanceNanos(wait);
+		assertTrue(arl.TryAdmit(key.ForUser(testIdentity)) == AbstractRateLimiter.Admitted);
+		assertThrows(IllegalArgumentException.class, () -> arl.TryAdmit(key.Key(), 0));
+		assertThrows(IllegalArgumentException.class, () -> arl.TryAdmit(key.Key(), -1));
+	}
+
+	@Test
+	void KeyedAttemptsShareIPAttemptLimitsTest() throws UnknownHostException {
+		ManualClock clock = new ManualClock();
+		AbstractRateLimiter<?> arl = new RateLimiter(new RateLimitingBehaviour(manyAttempts, anHour), clock);
+		AdmissionKey key = new AdmissionKey().ForIPv4(0x0A000001);
+		for(int k = 0; k < manyAttempts; k++) {
+			assertTrue(arl.TryAdmit(key) == AbstractRateLimiter.Admitted);
+		}
+		assertFalse(arl.IsIPAttemptRateLimited(InetAddress.getByName("10.0.0.1")).isEmpty());
+	}
+
+	@Test
+	void KeyedAttemptsAreOnlyAllocatedOnceUsedTest() {
+		AbstractRateLimiter<?> arl = new RateLimiter(new RateLimitingBehaviour(manyAttempts, anHour), new ManualClock());
+		assertTrue(arl.keyedOffHeapBytes() == 0);
+		arl.TryAdmit(new AdmissionKey().ForUser(testIdentity));
+		assertTrue(arl.keyedOffHeapBytes() > 0);
+	}
+
+	@Test
+	void IPAttemptsAreCappedAndForgottenOnceIdleTest() throws UnknownHostException {
+		ManualClock clock = new ManualClock();
+		int cap = 1000;
+		AbstractRateLimiter<?> arl = new RateLimiter(new RateLimitingBehaviour(1, anHour, cap, false), clock);
+		for(int k = 0; k < cap * 5; k++) {
+			arl.IsIPAttemptRateLimited(AddressOf(10, k));
+		}
+		assertTrue(arl.trackedKeys() == cap);
+		// Once the first addresses are idle, they make room for as many more,
+		// which are then limited
+		clock.AdvanceSeconds(anHour);
+		for(int k = 0; k < cap; k++) {
+			assertTrue(arl.IsIPAttemptRateLimited(AddressOf(11, k)).isEmpty());
+			assertFalse(arl.IsIPAttemptRateLimited(AddressOf(11, k)).isEmpty());
+		}
+		assertTrue(arl.trackedKeys() == cap);
+	}
+
+	private static InetAddress AddressOf(int network, int host) throws UnknownHostException {
+		return InetAddress.getByAddress(new byte[] {(byte) network, 0, (byte) (host >> 8), (byte) host});
+	}
+
+}
@@ -0,0 +1,93 @@
+package RateLimiterServiceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.jupiter.api.Test;
+
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.ManualClock;
+import RateLimiterService.RateLimitedIdentity;
+import RateLimiterService.RateLimitingBehaviour;
+import RateLimiterService.RateLimitingBehaviour.RateLimitingAlgorithm;
+
+/***
+ * Test admitting attempts with a ticket, and settling their actual cost
+ * once handled, with every algorithm
+ */
+class AdmissionTicketTest extends AbstractRateLimiterTestBase {
+
+	private static final int aLot = manyAttempts * 2;
+
+	@Test
+	void CheaperAttemptsAreRefundedTest() {
+		for(RateLimitingAlgorithm algorithm : RateLimitingAlgorithm.values()) {
+			AbstractRateLimiter<?> arl = AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(aLot, anHour, algorithm), new ManualClock());
+			RateLimitedIdentity identity = NewTestRateLimitedUser();
+			long ticket = arl.AdmitAttempt(identity, aLot);
+			assertTrue(ticket > 0);
+			assertFalse(arl.IsAttemptRateLimited(identity).isEmpty());
+			// It only cost one, so the rest is given back
+			arl.ReconcileAttempt(ticket, 1);
+			assertTrue(arl.RecordNewAttempt(identity, aLot - 1, aLot, anHour));
+			assertFalse(arl.RecordNewAttempt(identity, aLot, anHour));
+		}
+	}
+
+	@Test
+	void CostlierAttemptsAreDebitedTest() {
+		for(RateLimitingAlgorithm algorithm : RateLimitingAlgorithm.values()) {
+			AbstractRateLimiter<?> arl = AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(aLot, anHour, algorithm), new ManualClock());
+			RateLimitedIdentity identity = NewTestRateLimitedEndpoint();
+			long ticket = arl.AdmitAttempt(identity, 1);
+			assertTrue(arl.IsAttemptRateLimited(identity).isEmpty());
+			arl.ReconcileAttempt(ticket, aLot);
+			assertFalse(arl.IsAttemptRateLimited(identity).isEmpty());
+		}
+	}
+
+	@Test
+	void TicketsAreSettledOnceTest() {
+		AbstractRateLimiter<?> arl = AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(aLot, anHour, RateLimitingAlgorithm.GCRA), new ManualClock());
+		RateLimitedIdentity identity = NewTestRateLimitedIP();
+		long ticket = arl.AdmitAttempt(identity, 1);
+		assertTrue(arl.outstandingTickets() == 1);
+		arl.ReconcileAttempt(ticket, manyAttempts);
+		assertTrue(arl.outstandingTickets() == 0);
+		// Settling it again, or after its slot is reused, debits nothing more
+		long reissued = arl.AdmitAttempt(identity, 1);
+		assertTrue(reissued != ticket);
+		arl.ReconcileAttempt(ticket, aLot);
+		arl.ReconcileAttempt(AbstractRateLimiter.NoTicket, aLot);
+		arl.ReconcileAttempt(AbstractRateLimiter.Refused, aLot);
+		assertTrue(arl.outstandingTickets() == 1);
+		arl.ReconcileAttempt(reissued, 1);
+		assertTrue(arl.RecordNewAttempt(identity, aLot - manyAttempts - 1, aLot, anHour));
+		assertFalse(arl.RecordNewAttempt(identity, aLot, anHour));
+		assertThrows(IllegalArgumentException.class, () -> arl.ReconcileAttempt(reissued, -1));
+	}
+
+	@Test
+	void RefusedAttemptsHaveNoTicketTest() {
+		AbstractRateLimiter<?> arl = AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(1, anHour, RateLimitingAlgorithm.TokenBucket), new ManualClock());
+		assertTrue(arl.AdmitAttempt(NewTestRateLimitedUser(), 1) > 0);
+		assertTrue(arl.AdmitAttempt(NewTestRateLimitedUser(), 1) == AbstractRateLimiter.Refused);
+		assertTrue(arl.outstandingTickets() == 1);
+		assertThrows(IllegalArgumentException.class, () -> arl.AdmitAttempt(NewTestRateLimitedUser(), 0));
+	}
+
+	@Test
+	void IPAttemptsByAddressAreSettledTest() throws UnknownHostException {
+		AbstractRateLimiter<?> arl = AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(aLot, anHour), new ManualClock());
+		InetAddress address = InetAddress.getByName(testIP);
+		long ticket = arl.AdmitIPAttempt(address, aLot);
+		assertTrue(ticket > 0);
+		assertFalse(arl.IsIPAttemptRateLimited(address).isEmpty());
+		arl.ReconcileAttempt(ticket, 1);
+		assertTrue(arl.IsIPAttemptRateLimited(address, aLot - 1).isEmpty());
+		assertTrue(arl.AdmitIPAttempt(address, 1) == AbstractRateLimiter.Refused);
+	}
+
+}
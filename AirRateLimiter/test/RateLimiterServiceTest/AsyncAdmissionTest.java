@@ -0,0 +1,83 @@
+package RateLimiterServiceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.GCRARateLimiter;
+import RateLimiterService.ManualClock;
+import RateLimiterService.RateLimitedIdentity;
+import RateLimiterService.RateLimitingBehaviour;
+import RateLimiterService.RateLimitingBehaviour.RateLimitingAlgorithm;
+
+/***
+ * Test deciding attempts without blocking the calling thread
+ */
+class AsyncAdmissionTest extends AbstractRateLimiterTestBase {
+
+	@Test
+	void InMemoryAttemptsAreDecidedImmediatelyTest() throws InterruptedException, ExecutionException {
+		for(RateLimitingAlgorithm algorithm : RateLimitingAlgorithm.values()) {
+			AbstractRateLimiter<?> arl = AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(manyAttempts, anHour, algorithm), new ManualClock());
+			RateLimitedIdentity identity = NewTestRateLimitedUser();
+			for(int k = 0; k < manyAttempts; k++) {
+				CompletableFuture<String> decision = arl.IsAttemptRateLimitedAsync(identity);
+				assertTrue(decision.isDone());
+				assertTrue(decision.get().isEmpty());
+			}
+			CompletableFuture<String> refused = arl.IsAttemptRateLimitedAsync(identity);
+			assertTrue(refused.isDone());
+			assertFalse(refused.get().isEmpty());
+			// Shares its attempts with the blocking API
+			assertFalse(arl.IsAttemptRateLimited(identity).isEmpty());
+		}
+	}
+
+	@Test
+	void CostlyAttemptsAreDecidedAsOneTest() throws InterruptedException, ExecutionException {
+		AbstractRateLimiter<?> arl = AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(manyAttempts, anHour), new ManualClock());
+		RateLimitedIdentity identity = NewTestRateLimitedEndpoint();
+		assertTrue(arl.IsAttemptRateLimitedAsync(identity, manyAttempts).get().isEmpty());
+		assertFalse(arl.IsAttemptRateLimitedAsync(identity, 1).get().isEmpty());
+		assertThrows(IllegalArgumentException.class, () -> arl.IsAttemptRateLimitedAsync(identity, 0));
+	}
+
+	@Test
+	void SlowerStoresCompleteOnTheirOwnThreadsTest() throws InterruptedException, ExecutionException {
+		ExecutorService storeThreads = Executors.newSingleThreadExecutor();
+		CountDownLatch storeAnswers = new CountDownLatch(1);
+		try {
+			// Stands in for a rate limiter waiting on a remote store
+			AbstractRateLimiter<?> arl = new GCRARateLimiter(new RateLimitingBehaviour(1, anHour, RateLimitingAlgorithm.GCRA), new ManualClock()) {
+				@Override
+				public CompletableFuture<Boolean> RecordNewAttemptAsync(RateLimitedIdentity RLIdentity, int cost, int maxAttempts, int maxSeconds) {
+					return CompletableFuture.supplyAsync(() -> {
+						try {
+							storeAnswers.await();
+						} catch (InterruptedException e) {
+							throw new IllegalStateException(e);
+						}
+						return RecordNewAttempt(RLIdentity, cost, maxAttempts, maxSeconds);
+					}, storeThreads);
+				}
+			};
+			CompletableFuture<String> first = arl.IsAttemptRateLimitedAsync(NewTestRateLimitedIP());
+			CompletableFuture<String> second = arl.IsAttemptRateLimitedAsync(NewTestRateLimitedIP());
+			// The calling thread wasn't held up waiting for the store
+			assertFalse(first.isDone());
+			storeAnswers.countDown();
+			assertTrue(first.get().isEmpty());
+			assertFalse(second.get().isEmpty());
+		} finally {
+			storeThreads.shutdownNow();
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+package RateLimiterServiceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.GCRARateLimiter;
+import RateLimiterService.ManualClock;
+import RateLimiterService.RateLimitPolicyTable;
+import RateLimiterService.RateLimitTier;
+import RateLimiterService.RateLimitedIdentity;
+import RateLimiterService.RateLimitingBehaviour;
+import RateLimiterService.RateLimitingBehaviour.RateLimitingAlgorithm;
+
+/***
+ * Test recording the attempts of many identities in one call, with every
+ * algorithm
+ */
+class BatchAdmissionTest extends AbstractRateLimiterTestBase {
+
+	private AbstractRateLimiter<?> NewTestBatchRateLimiter(RateLimitingAlgorithm algorithm) {
+		return AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(manyAttempts, anHour, algorithm), new ManualClock());
+	}
+
+	@Test
+	void BatchesAreDecidedAsIfOneByOneTest() {
+		for(RateLimitingAlgorithm algorithm : RateLimitingAlgorithm.values()) {
+			AbstractRateLimiter<?> arl = NewTestBatchRateLimiter(algorithm);
+			RateLimitedIdentity[] batch = new RateLimitedIdentity[manyAttempts + 2];
+			for(int k = 0; k < batch.length; k++) {
+				batch[k] = NewTestRateLimitedUser();
+			}
+			boolean[] recorded = arl.RecordNewAttempts(batch, manyAttempts, anHour);
+			for(int k = 0; k < batch.length; k++) {
+				assertTrue(recorded[k] == (k < manyAttempts));
+			}
+			assertFalse(arl.RecordNewAttempt(NewTestRateLimitedUser(), manyAttempts, anHour));
+		}
+	}
+
+	@Test
+	void InterleavedIdentitiesAreAnsweredInOrderTest() {
+		for(RateLimitingAlgorithm algorithm : RateLimitingAlgorithm.values()) {
+			AbstractRateLimiter<?> arl = NewTestBatchRateLimiter(algorithm);
+			// Boris has already used all but one of his attempts
+			for(int k = 1; k < manyAttempts; k++) {
+				assertTrue(arl.RecordNewAttempt(NewTestRateLimitedUser("Boris"), manyAttempts, anHour));
+			}
+			RateLimitedIdentity[] batch = {
+					NewTestRateLimitedUser("Boris"),
+					NewTestRateLimitedUser(),
+					NewTestRateLimitedUser("Boris"),
+					NewTestRateLimitedEndpoint(),
+					NewTestRateLimitedIP() };
+			boolean[] recorded = arl.RecordNewAttempts(batch, manyAttempts, anHour);
+			assertTrue(recorded[0]);
+			assertTrue(recorded[1]);
+			assertFalse(recorded[2]);
+			assertTrue(recorded[3]);
+			assertTrue(recorded[4]);
+		}
+	}
+
+	@Test
+	void CheaperAttemptsAreStillTriedAfterARefusalTest() {
+		for(RateLimitingAlgorithm algorithm : RateLimitingAlgorithm.values()) {
+			AbstractRateLimiter<?> arl = NewTestBatchRateLimiter(algorithm);
+			RateLimitedIdentity identity = NewTestRateLimitedEndpoint();
+			RateLimitedIdentity[] batch = { identity, identity, identity, identity };
+			boolean[] recorded = arl.RecordNewAttempts(batch, new int[] {manyAttempts - 1, 2, 3, 1}, manyAttempts, anHour);
+			assertTrue(recorded[0]);
+			assertFalse(recorded[1]);
+			assertFalse(recorded[2]);
+			assertTrue(recorded[3]);
+		}
+	}
+
+	@Test
+	void EachIdentityIsHeldToItsPolicyTest() {
+		RateLimitPolicyTable policies = new RateLimitPolicyTable();
+		policies.ForUser(testUser, new RateLimitTier(1, anHour));
+		for(RateLimitingAlgorithm algorithm : RateLimitingAlgorithm.values()) {
+			AbstractRateLimiter<?> arl = AbstractRateLimiter.NewRateLimiter(
+					new RateLimitingBehaviour(new RateLimitingBehaviour(manyAttempts, anHour, algorithm), policies), new ManualClock());
+			RateLimitedIdentity[] batch = {
+					NewTestRateLimitedUser(), NewTestRateLimitedUser("Boris"),
+					NewTestRateLimitedUser(), NewTestRateLimitedUser("Boris") };
+			boolean[] recorded = arl.RecordNewAttempts(batch, new int[] {1, 1, 1, 1});
+			assertTrue(recorded[0]);
+			assertTrue(recorded[1]);
+			assertFalse(recorded[2]);
+			assertTrue(recorded[3]);
+		}
+	}
+
+	@Test
+	void AttemptsOfAnIdentityAreRecordedInOneLookupTest() {
+		int[] lookups = new int[1];
+		AbstractRateLimiter<?> arl = new GCRARateLimiter(new RateLimitingBehaviour(manyAttempts, anHour), new ManualClock()) {
+			@Override
+			protected boolean RecordNewAttemptAt(RateLimitedIdentity RLIdentity, int cost, int maxAttempts, int maxSeconds, long now) {
+				lookups[0]++;
+				return super.RecordNewAttemptAt(RLIdentity, cost, maxAttempts, maxSeconds, now);
+			}
+		};
+		RateLimitedIdentity[] batch = {
+				NewTestRateLimitedUser(), NewTestRateLimitedUser("Boris"),
+				NewTestRateLimitedUser(), NewTestRateLimitedUser() };
+		boolean[] recorded = arl.RecordNewAttempts(batch, new int[] {1, 1, 2, 1}, manyAttempts, anHour);
+		for(boolean attempt : recorded) {
+			assertTrue(attempt);
+		}
+		assertTrue(lookups[0] == 2);
+		// Only one more fits, so the attempts are then decided one by one
+		lookups[0] = 0;
+		recorded = arl.RecordNewAttempts(new RateLimitedIdentity[] { batch[0], batch[0] }, manyAttempts, anHour);
+		assertTrue(recorded[0]);
+		assertFalse(recorded[1]);
+		assertTrue(lookups[0] == 3);
+	}
+
+	@Test
+	void MalformedBatchesAreRejectedTest() {
+		AbstractRateLimiter<?> arl = NewTestBatchRateLimiter(RateLimitingAlgorithm.GCRA);
+		RateLimitedIdentity[] batch = { NewTestRateLimitedIP(), NewTestRateLimitedUser() };
+		assertThrows(IllegalArgumentException.class, () -> arl.RecordNewAttempts(batch, new int[] {1}, manyAttempts, anHour));
+		assertThrows(IllegalArgumentException.class, () -> arl.RecordNewAttempts(batch, new int[] {1, 0}));
+		assertTrue(arl.RecordNewAttempts(new RateLimitedIdentity[0], manyAttempts, anHour).length == 0);
+	}
+
+}
@@ -0,0 +1,75 @@
+package RateLimiterServiceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.Test;
+
+import RateLimiterService.CachedTickerClock;
+import RateLimiterService.EpochClock;
+import RateLimiterService.IClock;
+import RateLimiterService.ManualClock;
+import RateLimiterService.MonotonicClock;
+
+/***
+ * Test the implementations of the IClock interface
+ */
+class ClockTest {
+	
+	@Test
+	void MonotonicClockTest() {
+		IClock clock = new MonotonicClock();
+		long first = clock.NanoTime();
+		long second = clock.NanoTime();
+		assertTrue(second - first >= 0);
+		// LocalDateTimes follow the monotonic time from the anchor
+		assertTrue(clock.LocalDateTimeAt(first + 1_000_000_000L).isEqual(clock.LocalDateTimeAt(first).plusSeconds(1)));
+		assertFalse(clock.Now().isAfter(LocalDateTime.now().plusSeconds(1)));
+		assertFalse(clock.Now().isBefore(LocalDateTime.now().minusSeconds(1)));
+	}
+	
+	@Test
+	void EpochClockTest() {
+		long before = System.currentTimeMillis();
+		IClock clock = new EpochClock();
+		long first = clock.NanoTime();
+		long second = clock.NanoTime();
+		assertTrue(second - first >= 0);
+		// Counts from the epoch, as any other process's EpochClock does
+		assertTrue(first / 1_000_000L >= before - 1000 && first / 1_000_000L <= System.currentTimeMillis() + 1000);
+		assertTrue(clock.LocalDateTimeAt(first + 1_000_000_000L).isEqual(clock.LocalDateTimeAt(first).plusSeconds(1)));
+		assertFalse(clock.Now().isAfter(LocalDateTime.now().plusSeconds(1)));
+		assertFalse(clock.Now().isBefore(LocalDateTime.now().minusSeconds(1)));
+	}
+	
+	@Test
+	void ManualClockTest() {
+		LocalDateTime anchor = LocalDateTime.of(2020, 1, 1, 0, 0);
+		ManualClock clock = new ManualClock(anchor);
+		assertTrue(clock.NanoTime() == 0);
+		assertTrue(clock.Now().isEqual(anchor));
+		clock.AdvanceSeconds(2);
+		clock.AdvanceNanos(5);
+		assertTrue(clock.NanoTime() == 2_000_000_005L);
+		assertTrue(clock.Now().isEqual(anchor.plusSeconds(2).plusNanos(5)));
+	}
+	
+	@Test
+	void CachedTickerClockTest() throws InterruptedException {
+		ManualClock source = new ManualClock();
+		try(CachedTickerClock clock = new CachedTickerClock(source, 1)) {
+			assertTrue(clock.NanoTime() == 0);
+			source.AdvanceSeconds(1);
+			// The cached time catches up with the source within a few ticks
+			long waited = 0;
+			while(clock.NanoTime() == 0 && waited < 1000) {
+				Thread.sleep(1);
+				waited++;
+			}
+			assertTrue(clock.NanoTime() == 1_000_000_000L);
+			assertTrue(clock.Now().isEqual(source.Now()));
+		}
+	}
+	
+}
@@ -0,0 +1,123 @@
+package RateLimiterServiceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.DataStoreGCRARateLimiter;
+import RateLimiterService.InMemoryDataStore;
+import RateLimiterService.ManualClock;
+import RateLimiterService.RateLimitedIdentity;
+import RateLimiterService.RateLimitingBehaviour;
+import RateLimiterService.RateLimitingBehaviour.RateLimitingAlgorithm;
+
+/***
+ * Test the GCRA rate limiter holding its state in a data store
+ */
+class DataStoreGCRARateLimiterTest extends AbstractRateLimiterTestBase {
+
+	private static final RateLimitingBehaviour gcra = new RateLimitingBehaviour(manyAttempts, anHour, RateLimitingAlgorithm.GCRA);
+
+	@Test
+	void BurstsAreAdmittedThenPacedTest() {
+		ManualClock clock = new ManualClock();
+		AbstractRateLimiter<?> arl = new DataStoreGCRARateLimiter(gcra, new InMemoryDataStore(), clock);
+		RateLimitedIdentity identity = NewTestRateLimitedUser();
+		for(int k = 0; k < manyAttempts; k++) {
+			assertTrue(arl.IsAttemptRateLimited(identity).isEmpty());
+		}
+		assertFalse(arl.IsAttemptRateLimited(identity).isEmpty());
+		assertTrue(arl.CheckWhenNextRequestAllowed(identity, manyAttempts, anHour).equals(clock.LocalDateTimeAt(anHour / manyAttempts * 1_000_000_000L)));
+		// One emission interval later, one more is allowed
+		clock.AdvanceSeconds(anHour / manyAttempts);
+		assertTrue(arl.IsAttemptRateLimited(identity).isEmpty());
+		assertFalse(arl.IsAttemptRateLimited(identity).isEmpty());
+		// Others have their own
+		assertTrue(arl.IsAttemptRateLimited(NewTestRateLimitedEndpoint()).isEmpty());
+		assertTrue(arl.IsAttemptRateLimited(NewTestRateLimitedIP()).isEmpty());
+	}
+
+	@Test
+	void RateLimitersSharingAStoreShareAttemptsTest() {
+		ManualClock clock = new ManualClock();
+		InMemoryDataStore store = new InMemoryDataStore();
+		AbstractRateLimiter<?> first = new DataStoreGCRARateLimiter(gcra, store, clock);
+		AbstractRateLimiter<?> second = new DataStoreGCRARateLimiter(gcra, store, clock);
+		RateLimitedIdentity identity = NewTestRateLimitedIP();
+		for(int k = 0; k < manyAttempts; k++) {
+			assertTrue((k % 2 == 0 ? first : second).IsAttemptRateLimited(identity).isEmpty());
+		}
+		assertFalse(first.IsAttemptRateLimited(identity).isEmpty());
+		assertFalse(second.IsAttemptRateLimited(identity).isEmpty());
+		// Once the attempts have aged out, the store forgets the identity
+		clock.AdvanceSeconds(anHour);
+		assertTrue(store.RemoveExpired(clock.NanoTime()) == 1);
+		assertTrue(second.IsAttemptRateLimited(identity).isEmpty());
+	}
+
+	@Test
+	void AttemptsByAddressAndKeyAreSharedThroughTheStoreTest() throws UnknownHostException {
+		ManualClock clock = new ManualClock();
+		InMemoryDataStore store = new InMemoryDataStore();
+		AbstractRateLimiter<?> first = new DataStoreGCRARateLimiter(gcra, store, clock);
+		AbstractRateLimiter<?> second = new DataStoreGCRARateLimiter(gcra, store, clock);
+		InetAddress address = InetAddress.getByName(testIP);
+		long key = 42L;
+		for(int k = 0; k < manyAttempts; k++) {
+			assertTrue((k % 2 == 0 ? first : second).IsIPAttemptRateLimited(address).isEmpty());
+			assertTrue((k % 2 == 0 ? second : first).TryAdmit(key) == AbstractRateLimiter.Admitted);
+		}
+		assertFalse(first.IsIPAttemptRateLimited(address).isEmpty());
+		assertFalse(second.IsIPAttemptRateLimited(address).isEmpty());
+		assertTrue(first.TryAdmit(key) == anHour / manyAttempts * 1_000_000_000L);
+		// Apart from the IP identity
+		assertTrue(first.IsAttemptRateLimited(NewTestRateLimitedIP()).isEmpty());
+	}
+
+	@Test
+	void TicketsAreSettledAgainstTheStoreTest() {
+		AbstractRateLimiter<?> arl = new DataStoreGCRARateLimiter(gcra, new InMemoryDataStore(), new ManualClock());
+		RateLimitedIdentity identity = NewTestRateLimitedUser();
+		long ticket = arl.AdmitAttempt(identity, manyAttempts);
+		assertFalse(arl.IsAttemptRateLimited(identity).isEmpty());
+		arl.ReconcileAttempt(ticket, 1);
+		for(int k = 1; k < manyAttempts; k++) {
+			assertTrue(arl.IsAttemptRateLimited(identity).isEmpty());
+		}
+		assertFalse(arl.IsAttemptRateLimited(identity).isEmpty());
+	}
+
+	@Test
+	void AsynchronousAttemptsAreDecidedOnTheStoreThreadsTest() throws InterruptedException, ExecutionException {
+		ExecutorService storeThreads = Executors.newSingleThreadExecutor();
+		try {
+			Thread[] decidedOn = new Thread[1];
+			Executor recordingThreads = command -> storeThreads.execute(() -> {
+				decidedOn[0] = Thread.currentThread();
+				command.run();
+			});
+			AbstractRateLimiter<?> arl = new DataStoreGCRARateLimiter(gcra, new InMemoryDataStore(), new ManualClock(), recordingThreads);
+			CompletableFuture<String> decision = arl.IsAttemptRateLimitedAsync(NewTestRateLimitedUser(), manyAttempts);
+			assertTrue(decision.get().isEmpty());
+			assertTrue(decidedOn[0] != null && decidedOn[0] != Thread.currentThread());
+			assertFalse(arl.IsAttemptRateLimitedAsync(NewTestRateLimitedUser()).get().isEmpty());
+		} finally {
+			storeThreads.shutdownNow();
+		}
+	}
+
+	@Test
+	void OnlyGCRAIsHeldInADataStoreTest() {
+		assertThrows(IllegalArgumentException.class, () -> new DataStoreGCRARateLimiter(new RateLimitingBehaviour(manyAttempts, anHour, RateLimitingAlgorithm.TokenBucket)));
+	}
+
+}
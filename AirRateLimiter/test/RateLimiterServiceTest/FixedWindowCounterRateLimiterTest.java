@@ -0,0 +1,52 @@
+package RateLimiterServiceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.Test;
+
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.FixedWindowCounterRateLimiter;
+import RateLimiterService.ManualClock;
+import RateLimiterService.RateLimitedIdentity;
+import RateLimiterService.RateLimitingBehaviour;
+
+/***
+ * Test the FixedWindowCounterRateLimiter implementation of the
+ * AbstractRateLimiter; Only test the overridden RecordNewAttempt and 
+ * CheckWhenNextRequestAllowed
+ */
+class FixedWindowCounterRateLimiterTest extends AbstractRateLimiterTestBase {
+	
+	@Test
+	void RecordNewAttemptContractTest() {
+		RecordNewAttemptContract(clock -> new FixedWindowCounterRateLimiter(new RateLimitingBehaviour(), clock));
+	}
+	
+	@Test
+	void CountIsResetInTheNextWindowTest() {
+		ManualClock clock = new ManualClock();
+		AbstractRateLimiter arl = new FixedWindowCounterRateLimiter(new RateLimitingBehaviour(), clock);
+		RateLimitedIdentity identity = NewTestRateLimitedUser();
+		assertTrue(arl.RecordNewAttempt(identity, 2, 1));
+		assertTrue(arl.RecordNewAttempt(identity, 2, 1));
+		assertFalse(arl.RecordNewAttempt(identity, 2, 1));
+		// The next request is allowed at the end of the current window
+		LocalDateTime next = arl.CheckWhenNextRequestAllowed(identity, 2, 1);
+		assertTrue(next.isAfter(clock.Now()));
+		assertFalse(next.isAfter(clock.Now().plusSeconds(1)));
+		clock.AdvanceNanos(1_100_000_000L);
+		assertTrue(arl.RecordNewAttempt(identity, 2, 1));
+		assertTrue(arl.RecordNewAttempt(identity, 2, 1));
+		assertFalse(arl.RecordNewAttempt(identity, 2, 1));
+		// But we can record another one if we increase the amount!
+		assertTrue(arl.RecordNewAttempt(identity, 3, 1));
+	}
+	
+	@Test
+	void ConcurrentAttemptsContractTest() throws InterruptedException {
+		ConcurrentAttemptsContract(clock -> new FixedWindowCounterRateLimiter(new RateLimitingBehaviour(), clock));
+	}
+	
+}
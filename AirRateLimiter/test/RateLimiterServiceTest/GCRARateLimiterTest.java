@@ -0,0 +1,50 @@
+package RateLimiterServiceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.Test;
+
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.GCRARateLimiter;
+import RateLimiterService.ManualClock;
+import RateLimiterService.RateLimitedIdentity;
+import RateLimiterService.RateLimitingBehaviour;
+
+/***
+ * Test the GCRARateLimiter implementation of the
+ * AbstractRateLimiter; Only test the overridden RecordNewAttempt and 
+ * CheckWhenNextRequestAllowed
+ */
+class GCRARateLimiterTest extends AbstractRateLimiterTestBase {
+	
+	@Test
+	void RecordNewAttemptContractTest() {
+		RecordNewAttemptContract(clock -> new GCRARateLimiter(new RateLimitingBehaviour(), clock));
+	}
+	
+	@Test
+	void ConcurrentAttemptsContractTest() throws InterruptedException {
+		ConcurrentAttemptsContract(clock -> new GCRARateLimiter(new RateLimitingBehaviour(), clock));
+	}
+	
+	@Test
+	void AttemptsArePacedAfterTheBurstTest() {
+		ManualClock clock = new ManualClock();
+		AbstractRateLimiter arl = new GCRARateLimiter(new RateLimitingBehaviour(), clock);
+		RateLimitedIdentity identity = NewTestRateLimitedUser();
+		// A burst of two, then one attempt every half a second
+		assertTrue(arl.RecordNewAttempt(identity, 2, 1));
+		assertTrue(arl.RecordNewAttempt(identity, 2, 1));
+		assertFalse(arl.RecordNewAttempt(identity, 2, 1));
+		// The next request is allowed one emission interval later
+		LocalDateTime next = arl.CheckWhenNextRequestAllowed(identity, 2, 1);
+		assertTrue(next.isAfter(clock.Now().plusNanos(400_000_000L)));
+		assertFalse(next.isAfter(clock.Now().plusNanos(500_000_000L)));
+		clock.AdvanceNanos(600_000_000L);
+		assertTrue(arl.RecordNewAttempt(identity, 2, 1));
+		assertFalse(arl.RecordNewAttempt(identity, 2, 1));
+	}
+	
+}
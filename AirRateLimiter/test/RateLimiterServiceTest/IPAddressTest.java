@@ -0,0 +1,88 @@
+package RateLimiterServiceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.jupiter.api.Test;
+
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.IPAddressKey;
+import RateLimiterService.IPAddressSet;
+import RateLimiterService.ManualClock;
+import RateLimiterService.RateLimiter;
+import RateLimiterService.RateLimitingBehaviour;
+
+/***
+ * Test the primitive keying of IP addresses, and the IP address
+ * fast path of the AbstractRateLimiter
+ */
+class IPAddressTest extends AbstractRateLimiterTestBase {
+	
+	@Test
+	void IPv4AddressesAreKeyedExactlyTest() throws UnknownHostException {
+		long key = IPAddressKey.KeyOf(InetAddress.getByName("192.168.0.1"));
+		assertTrue(key != IPAddressKey.NoKey);
+		assertTrue(key == IPAddressKey.KeyOfLiteral("192.168.0.1"));
+		assertTrue(key != IPAddressKey.KeyOf(InetAddress.getByName("192.168.0.2")));
+		// IPv4 mapped into IPv6 is the same address
+		assertTrue(key == IPAddressKey.KeyOf(new byte[] {0,0,0,0,0,0,0,0,0,0,(byte) 0xFF,(byte) 0xFF,(byte) 192,(byte) 168,0,1}));
+	}
+	
+	@Test
+	void IPv6AddressesAreKeyedByPrefixTest() throws UnknownHostException {
+		long key = IPAddressKey.KeyOf(InetAddress.getByName("2001:db8:1:2::1"));
+		assertTrue(key != IPAddressKey.NoKey);
+		assertTrue(key == IPAddressKey.KeyOfLiteral("2001:db8:1:2:ffff::42"));
+		assertTrue(key != IPAddressKey.KeyOfLiteral("2001:db8:1:3::1"));
+	}
+	
+	@Test
+	void OnlyIPLiteralsAreKeyedTest() {
+		assertTrue(IPAddressKey.KeyOfLiteral("localhost") == IPAddressKey.NoKey);
+		assertTrue(IPAddressKey.KeyOfLiteral("1.2.3") == IPAddressKey.NoKey);
+		assertTrue(IPAddressKey.KeyOfLiteral("1.2.3.256") == IPAddressKey.NoKey);
+		assertTrue(IPAddressKey.KeyOfLiteral("1.2..4") == IPAddressKey.NoKey);
+		assertTrue(IPAddressKey.KeyOfLiteral("") == IPAddressKey.NoKey);
+	}
+	
+	@Test
+	void IPAddressSetTest() throws UnknownHostException {
+		IPAddressSet set = new IPAddressSet();
+		InetAddress address = InetAddress.getByName("10.0.0.1");
+		assertFalse(set.Contains(address));
+		set.Add(address);
+		assertTrue(set.Contains(address));
+		assertTrue(set.Contains(IPAddressKey.KeyOfLiteral("10.0.0.1")));
+		assertFalse(set.Contains(InetAddress.getByName("10.0.0.2")));
+		set.Remove(address);
+		assertFalse(set.Contains(address));
+		assertTrue(set.Size() == 0);
+	}
+	
+	@Test
+	void IPAttemptsAreRateLimitedByAddressTest() throws UnknownHostException {
+		ManualClock clock = new ManualClock();
+		AbstractRateLimiter arl = new RateLimiter(new RateLimitingBehaviour(manyAttempts, anHour, false, true, false, false, false), clock);
+		assertTrue(arl.RateLimitsByIPAddress(""));
+		InetAddress address = InetAddress.getByName("10.0.0.1");
+		for(int k = 0; k < manyAttempts; k++) {
+			assertTrue(arl.IsIPAttemptRateLimited(address).isEmpty());
+		}
+		assertFalse(arl.IsIPAttemptRateLimited(address).isEmpty());
+		assertTrue(arl.IsIPAttemptRateLimited(InetAddress.getByName("10.0.0.2")).isEmpty());
+		clock.AdvanceSeconds(anHour / manyAttempts);
+		assertTrue(arl.IsIPAttemptRateLimited(address).isEmpty());
+	}
+	
+	@Test
+	void RateLimitsByIPAddressOnlyForIPIdentitiesTest() {
+		AbstractRateLimiter arl = new RateLimiter(new RateLimitingBehaviour(manyAttempts, anHour, false, true, true, false, false));
+		assertTrue(arl.RateLimitsByIPAddress(""));
+		assertFalse(arl.RateLimitsByIPAddress(testUser));
+		arl = new RateLimiter(new RateLimitingBehaviour(manyAttempts, anHour, false, true, true, true, false));
+		assertFalse(arl.RateLimitsByIPAddress(""));
+	}
+	
+}
@@ -0,0 +1,131 @@
+package RateLimiterServiceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.ManualClock;
+import RateLimiterService.RateLimitedIdentity;
+import RateLimiterService.RateLimitingBehaviour;
+
+/***
+ * Test limiting how many requests each identity may have in flight at once,
+ * whatever its rate
+ */
+class InFlightLimitTest extends AbstractRateLimiterTestBase {
+
+	private AbstractRateLimiter<?> NewTestInFlightLimiter(int maxInFlight) {
+		return AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(new RateLimitingBehaviour(), maxInFlight), new ManualClock());
+	}
+
+	@Test
+	void IdentitiesAreLimitedToTheirRequestsInFlightTest() {
+		AbstractRateLimiter<?> arl = NewTestInFlightLimiter(2);
+		RateLimitedIdentity identity = NewTestRateLimitedUser();
+		long first = arl.AcquireInFlight(identity);
+		long second = arl.AcquireInFlight(identity);
+		assertTrue(first != AbstractRateLimiter.InFlightRefused && second != AbstractRateLimiter.InFlightRefused);
+		assertTrue(arl.AcquireInFlight(identity) == AbstractRateLimiter.InFlightRefused);
+		assertTrue(arl.inFlight(identity) == 2);
+		// Another identity has its own
+		assertTrue(arl.AcquireInFlight(NewTestRateLimitedUser("Boris")) != AbstractRateLimiter.InFlightRefused);
+		// Once one is handled, another may start
+		arl.ReleaseInFlight(first);
+		assertTrue(arl.inFlight(identity) == 1);
+		assertTrue(arl.AcquireInFlight(identity) != AbstractRateLimiter.InFlightRefused);
+	}
+
+	@Test
+	void IdentitiesNeverShareACountTest() {
+		// Enough identities that, were their counts shared by hashing
+		// them to a fixed number of stripes, many would share one
+		int identityCount = 2000;
+		AbstractRateLimiter<?> arl = NewTestInFlightLimiter(1);
+		long[] permits = new long[identityCount];
+		for(int k = 0; k < identityCount; k++) {
+			permits[k] = arl.AcquireInFlight(NewTestRateLimitedUser("User"+k));
+			assertTrue(permits[k] != AbstractRateLimiter.InFlightRefused);
+		}
+		for(int k = 0; k < identityCount; k++) {
+			assertTrue(arl.inFlight(NewTestRateLimitedUser("User"+k)) == 1);
+		}
+		assertTrue(arl.identitiesInFlight() == identityCount);
+		// Identities are forgotten once none of theirs are in flight
+		for(long permit : permits) {
+			arl.ReleaseInFlight(permit);
+		}
+		assertTrue(arl.identitiesInFlight() == 0);
+	}
+
+	@Test
+	void EndpointsOfAnIdentityShareItsRequestsInFlightTest() {
+		AbstractRateLimiter<?> arl = NewTestInFlightLimiter(1);
+		assertTrue(arl.AcquireInFlight(NewTestRateLimitedEndpoint(testUser, testEndpoint)) != AbstractRateLimiter.InFlightRefused);
+		assertTrue(arl.AcquireInFlight(NewTestRateLimitedEndpoint(testUser, "VeryOtherResource")) == AbstractRateLimiter.InFlightRefused);
+		assertTrue(arl.AcquireInFlight(NewTestRateLimitedUser()) == AbstractRateLimiter.InFlightRefused);
+	}
+
+	@Test
+	void NoLimitCountsNothingTest() {
+		AbstractRateLimiter<?> arl = AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(), new ManualClock());
+		RateLimitedIdentity identity = NewTestRateLimitedIP();
+		for(int k = 0; k < manyAttempts; k++) {
+			long permit = arl.AcquireInFlight(identity);
+			assertTrue(permit != AbstractRateLimiter.InFlightRefused);
+			arl.ReleaseInFlight(permit);
+		}
+		assertTrue(arl.inFlight(identity) == 0);
+		assertThrows(IllegalArgumentException.class, () -> new RateLimitingBehaviour(new RateLimitingBehaviour(), -1));
+	}
+
+	@Test
+	void IPsByAddressAreLimitedToTheirRequestsInFlightTest() throws UnknownHostException {
+		AbstractRateLimiter<?> arl = NewTestInFlightLimiter(1);
+		InetAddress address = InetAddress.getByName(testIP);
+		long permit = arl.AcquireIPInFlight(address);
+		assertTrue(permit != AbstractRateLimiter.InFlightRefused);
+		assertTrue(arl.AcquireIPInFlight(address) == AbstractRateLimiter.InFlightRefused);
+		arl.ReleaseInFlight(permit);
+		// Releasing a refused request changes nothing
+		arl.ReleaseInFlight(AbstractRateLimiter.InFlightRefused);
+		assertTrue(arl.AcquireIPInFlight(address) != AbstractRateLimiter.InFlightRefused);
+	}
+
+	@Test
+	void ConcurrentRequestsNeverExceedTheLimitTest() throws InterruptedException {
+		AbstractRateLimiter<?> arl = NewTestInFlightLimiter(manyAttempts);
+		RateLimitedIdentity identity = NewTestRateLimitedIP();
+		int threadCount = 8;
+		int requestsPerThread = 10_000;
+		AtomicInteger admitted = new AtomicInteger();
+		boolean[] exceeded = new boolean[threadCount];
+		Thread[] threads = new Thread[threadCount];
+		for(int t = 0; t < threadCount; t++) {
+			final int index = t;
+			threads[t] = new Thread(() -> {
+				for(int k = 0; k < requestsPerThread; k++) {
+					long permit = arl.AcquireInFlight(identity);
+					if(permit != AbstractRateLimiter.InFlightRefused) {
+						if(admitted.incrementAndGet() > manyAttempts) {
+							exceeded[index] = true;
+						}
+						admitted.decrementAndGet();
+						arl.ReleaseInFlight(permit);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for(int t = 0; t < threadCount; t++) {
+			threads[t].join();
+			assertFalse(exceeded[t]);
+		}
+		assertTrue(arl.inFlight(identity) == 0);
+	}
+
+}
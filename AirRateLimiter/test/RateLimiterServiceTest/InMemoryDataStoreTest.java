@@ -0,0 +1,92 @@
+package RateLimiterServiceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import RateLimiterService.IDataStore;
+import RateLimiterService.InMemoryDataStore;
+
+/***
+ * Test the atomic primitives of the data store held in memory
+ */
+class InMemoryDataStoreTest {
+
+	private static final byte[] aBlob = {1, 2, 3};
+
+	private static final byte[] anotherBlob = {4, 5};
+
+	@Test
+	void CountersStartAgainOnceExpiredTest() {
+		InMemoryDataStore store = new InMemoryDataStore();
+		assertTrue(store.IncrementAndGet("window", 2, 100, 0) == 2);
+		// Keeps its first expiry
+		assertTrue(store.IncrementAndGet("window", 3, 1000, 50) == 5);
+		assertTrue(store.IncrementAndGet("window", -1, 1000, 99) == 4);
+		assertTrue(store.IncrementAndGet("window", 1, 200, 100) == 1);
+		assertTrue(store.IncrementAndGet("other", 7, IDataStore.NeverExpires, 100) == 7);
+	}
+
+	@Test
+	void BlobsAreOnlySetIfStillAsExpectedTest() {
+		InMemoryDataStore store = new InMemoryDataStore();
+		assertTrue(store.Get("state", 0) == null);
+		assertFalse(store.CompareAndSet("state", aBlob, anotherBlob, 100, 0));
+		assertTrue(store.CompareAndSet("state", null, aBlob, 100, 0));
+		assertFalse(store.CompareAndSet("state", null, anotherBlob, 100, 0));
+		assertTrue(Arrays.equals(store.Get("state", 0), aBlob));
+		assertTrue(store.CompareAndSet("state", aBlob.clone(), anotherBlob, 100, 0));
+		assertTrue(Arrays.equals(store.Get("state", 0), anotherBlob));
+		// Setting null removes it
+		assertTrue(store.CompareAndSet("state", anotherBlob, null, 100, 0));
+		assertTrue(store.Get("state", 0) == null);
+		assertTrue(store.Size() == 0);
+	}
+
+	@Test
+	void ExpiredBlobsReadAsAbsentTest() {
+		InMemoryDataStore store = new InMemoryDataStore();
+		assertTrue(store.CompareAndSet("state", null, aBlob, 100, 0));
+		assertTrue(store.CompareAndSet("idle", null, anotherBlob, 50, 0));
+		assertTrue(store.Get("state", 100) == null);
+		assertFalse(store.CompareAndSet("state", aBlob, anotherBlob, 200, 100));
+		assertTrue(store.CompareAndSet("state", null, anotherBlob, 200, 100));
+		assertTrue(store.Size() == 2);
+		assertTrue(store.RemoveExpired(100) == 1);
+		assertTrue(Arrays.equals(store.Get("state", 100), anotherBlob));
+	}
+
+	@Test
+	void BatchesAreAnsweredInOrderTest() {
+		InMemoryDataStore store = new InMemoryDataStore();
+		long[] counters = store.IncrementAndGetAll(new String[] {"a", "b", "a"}, new long[] {1, 2, 3}, 100, 0);
+		assertTrue(Arrays.equals(counters, new long[] {1, 2, 4}));
+		store.CompareAndSet("blob", null, aBlob, 100, 0);
+		byte[][] blobs = store.GetAll(new String[] {"blob", "missing"}, 0);
+		assertTrue(Arrays.equals(blobs[0], aBlob));
+		assertTrue(blobs[1] == null);
+	}
+
+	@Test
+	void ConcurrentIncrementsAreNeverLostTest() throws InterruptedException {
+		InMemoryDataStore store = new InMemoryDataStore();
+		int threadCount = 8;
+		int incrementsPerThread = 10_000;
+		Thread[] threads = new Thread[threadCount];
+		for(int t = 0; t < threadCount; t++) {
+			threads[t] = new Thread(() -> {
+				for(int k = 0; k < incrementsPerThread; k++) {
+					store.IncrementAndGet("shared", 1, IDataStore.NeverExpires, 0);
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(store.IncrementAndGet("shared", 0, IDataStore.NeverExpires, 0) == threadCount * incrementsPerThread);
+	}
+
+}
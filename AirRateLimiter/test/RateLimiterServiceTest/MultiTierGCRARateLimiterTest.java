@@ -0,0 +1,128 @@
+package RateLimiterServiceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.Test;
+
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.AdmissionKey;
+import RateLimiterService.ManualClock;
+import RateLimiterService.MultiTierGCRARateLimiter;
+import RateLimiterService.MultiTierGCRARateLimitingMap;
+import RateLimiterService.RateLimitTier;
+import RateLimiterService.RateLimitedIdentity;
+import RateLimiterService.RateLimitingBehaviour;
+import RateLimiterService.RateLimitingBehaviour.RateLimitingAlgorithm;
+
+/***
+ * Test the MultiTierGCRARateLimiter implementation of the
+ * AbstractRateLimiter; Only test the overridden RecordNewAttempt and
+ * CheckWhenNextRequestAllowed, and deciding attempts against many tiers
+ */
+class MultiTierGCRARateLimiterTest extends AbstractRateLimiterTestBase {
+
+	/***
+	 * A burst of 2 requests per second, and a quota of 5 per hour.
+	 */
+	private RateLimitingBehaviour NewTestTieredBehaviour() {
+		return new RateLimitingBehaviour(new RateLimitTier(2, 1), new RateLimitTier(manyAttempts, anHour));
+	}
+
+	@Test
+	void RecordNewAttemptContractTest() {
+		RecordNewAttemptContract(clock -> new MultiTierGCRARateLimiter(new RateLimitingBehaviour(), clock));
+	}
+
+	@Test
+	void TieredBehaviourSelectsTheMultiTierAlgorithmTest() {
+		RateLimitingBehaviour behaviour = NewTestTieredBehaviour();
+		assertTrue(behaviour.Algorithm == RateLimitingAlgorithm.MultiTierGCRA);
+		assertTrue(behaviour.RequestLimitHits == 2 && behaviour.TimeLimitSeconds == 1);
+		assertTrue(behaviour.Tiers.size() == 2);
+		assertTrue(new RateLimitingBehaviour().Tiers.size() == 1);
+		assertTrue(AbstractRateLimiter.NewRateLimiter(behaviour) instanceof MultiTierGCRARateLimiter);
+		assertThrows(IllegalArgumentException.class, () -> new RateLimitingBehaviour(new RateLimitTier[0]));
+	}
+
+	@Test
+	void TiersCanBeGivenToAnyBehaviourTest() {
+		RateLimitingBehaviour limitedByIP = new RateLimitingBehaviour(manyAttempts, anHour, false, true, false, false, false);
+		RateLimitingBehaviour behaviour = new RateLimitingBehaviour(new RateLimitingBehaviour(limitedByIP, 1, true), new RateLimitTier(2, 1), new RateLimitTier(manyAttempts, anHour));
+		assertTrue(behaviour.Algorithm == RateLimitingAlgorithm.MultiTierGCRA);
+		assertTrue(behaviour.RequestLimitHits == 2 && behaviour.TimeLimitSeconds == 1 && behaviour.Tiers.size() == 2);
+		assertTrue(behaviour.RateLimitByIP && !behaviour.RateLimitByUser && !behaviour.RateLimitByEndpoint);
+		assertTrue(behaviour.MaxTrackedIdentities == 1 && behaviour.FailClosedWhenUntracked);
+		assertThrows(IllegalArgumentException.class, () -> new RateLimitingBehaviour(limitedByIP, new RateLimitTier[0]));
+	}
+
+	@Test
+	void EveryTierMustAllowTheAttemptTest() {
+		ManualClock clock = new ManualClock();
+		MultiTierGCRARateLimiter rl = new MultiTierGCRARateLimiter(NewTestTieredBehaviour(), clock);
+		RateLimitedIdentity identity = NewTestRateLimitedUser();
+		// The burst tier trips first
+		assertTrue(rl.DecideAttempt(identity) == MultiTierGCRARateLimitingMap.Admitted);
+		assertTrue(rl.DecideAttempt(identity) == MultiTierGCRARateLimitingMap.Admitted);
+		long decision = rl.DecideAttempt(identity);
+		assertTrue(MultiTierGCRARateLimitingMap.TrippedTier(decision) == 0);
+		assertTrue(MultiTierGCRARateLimitingMap.NanosToWait(decision) <= 500_000_000L);
+		// Pacing past the burst, the hourly quota trips next
+		for(int k = 2; k < manyAttempts; k++) {
+			clock.AdvanceSeconds(1);
+			assertTrue(rl.DecideAttempt(identity) == MultiTierGCRARateLimitingMap.Admitted);
+		}
+		clock.AdvanceSeconds(1);
+		decision = rl.DecideAttempt(identity);
+		assertTrue(MultiTierGCRARateLimitingMap.TrippedTier(decision) == 1);
+		// The earliest retry is once every tier allows it
+		long wait = MultiTierGCRARateLimitingMap.NanosToWait(decision);
+		assertTrue(wait > 600 * 1_000_000_000L);
+		LocalDateTime next = rl.CheckWhenNextRequestAllowed(identity, 2, 1);
+		assertTrue(next.isEqual(clock.Now().plusNanos(wait)));
+		clock.AdvanceNanos(wait);
+		assertTrue(rl.RecordNewAttempt(identity, 2, 1));
+	}
+
+	@Test
+	void RefusedAttemptsAreNotRecordedInAnyTierTest() {
+		ManualClock clock = new ManualClock();
+		MultiTierGCRARateLimiter rl = new MultiTierGCRARateLimiter(NewTestTieredBehaviour(), clock);
+		RateLimitedIdentity identity = NewTestRateLimitedIP();
+		// Hammering the burst tier must not spend the hourly quota
+		for(int k = 0; k < 100; k++) {
+			rl.DecideAttempt(identity);
+		}
+		for(int k = 2; k < manyAttempts; k++) {
+			clock.AdvanceSeconds(1);
+			assertTrue(rl.RecordNewAttempt(identity, 2, 1));
+		}
+	}
+
+	@Test
+	void KeyedAttemptsAreHeldToEveryTierTest() throws UnknownHostException {
+		// A generous burst, and a quota of 3 a day
+		RateLimitingBehaviour behaviour = new RateLimitingBehaviour(new RateLimitTier(100, 1), new RateLimitTier(3, 86400));
+		AbstractRateLimiter<?> arl = new MultiTierGCRARateLimiter(behaviour, new ManualClock());
+		InetAddress address = InetAddress.getByName(testIP);
+		int admitted = 0;
+		for(int k = 0; k < 50; k++) {
+			if(arl.AdmitIPAttempt(address, 1) != AbstractRateLimiter.Refused) {
+				admitted++;
+			}
+		}
+		assertTrue(admitted == 3);
+		assertFalse(arl.IsIPAttemptRateLimited(address).isEmpty());
+		long key = new AdmissionKey().ForUser(testUser).Key();
+		for(int k = 0; k < 3; k++) {
+			assertTrue(arl.TryAdmit(key) == AbstractRateLimiter.Admitted);
+		}
+		// Refused until the daily quota allows another
+		long wait = arl.TryAdmit(key);
+		assertTrue(wait > anHour * 1_000_000_000L);
+	}
+
+}
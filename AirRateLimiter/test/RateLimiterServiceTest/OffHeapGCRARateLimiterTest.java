@@ -0,0 +1,164 @@
+package RateLimiterServiceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.Test;
+
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.ManualClock;
+import RateLimiterService.OffHeapGCRARateLimiter;
+import RateLimiterService.OffHeapGCRARateLimitingMap;
+import RateLimiterService.RateLimitedIdentity;
+import RateLimiterService.RateLimitingBehaviour;
+import RateLimiterService.RateLimitingBehaviour.RateLimitingAlgorithm;
+
+/***
+ * Test the OffHeapGCRARateLimiter implementation of the
+ * AbstractRateLimiter; Only test the overridden RecordNewAttempt and 
+ * CheckWhenNextRequestAllowed
+ */
+class OffHeapGCRARateLimiterTest extends AbstractRateLimiterTestBase {
+	
+	@Test
+	void RecordNewAttemptContractTest() {
+		RecordNewAttemptContract(clock -> new OffHeapGCRARateLimiter(new RateLimitingBehaviour(), clock));
+	}
+	
+	@Test
+	void ConcurrentAttemptsContractTest() throws InterruptedException {
+		ConcurrentAttemptsContract(clock -> new OffHeapGCRARateLimiter(new RateLimitingBehaviour(), clock));
+	}
+	
+	@Test
+	void AttemptsArePacedAfterTheBurstTest() {
+		ManualClock clock = new ManualClock();
+		AbstractRateLimiter arl = new OffHeapGCRARateLimiter(new RateLimitingBehaviour(), clock);
+		RateLimitedIdentity identity = NewTestRateLimitedUser();
+		// A burst of two, then one attempt every half a second
+		assertTrue(arl.RecordNewAttempt(identity, 2, 1));
+		assertTrue(arl.RecordNewAttempt(identity, 2, 1));
+		assertFalse(arl.RecordNewAttempt(identity, 2, 1));
+		// The next request is allowed one emission interval later
+		LocalDateTime next = arl.CheckWhenNextRequestAllowed(identity, 2, 1);
+		assertTrue(next.isAfter(clock.Now().plusNanos(400_000_000L)));
+		assertFalse(next.isAfter(clock.Now().plusNanos(500_000_000L)));
+		clock.AdvanceNanos(600_000_000L);
+		assertTrue(arl.RecordNewAttempt(identity, 2, 1));
+		assertFalse(arl.RecordNewAttempt(identity, 2, 1));
+	}
+	
+	@Test
+	void EndpointsAreLimitedPerIdentityTest() {
+		AbstractRateLimiter arl = new OffHeapGCRARateLimiter(new RateLimitingBehaviour(), new ManualClock());
+		RateLimitedIdentity identity = NewTestRateLimitedEndpoint();
+		assertTrue(arl.RecordNewAttempt(identity, 1, anHour));
+		assertFalse(arl.RecordNewAttempt(identity, 1, anHour));
+		// The same endpoint for another identity, and another endpoint for
+		// the same identity, are limited separately
+		assertTrue(arl.RecordNewAttempt(NewTestRateLimitedEndpoint("Another identity", testEndpoint), 1, anHour));
+		assertTrue(arl.RecordNewAttempt(NewTestRateLimitedEndpoint(testIdentity, "/another"), 1, anHour));
+	}
+	
+	@Test
+	void ManyIdentitiesAreTrackedOffHeapTest() {
+		OffHeapGCRARateLimitingMap rlMap = new OffHeapGCRARateLimitingMap();
+		int identities = 100_000;
+		for(int k = 0; k < identities; k++) {
+			assertTrue(rlMap.TryRecordAttempt("10.0."+(k >> 8)+"."+(k & 255)+":"+k, 1, anHour, 0L));
+		}
+		assertTrue(rlMap.Size() == identities);
+		assertTrue(rlMap.OffHeapBytes() >= identities * 16L);
+		// Every identity is still limited after the tables have grown
+		for(int k = 0; k < identities; k += 997) {
+			assertFalse(rlMap.TryRecordAttempt("10.0."+(k >> 8)+"."+(k & 255)+":"+k, 1, anHour, 0L));
+		}
+		// Removing keys keeps the others reachable
+		for(int k = 0; k < identities; k += 2) {
+			assertTrue(rlMap.RemoveState("10.0."+(k >> 8)+"."+(k & 255)+":"+k));
+		}
+		assertTrue(rlMap.Size() == identities / 2);
+		for(int k = 0; k < identities; k++) {
+			assertTrue(rlMap.MapsFromKey("10.0."+(k >> 8)+"."+(k & 255)+":"+k) == (k % 2 == 1));
+		}
+	}
+	
+	@Test
+	void IdleIdentitiesAreSweptTest() {
+		OffHeapGCRARateLimitingMap rlMap = new OffHeapGCRARateLimitingMap();
+		int identities = 70_000;
+		for(int k = 0; k < identities; k++) {
+			assertTrue(rlMap.TryRecordAttempt("First "+k, 1, anHour, 0L));
+		}
+		long bytes = rlMap.OffHeapBytes();
+		// Once the first identities are idle, the table makes room for as
+		// many more by sweeping them, rather than growing
+		long anHourLater = anHour * 1_000_000_000L;
+		for(int k = 0; k < identities; k++) {
+			assertTrue(rlMap.TryRecordAttempt("Second "+k, 1, anHour, anHourLater));
+		}
+		assertTrue(rlMap.OffHeapBytes() == bytes);
+		assertTrue(rlMap.Size() < identities * 3 / 2);
+		for(int k = 0; k < identities; k += 997) {
+			assertFalse(rlMap.TryRecordAttempt("Second "+k, 1, anHour, anHourLater));
+		}
+	}
+	
+	@Test
+	void FrequentIdentitiesStayTrackedThroughAScanTest() {
+		OffHeapGCRARateLimitingMap rlMap = new OffHeapGCRARateLimitingMap(2, false);
+		for(int k = 0; k < 3; k++) {
+			rlMap.TryRecordAttempt(testUser, anHour, anHour, 0L);
+			rlMap.TryRecordAttempt(testIP, anHour, anHour, 0L);
+		}
+		// A scan of identities seen once each fails open without evicting
+		for(int k = 0; k < 100; k++) {
+			assertTrue(rlMap.TryRecordAttempt("Scan "+k, 1, anHour, 0L));
+		}
+		assertTrue(rlMap.Size() == 2);
+		assertTrue(rlMap.MapsFromKey(testUser) && rlMap.MapsFromKey(testIP));
+		assertTrue(rlMap.Untracked() == 100);
+		assertTrue(rlMap.Evictions() == 0);
+		// An identity that keeps returning is eventually tracked
+		for(int k = 0; k < 5; k++) {
+			rlMap.TryRecordAttempt("Returning", anHour, anHour, 0L);
+		}
+		assertTrue(rlMap.MapsFromKey("Returning"));
+		assertTrue(rlMap.Size() == 2);
+		assertTrue(rlMap.Evictions() == 1);
+	}
+	
+	@Test
+	void TrackedIdentitiesAreCappedTest() {
+		OffHeapGCRARateLimiter rl = new OffHeapGCRARateLimiter(new RateLimitingBehaviour(manyAttempts, anHour, 1, true), new ManualClock());
+		RateLimitedIdentity identity = NewTestRateLimitedUser();
+		RateLimitedIdentity another = NewTestRateLimitedUser("Boris");
+		assertTrue(rl.RecordNewAttempt(identity, manyAttempts, anHour));
+		assertTrue(rl.RecordNewAttempt(identity, manyAttempts, anHour));
+		// Full, so another identity seen less often fails closed
+		assertFalse(rl.RecordNewAttempt(another, manyAttempts, anHour));
+		assertTrue(rl.UntrackedCount() == 1);
+		// Until it has been seen more often than the identity it evicts
+		for(int k = 0; k < 3; k++) {
+			rl.RecordNewAttempt(another, manyAttempts, anHour);
+		}
+		assertTrue(rl.RecordNewAttempt(another, manyAttempts, anHour));
+		assertTrue(rl.EvictionCount() == 1);
+	}
+	
+	@Test
+	void TrackingIsCappedOnAnyBehaviourTest() {
+		RateLimitingBehaviour limitedByIP = new RateLimitingBehaviour(manyAttempts, anHour, false, true, false, false, false, RateLimitingAlgorithm.OffHeapGCRA);
+		RateLimitingBehaviour behaviour = new RateLimitingBehaviour(limitedByIP, 1, true);
+		assertTrue(behaviour.Algorithm == RateLimitingAlgorithm.OffHeapGCRA && behaviour.RateLimitByIP && !behaviour.RateLimitByUser);
+		assertTrue(behaviour.MaxTrackedIdentities == 1 && behaviour.FailClosedWhenUntracked);
+		OffHeapGCRARateLimiter rl = (OffHeapGCRARateLimiter) AbstractRateLimiter.NewRateLimiter(behaviour, new ManualClock());
+		assertTrue(rl.IsAttemptRateLimited(NewTestRateLimitedIP()).isEmpty());
+		assertTrue(rl.IsAttemptRateLimited(NewTestRateLimitedIP()).isEmpty());
+		// Full, so another IP seen less often fails closed
+		assertFalse(rl.IsAttemptRateLimited(NewTestRateLimitedIP("8.8.4.4")).isEmpty());
+		assertTrue(rl.UntrackedCount() == 1);
+	}
+	
+}
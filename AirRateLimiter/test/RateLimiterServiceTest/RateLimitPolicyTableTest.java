@@ -0,0 +1,140 @@
+package RateLimiterServiceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.jupiter.api.Test;
+
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.ManualClock;
+import RateLimiterService.RateLimitPolicyTable;
+import RateLimiterService.RateLimitTier;
+import RateLimiterService.RateLimitingBehaviour;
+import RateLimiterService.RateLimitingBehaviour.RateLimitingAlgorithm;
+
+/***
+ * Test looking up the limits of specific users, IP ranges and endpoints,
+ * and rate limiting identities by their own limits
+ */
+class RateLimitPolicyTableTest extends AbstractRateLimiterTestBase {
+
+	private static final RateLimitTier paying = new RateLimitTier(manyAttempts * 2, anHour);
+
+	private static final RateLimitTier office = new RateLimitTier(manyAttempts * 3, anHour);
+
+	private static final RateLimitTier desk = new RateLimitTier(manyAttempts * 4, anHour);
+
+	private static final RateLimitTier login = new RateLimitTier(1, anHour);
+
+	@Test
+	void IdentitiesWithoutPoliciesHaveNoneTest() {
+		RateLimitPolicyTable policies = new RateLimitPolicyTable();
+		assertTrue(policies.IsEmpty());
+		assertTrue(policies.LimitFor(NewTestRateLimitedIP()) == null);
+		assertTrue(policies.LimitFor(NewTestRateLimitedUser()) == null);
+		assertTrue(policies.LimitFor(NewTestRateLimitedEndpoint()) == null);
+		policies.ForUser(testUser, paying);
+		assertFalse(policies.IsEmpty());
+		assertTrue(policies.LimitFor(NewTestRateLimitedUser()) == paying);
+		assertTrue(policies.LimitFor(NewTestRateLimitedUser("Boris")) == null);
+	}
+
+	@Test
+	void TheMostSpecificIPRangeIsMatchedTest() throws UnknownHostException {
+		RateLimitPolicyTable policies = new RateLimitPolicyTable();
+		policies.ForIPRange("10.0.0.0/8", office);
+		policies.ForIPRange("10.1.2.0/24", desk);
+		policies.ForIPRange("2001:db8::/32", paying);
+		assertTrue(policies.LimitForIP("10.200.0.1") == office);
+		assertTrue(policies.LimitForIP("10.1.2.3") == desk);
+		assertTrue(policies.LimitForIP("10.1.3.3") == office);
+		assertTrue(policies.LimitForIP("11.0.0.1") == null);
+		assertTrue(policies.LimitForIP("2001:db8:1::7") == paying);
+		assertTrue(policies.LimitForIP("2001:db9::7") == null);
+		assertTrue(policies.LimitForIP(InetAddress.getByName("10.1.2.3")) == desk);
+		// An IPv4 address mapped into IPv6 is the same IP
+		assertTrue(policies.LimitForIP("::ffff:10.1.2.3") == desk);
+		// Not IP literals
+		assertTrue(policies.LimitForIP("localhost") == null);
+		assertTrue(policies.LimitForIP("10.1.2") == null);
+	}
+
+	@Test
+	void MalformedIPRangesAreRejectedTest() {
+		RateLimitPolicyTable policies = new RateLimitPolicyTable();
+		assertThrows(IllegalArgumentException.class, () -> policies.ForIPRange("10.0.0.0/33", office));
+		assertThrows(IllegalArgumentException.class, () -> policies.ForIPRange("10.0.0/8", office));
+		assertThrows(IllegalArgumentException.class, () -> policies.ForIPRange("localhost/8", office));
+		assertThrows(IllegalArgumentException.class, () -> policies.ForIPRange("::1/129", office));
+		assertThrows(IllegalArgumentException.class, () -> policies.ForIPRange("10.0.0.0/x", office));
+	}
+
+	@Test
+	void EndpointPoliciesTakePrecedenceTest() {
+		RateLimitPolicyTable policies = new RateLimitPolicyTable();
+		policies.ForUser(testUser, paying);
+		policies.ForIPRange("8.8.8.0/24", office);
+		assertTrue(policies.LimitFor(NewTestRateLimitedEndpoint(testUser, testEndpoint)) == paying);
+		assertTrue(policies.LimitFor(NewTestRateLimitedEndpoint("8.8.8.8", testEndpoint)) == office);
+		policies.ForEndpoint(testEndpoint, login);
+		assertTrue(policies.LimitFor(NewTestRateLimitedEndpoint(testUser, testEndpoint)) == login);
+		assertTrue(policies.LimitFor(NewTestRateLimitedEndpoint("8.8.8.8", testEndpoint)) == login);
+	}
+
+	@Test
+	void BehavioursHoldFrozenPoliciesTest() {
+		RateLimitPolicyTable policies = new RateLimitPolicyTable();
+		policies.ForUser(testUser, paying);
+		policies.ForIPRange("10.0.0.0/8", office);
+		RateLimitingBehaviour behaviour = new RateLimitingBehaviour(new RateLimitingBehaviour(), policies);
+		assertTrue(behaviour.Policies.IsFrozen() && !policies.IsFrozen());
+		assertTrue(behaviour.Policies.LimitFor(NewTestRateLimitedUser()) == paying);
+		assertTrue(behaviour.Policies.LimitForIP("10.1.2.3") == office);
+		// Policies added to the table later aren't the behaviour's
+		policies.ForUser("Boris", login);
+		assertTrue(behaviour.Policies.LimitFor(NewTestRateLimitedUser("Boris")) == null);
+		assertThrows(IllegalStateException.class, () -> behaviour.Policies.ForUser("Boris", login));
+		assertThrows(IllegalStateException.class, () -> behaviour.Policies.ForEndpoint(testEndpoint, login));
+		assertThrows(IllegalStateException.class, () -> behaviour.Policies.ForIPRange("8.8.8.0/24", login));
+		assertThrows(IllegalStateException.class, () -> new RateLimitingBehaviour().Policies.ForUser("Boris", login));
+		assertTrue(new RateLimitingBehaviour(behaviour, 1).Policies == behaviour.Policies);
+	}
+
+	@Test
+	void IdentitiesAreRateLimitedByTheirPolicyTest() {
+		RateLimitPolicyTable policies = new RateLimitPolicyTable();
+		policies.ForUser(testUser, paying);
+		policies.ForIPRange("8.8.8.0/24", login);
+		for(RateLimitingAlgorithm algorithm : RateLimitingAlgorithm.values()) {
+			RateLimitingBehaviour behaviour = new RateLimitingBehaviour(new RateLimitingBehaviour(manyAttempts, anHour, algorithm), policies);
+			AbstractRateLimiter<?> arl = AbstractRateLimiter.NewRateLimiter(behaviour, new ManualClock());
+			for(int k = 0; k < paying.RequestLimitHits; k++) {
+				assertTrue(arl.IsAttemptRateLimited(NewTestRateLimitedUser()).isEmpty());
+			}
+			assertFalse(arl.IsAttemptRateLimited(NewTestRateLimitedUser()).isEmpty());
+			// Falls back to the behaviour's limit
+			for(int k = 0; k < manyAttempts; k++) {
+				assertTrue(arl.IsAttemptRateLimited(NewTestRateLimitedUser("Boris")).isEmpty());
+			}
+			assertFalse(arl.IsAttemptRateLimited(NewTestRateLimitedUser("Boris")).isEmpty());
+			assertTrue(arl.IsAttemptRateLimited(NewTestRateLimitedIP("8.8.8.8")).isEmpty());
+			assertFalse(arl.IsAttemptRateLimited(NewTestRateLimitedIP("8.8.8.8")).isEmpty());
+		}
+	}
+
+	@Test
+	void IPAttemptsByAddressAreRateLimitedByTheirPolicyTest() throws UnknownHostException {
+		RateLimitPolicyTable policies = new RateLimitPolicyTable();
+		policies.ForIPRange("8.8.8.0/24", login);
+		AbstractRateLimiter<?> arl = AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(new RateLimitingBehaviour(), policies), new ManualClock());
+		InetAddress limited = InetAddress.getByName("8.8.8.8");
+		assertTrue(arl.IsIPAttemptRateLimited(limited).isEmpty());
+		assertFalse(arl.IsIPAttemptRateLimited(limited).isEmpty());
+		InetAddress other = InetAddress.getByName("8.8.4.4");
+		assertTrue(arl.IsIPAttemptRateLimited(other).isEmpty());
+		assertTrue(arl.IsIPAttemptRateLimited(other).isEmpty());
+	}
+
+}
@@ -7,10 +7,13 @@ import java.net.Socket;
 import java.time.LocalDateTime;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Test;
 
 import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.ManualClock;
 import RateLimiterService.RateLimitedIdentity;
 import RateLimiterService.RateLimitedIdentity.RateLimitedIdentityType;
 import RateLimiterService.RateLimiter;
@@ -289,7 +292,18 @@ class RateLimiterTest extends AbstractRateLimiterTestBase {
 		RateLimitedIdentity identity = NewTestRateLimitedEndpoint();
 		RecordNewAttemptTest_Generic(identity);
 	}
-	
+
+	@Test
+	void RecordNewAttemptTest_EndpointKeysDoNotCollide() {
+		RateLimiter rl = new RateLimiter(new RateLimitingBehaviour(), new ManualClock());
+		rl.turnOffVerbose();
+		assertTrue(rl.RecordNewAttempt(NewTestRateLimitedEndpoint("ab", "c"), 1, anHour));
+		assertFalse(rl.RecordNewAttempt(NewTestRateLimitedEndpoint("ab", "c"), 1, anHour));
+		//The same characters split differently are a different identity and endpoint
+		assertTrue(rl.RecordNewAttempt(NewTestRateLimitedEndpoint("a", "bc"), 1, anHour));
+		assertTrue(rl.RecordNewAttempt(NewTestRateLimitedEndpoint("ab", testEndpoint), 1, anHour));
+	}
+
 	private void RecordNewAttemptTest_Generic(RateLimitedIdentity identity) {
 		AssertCantRecordAttemptWhenAllowingZeroAttempts(identity);
 		AssertCanStoreOnlyTheProvidedNumberOfAttempts(identity,manyAttempts);
@@ -351,6 +365,85 @@ class RateLimiterTest extends AbstractRateLimiterTestBase {
 		assertTrue(arl.RecordNewAttempt(identity, 2, anHour));
 	}
 	
+	@Test
+	void RecordNewAttemptTest_Concurrent() throws InterruptedException {
+		RecordNewAttemptTest_Concurrent(NewTestRateLimitedIP());
+		RecordNewAttemptTest_Concurrent(NewTestRateLimitedUser());
+		RecordNewAttemptTest_Concurrent(NewTestRateLimitedEndpoint());
+	}
+	
+	/***
+	 * Races many threads recording attempts for the same identity; exactly
+	 * the allowed number of attempts must be recorded between them.
+	 * @param identity
+	 * @throws InterruptedException
+	 */
+	private void RecordNewAttemptTest_Concurrent(RateLimitedIdentity identity) throws InterruptedException {
+		RateLimiter rl = new RateLimiter();
+		rl.turnOffVerbose();
+		int threadCount = 8;
+		int attemptsPerThread = 100;
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicInteger admitted = new AtomicInteger();
+		Thread[] threads = new Thread[threadCount];
+		for(int k = 0; k < threadCount; k++) {
+			threads[k] = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for(int j = 0; j < attemptsPerThread; j++) {
+					if(rl.RecordNewAttempt(identity, manyAttempts, anHour)) {
+						admitted.incrementAndGet();
+					}
+				}
+			});
+			threads[k].start();
+		}
+		start.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(admitted.get() == manyAttempts);
+	}
+	
+	@Test
+	void RecordNewAttemptTest_IdleEndpointIdentitiesAreForgotten() {
+		ManualClock clock = new ManualClock();
+		RateLimiter rl = new RateLimiter(new RateLimitingBehaviour(), clock);
+		rl.turnOffVerbose();
+		RateLimitedIdentity identity = NewTestRateLimitedEndpoint();
+		assertTrue(rl.RecordNewAttempt(identity, 1, 10));
+		assertFalse(rl.RecordNewAttempt(identity, 1, 10));
+		clock.AdvanceSeconds(5);
+		assertTrue(rl.ExpireIdleEndpointIdentities() == 0);
+		assertFalse(rl.RecordNewAttempt(identity, 1, 10));
+		clock.AdvanceSeconds(7);
+		assertTrue(rl.ExpireIdleEndpointIdentities() == 1);
+		assertTrue(rl.CheckWhenNextRequestAllowed(identity, 1, 10).isEqual(clock.Now()));
+		assertTrue(rl.RecordNewAttempt(identity, 1, 10));
+	}
+	
+	@Test
+	void RecordNewAttemptTest_TrackedIdentitiesAreCapped() {
+		RateLimiter rl = new RateLimiter(new RateLimitingBehaviour(manyAttempts, anHour, 1, true), new ManualClock());
+		rl.turnOffVerbose();
+		RateLimitedIdentity identity = NewTestRateLimitedEndpoint();
+		RateLimitedIdentity another = NewTestRateLimitedEndpoint("Another identity", testEndpoint);
+		assertTrue(rl.RecordNewAttempt(identity, manyAttempts, anHour));
+		assertTrue(rl.RecordNewAttempt(identity, manyAttempts, anHour));
+		//Full, so another identity seen less often fails closed
+		assertFalse(rl.RecordNewAttempt(another, manyAttempts, anHour));
+		assertTrue(rl.UntrackedCount() == 1);
+		//Until it has been seen more often than the identity it evicts
+		for(int k = 0; k < 3; k++) {
+			rl.RecordNewAttempt(another, manyAttempts, anHour);
+		}
+		assertTrue(rl.RecordNewAttempt(another, manyAttempts, anHour));
+		assertTrue(rl.EvictionCount() == 1);
+	}
+	
 	@Test
 	void CheckWhenNextRequestAllowedTest() {
 		
@@ -0,0 +1,80 @@
+package RateLimiterServiceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.ManualClock;
+import RateLimiterService.RateLimitPolicyTable;
+import RateLimiterService.RateLimitTier;
+import RateLimiterService.RateLimitedIdentity;
+import RateLimiterService.RateLimitingBehaviour;
+import RateLimiterService.RateLimitingBehaviour.RateLimitingAlgorithm;
+
+/***
+ * Test swapping in a new behaviour while a rate limiter is in use, keeping
+ * the attempts it has already recorded
+ */
+class ReloadRateLimitingBehaviourTest extends AbstractRateLimiterTestBase {
+
+	@Test
+	void RecordedAttemptsCountAgainstReloadedLimitsTest() {
+		for(RateLimitingAlgorithm algorithm : RateLimitingAlgorithm.values()) {
+			ManualClock clock = new ManualClock();
+			AbstractRateLimiter<?> arl = AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(manyAttempts, anHour, algorithm), clock);
+			RateLimitedIdentity identity = NewTestRateLimitedUser();
+			for(int k = 0; k < manyAttempts; k++) {
+				assertTrue(arl.IsAttemptRateLimited(identity).isEmpty());
+			}
+			assertFalse(arl.IsAttemptRateLimited(identity).isEmpty());
+			// Raising the limit allows another attempt within its pacing
+			arl.ReloadRateLimitingBehaviour(new RateLimitingBehaviour(manyAttempts * 2, anHour, algorithm));
+			assertTrue(arl.requestLimitHits() == manyAttempts * 2);
+			clock.AdvanceSeconds(anHour / (manyAttempts * 2));
+			assertTrue(arl.IsAttemptRateLimited(identity).isEmpty());
+			// Lowering it again refuses the identity, already over it
+			arl.ReloadRateLimitingBehaviour(new RateLimitingBehaviour(manyAttempts, anHour, algorithm));
+			assertFalse(arl.IsAttemptRateLimited(identity).isEmpty());
+		}
+	}
+
+	@Test
+	void ReloadedPoliciesApplyTest() {
+		AbstractRateLimiter<?> arl = AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(1, anHour), new ManualClock());
+		assertTrue(arl.IsAttemptRateLimited(NewTestRateLimitedUser()).isEmpty());
+		assertFalse(arl.IsAttemptRateLimited(NewTestRateLimitedUser()).isEmpty());
+		RateLimitPolicyTable policies = new RateLimitPolicyTable();
+		policies.ForUser(testUser, new RateLimitTier(manyAttempts, anHour));
+		arl.ReloadRateLimitingBehaviour(new RateLimitingBehaviour(new RateLimitingBehaviour(1, anHour), policies));
+		assertTrue(arl.IsAttemptRateLimited(NewTestRateLimitedUser()).isEmpty());
+		assertTrue(arl.IsAttemptRateLimited(NewTestRateLimitedUser("Boris")).isEmpty());
+		assertFalse(arl.IsAttemptRateLimited(NewTestRateLimitedUser("Boris")).isEmpty());
+	}
+
+	@Test
+	void ReloadedTiersApplyTest() {
+		ManualClock clock = new ManualClock();
+		AbstractRateLimiter<?> arl = AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(new RateLimitTier(manyAttempts, 1), new RateLimitTier(manyAttempts, anHour)), clock);
+		for(int k = 0; k < manyAttempts; k++) {
+			assertTrue(arl.IsAttemptRateLimited(NewTestRateLimitedIP()).isEmpty());
+		}
+		// The hourly quota is spent, for longer than a raised quota would pace
+		clock.AdvanceSeconds(1 + anHour / (manyAttempts * 2));
+		assertFalse(arl.IsAttemptRateLimited(NewTestRateLimitedIP()).isEmpty());
+		arl.ReloadRateLimitingBehaviour(new RateLimitingBehaviour(new RateLimitTier(manyAttempts, 1), new RateLimitTier(manyAttempts * 2, anHour)));
+		assertTrue(arl.IsAttemptRateLimited(NewTestRateLimitedIP()).isEmpty());
+	}
+
+	@Test
+	void ReloadingCantReshapeTheAttemptsHeldTest() {
+		AbstractRateLimiter<?> arl = AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(manyAttempts, anHour, RateLimitingAlgorithm.GCRA));
+		assertThrows(IllegalArgumentException.class, () -> arl.ReloadRateLimitingBehaviour(new RateLimitingBehaviour(manyAttempts, anHour, RateLimitingAlgorithm.TokenBucket)));
+		assertThrows(IllegalArgumentException.class, () -> arl.ReloadRateLimitingBehaviour(new RateLimitingBehaviour(manyAttempts, anHour, 10, true)));
+		AbstractRateLimiter<?> tiered = AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(new RateLimitTier(manyAttempts, anHour)));
+		assertThrows(IllegalArgumentException.class, () -> tiered.ReloadRateLimitingBehaviour(new RateLimitingBehaviour(new RateLimitTier(1, 1), new RateLimitTier(manyAttempts, anHour))));
+		// Unchanged, whatever was refused
+		assertTrue(arl.requestLimitHits() == manyAttempts && tiered.requestLimitHits() == manyAttempts);
+	}
+
+}
@@ -0,0 +1,83 @@
+package RateLimiterServiceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.Test;
+
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.ManualClock;
+import RateLimiterService.RateLimitedIdentity;
+import RateLimiterService.RateLimitingBehaviour;
+import RateLimiterService.RingBufferRateLimiter;
+import RateLimiterService.RingBufferRateLimitingMap;
+
+/***
+ * Test the RingBufferRateLimiter implementation of the AbstractRateLimiter;
+ * Only test the overridden RecordNewAttempt and CheckWhenNextRequestAllowed,
+ * which are expected to behave as the exact sliding log of the RateLimiter
+ */
+class RingBufferRateLimiterTest extends AbstractRateLimiterTestBase {
+	
+	@Test
+	void RecordNewAttemptContractTest() {
+		RecordNewAttemptContract(clock -> new RingBufferRateLimiter(new RateLimitingBehaviour(), clock));
+	}
+	
+	@Test
+	void AttemptsExpireOneAtATimeTest() {
+		ManualClock clock = new ManualClock();
+		AbstractRateLimiter arl = new RingBufferRateLimiter(new RateLimitingBehaviour(), clock);
+		RateLimitedIdentity identity = NewTestRateLimitedUser();
+		assertTrue(arl.RecordNewAttempt(identity, 2, 1));
+		clock.AdvanceNanos(500_000_000L);
+		assertTrue(arl.RecordNewAttempt(identity, 2, 1));
+		assertFalse(arl.RecordNewAttempt(identity, 2, 1));
+		// The next request is allowed when the first attempt expires
+		LocalDateTime next = arl.CheckWhenNextRequestAllowed(identity, 2, 1);
+		assertTrue(next.isAfter(clock.Now()));
+		assertFalse(next.isAfter(clock.Now().plusNanos(600_000_000L)));
+		clock.AdvanceNanos(600_000_000L);
+		// Only the first attempt has expired
+		assertTrue(arl.RecordNewAttempt(identity, 2, 1));
+		assertFalse(arl.RecordNewAttempt(identity, 2, 1));
+	}
+	
+	@Test
+	void RingGrowsToTheMostAttemptsAllowedTest() {
+		RingBufferRateLimitingMap rlMap = new RingBufferRateLimitingMap();
+		int allowed = 100;
+		for(int k = 0; k < allowed; k++) {
+			assertTrue(rlMap.TryRecordAttempt(key, allowed, anHour, k));
+		}
+		assertFalse(rlMap.TryRecordAttempt(key, allowed, anHour, allowed));
+		assertTrue(rlMap.CountAttempts(key) == allowed);
+		assertTrue(rlMap.CountAttempts(anotherKey) == 0);
+		// Attempts expire in the order they were recorded
+		long window = anHour * 1_000_000_000L;
+		assertTrue(rlMap.NanosUntilNextAttempt(key, allowed, anHour, allowed) == window - allowed);
+		assertTrue(rlMap.TryRecordAttempt(key, allowed, anHour, window));
+		assertFalse(rlMap.TryRecordAttempt(key, allowed, anHour, window));
+		assertTrue(rlMap.CountAttempts(key) == allowed);
+	}
+	
+	@Test
+	void ZeroSecondWindowsHoldOnlyTheLatestAttemptTest() {
+		AbstractRateLimiter<?> arl = new RingBufferRateLimiter(new RateLimitingBehaviour(), new ManualClock());
+		RateLimitedIdentity identity = NewTestRateLimitedUser();
+		assertTrue(arl.RecordNewAttempt(identity, 1, anHour));
+		assertFalse(arl.RecordNewAttempt(identity, 0, anHour));
+		// Recording with zero timeout expires all older attempts, 
+		// so only the most recent attempt is held
+		for(int k = 0; k <= manyAttempts; k++) {
+			assertTrue(arl.RecordNewAttempt(identity, manyAttempts, 0));
+		}
+		assertFalse(arl.RecordNewAttempt(identity, 1, anHour));
+		assertTrue(arl.RecordNewAttempt(identity, 2, anHour));
+		// But we can record another one if we increase the amount!
+		assertFalse(arl.RecordNewAttempt(identity, 2, anHour));
+		assertTrue(arl.RecordNewAttempt(identity, 3, anHour));
+	}
+	
+}
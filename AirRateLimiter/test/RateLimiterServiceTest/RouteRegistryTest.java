@@ -0,0 +1,84 @@
+package RateLimiterServiceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.ManualClock;
+import RateLimiterService.RateLimitingBehaviour;
+import RateLimiterService.RateLimitingBehaviour.RateLimitingAlgorithm;
+import RateLimiterService.RouteRegistry;
+
+/***
+ * Test the normalisation of requested resources to route templates, and
+ * rate limiting end-points by route
+ */
+class RouteRegistryTest extends AbstractRateLimiterTestBase {
+
+	@Test
+	void RoutesAreInternedTest() {
+		RouteRegistry routes = new RouteRegistry();
+		assertTrue(routes.Size() == 0);
+		int user = routes.Register("GET /users/{id}");
+		assertTrue(user != RouteRegistry.NoRoute);
+		assertTrue(routes.Register("get /users/{userId}/") == user);
+		assertTrue(routes.Register("POST /users/{id}") != user);
+		assertTrue(routes.Size() == 2);
+		assertTrue(routes.Endpoint(user) == routes.Endpoint(routes.Match("GET", "/users/7")));
+		assertTrue(routes.Endpoint(user).equals("GET|/users/{}"));
+		assertTrue(routes.Endpoint(RouteRegistry.NoRoute).equals(RouteRegistry.NoRouteEndpoint));
+	}
+
+	@Test
+	void PathArgumentsShareARouteTest() {
+		RouteRegistry routes = new RouteRegistry();
+		int user = routes.Register("GET /users/{id}");
+		assertTrue(routes.Match("GET", "/users/123") == user);
+		assertTrue(routes.Match("GET", "/users/456?expand=true") == user);
+		assertTrue(routes.Match("GET", "//users/789/") == user);
+		assertTrue(routes.Match("POST", "/users/123") == RouteRegistry.NoRoute);
+		assertTrue(routes.Match("GET", "/users") == RouteRegistry.NoRoute);
+		assertTrue(routes.Match("GET", "/users/123/posts") == RouteRegistry.NoRoute);
+	}
+
+	@Test
+	void MoreSpecificRoutesAreMatchedFirstTest() {
+		RouteRegistry routes = new RouteRegistry();
+		int any = routes.Register("GET /users/*");
+		int user = routes.Register("GET /users/{id}");
+		int me = routes.Register("GET /users/me");
+		int posts = routes.Register("GET /users/{id}/posts");
+		assertTrue(routes.Match("GET", "/users/me") == me);
+		assertTrue(routes.Match("GET", "/users/123") == user);
+		// Steps back from the literal "me" when it leads nowhere
+		assertTrue(routes.Match("GET", "/users/me/posts") == posts);
+		assertTrue(routes.Match("GET", "/users/123/likes/4") == any);
+		assertTrue(routes.Match("GET", "/users") == any);
+	}
+
+	@Test
+	void MalformedTemplatesAreRejectedTest() {
+		RouteRegistry routes = new RouteRegistry();
+		assertThrows(IllegalArgumentException.class, () -> routes.Register("/users"));
+		assertThrows(IllegalArgumentException.class, () -> routes.Register("GET users"));
+		assertThrows(IllegalArgumentException.class, () -> routes.Register("GET /users/*/posts"));
+	}
+
+	@Test
+	void EndpointsAreRateLimitedByRouteTest() {
+		RouteRegistry routes = new RouteRegistry();
+		int user = routes.Register("GET /users/{id}");
+		for(RateLimitingAlgorithm algorithm : RateLimitingAlgorithm.values()) {
+			AbstractRateLimiter<?> arl = AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(1, anHour, algorithm), new ManualClock());
+			int first = routes.Match("GET", "/users/123");
+			int second = routes.Match("GET", "/users/456");
+			assertTrue(arl.RecordNewAttempt(AbstractRateLimiter.NewRateLimitedEndpoint(testIdentity, first, routes.Endpoint(first)), 1, anHour));
+			assertFalse(arl.RecordNewAttempt(AbstractRateLimiter.NewRateLimitedEndpoint(testIdentity, second, routes.Endpoint(second)), 1, anHour));
+			assertTrue(arl.RecordNewAttempt(AbstractRateLimiter.NewRateLimitedEndpoint(testUser, user, routes.Endpoint(user)), 1, anHour));
+			// A route is not the same end-point as its endpoint String
+			assertTrue(arl.RecordNewAttempt(AbstractRateLimiter.NewRateLimitedEndpoint(testIdentity, routes.Endpoint(user)), 1, anHour));
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+package RateLimiterServiceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+import org.junit.jupiter.api.Test;
+
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.ManualClock;
+import RateLimiterService.RateLimitedIdentity;
+import RateLimiterService.RateLimitingBehaviour.RateLimitingAlgorithm;
+import RateLimiterService.RateLimitingBehaviour;
+import RateLimiterService.SlidingWindowCounterRateLimiter;
+import RateLimiterService.SlidingWindowCounterRateLimitingMap;
+
+/***
+ * Test the SlidingWindowCounterRateLimiter implementation of the
+ * AbstractRateLimiter; Only test the overridden RecordNewAttempt and 
+ * CheckWhenNextRequestAllowed, and the exposed error bound
+ */
+class SlidingWindowCounterRateLimiterTest extends AbstractRateLimiterTestBase {
+	
+	@Test
+	void RecordNewAttemptContractTest() {
+		RecordNewAttemptContract(clock -> new SlidingWindowCounterRateLimiter(new RateLimitingBehaviour(), clock));
+	}
+	
+	@Test
+	void CountsAreForgottenAfterTwoWindowsTest() {
+		ManualClock clock = new ManualClock();
+		AbstractRateLimiter arl = new SlidingWindowCounterRateLimiter(new RateLimitingBehaviour(), clock);
+		RateLimitedIdentity identity = NewTestRateLimitedUser();
+		assertTrue(arl.RecordNewAttempt(identity, 2, 1));
+		assertTrue(arl.RecordNewAttempt(identity, 2, 1));
+		assertFalse(arl.RecordNewAttempt(identity, 2, 1));
+		assertTrue(arl.CheckWhenNextRequestAllowed(identity, 2, 1).isAfter(clock.Now()));
+		// Neither count overlaps the sliding window after two windows
+		clock.AdvanceNanos(2_100_000_000L);
+		assertTrue(arl.RecordNewAttempt(identity, 2, 1));
+		assertTrue(arl.RecordNewAttempt(identity, 2, 1));
+		assertFalse(arl.RecordNewAttempt(identity, 2, 1));
+		// But we can record another one if we increase the amount!
+		assertTrue(arl.RecordNewAttempt(identity, 3, 1));
+	}
+	
+	@Test
+	void PreviousWindowIsWeightedByItsOverlapTest() {
+		ManualClock clock = new ManualClock();
+		SlidingWindowCounterRateLimiter arl = new SlidingWindowCounterRateLimiter(new RateLimitingBehaviour(), clock);
+		RateLimitedIdentity identity = NewTestRateLimitedUser();
+		int allowed = 10;
+		for(int k = 0; k < allowed; k++) {
+			assertTrue(arl.RecordNewAttempt(identity, allowed, 1));
+		}
+		assertFalse(arl.RecordNewAttempt(identity, allowed, 1));
+		// Half way through the next window, half of the previous count remains
+		clock.AdvanceNanos(1_500_000_000L);
+		assertTrue(arl.CurrentErrorBound(identity, 1) == allowed/2);
+		for(int k = 0; k < allowed/2; k++) {
+			assertTrue(arl.RecordNewAttempt(identity, allowed, 1));
+		}
+		assertFalse(arl.RecordNewAttempt(identity, allowed, 1));
+	}
+	
+	@Test
+	void ErrorBoundTest() {
+		RateLimitingBehaviour behaviour = new RateLimitingBehaviour(RequestLimitHits_Test,TimeLimitSeconds_Test,RateLimitingAlgorithm.SlidingWindowCounter);
+		SlidingWindowCounterRateLimiter arl = (SlidingWindowCounterRateLimiter) AbstractRateLimiter.NewRateLimiter(behaviour, new ManualClock());
+		RateLimitedIdentity identity = NewTestRateLimitedIP();
+		// Nothing is estimated for unknown identities
+		assertTrue(arl.CurrentErrorBound(identity, anHour) == 0);
+		// Nothing has slid out of the previous window when there wasn't one
+		for(int k = 0; k < manyAttempts; k++) {
+			assertTrue(arl.RecordNewAttempt(identity, manyAttempts, anHour));
+		}
+		assertTrue(arl.CurrentErrorBound(identity, anHour) == 0);
+		// The true window can hold just under double the limit
+		assertTrue(SlidingWindowCounterRateLimitingMap.WorstCaseAttemptsPerWindow(manyAttempts) == 2*manyAttempts-1);
+		assertTrue(SlidingWindowCounterRateLimitingMap.WorstCaseAttemptsPerWindow(0) == 0);
+	}
+	
+}
@@ -0,0 +1,55 @@
+package RateLimiterServiceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+import org.junit.jupiter.api.Test;
+
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.ManualClock;
+import RateLimiterService.RateLimitedIdentity;
+import RateLimiterService.RateLimitingBehaviour;
+import RateLimiterService.TokenBucketRateLimiter;
+
+/***
+ * Test the TokenBucketRateLimiter implementation of the AbstractRateLimiter;
+ * Only test the overridden RecordNewAttempt and CheckWhenNextRequestAllowed
+ */
+class TokenBucketRateLimiterTest extends AbstractRateLimiterTestBase {
+	
+	@Test
+	void RecordNewAttemptContractTest() {
+		RecordNewAttemptContract(clock -> new TokenBucketRateLimiter(new RateLimitingBehaviour(), clock));
+	}
+	
+	@Test
+	void TokensAreRegainedOverTimeTest() {
+		ManualClock clock = new ManualClock();
+		AbstractRateLimiter arl = new TokenBucketRateLimiter(new RateLimitingBehaviour(), clock);
+		RateLimitedIdentity identity = NewTestRateLimitedUser();
+		// Two tokens per second; empty the bucket
+		assertTrue(arl.RecordNewAttempt(identity, 2, 1));
+		assertTrue(arl.RecordNewAttempt(identity, 2, 1));
+		assertFalse(arl.RecordNewAttempt(identity, 2, 1));
+		// A token is regained every half a second
+		clock.AdvanceNanos(600_000_000L);
+		assertTrue(arl.RecordNewAttempt(identity, 2, 1));
+		assertFalse(arl.RecordNewAttempt(identity, 2, 1));
+	}
+	
+	@Test
+	void CheckWhenNextRequestAllowedTest() {
+		ManualClock clock = new ManualClock();
+		AbstractRateLimiter<?> arl = new TokenBucketRateLimiter(new RateLimitingBehaviour(), clock);
+		RateLimitedIdentity identity = NewTestRateLimitedIP();
+		for(int k = 0; k < manyAttempts; k++) {
+			assertTrue(arl.RecordNewAttempt(identity, manyAttempts, anHour));
+		}
+		// Once empty, the next token is "anHour / manyAttempts" seconds away
+		assertTrue(arl.CheckWhenNextRequestAllowed(identity, manyAttempts, anHour).isEqual(clock.Now().plusSeconds(anHour/manyAttempts)));
+		// And half way there, half as far
+		clock.AdvanceSeconds(anHour/manyAttempts/2);
+		assertTrue(arl.CheckWhenNextRequestAllowed(identity, manyAttempts, anHour).isEqual(clock.Now().plusSeconds(anHour/manyAttempts/2)));
+	}
+	
+}
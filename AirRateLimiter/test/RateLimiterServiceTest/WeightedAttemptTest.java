@@ -0,0 +1,125 @@
+package RateLimiterServiceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.Test;
+
+import RateLimiterService.AbstractRateLimiter;
+import RateLimiterService.DataStoreGCRARateLimiter;
+import RateLimiterService.FixedWindowRateLimitingMap;
+import RateLimiterService.InMemoryDataStore;
+import RateLimiterService.ManualClock;
+import RateLimiterService.RateLimitTier;
+import RateLimiterService.RateLimitedIdentity;
+import RateLimiterService.RateLimitingBehaviour;
+import RateLimiterService.RateLimitingBehaviour.RateLimitingAlgorithm;
+import RateLimiterService.RingBufferRateLimitingMap;
+import RateLimiterService.RouteRegistry;
+
+/***
+ * Test recording attempts that cost more than one attempt, such as requests
+ * to expensive routes, with every algorithm
+ */
+class WeightedAttemptTest extends AbstractRateLimiterTestBase {
+
+	private static final int aLot = manyAttempts * 2;
+
+	@Test
+	void CostlyAttemptsCountAsManyTest() {
+		for(RateLimitingAlgorithm algorithm : RateLimitingAlgorithm.values()) {
+			AbstractRateLimiter<?> arl = AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(aLot, anHour, algorithm), new ManualClock());
+			RateLimitedIdentity identity = NewTestRateLimitedUser();
+			assertTrue(arl.RecordNewAttempt(identity, manyAttempts - 1, aLot, anHour));
+			assertTrue(arl.RecordNewAttempt(identity, aLot - manyAttempts, aLot, anHour));
+			// Only room for one more
+			assertFalse(arl.RecordNewAttempt(identity, 2, aLot, anHour));
+			assertTrue(arl.RecordNewAttempt(identity, aLot, anHour));
+			assertFalse(arl.RecordNewAttempt(identity, aLot, anHour));
+		}
+	}
+
+	@Test
+	void AttemptsCostingMoreThanTheLimitAreRefusedTest() {
+		for(RateLimitingAlgorithm algorithm : RateLimitingAlgorithm.values()) {
+			AbstractRateLimiter<?> arl = AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(aLot, anHour, algorithm), new ManualClock());
+			RateLimitedIdentity identity = NewTestRateLimitedIP();
+			assertFalse(arl.RecordNewAttempt(identity, aLot + 1, aLot, anHour));
+			// Refusing it recorded nothing
+			assertTrue(arl.RecordNewAttempt(identity, aLot, aLot, anHour));
+			assertThrows(IllegalArgumentException.class, () -> arl.IsAttemptRateLimited(identity, 0));
+		}
+	}
+
+	@Test
+	void CostlyAttemptsExpireAsOneTest() {
+		for(RateLimitingAlgorithm algorithm : RateLimitingAlgorithm.values()) {
+			ManualClock clock = new ManualClock();
+			AbstractRateLimiter<?> arl = AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(aLot, anHour, algorithm), clock);
+			RateLimitedIdentity identity = NewTestRateLimitedEndpoint();
+			assertTrue(arl.IsAttemptRateLimited(identity, aLot).isEmpty());
+			assertFalse(arl.IsAttemptRateLimited(identity).isEmpty());
+			LocalDateTime next = arl.CheckWhenNextRequestAllowed(identity, aLot, anHour);
+			assertTrue(next.isAfter(clock.Now()));
+			// Long enough for the sliding window counter's previous window too
+			clock.AdvanceSeconds(2 * anHour);
+			assertTrue(arl.IsAttemptRateLimited(identity, aLot).isEmpty());
+		}
+	}
+
+	@Test
+	void HugeCostsSaturateRatherThanWrapTest() {
+		RateLimitingAlgorithm[] gcras = {RateLimitingAlgorithm.GCRA, RateLimitingAlgorithm.OffHeapGCRA, RateLimitingAlgorithm.MultiTierGCRA, null};
+		for(RateLimitingAlgorithm algorithm : gcras) {
+			ManualClock clock = new ManualClock();
+			RateLimitingBehaviour behaviour = new RateLimitingBehaviour(aLot, anHour, algorithm == null ? RateLimitingAlgorithm.GCRA : algorithm);
+			AbstractRateLimiter<?> arl = algorithm == null ? new DataStoreGCRARateLimiter(behaviour, new InMemoryDataStore(), clock) : AbstractRateLimiter.NewRateLimiter(behaviour, clock);
+			RateLimitedIdentity identity = NewTestRateLimitedUser();
+			assertTrue(arl.IsAttemptRateLimited(identity).isEmpty());
+			arl.ReconcileAttempt(identity, 1_000_000_000, aLot, anHour);
+			assertFalse(arl.IsAttemptRateLimited(identity).isEmpty());
+			// Debited past the window, so still waiting a window later
+			clock.AdvanceSeconds(anHour);
+			assertFalse(arl.IsAttemptRateLimited(identity).isEmpty());
+			assertFalse(arl.RecordNewAttempt(NewTestRateLimitedIP(), Integer.MAX_VALUE, aLot, anHour));
+			assertTrue(arl.TryAdmit(1L, Integer.MAX_VALUE) != AbstractRateLimiter.Admitted);
+			assertTrue(arl.TryAdmit(1L) == AbstractRateLimiter.Admitted);
+		}
+	}
+
+	@Test
+	void CostlyAttemptsAreRecordedOnceTest() {
+		RingBufferRateLimitingMap ring = new RingBufferRateLimitingMap();
+		assertTrue(ring.TryRecordAttempt(testUser, 1_000_000, 1_000_000, anHour, 0L));
+		assertTrue(ring.CountAttempts(testUser) == 1);
+		assertFalse(ring.TryRecordAttempt(testUser, 1_000_000, anHour, 1L));
+		FixedWindowRateLimitingMap log = new FixedWindowRateLimitingMap(new ManualClock());
+		assertTrue(log.TryRecordAttempt(testUser, aLot, aLot, anHour) != null);
+		assertTrue(log.ExtraCost(testUser) == aLot - 1);
+		assertTrue(log.TryRecordAttempt(testUser, aLot, anHour) == null);
+	}
+
+	@Test
+	void CostlyAttemptsAreDecidedAgainstEveryTierTest() {
+		ManualClock clock = new ManualClock();
+		AbstractRateLimiter<?> arl = AbstractRateLimiter.NewRateLimiter(new RateLimitingBehaviour(new RateLimitTier(aLot, 1), new RateLimitTier(aLot, anHour)), clock);
+		assertTrue(arl.IsAttemptRateLimited(NewTestRateLimitedUser(), aLot).isEmpty());
+		clock.AdvanceSeconds(1);
+		// The burst tier has refilled, but not the hourly quota
+		assertFalse(arl.IsAttemptRateLimited(NewTestRateLimitedUser()).isEmpty());
+	}
+
+	@Test
+	void RoutesCostWhatTheyAreRegisteredWithTest() {
+		RouteRegistry routes = new RouteRegistry();
+		int user = routes.Register("GET /users/{id}");
+		int search = routes.Register("GET /search", aLot);
+		assertTrue(routes.Cost(user) == RouteRegistry.StandardCost);
+		assertTrue(routes.Cost(search) == aLot);
+		assertTrue(routes.Cost(RouteRegistry.NoRoute) == RouteRegistry.StandardCost);
+		assertTrue(routes.Register("GET /search") == search && routes.Cost(search) == aLot);
+		assertThrows(IllegalArgumentException.class, () -> routes.Register("GET /users/{id}", 0));
+	}
+
+}